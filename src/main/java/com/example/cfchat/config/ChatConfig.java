@@ -4,10 +4,29 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Configuration
 @ConfigurationProperties(prefix = "app.chat")
 @Data
 public class ChatConfig {
     private String defaultProvider = "openai";
     private String systemPrompt = "You are a helpful AI assistant.";
+    private Context context = new Context();
+    /** Overall deadline for concurrent prompt enrichment (wiki, documents, linked pages). */
+    private long enrichmentBudgetMs = 3000;
+
+    /**
+     * Prompt budgeting. The window for a model comes from {@link #modelWindows},
+     * then from the model's advertised metadata, then {@link #defaultWindowTokens}.
+     */
+    @Data
+    public static class Context {
+        private int defaultWindowTokens = 32768;
+        private int reservedOutputTokens = 1024;
+        private Map<String, Integer> modelWindows = new LinkedHashMap<>();
+        /** Optional tiktoken vocabulary (e.g. file:/opt/tokenizer/cl100k_base.tiktoken). */
+        private String tokenizerVocabulary;
+    }
 }
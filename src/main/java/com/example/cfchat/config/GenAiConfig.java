@@ -35,11 +35,12 @@ public class GenAiConfig {
     @Getter
     private final Map<String, ChatModel> chatModels = new LinkedHashMap<>();
 
-    private final Map<String, ChatClient> chatClientCache = new java.util.concurrent.ConcurrentHashMap<>();
-
     @Getter
     private final Map<String, ModelMetadata> modelMetadata = new LinkedHashMap<>();
 
+    // Every service offering a model name, keyed by service name; chatModels keeps the last one
+    private final Map<String, Map<String, ChatModel>> chatModelReplicas = new LinkedHashMap<>();
+
     @Getter
     private final List<GenaiLocator> genaiLocators = new ArrayList<>();
 
@@ -142,6 +143,7 @@ public class GenAiConfig {
                         ChatModel chatModel = locator.getChatModelByName(modelName);
                         if (chatModel != null) {
                             chatModels.put(modelName, chatModel);
+                            addReplica(modelName, serviceName, chatModel);
                             modelMetadata.put(modelName, new ModelMetadata(
                                     modelName,
                                     serviceName,
@@ -221,6 +223,7 @@ public class GenAiConfig {
                     .build();
 
             chatModels.put(modelName, chatModel);
+            addReplica(modelName, serviceName, chatModel);
             modelMetadata.put(modelName, new ModelMetadata(
                     modelName,
                     serviceName,
@@ -281,14 +284,15 @@ public class GenAiConfig {
     }
 
     /**
-     * Get a ChatClient for a specific model (cached).
+     * All ChatModels serving {@code modelName}, keyed by the GenAI service that provides them.
      */
-    public ChatClient getChatClientForModel(String modelName) {
-        ChatModel model = getChatModelByName(modelName);
-        if (model != null) {
-            return chatClientCache.computeIfAbsent(modelName, k -> ChatClient.builder(model).build());
-        }
-        return null;
+    public Map<String, ChatModel> getChatModelReplicas(String modelName) {
+        Map<String, ChatModel> replicas = chatModelReplicas.get(modelName);
+        return replicas != null ? Collections.unmodifiableMap(replicas) : Map.of();
+    }
+
+    private void addReplica(String modelName, String serviceName, ChatModel chatModel) {
+        chatModelReplicas.computeIfAbsent(modelName, name -> new LinkedHashMap<>()).put(serviceName, chatModel);
     }
 
     /**
@@ -0,0 +1,39 @@
+package com.example.cfchat.config;
+
+import com.example.cfchat.service.context.BpeTokenizer;
+import com.example.cfchat.service.context.HeuristicTokenizer;
+import com.example.cfchat.service.context.Tokenizer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.InputStream;
+
+/**
+ * Provides the {@link Tokenizer} used for prompt budgeting. A BPE tokenizer is
+ * built when {@code app.chat.context.tokenizer-vocabulary} points at a readable
+ * tiktoken file; otherwise the length heuristic is used.
+ */
+@Configuration
+@Slf4j
+public class TokenizerConfig {
+
+    @Bean
+    public Tokenizer tokenizer(ChatConfig chatConfig, ResourceLoader resourceLoader) {
+        String location = chatConfig.getContext().getTokenizerVocabulary();
+        if (location != null && !location.isBlank()) {
+            Resource resource = resourceLoader.getResource(location);
+            try (InputStream in = resource.getInputStream()) {
+                Tokenizer tokenizer = BpeTokenizer.fromTiktoken(resource.getFilename(), in);
+                log.info("Loaded BPE tokenizer vocabulary from {}", location);
+                return tokenizer;
+            } catch (Exception e) {
+                log.warn("Could not load tokenizer vocabulary from {}: {} - falling back to heuristic",
+                        location, e.getMessage());
+            }
+        }
+        return new HeuristicTokenizer();
+    }
+}
@@ -684,6 +684,10 @@ public class AdminController {
         defaults.put("banner.text", "");
         defaults.put("banner.type", "info");
         defaults.put("prevent_chat_deletion", "false");
+        defaults.put("response_cache.models", "");
+        defaults.put("response_cache.skills", "");
+        defaults.put("moderation.patterns", "");
+        defaults.put("security.prompt_injection.patterns", "");
 
         for (Map.Entry<String, String> entry : defaults.entrySet()) {
             settings.putIfAbsent(entry.getKey(), entry.getValue());
@@ -716,7 +720,9 @@ public class AdminController {
             "feature.rag.enabled", "feature.tools.enabled", "feature.channels.enabled",
             "wiki.enabled",
             "feature.temporary_chats.enabled", "maintenance.enabled", "maintenance.message",
-            "banner.text", "banner.type", "prevent_chat_deletion"
+            "banner.text", "banner.type", "prevent_chat_deletion",
+            "response_cache.models", "response_cache.skills",
+            "moderation.patterns", "security.prompt_injection.patterns"
         );
 
         if (!validKeys.contains(key)) {
@@ -73,6 +73,7 @@ public class AdminExternalBindingController {
         String apiKey = (String) body.get("apiKey");
         String configUrl = (String) body.get("configUrl");
         String description = (String) body.get("description");
+        Integer contextWindow = parseContextWindow(body.get("contextWindow"));
 
         if (name == null || name.isBlank()) {
             return ResponseEntity.badRequest().body(Map.of("error", "Name is required"));
@@ -103,6 +104,7 @@ public class AdminExternalBindingController {
                     .apiKey(apiKey)
                     .configUrl(configUrl != null && !configUrl.isBlank() ? configUrl : null)
                     .description(description)
+                    .contextWindow(contextWindow)
                     .enabled(true)
                     .build();
 
@@ -172,6 +174,9 @@ public class AdminExternalBindingController {
         if (description != null) {
             existing.setDescription(description);
         }
+        if (body.containsKey("contextWindow")) {
+            existing.setContextWindow(parseContextWindow(body.get("contextWindow")));
+        }
 
         try {
             ExternalBinding saved = externalBindingService.update(existing);
@@ -271,6 +276,24 @@ public class AdminExternalBindingController {
         }
     }
 
+    /**
+     * Accepts a positive token count as a number or numeric string; anything else means unknown.
+     */
+    private Integer parseContextWindow(Object value) {
+        if (value instanceof Number number) {
+            return number.intValue() > 0 ? number.intValue() : null;
+        }
+        if (value instanceof String text && !text.isBlank()) {
+            try {
+                int parsed = Integer.parseInt(text.trim());
+                return parsed > 0 ? parsed : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
     /**
      * Convert binding to response map (never expose apiKey).
      */
@@ -281,6 +304,7 @@ public class AdminExternalBindingController {
         map.put("description", binding.getDescription());
         map.put("apiBase", binding.getApiBase());
         map.put("configUrl", binding.getConfigUrl());
+        map.put("contextWindow", binding.getContextWindow());
         map.put("enabled", binding.isEnabled());
         map.put("createdAt", binding.getCreatedAt());
         map.put("updatedAt", binding.getUpdatedAt());
@@ -11,20 +11,20 @@ import com.example.cfchat.mcp.McpToolCallbackCacheService;
 import com.example.cfchat.model.Tool;
 import com.example.cfchat.model.User;
 import com.example.cfchat.service.ChatService;
+import com.example.cfchat.service.GenerationRegistry;
 import com.example.cfchat.service.McpService;
 import com.example.cfchat.service.SkillService;
+import com.example.cfchat.service.StreamCoalescer;
 import com.example.cfchat.service.ToolService;
+import com.example.cfchat.service.UserEventHub;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.ApplicationListener;
-import org.springframework.context.event.ApplicationEventMulticaster;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
 
 import java.util.*;
 
@@ -34,13 +34,17 @@ import java.util.*;
 @Slf4j
 public class ChatController {
 
+    private static final String GENERATION_ID_HEADER = "X-Generation-Id";
+
     private final ChatService chatService;
     private final UserService userService;
     private final ToolService toolService;
     private final SkillService skillService;
     private final McpService mcpService;
     private final McpToolCallbackCacheService mcpToolCallbackCacheService;
-    private final ApplicationEventMulticaster applicationEventMulticaster;
+    private final StreamCoalescer streamCoalescer;
+    private final GenerationRegistry generationRegistry;
+    private final UserEventHub userEventHub;
 
     @PostMapping
     public ResponseEntity<ChatResponse> chat(@Valid @RequestBody ChatRequest request) {
@@ -50,49 +54,83 @@ public class ChatController {
     }
 
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ServerSentEvent<Object>> chatStream(@Valid @RequestBody ChatRequest request) {
+    public ResponseEntity<Flux<ServerSentEvent<Object>>> chatStream(@Valid @RequestBody ChatRequest request) {
         log.info("Received streaming chat request for conversation: {}, useTools: {}", request.getConversationId(), request.isUseTools());
 
-        // Per-request sink to relay WikiOpEvents from the application context as named SSE events.
-        Sinks.Many<ServerSentEvent<Object>> wikiSink = Sinks.many().multicast().onBackpressureBuffer();
+        UUID currentUserId = userService.getCurrentUser().map(User::getId).orElse(null);
+
+        // Token chunks are batched into compact {"d": ...} frames; the first and last
+        // frames are full ChatResponse objects carrying the metadata. The generation
+        // runs detached from this connection so a dropped client can reattach. Wiki
+        // operations for this user are buffered as named frames of the same generation,
+        // so they are numbered, replayed on reattach, and end when the chat does.
+        Flux<Object> wikiOps = userEventHub.wikiOps(currentUserId, request.getConversationId())
+                .map(WikiOpEvent::getPayload);
+        GenerationRegistry.Generation generation = generationRegistry.start(currentUserId, "message",
+                streamCoalescer.coalesce(chatService.chatStream(request)), "wiki_op", wikiOps);
+
+        return ResponseEntity.ok()
+                .header(GENERATION_ID_HEADER, generation.getId().toString())
+                .body(generation.attach(0).map(this::toServerSentEvent));
+    }
 
+    /**
+     * Reattaches to a running or recently finished generation, replaying every
+     * frame after {@code Last-Event-ID} and then following it live.
+     */
+    @GetMapping(value = "/stream/{generationId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<Object>>> resumeStream(
+            @PathVariable UUID generationId,
+            @RequestHeader(value = "Last-Event-ID", defaultValue = "0") long lastEventId) {
         UUID currentUserId = userService.getCurrentUser().map(User::getId).orElse(null);
-        UUID requestConvId = request.getConversationId();
-
-        ApplicationListener<WikiOpEvent> wikiListener = evt -> {
-            if (currentUserId == null || !currentUserId.equals(evt.getUserId())) return;
-            // Only filter by conversation if the request is bound to one and the event is too.
-            if (requestConvId != null && evt.getConversationId() != null
-                    && !requestConvId.equals(evt.getConversationId())) return;
-            try {
-                wikiSink.tryEmitNext(ServerSentEvent.<Object>builder()
-                        .event("wiki_op")
-                        .data(evt.getPayload())
-                        .build());
-            } catch (Exception ignored) {
-                // sink closed
-            }
-        };
-        applicationEventMulticaster.addApplicationListener(wikiListener);
-
-        // The chat flux drives the lifecycle. When it terminates we *must*
-        // complete the wiki sink, otherwise Flux.merge() will wait forever
-        // (the sink only emits via the listener) and the SSE connection
-        // never closes — frontend hangs in "streaming" state until cancel.
-        Flux<ServerSentEvent<Object>> chatFlux = chatService.chatStream(request)
-                .map(resp -> ServerSentEvent.<Object>builder()
-                        .event("message")
-                        .data(resp)
-                        .build())
-                .doFinally(sig -> wikiSink.tryEmitComplete());
-
-        return Flux.merge(chatFlux, wikiSink.asFlux())
-                .doFinally(sig -> applicationEventMulticaster.removeApplicationListener(wikiListener));
+        Optional<GenerationRegistry.Generation> generation = generationRegistry.find(generationId, currentUserId);
+        if (generation.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        log.debug("Reattaching to generation {} after event {}", generationId, lastEventId);
+        return ResponseEntity.ok()
+                .header(GENERATION_ID_HEADER, generationId.toString())
+                .body(generation.get().attach(lastEventId)
+                        .map(this::toServerSentEvent)
+                        .onErrorResume(GenerationRegistry.FramesEvictedException.class, e -> Flux.just(
+                                ServerSentEvent.<Object>builder()
+                                        .event("message")
+                                        .data(ChatResponse.builder().error("Stream can no longer be resumed").complete(true).build())
+                                        .build())));
+    }
+
+    @DeleteMapping("/stream/{generationId}")
+    public ResponseEntity<Void> cancelStream(@PathVariable UUID generationId) {
+        return cancelGeneration(generationId);
+    }
+
+    /**
+     * Stops a generation: the provider stream is torn down and the text produced
+     * so far is saved as a truncated assistant message.
+     */
+    @PostMapping("/{generationId}/cancel")
+    public ResponseEntity<Void> cancelGeneration(@PathVariable UUID generationId) {
+        UUID currentUserId = userService.getCurrentUser().map(User::getId).orElse(null);
+        Optional<GenerationRegistry.Generation> generation = generationRegistry.find(generationId, currentUserId);
+        if (generation.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        generation.get().cancel();
+        return ResponseEntity.noContent().build();
+    }
+
+    private ServerSentEvent<Object> toServerSentEvent(GenerationRegistry.Frame frame) {
+        return ServerSentEvent.<Object>builder()
+                .id(Long.toString(frame.id()))
+                .event(frame.event())
+                .data(frame.data())
+                .build();
     }
 
     @GetMapping("/models")
     public ResponseEntity<List<ModelInfo>> getModels() {
-        return ResponseEntity.ok(chatService.getAvailableModels());
+        String role = userService.getCurrentUser().map(u -> u.getRole().name()).orElse(null);
+        return ResponseEntity.ok(chatService.getAvailableModels(role));
     }
 
     @GetMapping("/available-tools")
@@ -5,15 +5,19 @@ import com.example.cfchat.dto.DocumentUploadResponse;
 import com.example.cfchat.dto.UserDocumentDto;
 import com.example.cfchat.model.User;
 import com.example.cfchat.service.DocumentEmbeddingService;
+import com.example.cfchat.service.DocumentIngestionPipeline;
 import com.example.cfchat.model.UserDocument;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
 import java.io.InputStream;
 import java.util.List;
@@ -48,7 +52,8 @@ public class DocumentController {
     }
 
     /**
-     * Upload a document for embedding.
+     * Upload a document for embedding. Processing continues in the background;
+     * the returned document id doubles as the job id for {@code /{documentId}/progress}.
      */
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<DocumentUploadResponse> uploadDocument(
@@ -69,7 +74,16 @@ public class DocumentController {
         try {
             log.info("User {} uploading document: {}", user.getId(), file.getOriginalFilename());
             DocumentUploadResponse response = documentService.uploadDocument(user.getId(), file);
-            return ResponseEntity.ok(response);
+            return ResponseEntity.accepted().body(response);
+        } catch (DocumentIngestionPipeline.QueueFullException e) {
+            log.warn("Rejected document upload from user {}: {}", user.getId(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "10")
+                    .body(DocumentUploadResponse.builder()
+                            .filename(file.getOriginalFilename())
+                            .status("ERROR")
+                            .message(e.getMessage())
+                            .build());
         } catch (IllegalArgumentException e) {
             log.warn("Invalid document upload from user {}: {}", user.getId(), e.getMessage());
             return ResponseEntity.badRequest().body(
@@ -91,6 +105,30 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Stream ingestion progress for a document as {@code progress} events. The
+     * stream ends after the COMPLETED or FAILED event; for a document processed
+     * on another instance it follows the stored status, and for a finished one it
+     * carries a single event.
+     */
+    @GetMapping(value = "/{documentId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<DocumentIngestionPipeline.Progress>>> streamProgress(
+            @PathVariable UUID documentId) {
+        User user = userService.getCurrentUser()
+                .orElseThrow(() -> new IllegalStateException("User not authenticated"));
+
+        if (documentService.getUserDocument(user.getId(), documentId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok(documentService.getIngestionProgress(documentId)
+                .map(progress -> ServerSentEvent.<DocumentIngestionPipeline.Progress>builder()
+                        .id(String.valueOf(progress.sequence()))
+                        .event("progress")
+                        .data(progress)
+                        .build()));
+    }
+
     /**
      * Get all documents for the current user.
      */
@@ -1,5 +1,6 @@
 package com.example.cfchat.controller;
 
+import com.example.cfchat.service.ModelAdmissionController;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -38,6 +39,14 @@ public class GlobalExceptionHandler {
                 .body(Map.of("error", "Service temporarily unavailable"));
     }
 
+    @ExceptionHandler(ModelAdmissionController.ModelOverloadedException.class)
+    public ResponseEntity<Map<String, String>> handleModelOverloaded(ModelAdmissionController.ModelOverloadedException ex) {
+        log.warn("Admission rejected: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header("Retry-After", "5")
+                .body(Map.of("error", ex.getMessage()));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, String>> handleGeneral(Exception ex) {
         log.error("Unexpected error", ex);
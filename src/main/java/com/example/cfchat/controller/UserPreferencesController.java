@@ -192,11 +192,12 @@ public class UserPreferencesController {
     /**
      * Allowed RAG retrieval modes.
      */
-    private static final List<String> RAG_RETRIEVAL_MODES = List.of("snippet", "full");
+    private static final List<String> RAG_RETRIEVAL_MODES = List.of("snippet", "window", "full");
 
     /**
      * Set the user's RAG retrieval mode preference.
      * "snippet" returns individual matched text chunks (default).
+     * "window" returns each matched chunk with its neighbouring chunks.
      * "full" returns the entire parent document when a chunk matches.
      */
     @PutMapping("/rag-retrieval-mode")
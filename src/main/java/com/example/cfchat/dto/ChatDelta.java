@@ -0,0 +1,7 @@
+package com.example.cfchat.dto;
+
+/**
+ * Compact SSE frame carrying only streamed text. Sent between the first and
+ * last {@link ChatResponse} frames of a stream, which carry the metadata.
+ */
+public record ChatDelta(String d) {}
@@ -51,6 +51,7 @@ public class ChatRequest {
 
     /**
      * RAG retrieval mode: "snippet" (default) returns individual matching chunks,
+     * "window" returns each matching chunk with its neighbours,
      * "full" returns all chunks from matched parent documents grouped together.
      * When null, falls back to the server-configured default (rag.retrieval-mode).
      */
@@ -7,6 +7,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Data
@@ -30,9 +31,15 @@ public class ChatResponse {
     private Double tokensPerSecond;
     private Long totalResponseTimeMs;
 
+    // Position in the model's admission queue while waiting for a slot
+    private Integer queuePosition;
+
     // RAG citation metadata
     private List<CitationMeta> citations;
 
+    // Prompt enrichment outcome per source (ok, empty, timed_out, failed)
+    private Map<String, String> enrichment;
+
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
@@ -19,6 +19,7 @@ public class MessageDto {
     private String content;
     private String htmlContent;
     private String modelUsed;
+    private boolean truncated;
     private LocalDateTime createdAt;
 
     public static MessageDto fromEntity(Message message) {
@@ -27,6 +28,7 @@ public class MessageDto {
                 .role(message.getRole().name().toLowerCase())
                 .content(message.getContent())
                 .modelUsed(message.getModelUsed())
+                .truncated(Boolean.TRUE.equals(message.getTruncated()))
                 .createdAt(message.getCreatedAt())
                 .build();
     }
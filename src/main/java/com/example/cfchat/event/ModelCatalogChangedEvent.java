@@ -0,0 +1,19 @@
+package com.example.cfchat.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published whenever the set of available chat models or the rules governing
+ * who may see them change, so {@link com.example.cfchat.service.ModelRegistry}
+ * can rebuild its snapshot.
+ */
+public class ModelCatalogChangedEvent extends ApplicationEvent {
+    private final String reason;
+
+    public ModelCatalogChangedEvent(Object source, String reason) {
+        super(source);
+        this.reason = reason;
+    }
+
+    public String getReason() { return reason; }
+}
@@ -55,6 +55,25 @@ public class Conversation {
     @Column(name = "folder_id")
     private String folderId;
 
+    /**
+     * Highest message sequence number handed out so far. Only advanced by the
+     * bulk UPDATE in {@code ConversationRepository.reserveSequenceNumbers}, never
+     * by entity saves, so a stale in-memory copy cannot roll it back.
+     */
+    @Column(name = "last_sequence_number", updatable = false)
+    private Integer lastSequenceNumber;
+
+    /**
+     * Rolling summary of every message up to and including the watermark message;
+     * the prompt carries it in place of those turns. Only written by
+     * {@code ConversationRepository.updateSummary}.
+     */
+    @Column(name = "summary", columnDefinition = "TEXT", updatable = false)
+    private String summary;
+
+    @Column(name = "summary_watermark_id", updatable = false)
+    private UUID summaryWatermarkId;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "organization_id")
     private Organization organization;
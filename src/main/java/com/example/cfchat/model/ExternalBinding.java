@@ -36,6 +36,10 @@ public class ExternalBinding {
     @Column(name = "config_url")
     private String configUrl;
 
+    /** Context window in tokens for the models served by this binding; null means unknown. */
+    @Column(name = "context_window")
+    private Integer contextWindow;
+
     @Column(nullable = false)
     @Builder.Default
     private boolean enabled = true;
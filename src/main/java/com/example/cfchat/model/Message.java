@@ -11,7 +11,8 @@ import java.util.UUID;
 
 @Entity
 @Table(name = "messages", indexes = {
-        @Index(name = "idx_messages_conversation_id", columnList = "conversation_id")
+        @Index(name = "idx_messages_conversation_id", columnList = "conversation_id"),
+        @Index(name = "idx_messages_conversation_created_at", columnList = "conversation_id, created_at")
 })
 @Data
 @NoArgsConstructor
@@ -56,6 +57,11 @@ public class Message {
     @Builder.Default
     private Boolean favorited = false;
 
+    // The generation was stopped or failed before it finished; content is what arrived until then
+    @Column(name = "truncated")
+    @Builder.Default
+    private Boolean truncated = false;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
@@ -65,7 +71,10 @@ public class Message {
 
     @PrePersist
     protected void onCreate() {
-        createdAt = LocalDateTime.now();
+        // Messages persisted after the fact (streamed replies) arrive already dated
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
     }
 
     public enum MessageRole {
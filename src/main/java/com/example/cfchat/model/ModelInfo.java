@@ -15,4 +15,6 @@ public class ModelInfo {
     private String provider;
     private String description;
     private boolean available;
+    /** Context window in tokens, or null when the backend does not advertise one. */
+    private Integer contextWindow;
 }
@@ -58,6 +58,10 @@ public class UsageMetric {
     @Column(name = "tokens_per_second")
     private Double tokensPerSecond;
 
+    // A second backend was raced against a slow first token
+    @Column(name = "hedged")
+    private Boolean hedged;
+
     @Column(name = "timestamp", nullable = false)
     private LocalDateTime timestamp;
 
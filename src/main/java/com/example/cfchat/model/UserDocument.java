@@ -66,6 +66,24 @@ public class UserDocument {
     @Column(name = "shared")
     private Boolean shared;
 
+    /**
+     * The instance processing this document and until when its claim holds.
+     * Another instance resumes a PENDING or PROCESSING document only once the
+     * lease has run out, i.e. its owner stopped renewing it.
+     */
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+
+    /**
+     * Sequence number of the ingestion progress event that matches the stored
+     * status, so progress read back from here continues the owning job's numbering.
+     */
+    @Column(name = "progress_sequence")
+    private Long progressSequence;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -28,6 +29,8 @@ public interface ConversationRepository extends JpaRepository<Conversation, UUID
     @Query("SELECT c FROM Conversation c LEFT JOIN FETCH c.messages WHERE c.id = :id AND c.userId = :userId")
     Optional<Conversation> findByIdAndUserIdWithMessages(UUID id, UUID userId);
 
+    Optional<Conversation> findByIdAndUserId(UUID id, UUID userId);
+
     @Query("SELECT c FROM Conversation c WHERE c.title LIKE %:keyword% ORDER BY c.updatedAt DESC")
     List<Conversation> searchByTitle(String keyword);
 
@@ -54,6 +57,32 @@ public interface ConversationRepository extends JpaRepository<Conversation, UUID
     @Query("UPDATE Conversation c SET c.archived = true WHERE c.userId = :uid AND (c.archived = false OR c.archived IS NULL)")
     int archiveAllByUserId(@Param("uid") UUID uid);
 
+    /**
+     * Reserves {@code count} message sequence numbers and bumps updatedAt in a single
+     * statement. Returns 0 when the conversation does not exist. A conversation whose
+     * counter was never set (messages written before sequencing) is seeded from its
+     * existing messages, so new numbers continue after them rather than restarting at 1.
+     */
+    @Modifying
+    @Query("UPDATE Conversation c SET c.lastSequenceNumber = CASE WHEN c.lastSequenceNumber IS NULL " +
+            "THEN (SELECT GREATEST(COUNT(m), COALESCE(MAX(m.sequenceNumber), 0)) FROM Message m " +
+            "WHERE m.conversation.id = c.id) ELSE c.lastSequenceNumber END + :count, " +
+            "c.updatedAt = :now WHERE c.id = :id")
+    int reserveSequenceNumbers(@Param("id") UUID id, @Param("count") int count, @Param("now") LocalDateTime now);
+
+    @Query("SELECT c.lastSequenceNumber FROM Conversation c WHERE c.id = :id")
+    Integer findLastSequenceNumber(@Param("id") UUID id);
+
+    /**
+     * Stores a new rolling summary, provided the watermark has not moved since it was read.
+     * Returns 0 when another compaction got there first.
+     */
+    @Modifying
+    @Query("UPDATE Conversation c SET c.summary = :summary, c.summaryWatermarkId = :watermark " +
+            "WHERE c.id = :id AND (c.summaryWatermarkId = :previous OR (:previous IS NULL AND c.summaryWatermarkId IS NULL))")
+    int updateSummary(@Param("id") UUID id, @Param("summary") String summary,
+                      @Param("watermark") UUID watermark, @Param("previous") UUID previous);
+
     long countByFolderId(String folderId);
 
     List<Conversation> findByFolderIdOrderByUpdatedAtDesc(String folderId);
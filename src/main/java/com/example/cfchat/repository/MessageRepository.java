@@ -1,9 +1,13 @@
 package com.example.cfchat.repository;
 
 import com.example.cfchat.model.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
@@ -17,4 +21,45 @@ public interface MessageRepository extends JpaRepository<Message, UUID> {
 
     List<Message> findByConversationIdInAndFavoritedTrue(List<UUID> conversationIds);
     long countByConversationId(UUID conversationId);
+
+    /**
+     * Newest-first page of a conversation's active messages. Served by the
+     * (conversation_id, created_at) index, so only the requested rows are read.
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND (m.active = true OR m.active IS NULL) " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findLatestActive(@Param("conversationId") UUID conversationId, Pageable pageable);
+
+    /**
+     * Keyset continuation of {@link #findLatestActive}: the next newest-first page
+     * strictly older than the (createdAt, id) cursor.
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND (m.active = true OR m.active IS NULL) " +
+            "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findActiveBefore(@Param("conversationId") UUID conversationId,
+                                   @Param("createdAt") LocalDateTime createdAt,
+                                   @Param("id") UUID id,
+                                   Pageable pageable);
+
+    /**
+     * A conversation's active messages, oldest first.
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND (m.active = true OR m.active IS NULL) " +
+            "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findActiveFromStart(@Param("conversationId") UUID conversationId);
+
+    /**
+     * Active messages strictly newer than the (createdAt, id) cursor, oldest first.
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND (m.active = true OR m.active IS NULL) " +
+            "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id)) " +
+            "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findActiveAfter(@Param("conversationId") UUID conversationId,
+                                  @Param("createdAt") LocalDateTime createdAt,
+                                  @Param("id") UUID id);
 }
@@ -3,10 +3,14 @@ package com.example.cfchat.repository;
 import com.example.cfchat.model.UserDocument;
 import com.example.cfchat.model.UserDocument.DocumentStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -58,6 +62,39 @@ public interface UserDocumentRepository extends JpaRepository<UserDocument, UUID
      */
     List<UserDocument> findByStatusOrderByCreatedAtAsc(DocumentStatus status);
 
+    /**
+     * Atomic claim of an unfinished document for processing. Returns 1 iff the
+     * document is still in one of {@code statuses} and its lease is unset or ran
+     * out before {@code now}; instances racing for the same document get 0 and
+     * must leave it alone.
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("""
+        UPDATE UserDocument d
+           SET d.leaseOwner = :owner,
+               d.leaseUntil = :until
+         WHERE d.id = :id
+           AND d.status IN :statuses
+           AND (d.leaseUntil IS NULL OR d.leaseUntil < :now)
+        """)
+    int claimLease(@Param("id") UUID id,
+                   @Param("owner") String owner,
+                   @Param("until") LocalDateTime until,
+                   @Param("now") LocalDateTime now,
+                   @Param("statuses") Collection<DocumentStatus> statuses);
+
+    /**
+     * Extends the leases {@code owner} still holds; documents claimed by another
+     * instance in the meantime are left untouched.
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE UserDocument d SET d.leaseUntil = :until WHERE d.id IN :ids AND d.leaseOwner = :owner")
+    int renewLeases(@Param("ids") Collection<UUID> ids,
+                    @Param("owner") String owner,
+                    @Param("until") LocalDateTime until);
+
     /**
      * Delete all documents for a user.
      */
@@ -67,4 +104,17 @@ public interface UserDocumentRepository extends JpaRepository<UserDocument, UUID
      * Find all shared documents, ordered by creation date descending.
      */
     List<UserDocument> findBySharedTrueOrderByCreatedAtDesc();
+
+    /**
+     * IDs of shared documents with a specific status.
+     */
+    @Query("SELECT d.id FROM UserDocument d WHERE d.shared = true AND d.status = :status")
+    List<UUID> findSharedDocumentIds(@Param("status") DocumentStatus status);
+
+    /**
+     * Count the chunks a user's document search can reach: their own documents plus shared ones.
+     */
+    @Query("SELECT COALESCE(SUM(d.chunkCount), 0) FROM UserDocument d " +
+            "WHERE (d.user.id = :userId OR d.shared = true) AND d.status = :status")
+    long countSearchableChunks(@Param("userId") UUID userId, @Param("status") DocumentStatus status);
 }
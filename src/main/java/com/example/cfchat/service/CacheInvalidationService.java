@@ -1,8 +1,10 @@
 package com.example.cfchat.service;
 
+import com.example.cfchat.event.ModelCatalogChangedEvent;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,6 +22,7 @@ public class CacheInvalidationService {
 
     private final EventService eventService;
     private final SystemSettingService systemSettingService;
+    private final ApplicationEventPublisher eventPublisher;
 
     // Simple generation counters to let callers detect staleness
     private final AtomicLong settingsGeneration = new AtomicLong(0);
@@ -31,6 +34,7 @@ public class CacheInvalidationService {
     public static final String CHANNEL_SETTINGS = "cache.settings";
     public static final String CHANNEL_MODELS = "cache.models";
     public static final String CHANNEL_USERS = "cache.users";
+    public static final String CHANNEL_SKILLS = "cache.skills";
 
     @PostConstruct
     void init() {
@@ -43,6 +47,7 @@ public class CacheInvalidationService {
         eventService.subscribe(CHANNEL_MODELS, (channel, message) -> {
             log.info("Models cache invalidated by cluster event: {}", message);
             modelsGeneration.incrementAndGet();
+            eventPublisher.publishEvent(new ModelCatalogChangedEvent(this, "cluster event: " + message));
         });
 
         eventService.subscribe(CHANNEL_USERS, (channel, message) -> {
@@ -0,0 +1,227 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.config.GenAiConfig;
+import com.example.cfchat.event.ModelCatalogChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientCustomizer;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Single home for per-model {@link ChatClient} instances. Clients are built once
+ * per (backend, model) with the shared {@link ChatClientCustomizer} defaults and
+ * reused across requests; entries are dropped when the backing {@link ChatModel}
+ * is replaced (binding update, reload or removal). Each client exposes an
+ * in-flight request gauge ({@code cfllama.chat.client.inflight}).
+ */
+@Service
+@Slf4j
+public class ChatClientPool {
+
+    static final String GENAI_BACKEND = "genai";
+
+    private final GenAiConfig genAiConfig;
+    private final ExternalBindingService externalBindingService;
+    private final List<ChatClientCustomizer> customizers;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<ClientKey, PooledChatClient> clients = new ConcurrentHashMap<>();
+
+    public ChatClientPool(
+            @Autowired(required = false) GenAiConfig genAiConfig,
+            @Autowired(required = false) ExternalBindingService externalBindingService,
+            ObjectProvider<ChatClientCustomizer> customizers,
+            @Autowired(required = false) MeterRegistry meterRegistry) {
+        this.genAiConfig = genAiConfig;
+        this.externalBindingService = externalBindingService;
+        this.customizers = customizers.orderedStream().toList();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param backend binding id for external models, {@code genai} for VCAP models
+     *                ({@code genai:<service>} when routed to one service), or the
+     *                provider name for the application-wide default clients
+     */
+    public record ClientKey(String backend, String model) {}
+
+    /**
+     * Client for a model served by an external binding, or null if no binding provides it.
+     */
+    public PooledChatClient forExternalModel(String modelName) {
+        if (externalBindingService == null || modelName == null) {
+            return null;
+        }
+        ChatModel model = externalBindingService.getChatModelByName(modelName);
+        if (model == null) {
+            return null;
+        }
+        ExternalBindingService.ExternalModelMetadata metadata = externalBindingService.getModelMetadata().get(modelName);
+        String backend = metadata != null && metadata.bindingId() != null ? metadata.bindingId().toString() : "external";
+        return obtain(new ClientKey(backend, modelName), model);
+    }
+
+    /**
+     * Client for a model discovered through the VCAP GenAI services, or null if none are bound.
+     */
+    public PooledChatClient forGenAiModel(String modelName) {
+        if (genAiConfig == null || modelName == null) {
+            return null;
+        }
+        ChatModel model = genAiConfig.getChatModelByName(modelName);
+        return model != null ? obtain(new ClientKey(GENAI_BACKEND, modelName), model) : null;
+    }
+
+    /**
+     * Client for one specific backend serving {@code modelName}, as picked by {@link ModelRouter}.
+     */
+    public PooledChatClient forBackend(String backend, String modelName, ChatModel model) {
+        return obtain(new ClientKey(backend, modelName), model);
+    }
+
+    /**
+     * Registers an application-level ChatClient bean (primary, Ollama) so it gets the
+     * same in-flight accounting as pooled clients.
+     */
+    public PooledChatClient forDefaultClient(String provider, ChatClient client) {
+        if (client == null) {
+            return null;
+        }
+        ClientKey key = new ClientKey(provider.toLowerCase(), "default");
+        PooledChatClient pooled = clients.get(key);
+        if (pooled != null && pooled.client() == client) {
+            return pooled;
+        }
+        return clients.compute(key, (k, existing) -> {
+            if (existing != null && existing.client() == client) {
+                return existing;
+            }
+            release(existing);
+            return register(k, null, client);
+        });
+    }
+
+    /**
+     * Drops clients whose backing model has been replaced or removed since they were built.
+     */
+    @EventListener
+    public void onModelCatalogChanged(ModelCatalogChangedEvent event) {
+        clients.entrySet().removeIf(entry -> {
+            PooledChatClient pooled = entry.getValue();
+            if (pooled.chatModel() == null || currentModel(entry.getKey()) == pooled.chatModel()) {
+                return false;
+            }
+            log.debug("Evicting pooled ChatClient {} ({})", entry.getKey(), event.getReason());
+            release(pooled);
+            return true;
+        });
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    private PooledChatClient obtain(ClientKey key, ChatModel model) {
+        PooledChatClient pooled = clients.get(key);
+        if (pooled != null && pooled.chatModel() == model) {
+            return pooled;
+        }
+        // Missing, or built for a ChatModel the binding has since replaced
+        return clients.compute(key, (k, existing) -> {
+            if (existing != null && existing.chatModel() == model) {
+                return existing;
+            }
+            release(existing);
+            ChatClient.Builder builder = ChatClient.builder(model);
+            customizers.forEach(customizer -> customizer.customize(builder));
+            log.debug("Built pooled ChatClient for {}", k);
+            return register(k, model, builder.build());
+        });
+    }
+
+    private ChatModel currentModel(ClientKey key) {
+        if (GENAI_BACKEND.equals(key.backend())) {
+            return genAiConfig != null ? genAiConfig.getChatModelByName(key.model()) : null;
+        }
+        if (key.backend().startsWith(GENAI_BACKEND + ":")) {
+            String service = key.backend().substring(GENAI_BACKEND.length() + 1);
+            return genAiConfig != null ? genAiConfig.getChatModelReplicas(key.model()).get(service) : null;
+        }
+        if (externalBindingService == null) {
+            return null;
+        }
+        // Several bindings may serve the same name; check the one this client was built for
+        ChatModel replica = externalBindingService.getChatModelReplicas(key.model()).get(key.backend());
+        return replica != null ? replica : externalBindingService.getChatModelByName(key.model());
+    }
+
+    private PooledChatClient register(ClientKey key, ChatModel model, ChatClient client) {
+        PooledChatClient pooled = new PooledChatClient(key, model, client);
+        if (meterRegistry != null) {
+            pooled.gauge = Gauge.builder("cfllama.chat.client.inflight", pooled.inFlight, AtomicInteger::get)
+                    .description("Chat requests currently in flight per client")
+                    .tag("backend", key.backend())
+                    .tag("model", key.model())
+                    .register(meterRegistry);
+        }
+        return pooled;
+    }
+
+    private void release(PooledChatClient pooled) {
+        if (pooled != null && pooled.gauge != null && meterRegistry != null) {
+            meterRegistry.remove(pooled.gauge);
+        }
+    }
+
+    /**
+     * A cached client plus its in-flight counter. Wrap calls with {@link #call(Supplier)}
+     * or {@link #stream(Supplier)} so the gauge reflects concurrent use.
+     */
+    public static final class PooledChatClient {
+        private final ClientKey key;
+        private final ChatModel chatModel;
+        private final ChatClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private Gauge gauge;
+
+        PooledChatClient(ClientKey key, ChatModel chatModel, ChatClient client) {
+            this.key = key;
+            this.chatModel = chatModel;
+            this.client = client;
+        }
+
+        public ClientKey key() { return key; }
+        public ChatModel chatModel() { return chatModel; }
+        public ChatClient client() { return client; }
+        public int inFlight() { return inFlight.get(); }
+
+        public <T> T call(Supplier<T> call) {
+            inFlight.incrementAndGet();
+            try {
+                return call.get();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        public <T> Flux<T> stream(Supplier<Flux<T>> stream) {
+            return Flux.defer(() -> {
+                inFlight.incrementAndGet();
+                return stream.get();
+            }).doFinally(signal -> inFlight.decrementAndGet());
+        }
+    }
+}
@@ -63,8 +63,13 @@ public class ChatExportService {
             Conversation c = convService.createConversation(
                     dto.title() + " (imported)", null, dto.modelName(), userId);
             if (dto.messages() != null) {
-                dto.messages().forEach(m -> convService.addMessage(
-                        c.getId(), Message.MessageRole.valueOf(m.role()), m.content(), m.modelUsed()));
+                convService.appendMessages(c.getId(), dto.messages().stream()
+                        .map(m -> Message.builder()
+                                .role(Message.MessageRole.valueOf(m.role()))
+                                .content(m.content())
+                                .modelUsed(m.modelUsed())
+                                .build())
+                        .toList());
             }
             return c.getId();
         }).toList();
@@ -9,8 +9,12 @@ import com.example.cfchat.mcp.McpToolCallbackCacheService;
 import com.example.cfchat.model.Conversation;
 import com.example.cfchat.model.Message;
 import com.example.cfchat.model.ModelInfo;
-import com.example.cfchat.model.Skill;
 import com.example.cfchat.model.User;
+import com.example.cfchat.service.context.ContextBudgetPlanner;
+import com.example.cfchat.service.context.ContextContribution;
+import com.example.cfchat.service.context.ContextContributor;
+import com.example.cfchat.service.context.ContextEnricher;
+import com.example.cfchat.service.context.PromptPrefixCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
@@ -21,22 +25,34 @@ import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.ollama.OllamaChatModel;
 import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import com.example.cfchat.config.GenAiConfig;
 import com.example.cfchat.service.ExternalBindingService;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -67,19 +83,40 @@ public class ChatService {
     private final ThinkingOptionsBuilder thinkingOptionsBuilder;
     private final ContentModerationService contentModerationService;
     private final PromptInjectionDetector promptInjectionDetector;
+    private final ContextBudgetPlanner contextBudgetPlanner;
+    private final ModelRegistry modelRegistry;
+    private final ChatClientPool chatClientPool;
+    private final ContextEnricher contextEnricher;
+    private final StreamFinalizer streamFinalizer;
+    private final ModelAdmissionController admissionController;
+    private final ModelRouter modelRouter;
+    private final StreamHedger streamHedger;
+    private final PromptPrefixCache promptPrefixCache;
+    private final ConversationSummarizer conversationSummarizer;
+    private final ResponseCache responseCache;
+    private final GenerationCoalescer generationCoalescer;
 
     private static final Pattern YT_RAG_PATTERN = Pattern.compile("#\\s*(https?://(?:www\\.)?(?:youtube\\.com/watch\\?v=|youtu\\.be/)[\\w-]{11}\\S*)");
     private static final Pattern WEB_RAG_PATTERN = Pattern.compile("#\\s*(https?://\\S+)");
-
-    @Value("${spring.profiles.active:default}")
-    private String activeProfile;
+    private static final String OUTPUT_WITHHELD_NOTICE =
+            "This response was stopped because it matched the content safety policy.";
 
     @Value("${app.documents.rag-top-k:5}")
     private int ragTopK;
 
+    // Chunks on each side of a hit in "window" retrieval mode
+    @Value("${rag.window-radius:1}")
+    private int ragWindowRadius = 1;
+
     @Value("${app.chat.streaming-timeout-minutes:10}")
     private int streamingTimeoutMinutes;
 
+    @Value("${app.chat.history.max-messages:50}")
+    private int maxHistoryMessages = 50;
+
+    @Value("${app.chat.history.max-tokens:0}")
+    private int maxHistoryTokens;
+
     public ChatService(
             @Autowired(required = false) ChatClient primaryChatClient,
             @Autowired(required = false) OpenAiChatModel openAiChatModel,
@@ -103,7 +140,19 @@ public class ChatService {
             @Autowired(required = false) ContentModerationService contentModerationService,
             @Autowired(required = false) PromptInjectionDetector promptInjectionDetector,
             ThinkingOptionsBuilder thinkingOptionsBuilder,
-            RagPromptBuilder ragPromptBuilder) {
+            RagPromptBuilder ragPromptBuilder,
+            ContextBudgetPlanner contextBudgetPlanner,
+            ModelRegistry modelRegistry,
+            ChatClientPool chatClientPool,
+            ContextEnricher contextEnricher,
+            StreamFinalizer streamFinalizer,
+            ModelAdmissionController admissionController,
+            ModelRouter modelRouter,
+            StreamHedger streamHedger,
+            PromptPrefixCache promptPrefixCache,
+            @Autowired(required = false) ConversationSummarizer conversationSummarizer,
+            @Autowired(required = false) ResponseCache responseCache,
+            GenerationCoalescer generationCoalescer) {
         this.primaryChatClient = primaryChatClient;
         // Use OpenAI model as primary for streaming
         this.primaryChatModel = openAiChatModel;
@@ -128,6 +177,18 @@ public class ChatService {
         this.contentModerationService = contentModerationService;
         this.promptInjectionDetector = promptInjectionDetector;
         this.thinkingOptionsBuilder = thinkingOptionsBuilder;
+        this.contextBudgetPlanner = contextBudgetPlanner;
+        this.modelRegistry = modelRegistry;
+        this.chatClientPool = chatClientPool;
+        this.contextEnricher = contextEnricher;
+        this.streamFinalizer = streamFinalizer;
+        this.admissionController = admissionController;
+        this.modelRouter = modelRouter;
+        this.streamHedger = streamHedger;
+        this.promptPrefixCache = promptPrefixCache;
+        this.conversationSummarizer = conversationSummarizer;
+        this.responseCache = responseCache;
+        this.generationCoalescer = generationCoalescer;
 
         log.info("ChatService initialized - primaryChatClient: {}, ollamaChatClient: {}, primaryChatModel: {}, mcpTools: {}, documentEmbedding: {}, externalBindings: {}",
                 primaryChatClient != null, ollamaChatClient != null,
@@ -152,6 +213,8 @@ public class ChatService {
         } else {
             model = resolveDefaultModel();
         }
+        // Reject before touching the conversation when the model's queue is already full
+        admissionController.checkAdmissible(model);
 
         // Get current user ID
         UUID userId = userService.getCurrentUser().map(User::getId).orElse(null);
@@ -178,10 +241,14 @@ public class ChatService {
             if (userId == null) {
                 throw new IllegalStateException("Authentication required to access conversations");
             }
-            conversation = conversationService.getConversationEntityForUser(conversationId, userId)
+            conversation = conversationService.getConversationHeaderForUser(conversationId, userId)
                     .orElseThrow(() -> new IllegalArgumentException("Conversation not found"));
         }
 
+        // Load only the tail window of prior turns (before the new user message is stored)
+        ConversationSummarizer.History history = loadHistory(conversation);
+        boolean firstExchange = history.isEmpty();
+
         // Save user message (skip for temporary chats)
         if (!isTemporary) {
             conversationService.addMessage(conversationId, Message.MessageRole.USER, request.getMessage(), null);
@@ -192,16 +259,21 @@ public class ChatService {
         }
 
         // Build prompt with conversation history (with optional skill and document context)
-        List<org.springframework.ai.chat.messages.Message> messages = buildMessageHistory(
-            conversation, request.getMessage(), request.getSkillId(), userId,
+        PreparedPrompt preparedPrompt = buildMessageHistory(
+            history.messages(), request.getMessage(), request.getSkillId(), userId,
             request.isUseDocumentContext(), request.getRagRetrievalMode(),
-            model, request.getThinkingLevel());
+            model, request.getThinkingLevel(), history.summary());
+        List<org.springframework.ai.chat.messages.Message> messages = preparedPrompt.messages();
 
         // Get AI response - pass model name for GenAI multi-model support
-        ChatClient chatClient = getChatClient(provider, model);
-        if (chatClient == null) {
+        ModelRouter.Route route = routeFor(provider, model);
+        ChatClientPool.PooledChatClient pooledClient = route != null
+                ? chatClientPool.forBackend(route.backend(), model, route.chatModel())
+                : getChatClient(provider, model);
+        if (pooledClient == null) {
             throw new IllegalStateException("No chat client available for provider: " + provider);
         }
+        ChatClient chatClient = pooledClient.client();
 
         long startTime = System.currentTimeMillis();
 
@@ -216,8 +288,10 @@ public class ChatService {
         // Register WikiTools (cheap, always available) + ToolContext for tenancy.
         // Requires an authenticated user (WikiScope rejects null userId) AND
         // the wiki feature must be enabled at both admin and user levels.
+        boolean toolsBound = false;
         if (wikiTools != null && userId != null
                 && wikiFeatureService != null && wikiFeatureService.isEnabledForUser(userId)) {
+            toolsBound = true;
             java.util.Map<String, Object> wikiCtx = new java.util.HashMap<>();
             wikiCtx.put("userId", userId);
             if (conversation.getId() != null) {
@@ -228,16 +302,29 @@ public class ChatService {
 
         // Add MCP tools if available and enabled
         if (request.isUseTools() && mcpToolCallbackCacheService != null) {
-            ToolCallbackProvider[] toolProviders = mcpToolCallbackCacheService.getToolCallbackProviders();
+            ToolCallbackProvider[] toolProviders = screenedTools(mcpToolCallbackCacheService.getToolCallbackProviders());
             if (toolProviders.length > 0) {
                 log.debug("Adding {} MCP tool callback providers to chat request", toolProviders.length);
                 promptSpec = promptSpec.toolCallbacks(toolProviders);
+                toolsBound = true;
             }
         } else if (!request.isUseTools()) {
             log.debug("MCP tools disabled by user preference");
         }
 
-        String response = promptSpec.call().content();
+        var finalPromptSpec = promptSpec;
+        ResponseCache.Lookup cacheLookup = responseCacheLookup(request, history, messages, model, toolsBound);
+        String response;
+        if (cacheLookup != null && cacheLookup.isHit()) {
+            response = cacheLookup.cached();
+        } else {
+            response = admissionController.call(model, () -> pooledClient.call(() -> route != null
+                    ? route.call(() -> finalPromptSpec.call().content())
+                    : finalPromptSpec.call().content()));
+            if (cacheLookup != null) {
+                cacheLookup.store(response);
+            }
+        }
 
         long responseTime = System.currentTimeMillis() - startTime;
 
@@ -264,7 +351,7 @@ public class ChatService {
                     responseTime, timeToFirstToken, tokensPerSecond);
 
             // Update conversation title if this is the first exchange
-            if (conversation.getMessages().size() <= 2) {
+            if (firstExchange) {
                 String title = generateTitle(request.getMessage());
                 conversationService.updateConversationTitle(conversationId, title);
             }
@@ -281,15 +368,32 @@ public class ChatService {
                 .timeToFirstTokenMs(timeToFirstToken)
                 .tokensPerSecond(tokensPerSecond)
                 .totalResponseTimeMs(responseTime)
+                .enrichment(preparedPrompt.enrichment())
                 .build();
     }
 
     private int estimateTokens(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
+        return contextBudgetPlanner.countTokens(text);
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Prior turns for the prompt: the rolling summary, if any, plus the recent tail
+     * after its watermark.
+     */
+    private ConversationSummarizer.History loadHistory(Conversation conversation) {
+        if (conversation.getId() == null) {
+            // Temporary chats are never persisted, so there is nothing to load
+            return new ConversationSummarizer.History(null, List.of());
         }
-        // Rough estimation: ~4 characters per token on average
-        return (int) Math.ceil(text.length() / 4.0);
+        List<Message> tail = conversationService.getRecentHistory(conversation.getId(),
+                maxHistoryMessages, maxHistoryTokens, this::estimateTokens);
+        return conversationSummarizer != null
+                ? conversationSummarizer.prepare(conversation, tail)
+                : new ConversationSummarizer.History(null, tail);
     }
 
     @Observed(name = "cfllama.chat.stream",
@@ -307,6 +411,8 @@ public class ChatService {
         } else {
             model = resolveDefaultModel();
         }
+        // Reject before touching the conversation when the model's queue is already full
+        admissionController.checkAdmissible(model);
 
         // Get current user ID
         UUID userId = userService.getCurrentUser().map(User::getId).orElse(null);
@@ -332,10 +438,14 @@ public class ChatService {
             if (userId == null) {
                 return Flux.error(new IllegalStateException("Authentication required to access conversations"));
             }
-            conversation = conversationService.getConversationEntityForUser(conversationId, userId)
+            conversation = conversationService.getConversationHeaderForUser(conversationId, userId)
                     .orElseThrow(() -> new IllegalArgumentException("Conversation not found"));
         }
 
+        // Load only the tail window of prior turns (before the new user message is stored)
+        ConversationSummarizer.History history = loadHistory(conversation);
+        final boolean firstExchange = history.isEmpty();
+
         final UUID finalConversationId = conversationId;
         final UUID finalUserId = userId;
         final String finalProvider = provider;
@@ -353,10 +463,11 @@ public class ChatService {
         }
 
         // Build prompt with conversation history (with optional skill and document context)
-        List<org.springframework.ai.chat.messages.Message> messages = buildMessageHistory(
-            conversation, request.getMessage(), request.getSkillId(), userId,
+        PreparedPrompt preparedPrompt = buildMessageHistory(
+            history.messages(), request.getMessage(), request.getSkillId(), userId,
             request.isUseDocumentContext(), request.getRagRetrievalMode(),
-            model, request.getThinkingLevel());
+            model, request.getThinkingLevel(), history.summary());
+        List<org.springframework.ai.chat.messages.Message> messages = preparedPrompt.messages();
         org.springframework.ai.chat.prompt.ChatOptions thinkOpts =
                 thinkingOptionsBuilder.buildOptions(model, request.getThinkingLevel());
         Prompt prompt = thinkOpts != null ? new Prompt(messages, thinkOpts) : new Prompt(messages);
@@ -372,7 +483,7 @@ public class ChatService {
 
         // Check if we have MCP tools available and user has enabled them
         ToolCallbackProvider[] toolProviders = (request.isUseTools() && mcpToolCallbackCacheService != null)
-                ? mcpToolCallbackCacheService.getToolCallbackProviders()
+                ? screenedTools(mcpToolCallbackCacheService.getToolCallbackProviders())
                 : new ToolCallbackProvider[0];
 
         if (!request.isUseTools()) {
@@ -382,94 +493,193 @@ public class ChatService {
         // Use ChatClient streaming if we have any tools to register (MCP or WikiTools).
         boolean wikiToolsEnabled = wikiTools != null && finalUserId != null
                 && wikiFeatureService != null && wikiFeatureService.isEnabledForUser(finalUserId);
-        if (toolProviders.length > 0 || wikiToolsEnabled) {
-            ChatClient chatClient = getChatClient(provider, model);
-            if (chatClient == null) {
-                return Flux.error(new IllegalStateException("No chat client available for provider: " + provider));
-            }
+        boolean toolsBound = toolProviders.length > 0 || wikiToolsEnabled;
+        // Opens the backend stream for a model, on the routed backend when there is one
+        BiFunction<String, ModelRouter.Route, Flux<String>> openStream = (targetModel, targetRoute) -> {
+            ChatClientPool.PooledChatClient targetClient = targetRoute != null
+                    ? chatClientPool.forBackend(targetRoute.backend(), targetModel, targetRoute.chatModel())
+                    : getChatClient(provider, targetModel);
+            Flux<String> tokens;
+            if (toolsBound) {
+                if (targetClient == null) {
+                    return Flux.error(new IllegalStateException("No chat client available for provider: " + provider));
+                }
+                ChatClient chatClient = targetClient.client();
+
+                log.debug("Using ChatClient streaming with {} MCP tool providers, wikiTools={}",
+                        toolProviders.length, wikiToolsEnabled);
 
-            log.debug("Using ChatClient streaming with {} MCP tool providers, wikiTools={}",
-                    toolProviders.length, wikiToolsEnabled);
+                var streamSpec = chatClient.prompt().messages(messages);
+                if (thinkOpts != null) {
+                    streamSpec = streamSpec.options(thinkOpts);
+                }
+                if (toolProviders.length > 0) {
+                    streamSpec = streamSpec.toolCallbacks(toolProviders);
+                }
+                if (wikiToolsEnabled) {
+                    java.util.Map<String, Object> wikiCtx = new java.util.HashMap<>();
+                    wikiCtx.put("userId", finalUserId);
+                    wikiCtx.put("conversationId", finalConversationId);
+                    streamSpec = streamSpec.tools(wikiTools).toolContext(wikiCtx);
+                }
+                tokens = streamSpec.stream().content();
+            } else {
+                // No tools - use ChatModel for streaming
+                ChatModel streamingModel = targetRoute != null ? targetRoute.chatModel() : getStreamingModel(provider, targetModel);
+
+                if (streamingModel == null) {
+                    return Flux.error(new IllegalStateException("No chat model available for provider: " + provider));
+                }
 
-            var streamSpec = chatClient.prompt().messages(messages);
-            if (thinkOpts != null) {
-                streamSpec = streamSpec.options(thinkOpts);
+                tokens = streamingModel.stream(prompt)
+                        .mapNotNull(chatResponse -> chatResponse.getResult() != null ?
+                                chatResponse.getResult().getOutput().getText() : "");
             }
-            if (toolProviders.length > 0) {
-                streamSpec = streamSpec.toolCallbacks(toolProviders);
+
+            if (targetClient != null) {
+                Flux<String> untracked = tokens;
+                tokens = targetClient.stream(() -> untracked);
             }
-            if (wikiToolsEnabled) {
-                java.util.Map<String, Object> wikiCtx = new java.util.HashMap<>();
-                wikiCtx.put("userId", finalUserId);
-                wikiCtx.put("conversationId", finalConversationId);
-                streamSpec = streamSpec.tools(wikiTools).toolContext(wikiCtx);
+            if (targetRoute != null) {
+                Flux<String> unrouted = tokens;
+                tokens = targetRoute.stream(() -> unrouted);
             }
-
-            responseFlux = streamSpec
-                    .stream()
-                    .content()
-                    .map(content -> {
-                        if (content != null && !content.isEmpty() && firstTokenReceived.compareAndSet(false, true)) {
-                            firstTokenTime.set(System.currentTimeMillis());
-                        }
-
-                        if (content != null) {
-                            fullResponse.append(content);
-                            tokenCount.incrementAndGet();
+            return tokens;
+        };
+
+        AtomicBoolean hedged = new AtomicBoolean(false);
+        // The model whose output was streamed; a hedge may be won by the fallback model
+        AtomicReference<String> answeredBy = new AtomicReference<>(finalModel);
+        // Exactly one of completion and cancellation persists the turn
+        AtomicBoolean settled = new AtomicBoolean(false);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        // Stateless turns may be answered from the response cache without reaching a backend
+        ResponseCache.Lookup cacheLookup = responseCacheLookup(request, history, messages, model, toolsBound);
+        boolean cacheHit = cacheLookup != null && cacheLookup.isHit();
+
+        // Backend output for this turn: tokens, plus queue positions while waiting for a permit
+        Flux<StreamEvent> events;
+        if (cacheHit) {
+            log.debug("Replaying cached response for model {}", finalModel);
+            events = responseCache.replay(cacheLookup.cached()).map(StreamEvent::token);
+        } else {
+            Supplier<Flux<StreamEvent>> generate = () -> {
+                ModelRouter.Route route = routeFor(provider, finalModel);
+                Flux<String> tokens = openStream.apply(finalModel, route);
+
+                // When the first token is slow, race the same prompt on another backend or the fallback model.
+                // Not with tools bound: tool rounds run before the first token, so a hedge would run them twice
+                Supplier<Flux<String>> hedgeStream = null;
+                String hedgeModel = finalModel;
+                if (streamHedger.isEnabled() && !toolsBound) {
+                    String fallbackModel = streamHedger.getFallbackModel(finalModel);
+                    if (route != null) {
+                        hedgeStream = () -> openStream.apply(finalModel, modelRouter.route(finalModel, route.backend()));
+                    } else if (fallbackModel != null) {
+                        hedgeModel = fallbackModel;
+                        // Under the fallback model's own limit: the permit taken below is the primary model's
+                        hedgeStream = () -> admissionController.admit(fallbackModel,
+                                () -> openStream.apply(fallbackModel, routeFor(provider, fallbackModel)), null);
+                    }
+                }
+                String alternateModel = hedgeModel;
+                AtomicBoolean generationHedged = new AtomicBoolean(false);
+                AtomicReference<String> generationModel = new AtomicReference<>(finalModel);
+                Flux<String> hedgedTokens = streamHedger.hedge(finalModel, tokens, alternateModel, hedgeStream,
+                        () -> generationHedged.set(true), () -> generationModel.set(alternateModel));
+                // The hedge is decided by the first token, so announce it just ahead of that token; it then
+                // reaches every subscriber of a shared generation, not only the one that started it
+                AtomicBoolean first = new AtomicBoolean(true);
+                Flux<StreamEvent> hedgedEvents = hedgedTokens.flatMapIterable(token ->
+                        first.getAndSet(false) && generationHedged.get()
+                                ? List.of(StreamEvent.hedged(generationModel.get()), StreamEvent.token(token))
+                                : List.of(StreamEvent.token(token)));
+
+                // Wait for a permit on this model; queued requests see their position
+                return admissionController.admit(finalModel, () -> hedgedEvents, StreamEvent::queued);
+            };
+            // A request identical to one already streaming joins it instead of generating again. Not with
+            // tools bound: tool calls act on behalf of one user, so their results are not shareable
+            String singleFlightKey = toolsBound ? null
+                    : singleFlightKey(provider, finalModel, messages, request.getThinkingLevel());
+            events = generationCoalescer.coalesce(finalModel, singleFlightKey, generate)
+                    .doOnNext(event -> {
+                        if (event.answeredBy() != null) {
+                            hedged.set(true);
+                            answeredBy.set(event.answeredBy());
                         }
+                    })
+                    .filter(event -> event.answeredBy() == null);
+        }
 
-                        return ChatResponse.builder()
-                                .conversationId(finalConversationId)
-                                .content(content != null ? content : "")
-                                .streaming(true)
-                                .complete(false)
-                                .build();
-                    });
-        } else {
-            // No tools - use ChatModel for streaming
-            ChatModel streamingModel = getStreamingModel(provider, model);
+        // Moderate the answer as it streams and cut it off the moment it matches a blocking rule
+        ContentModerationService.OutputCheck outputCheck = contentModerationService != null
+                ? contentModerationService.openOutputCheck() : null;
+        AtomicBoolean withheld = new AtomicBoolean(false);
+        if (outputCheck != null) {
+            events = moderateOutput(events, outputCheck, finalConversationId);
+        }
 
-            if (streamingModel == null) {
-                return Flux.error(new IllegalStateException("No chat model available for provider: " + provider));
+        responseFlux = events.map(event -> {
+            if (event.queuePosition() != null) {
+                return ChatResponse.builder()
+                        .conversationId(finalConversationId)
+                        .content("")
+                        .streaming(true)
+                        .queuePosition(event.queuePosition())
+                        .build();
+            }
+            String content = event.content();
+            if (event.withheld()) {
+                // What was streamed so far is replaced by the notice, in the final render and in history
+                withheld.set(true);
+                synchronized (fullResponse) {
+                    fullResponse.setLength(0);
+                    fullResponse.append(content);
+                }
+                return ChatResponse.builder()
+                        .conversationId(finalConversationId)
+                        .content(content)
+                        .streaming(true)
+                        .complete(false)
+                        .build();
+            }
+            if (!content.isEmpty() && firstTokenReceived.compareAndSet(false, true)) {
+                firstTokenTime.set(System.currentTimeMillis());
             }
 
-            responseFlux = streamingModel.stream(prompt)
-                    .map(chatResponse -> {
-                        String content = chatResponse.getResult() != null ?
-                                chatResponse.getResult().getOutput().getText() : "";
-
-                        if (content != null && !content.isEmpty() && firstTokenReceived.compareAndSet(false, true)) {
-                            firstTokenTime.set(System.currentTimeMillis());
-                        }
-
-                        if (content != null) {
-                            fullResponse.append(content);
-                            tokenCount.incrementAndGet();
-                        }
+            synchronized (fullResponse) {
+                fullResponse.append(content);
+            }
+            tokenCount.incrementAndGet();
 
-                        return ChatResponse.builder()
-                                .conversationId(finalConversationId)
-                                .content(content != null ? content : "")
-                                .streaming(true)
-                                .complete(false)
-                                .build();
-                    });
-        }
+            return ChatResponse.builder()
+                    .conversationId(finalConversationId)
+                    .content(content)
+                    .streaming(true)
+                    .complete(false)
+                    .build();
+        });
 
         return responseFlux
                 .timeout(java.time.Duration.ofMinutes(streamingTimeoutMinutes))
                 .onErrorResume(e -> {
                     log.error("Streaming error for conversation {}: {}", finalConversationId, e.getMessage());
+                    interrupted.set(true);
                     return Flux.just(ChatResponse.builder()
                             .conversationId(finalConversationId)
                             .content("")
-                            .error("Streaming interrupted: " + (e instanceof java.util.concurrent.TimeoutException ? "response timed out" : "connection error"))
+                            .error(e instanceof ModelAdmissionController.ModelOverloadedException
+                                    ? e.getMessage()
+                                    : "Streaming interrupted: " + (e instanceof java.util.concurrent.TimeoutException ? "response timed out" : "connection error"))
                             .streaming(false)
                             .complete(true)
                             .build());
                 })
-                .concatWith(Flux.defer(() -> {
-            // Save complete response
+                // Finalization runs on its own scheduler: the complete event carries the rendered
+                // answer right away, and persistence happens after it in a single transaction
+                .concatWith(Mono.fromCallable(() -> {
             String completeResponse = fullResponse.toString();
 
             // Calculate metrics
@@ -487,41 +697,33 @@ public class ChatService {
                     (completionTokens / (responseTime / 1000.0)) : 0.0;
 
             log.info("Streaming metrics - TTFT: {}ms, TPS: {}, Total: {}ms, Model: {}",
-                    timeToFirstToken, String.format("%.1f", tokensPerSecond), responseTime, finalModel);
-
-            UUID messageId = null;
-            if (!finalIsTemporary) {
-                Message savedMessage = conversationService.addMessage(
-                        finalConversationId,
-                        Message.MessageRole.ASSISTANT,
-                        completeResponse,
-                        finalModel
-                );
-                messageId = savedMessage.getId();
-
-                metricsService.recordUsage(finalUserId, finalConversationId, finalModel, finalProvider,
-                        promptTokens, completionTokens, responseTime, timeToFirstToken, tokensPerSecond);
-
-                // Update conversation title if first exchange
-                Conversation conv = conversationService.getConversationEntity(finalConversationId).orElse(null);
-                if (conv != null && conv.getMessages().size() <= 2) {
-                    String title = generateTitle(userMessage);
-                    conversationService.updateConversationTitle(finalConversationId, title);
-                }
+                    timeToFirstToken, String.format("%.1f", tokensPerSecond), responseTime, answeredBy.get());
+
+            // A hedged fallback's answer must not be served later as the requested model's
+            if (cacheLookup != null && !interrupted.get() && !withheld.get() && finalModel.equals(answeredBy.get())) {
+                cacheLookup.store(completeResponse);
+            }
+
+            if (!finalIsTemporary && settled.compareAndSet(false, true)) {
+                streamFinalizer.submit(new StreamFinalizer.CompletedExchange(
+                        finalUserId, finalConversationId, answeredBy.get(), finalProvider, completeResponse,
+                        promptTokens, completionTokens, responseTime, timeToFirstToken, tokensPerSecond,
+                        hedged.get(), interrupted.get(), firstExchange ? generateTitle(userMessage) : null,
+                        toLocalDateTime(startTime.get())));
             }
 
             ChatResponse finalResponse = ChatResponse.builder()
                     .conversationId(finalIsTemporary ? null : finalConversationId)
-                    .messageId(messageId)
                     .content("")
                     .htmlContent(markdownService.toHtml(completeResponse))
-                    .model(finalModel)
+                    .model(answeredBy.get())
                     .streaming(false)
                     .complete(true)
                     .temporary(finalIsTemporary)
                     .timeToFirstTokenMs(timeToFirstToken)
                     .tokensPerSecond(tokensPerSecond)
                     .totalResponseTimeMs(responseTime)
+                    .enrichment(preparedPrompt.enrichment())
                     .build();
 
             log.info("Sending final response with metrics - TTFT: {}, TPS: {}, Total: {}",
@@ -529,141 +731,163 @@ public class ChatService {
                     finalResponse.getTokensPerSecond(),
                     finalResponse.getTotalResponseTimeMs());
 
-            return Flux.just(finalResponse);
-        }));
+            return finalResponse;
+        }).subscribeOn(streamFinalizer.scheduler()))
+                // Stopped by the user or orphaned: cancelling tears down the provider stream (and any
+                // tool round it is running); what was generated so far is kept, flagged as truncated
+                .doOnCancel(() -> {
+                    if (finalIsTemporary || !settled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    String partialResponse;
+                    synchronized (fullResponse) {
+                        partialResponse = fullResponse.toString();
+                    }
+                    long responseTime = System.currentTimeMillis() - startTime.get();
+                    log.info("Stream for conversation {} cancelled after {}ms; keeping {} chars",
+                            finalConversationId, responseTime, partialResponse.length());
+                    streamFinalizer.submit(new StreamFinalizer.CompletedExchange(
+                            finalUserId, finalConversationId, answeredBy.get(), finalProvider, partialResponse,
+                            estimateTokens(userMessage), estimateTokens(partialResponse), responseTime,
+                            firstTokenTime.get() > 0 ? firstTokenTime.get() - startTime.get() : null, null,
+                            hedged.get(), true, firstExchange ? generateTitle(userMessage) : null,
+                            toLocalDateTime(startTime.get())));
+                });
     }
 
     public List<ModelInfo> getAvailableModels() {
-        List<ModelInfo> models = new ArrayList<>();
+        return modelRegistry.getModels();
+    }
 
-        // Check if running in cloud profile with GenAI
-        boolean isCloudProfile = activeProfile != null && activeProfile.contains("cloud");
+    /**
+     * Models the given role may choose from; see {@link ModelRegistry#getModelsForRole(String)}.
+     */
+    public List<ModelInfo> getAvailableModels(String role) {
+        return modelRegistry.getModelsForRole(role);
+    }
 
-        if (isCloudProfile && primaryChatClient != null) {
-            // Running on Tanzu with GenAI service - get actual model names
-            List<String> genAiModelNames = genAiConfig != null ? genAiConfig.getAvailableModelNames() : List.of();
+    /**
+     * One element of a backend stream: a content token, a queue position while waiting for
+     * admission, the notice that replaces an answer stopped by output moderation, or the
+     * model that answers a hedged generation.
+     */
+    private record StreamEvent(String content, Integer queuePosition, boolean withheld, String answeredBy) {
 
-            if (!genAiModelNames.isEmpty()) {
-                for (String modelName : genAiModelNames) {
-                    // Skip embedding models - only include chat models
-                    if (modelName.toLowerCase().contains("embed")) {
-                        continue;
-                    }
-                    models.add(ModelInfo.builder()
-                            .id(modelName)
-                            .name(modelName)
-                            .provider("genai")
-                            .description("Tanzu GenAI: " + modelName)
-                            .available(true)
-                            .build());
-                }
-            } else {
-                // Fallback if we can't get the model names
-                models.add(ModelInfo.builder()
-                        .id("genai")
-                        .name("Tanzu GenAI")
-                        .provider("genai")
-                        .description("Model provided by Tanzu GenAI service")
-                        .available(true)
-                        .build());
-            }
-        } else {
-            // Local development with OpenAI/Ollama
-            if (primaryChatClient != null) {
-                models.add(ModelInfo.builder()
-                        .id("gpt-4o-mini")
-                        .name("GPT-4o Mini")
-                        .provider("openai")
-                        .description("Fast and efficient model for most tasks")
-                        .available(true)
-                        .build());
-                models.add(ModelInfo.builder()
-                        .id("gpt-4o")
-                        .name("GPT-4o")
-                        .provider("openai")
-                        .description("Most capable OpenAI model")
-                        .available(true)
-                        .build());
-                models.add(ModelInfo.builder()
-                        .id("gpt-4-turbo")
-                        .name("GPT-4 Turbo")
-                        .provider("openai")
-                        .description("Powerful model with vision capabilities")
-                        .available(true)
-                        .build());
-            }
+        static StreamEvent token(String content) {
+            return new StreamEvent(content, null, false, null);
         }
 
-        if (ollamaChatClient != null) {
-            models.add(ModelInfo.builder()
-                    .id("llama3.2")
-                    .name("Llama 3.2")
-                    .provider("ollama")
-                    .description("Meta's latest open-source model")
-                    .available(true)
-                    .build());
-            models.add(ModelInfo.builder()
-                    .id("mistral")
-                    .name("Mistral")
-                    .provider("ollama")
-                    .description("Efficient open-source model")
-                    .available(true)
-                    .build());
-            models.add(ModelInfo.builder()
-                    .id("codellama")
-                    .name("Code Llama")
-                    .provider("ollama")
-                    .description("Specialized for code generation")
-                    .available(true)
-                    .build());
+        static StreamEvent queued(int position) {
+            return new StreamEvent(null, position, false, null);
         }
 
-        // Add external binding models
-        if (externalBindingService != null) {
-            for (String modelName : externalBindingService.getAvailableModelNames()) {
-                // Skip embedding models
-                if (modelName.toLowerCase().contains("embed")) {
-                    continue;
+        static StreamEvent withheld(String notice) {
+            return new StreamEvent(notice, null, true, null);
+        }
+
+        static StreamEvent hedged(String answeredBy) {
+            return new StreamEvent(null, null, false, answeredBy);
+        }
+    }
+
+    /**
+     * Feeds each token to the output check as it arrives. A match under a blocking policy
+     * ends the stream with the withheld notice, which also cancels the generation upstream;
+     * under a warning policy the answer continues and the first match is logged.
+     */
+    private Flux<StreamEvent> moderateOutput(Flux<StreamEvent> events, ContentModerationService.OutputCheck check,
+                                             UUID conversationId) {
+        AtomicBoolean warned = new AtomicBoolean(false);
+        return events.handle((event, sink) -> {
+            if (event.content() == null) {
+                sink.next(event);
+                return;
+            }
+            ContentModerationService.ModerationResult moderation = check.feed(event.content());
+            if (!moderation.flagged()) {
+                sink.next(event);
+            } else if ("block".equalsIgnoreCase(moderation.action())) {
+                log.warn("Stopped streamed response for conversation {} after {} chars: {}",
+                        conversationId, check.scannedChars(), moderation.reason());
+                sink.next(StreamEvent.withheld(OUTPUT_WITHHELD_NOTICE));
+                sink.complete();
+            } else {
+                if (warned.compareAndSet(false, true)) {
+                    log.warn("Moderation warning on streamed response for conversation {}: {}",
+                            conversationId, moderation.reason());
                 }
-                ExternalBindingService.ExternalModelMetadata metadata =
-                        externalBindingService.getModelMetadata().get(modelName);
-                String bindingName = metadata != null ? metadata.bindingName() : "External";
-                models.add(ModelInfo.builder()
-                        .id(modelName)
-                        .name(modelName)
-                        .provider("external")
-                        .description("External API: " + bindingName)
-                        .available(true)
-                        .build());
+                sink.next(event);
             }
+        });
+    }
+
+    /**
+     * Identifies a tool-free generation by everything that shapes its output: backend,
+     * model, thinking level (which determines the request options) and the full prompt.
+     */
+    private static String singleFlightKey(String provider, String model,
+                                          List<org.springframework.ai.chat.messages.Message> messages,
+                                          String thinkingLevel) {
+        List<String> parts = new ArrayList<>();
+        parts.add(provider);
+        parts.add(model);
+        parts.add(thinkingLevel);
+        for (org.springframework.ai.chat.messages.Message message : messages) {
+            parts.add(message.getMessageType().name());
+            parts.add(message.getText());
         }
+        return GenerationCoalescer.keyOf(parts.toArray(String[]::new));
+    }
 
-        return models;
+    /**
+     * The response-cache entry for a stateless turn (no earlier messages, no document
+     * context, no tools), or null when the turn or its model and skill are not cacheable.
+     */
+    private ResponseCache.Lookup responseCacheLookup(ChatRequest request, ConversationSummarizer.History history,
+                                                     List<org.springframework.ai.chat.messages.Message> messages,
+                                                     String model, boolean toolsBound) {
+        if (responseCache == null || !history.isEmpty() || request.isUseDocumentContext() || toolsBound
+                || messages.size() != 2) {
+            return null;
+        }
+        return responseCache.lookup(model, request.getThinkingLevel(), request.getSkillId(),
+                messages.get(0).getText(), messages.get(1).getText());
     }
 
-    private ChatClient getChatClient(String provider) {
-        return getChatClient(provider, null);
+    /**
+     * Picks one of several backends serving {@code modelName}, or null when the
+     * model has a single backend and the provider-based lookup applies.
+     */
+    private ModelRouter.Route routeFor(String provider, String modelName) {
+        if (modelRouter == null || "ollama".equalsIgnoreCase(provider)) {
+            return null;
+        }
+        ModelRouter.Route route = modelRouter.route(modelName);
+        if (route != null) {
+            log.debug("Routing model {} to backend {}", modelName, route.backend());
+        }
+        return route;
     }
 
-    private ChatClient getChatClient(String provider, String modelName) {
+    private ChatClientPool.PooledChatClient getChatClient(String provider, String modelName) {
         if ("ollama".equalsIgnoreCase(provider)) {
-            return ollamaChatClient;
+            return chatClientPool.forDefaultClient("ollama", ollamaChatClient);
         }
 
         // Check external bindings first if provider is "external" or if model exists in external bindings
         if (externalBindingService != null && modelName != null) {
             if ("external".equalsIgnoreCase(provider) || externalBindingService.hasModel(modelName)) {
-                ChatModel externalModel = externalBindingService.getChatModelByName(modelName);
-                if (externalModel != null) {
+                ChatClientPool.PooledChatClient externalClient = chatClientPool.forExternalModel(modelName);
+                if (externalClient != null) {
                     log.debug("Using external binding model: {}", modelName);
-                    return ChatClient.builder(externalModel).build();
+                    return externalClient;
                 }
             }
         }
 
         // For GenAI, try to get the specific model if provided
-        if ("genai".equalsIgnoreCase(provider) && modelName != null && genAiConfig != null) {
-            ChatClient modelClient = genAiConfig.getChatClientForModel(modelName);
+        if ("genai".equalsIgnoreCase(provider) && modelName != null) {
+            ChatClientPool.PooledChatClient modelClient = chatClientPool.forGenAiModel(modelName);
             if (modelClient != null) {
                 log.debug("Using GenAI model: {}", modelName);
                 return modelClient;
@@ -671,7 +895,7 @@ public class ChatService {
         }
 
         // Use primary client for openai, genai (default), or any other provider
-        return primaryChatClient;
+        return chatClientPool.forDefaultClient("primary", primaryChatClient);
     }
 
     private ChatModel getStreamingModel(String provider, String modelName) {
@@ -733,184 +957,278 @@ public class ChatService {
         return new SafetyOutcome(List.copyOf(warnings));
     }
 
+    /**
+     * Screens text the model will read but the user did not type (retrieved documents,
+     * fetched pages and transcripts, tool output). Matches are logged; false means a
+     * policy set to block matched and the text must not reach the model.
+     */
+    private boolean screenUntrusted(String source, String text) {
+        boolean allowed = true;
+        if (contentModerationService != null && contentModerationService.isEnabled()) {
+            ContentModerationService.ModerationResult moderation = contentModerationService.check(text);
+            if (moderation.flagged()) {
+                log.warn("Moderation matched in {} content: {}", source, moderation.reason());
+                allowed = !"block".equalsIgnoreCase(moderation.action());
+            }
+        }
+        if (promptInjectionDetector != null && promptInjectionDetector.isEnabled()) {
+            PromptInjectionDetector.InjectionResult injection = promptInjectionDetector.check(text);
+            if (injection.detected()) {
+                log.warn("Prompt injection pattern in {} content: {}", source, injection.pattern());
+                allowed &= !"block".equalsIgnoreCase(injection.action());
+            }
+        }
+        return allowed;
+    }
+
+    /** The contribution, or null when its text is blocked by {@link #screenUntrusted}. */
+    private ContextContribution screened(String source, ContextContribution contribution) {
+        if (contribution == null) {
+            return null;
+        }
+        String text = contribution.section() != null ? contribution.section().text() : contribution.rewrittenMessage();
+        return screenUntrusted(source, text) ? contribution : null;
+    }
+
+    /** Wraps each MCP tool so its results are screened before the model sees them. */
+    private ToolCallbackProvider[] screenedTools(ToolCallbackProvider[] providers) {
+        if (providers.length == 0 || (contentModerationService == null && promptInjectionDetector == null)) {
+            return providers;
+        }
+        return Arrays.stream(providers)
+                .map(provider -> {
+                    ToolCallback[] callbacks = Arrays.stream(provider.getToolCallbacks())
+                            .map(this::screenedTool)
+                            .toArray(ToolCallback[]::new);
+                    return (ToolCallbackProvider) () -> callbacks;
+                })
+                .toArray(ToolCallbackProvider[]::new);
+    }
+
+    private ToolCallback screenedTool(ToolCallback tool) {
+        return new ToolCallback() {
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return tool.getToolDefinition();
+            }
+
+            @Override
+            public ToolMetadata getToolMetadata() {
+                return tool.getToolMetadata();
+            }
+
+            @Override
+            public String call(String toolInput) {
+                return screen(tool.call(toolInput));
+            }
+
+            @Override
+            public String call(String toolInput, ToolContext toolContext) {
+                return screen(tool.call(toolInput, toolContext));
+            }
+
+            private String screen(String result) {
+                String source = "tool " + tool.getToolDefinition().name();
+                return result == null || screenUntrusted(source, result)
+                        ? result
+                        : "The tool result was withheld because it matched the content safety policy.";
+            }
+        };
+    }
+
     private List<org.springframework.ai.chat.messages.Message> buildMessageHistory(
-            Conversation conversation, String currentMessage) {
-        return buildMessageHistory(conversation, currentMessage, null, null, false, null, null, null);
+            List<Message> history, String currentMessage) {
+        return buildMessageHistory(history, currentMessage, null, null, false, null, null, null, null).messages();
     }
 
     private List<org.springframework.ai.chat.messages.Message> buildMessageHistory(
-            Conversation conversation, String currentMessage, UUID skillId) {
-        return buildMessageHistory(conversation, currentMessage, skillId, null, false, null, null, null);
+            List<Message> history, String currentMessage, UUID skillId) {
+        return buildMessageHistory(history, currentMessage, skillId, null, false, null, null, null, null).messages();
     }
 
     private List<org.springframework.ai.chat.messages.Message> buildMessageHistory(
-            Conversation conversation, String currentMessage, UUID skillId, UUID userId, boolean useDocumentContext) {
-        return buildMessageHistory(conversation, currentMessage, skillId, userId, useDocumentContext, null, null, null);
+            List<Message> history, String currentMessage, UUID skillId, UUID userId, boolean useDocumentContext) {
+        return buildMessageHistory(history, currentMessage, skillId, userId, useDocumentContext, null, null, null, null).messages();
     }
 
     private List<org.springframework.ai.chat.messages.Message> buildMessageHistory(
-            Conversation conversation, String currentMessage, UUID skillId, UUID userId,
+            List<Message> history, String currentMessage, UUID skillId, UUID userId,
             boolean useDocumentContext, String ragRetrievalMode) {
-        return buildMessageHistory(conversation, currentMessage, skillId, userId, useDocumentContext, ragRetrievalMode, null, null);
+        return buildMessageHistory(history, currentMessage, skillId, userId, useDocumentContext, ragRetrievalMode, null, null, null).messages();
     }
 
-    private List<org.springframework.ai.chat.messages.Message> buildMessageHistory(
-            Conversation conversation, String currentMessage, UUID skillId, UUID userId,
+    /**
+     * Messages to send plus the per-contributor enrichment outcome for response metadata.
+     */
+    private record PreparedPrompt(List<org.springframework.ai.chat.messages.Message> messages,
+                                  java.util.Map<String, String> enrichment) {}
+
+    private PreparedPrompt buildMessageHistory(
+            List<Message> history, String currentMessage, UUID skillId, UUID userId,
             boolean useDocumentContext, String ragRetrievalMode,
-            String modelName, String thinkingLevel) {
-        List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
+            String modelName, String thinkingLevel, String conversationSummary) {
+        // Prompt sections, ordered from most to least stable so provider prefix caches
+        // keep hitting: the static prefix (base, skill, thinking suffix) is identical on
+        // every turn for the same skill and model; the summary and wiki index change
+        // occasionally; document context changes every turn and trails the history.
+        List<ContextBudgetPlanner.PromptSection> sections = new ArrayList<>();
+        sections.add(ContextBudgetPlanner.PromptSection.required("prefix",
+                promptPrefixCache.prefix(skillId, modelName, thinkingLevel)));
+
+        // Earlier turns folded into the rolling summary stand in for the history they replaced
+        if (conversationSummary != null && !conversationSummary.isBlank()) {
+            sections.add(ContextBudgetPlanner.PromptSection.required("summary",
+                    "Summary of the earlier part of this conversation:\n" + conversationSummary));
+        }
 
-        // Build system prompt (base + optional skill augmentation + optional RAG instructions)
-        StringBuilder systemPromptBuilder = new StringBuilder(chatConfig.getSystemPrompt());
+        // Fetch wiki index, document context and #url content concurrently under one deadline
+        ContextEnricher.EnrichmentResult enrichment = contextEnricher.enrich(
+                contextContributors(currentMessage, userId, useDocumentContext, ragRetrievalMode));
 
-        // Add skill augmentation if available
-        if (skillId != null && skillService != null) {
-            try {
-                Skill skill = skillService.getSkillById(skillId).orElse(null);
-                if (skill != null && skill.isEnabled() && skill.getSystemPromptAugmentation() != null) {
-                    systemPromptBuilder.append("\n\n").append(skill.getSystemPromptAugmentation());
-                    log.debug("Applied skill '{}' to system prompt", skill.getName());
-                }
-            } catch (Exception e) {
-                log.warn("Failed to apply skill {}: {}", skillId, e.getMessage());
+        ContextContribution wiki = screened("wiki", enrichment.get("wiki"));
+        if (wiki != null) {
+            sections.add(wiki.section());
+        }
+        ContextContribution documents = screened("documents", enrichment.get("documents"));
+        if (documents != null) {
+            sections.add(documents.section().asTrailing());
+        }
+
+        // A YouTube transcript takes precedence over generic web content for the same turn
+        String processedMessage = currentMessage;
+        ContextContribution youtube = screened("youtube", enrichment.get("youtube"));
+        ContextContribution web = screened("web", enrichment.get("web"));
+        if (youtube != null) {
+            processedMessage = youtube.rewrittenMessage();
+        } else if (web != null) {
+            processedMessage = web.rewrittenMessage();
+        }
+
+        // Pack sections and history newest-first into the model's context window
+        int contextWindow = contextBudgetPlanner.contextWindowFor(modelName, advertisedContextWindow(modelName));
+        ContextBudgetPlanner.ContextPlan plan = contextBudgetPlanner.plan(contextWindow, sections, history, processedMessage);
+
+        List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
+        messages.add(new SystemMessage(plan.systemPrompt()));
+        for (Message msg : plan.history()) {
+            if (msg.getRole() == Message.MessageRole.USER) {
+                messages.add(new UserMessage(msg.getContent()));
+            } else if (msg.getRole() == Message.MessageRole.ASSISTANT) {
+                messages.add(new AssistantMessage(msg.getContent()));
             }
         }
 
+        // Add current message (with possible YouTube transcript context), preceded by
+        // this turn's document context
+        messages.add(new UserMessage(plan.currentMessage(processedMessage)));
+
+        return new PreparedPrompt(messages, enrichment.report());
+    }
+
+    /**
+     * The enrichment sources that apply to this turn. Each runs independently on its own
+     * virtual thread, so none may read another's output.
+     */
+    private List<ContextContributor> contextContributors(String currentMessage, UUID userId,
+                                                         boolean useDocumentContext, String ragRetrievalMode) {
+        List<ContextContributor> contributors = new ArrayList<>();
+
         // Inject wiki index block (lightweight summary of user's wiki pages).
         // Gated by both the admin kill switch and the user's personal opt-out.
         if (wikiContextLoader != null && userId != null
                 && wikiFeatureService != null && wikiFeatureService.isEnabledForUser(userId)) {
-            try {
+            contributors.add(ContextContributor.of("wiki", () -> {
                 String wikiBlock = wikiContextLoader.loadIndexBlock(userId);
-                if (wikiBlock != null && !wikiBlock.isBlank()) {
-                    systemPromptBuilder.append("\n\n").append(wikiBlock);
-                }
-            } catch (Exception e) {
-                log.warn("Failed to load wiki index block for user {}: {}", userId, e.getMessage());
-            }
+                return wikiBlock != null && !wikiBlock.isBlank()
+                        ? ContextContribution.section(ContextBudgetPlanner.PromptSection.optional("wiki", wikiBlock, 2))
+                        : ContextContribution.none();
+            }));
         }
 
         // Add document context if user has documents and RAG is enabled
-        String documentContext = null;
         if (useDocumentContext && userId != null && documentEmbeddingService != null && documentEmbeddingService.isAvailable()) {
-            documentContext = buildDocumentContext(userId, currentMessage, ragRetrievalMode);
-            if (documentContext != null && !documentContext.isEmpty()) {
-                systemPromptBuilder.append("\n\n");
-                systemPromptBuilder.append("You have access to the user's uploaded documents. ");
-                systemPromptBuilder.append("When answering questions, use the relevant document context provided below. ");
-                systemPromptBuilder.append("When citing sources, refer to documents by their filename naturally (e.g., 'According to the manual...' or 'The document states...'). ");
-                systemPromptBuilder.append("Do not include internal markers like '--- From:' or section numbers in your response.\n\n");
-                systemPromptBuilder.append("DOCUMENT CONTEXT:\n");
-                systemPromptBuilder.append("---------------------\n");
-                systemPromptBuilder.append(documentContext);
-                systemPromptBuilder.append("\n---------------------\n");
-                systemPromptBuilder.append("Use the above context to answer the user's question. ");
-                systemPromptBuilder.append("If the context doesn't contain relevant information, say so and answer based on your general knowledge.");
-            }
-        }
-
-        // Apply per-model thinking-level suffix (e.g. /no_think for Qwen3,
-        // verbal nudge for plain Ollama models). gpt-oss is handled via
-        // OpenAiChatOptions.reasoningEffort, not here.
-        if (thinkingOptionsBuilder != null && modelName != null) {
-            String suffix = thinkingOptionsBuilder.systemPromptSuffix(modelName, thinkingLevel);
-            if (suffix != null && !suffix.isEmpty()) {
-                systemPromptBuilder.append("\n\n").append(suffix);
-            }
-        }
-
-        messages.add(new SystemMessage(systemPromptBuilder.toString()));
-
-        // Add conversation history (sliding window: last 50 messages to stay within context limits)
-        List<Message> history = conversation.getMessages();
-        if (history == null) {
-            history = List.of();
-        }
-        int maxHistoryMessages = 50;
-        int startIndex = Math.max(0, history.size() - maxHistoryMessages);
-        for (int i = startIndex; i < history.size(); i++) {
-            Message msg = history.get(i);
-            if (msg.getRole() == Message.MessageRole.USER) {
-                messages.add(new UserMessage(msg.getContent()));
-            } else if (msg.getRole() == Message.MessageRole.ASSISTANT) {
-                messages.add(new AssistantMessage(msg.getContent()));
-            }
+            contributors.add(ContextContributor.of("documents", () -> {
+                String documentContext = buildDocumentContext(userId, currentMessage, ragRetrievalMode);
+                if (documentContext == null || documentContext.isEmpty()) {
+                    return ContextContribution.none();
+                }
+                StringBuilder documentSection = new StringBuilder();
+                documentSection.append("You have access to the user's uploaded documents. ");
+                documentSection.append("When answering questions, use the relevant document context provided below. ");
+                documentSection.append("When citing sources, refer to documents by their filename naturally (e.g., 'According to the manual...' or 'The document states...'). ");
+                documentSection.append("Do not include internal markers like '--- From:' or section numbers in your response.\n\n");
+                documentSection.append("DOCUMENT CONTEXT:\n");
+                documentSection.append("---------------------\n");
+                documentSection.append(documentContext);
+                documentSection.append("\n---------------------\n");
+                documentSection.append("Use the above context to answer the user's question. ");
+                documentSection.append("If the context doesn't contain relevant information, say so and answer based on your general knowledge.");
+                return ContextContribution.section(
+                        ContextBudgetPlanner.PromptSection.optional("documents", documentSection.toString(), 1));
+            }));
         }
 
         // Check for YouTube URLs prefixed with # for transcript RAG injection
-        String processedMessage = currentMessage;
-        if (youTubeTranscriptService != null) {
-            Matcher ytMatcher = YT_RAG_PATTERN.matcher(currentMessage);
-            if (ytMatcher.find()) {
-                String ytUrl = ytMatcher.group(1);
-                log.info("Detected YouTube RAG request for URL: {}", ytUrl);
-                try {
-                    String transcript = youTubeTranscriptService.getTranscript(ytUrl);
-                    if (transcript != null && !transcript.isEmpty()) {
-                        // Remove the # URL from the user's query to get the actual question
-                        String queryWithoutUrl = currentMessage.replaceAll("#\\s*https?://\\S+", "").trim();
-                        if (queryWithoutUrl.isEmpty()) {
-                            queryWithoutUrl = "Summarize this YouTube video.";
-                        }
-                        // Build prompt with transcript context using RagPromptBuilder
-                        processedMessage = ragPromptBuilder.buildPromptWithTranscript(
-                                queryWithoutUrl, transcript, ytUrl, null);
-                        log.info("Injected YouTube transcript ({} chars) as RAG context", transcript.length());
-                    } else {
-                        log.warn("No transcript available for YouTube URL: {}", ytUrl);
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to extract YouTube transcript for {}: {}", ytUrl, e.getMessage());
+        Matcher ytMatcher = YT_RAG_PATTERN.matcher(currentMessage);
+        if (youTubeTranscriptService != null && ytMatcher.find()) {
+            String ytUrl = ytMatcher.group(1);
+            log.info("Detected YouTube RAG request for URL: {}", ytUrl);
+            contributors.add(ContextContributor.of("youtube", () -> {
+                String transcript = youTubeTranscriptService.getTranscript(ytUrl);
+                if (transcript == null || transcript.isEmpty()) {
+                    log.warn("No transcript available for YouTube URL: {}", ytUrl);
+                    return ContextContribution.none();
                 }
-            }
+                // Remove the # URL from the user's query to get the actual question
+                String queryWithoutUrl = currentMessage.replaceAll("#\\s*https?://\\S+", "").trim();
+                if (queryWithoutUrl.isEmpty()) {
+                    queryWithoutUrl = "Summarize this YouTube video.";
+                }
+                log.info("Injected YouTube transcript ({} chars) as RAG context", transcript.length());
+                // Build prompt with transcript context using RagPromptBuilder
+                return ContextContribution.rewrite(ragPromptBuilder.buildPromptWithTranscript(
+                        queryWithoutUrl, transcript, ytUrl, null));
+            }));
         }
 
-
         // Check for generic web URLs prefixed with # for web content RAG injection
-        if (webContentService != null && processedMessage.equals(currentMessage)) {
-            // Only run if YouTube didn't already process this message
-            Matcher webMatcher = WEB_RAG_PATTERN.matcher(currentMessage);
-            if (webMatcher.find()) {
-                String webUrl = webMatcher.group(1);
-                // Skip YouTube URLs (already handled above)
-                if (!webUrl.contains("youtube.com") && !webUrl.contains("youtu.be")) {
-                    log.info("Detected Web URL RAG request for URL: {}", webUrl);
-                    try {
-                        WebContentService.WebPageContent webContent = webContentService.fetch(webUrl);
-                        if (webContent != null && webContent.text() != null 
-                                && !webContent.text().isEmpty() 
-                                && !webContent.text().startsWith("Failed to fetch")) {
-                            String queryWithoutUrl = currentMessage.replaceAll("#\\s*https?://\\S+", "").trim();
-                            if (queryWithoutUrl.isEmpty()) {
-                                queryWithoutUrl = "Summarize the content of this web page.";
-                            }
-                            processedMessage = ragPromptBuilder.buildPromptWithTranscript(
-                                    queryWithoutUrl, webContent.text(), webUrl, null);
-                            log.info("Injected web content from '{}' ({} chars) as RAG context", 
-                                    webContent.title(), webContent.text().length());
-                        } else {
-                            log.warn("No usable content from URL: {}", webUrl);
-                        }
-                    } catch (Exception e) {
-                        log.warn("Failed to fetch web content for {}: {}", webUrl, e.getMessage());
+        Matcher webMatcher = WEB_RAG_PATTERN.matcher(currentMessage);
+        if (webContentService != null && webMatcher.find()) {
+            String webUrl = webMatcher.group(1);
+            // Skip YouTube URLs (handled by the transcript contributor)
+            if (!webUrl.contains("youtube.com") && !webUrl.contains("youtu.be")) {
+                log.info("Detected Web URL RAG request for URL: {}", webUrl);
+                contributors.add(ContextContributor.of("web", () -> {
+                    WebContentService.WebPageContent webContent = webContentService.fetch(webUrl);
+                    if (webContent == null || webContent.text() == null
+                            || webContent.text().isEmpty()
+                            || webContent.text().startsWith("Failed to fetch")) {
+                        log.warn("No usable content from URL: {}", webUrl);
+                        return ContextContribution.none();
                     }
-                }
+                    String queryWithoutUrl = currentMessage.replaceAll("#\\s*https?://\\S+", "").trim();
+                    if (queryWithoutUrl.isEmpty()) {
+                        queryWithoutUrl = "Summarize the content of this web page.";
+                    }
+                    log.info("Injected web content from '{}' ({} chars) as RAG context",
+                            webContent.title(), webContent.text().length());
+                    return ContextContribution.rewrite(ragPromptBuilder.buildPromptWithTranscript(
+                            queryWithoutUrl, webContent.text(), webUrl, null));
+                }));
             }
         }
 
-        // Add current message (with possible YouTube transcript context)
-        messages.add(new UserMessage(processedMessage));
-
-        return messages;
+        return contributors;
     }
 
     /**
      * Build document context by searching user's documents for relevant content.
-     * Supports two retrieval modes:
+     * Supports three retrieval modes:
      *   - "snippet" (default): returns individual matched chunks
+     *   - "window": expands each matched chunk to its neighbours within rag.window-radius
      *   - "full": expands matched chunks to include all sibling chunks from the same parent document
      *
-     * @param ragRetrievalMode "snippet", "full", or null for server default
+     * @param ragRetrievalMode "snippet", "window", "full", or null for server default
      */
     private String buildDocumentContext(UUID userId, String query, String ragRetrievalMode) {
         if (documentEmbeddingService == null || !documentEmbeddingService.isAvailable()) {
@@ -928,6 +1246,10 @@ public class ChatService {
             // Determine the effective retrieval mode
             String mode = (ragRetrievalMode != null) ? ragRetrievalMode : ragPromptBuilder.getDefaultRetrievalMode();
 
+            if ("window".equalsIgnoreCase(mode)) {
+                return buildWindowedContext(userId, relevantDocs);
+            }
+
             // For full-document mode, expand matched chunks to include all sibling chunks
             List<Document> docsForContext = relevantDocs;
             if ("full".equalsIgnoreCase(mode)) {
@@ -998,6 +1320,44 @@ public class ChatService {
         }
     }
 
+    /**
+     * Window mode: each hit with its neighbouring chunks, overlapping windows merged, one
+     * section per window in document order.
+     */
+    private String buildWindowedContext(UUID userId, List<Document> relevantDocs) {
+        List<DocumentEmbeddingService.ChunkWindow> windows =
+                documentEmbeddingService.getNeighborChunks(userId, relevantDocs, ragWindowRadius);
+
+        StringBuilder contextBuilder = new StringBuilder();
+        int chunkCount = 0;
+        for (DocumentEmbeddingService.ChunkWindow window : windows) {
+            contextBuilder.append("--- From: ").append(window.filename());
+            if (window.chunks().get(0).getMetadata().get("chunk_index") != null) {
+                contextBuilder.append(window.first() == window.last()
+                        ? " (section " + (window.first() + 1) + ")"
+                        : " (sections " + (window.first() + 1) + "-" + (window.last() + 1) + ")");
+            }
+            contextBuilder.append(" ---\n");
+            for (Document chunk : window.chunks()) {
+                contextBuilder.append(chunk.getText()).append("\n");
+            }
+            contextBuilder.append("\n");
+            chunkCount += window.chunks().size();
+        }
+
+        log.debug("Built document context (window mode) with {} chunks in {} windows from {} hits for user {}",
+                chunkCount, windows.size(), relevantDocs.size(), userId);
+        return contextBuilder.toString().trim();
+    }
+
+    private Integer advertisedContextWindow(String modelName) {
+        if (modelName == null) {
+            return null;
+        }
+        ModelInfo model = modelRegistry.find(modelName);
+        return model != null ? model.getContextWindow() : null;
+    }
+
     private void validateModelName(String modelName) {
         // Allow alphanumeric, dots, hyphens, underscores, colons, and slashes (common in model names)
         if (!modelName.matches("[a-zA-Z0-9._:/-]+")) {
@@ -1007,9 +1367,7 @@ public class ChatService {
             throw new IllegalArgumentException("Model name too long");
         }
         // Verify model exists in available models
-        boolean exists = getAvailableModels().stream()
-                .anyMatch(m -> m.getId().equals(modelName));
-        if (!exists) {
+        if (!modelRegistry.contains(modelName)) {
             throw new IllegalArgumentException("Unknown model: " + modelName);
         }
     }
@@ -1,5 +1,6 @@
 package com.example.cfchat.service;
 
+import com.example.cfchat.event.ModelCatalogChangedEvent;
 import com.example.cfchat.model.ModelAccessRule;
 import com.example.cfchat.model.NotificationBanner;
 import com.example.cfchat.model.PromptPreset;
@@ -14,6 +15,7 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -36,6 +38,7 @@ public class ConfigExportService {
     private final PromptPresetRepository promptPresetRepository;
     private final ModelAccessRuleRepository modelAccessRuleRepository;
     private final NotificationBannerRepository notificationBannerRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     private static final ObjectMapper objectMapper = createObjectMapper();
 
@@ -144,6 +147,7 @@ public class ConfigExportService {
                 result.put("modelAccessRules", count);
                 totalImported += count;
                 log.info("Imported {} model access rules", count);
+                eventPublisher.publishEvent(new ModelCatalogChangedEvent(this, "model access rules imported"));
             }
 
             // Import notification banners
@@ -1,41 +1,110 @@
 package com.example.cfchat.service;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-
 @Service
 @Slf4j
 public class ContentModerationService {
 
+    /** Newline-separated phrases ({@code re:} prefix for regexes) replacing the built-in list. */
+    public static final String PATTERNS_KEY = "moderation.patterns";
+
+    // Basic pattern matching - in production use ML model or API
+    private static final SafetyScanner DEFAULT_SCANNER = SafetyScanner.builder()
+            .literal("kill yourself")
+            .literal("how to make a bomb")
+            .literal("how to hack")
+            .build();
+
     @Value("${moderation.enabled:false}")
     private boolean enabled;
 
     @Value("${moderation.action:warn}")
     private String action; // warn or block
 
+    @Value("${moderation.output.enabled:true}")
+    private boolean outputEnabled = true;
+
+    // Characters of earlier output kept so regex patterns can match across chunks
+    @Value("${moderation.output.window-chars:256}")
+    private int outputWindowChars = 256;
+
+    @Autowired(required = false)
+    private SystemSettingService systemSettingService;
+
+    @Autowired(required = false)
+    private EventService eventService;
+
+    private volatile SafetyScanner scanner = DEFAULT_SCANNER;
+
     public record ModerationResult(boolean flagged, String reason, String action) {}
 
     public boolean isEnabled() { return enabled; }
 
     public ModerationResult check(String text) {
-        if (!enabled) return new ModerationResult(false, null, null);
+        if (!enabled || text == null) return new ModerationResult(false, null, null);
 
-        // Pattern-based detection
-        if (containsToxicPatterns(text)) {
+        if (scanner.matches(text)) {
             return new ModerationResult(true, "Content flagged by pattern detection", action);
         }
         return new ModerationResult(false, null, null);
     }
 
-    private boolean containsToxicPatterns(String text) {
-        // Basic pattern matching - in production use ML model or API
-        String lower = text.toLowerCase();
-        List<String> patterns = List.of(
-            "kill yourself", "how to make a bomb", "how to hack"
-        );
-        return patterns.stream().anyMatch(lower::contains);
+    /**
+     * Starts moderating a streamed response chunk by chunk, or returns null when
+     * moderation or output checks are off. Each check uses the patterns loaded
+     * when it was opened.
+     */
+    public OutputCheck openOutputCheck() {
+        if (!enabled || !outputEnabled || scanner.isEmpty()) return null;
+        return new OutputCheck(scanner.session(outputWindowChars));
+    }
+
+    /** Incremental moderation of one response; see {@link SafetyScanner.Session}. */
+    public final class OutputCheck {
+        private final SafetyScanner.Session session;
+
+        private OutputCheck(SafetyScanner.Session session) {
+            this.session = session;
+        }
+
+        /** Checks the next chunk together with whatever of the pattern it completes from earlier chunks. */
+        public ModerationResult feed(String chunk) {
+            SafetyScanner.Match match = session.feed(chunk);
+            if (match == null) return new ModerationResult(false, null, null);
+            return new ModerationResult(true, "Response flagged by pattern detection: " + match.pattern(), action);
+        }
+
+        public long scannedChars() {
+            return session.scanned();
+        }
+    }
+
+    /** Loads the configured pattern list and reloads it whenever the setting changes, on any node. */
+    @PostConstruct
+    void loadPatterns() {
+        reloadPatterns();
+        if (eventService == null) return;
+        eventService.subscribe(CacheInvalidationService.CHANNEL_SETTINGS, (channel, message) -> {
+            if (PATTERNS_KEY.equals(message)) {
+                reloadPatterns();
+            }
+        });
+    }
+
+    void reloadPatterns() {
+        if (systemSettingService == null) return;
+        String spec = systemSettingService.getSetting(PATTERNS_KEY, "");
+        try {
+            SafetyScanner configured = spec.isBlank() ? DEFAULT_SCANNER : SafetyScanner.parse(spec);
+            scanner = configured;
+            log.info("Moderation scanner loaded with {} patterns", configured.patternCount());
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid {} setting, keeping the previous patterns: {}", PATTERNS_KEY, e.getMessage());
+        }
     }
 }
@@ -14,9 +14,13 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.ToIntFunction;
 
 @Service
 @RequiredArgsConstructor
@@ -26,6 +30,8 @@ public class ConversationService {
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
 
+    private static final int HISTORY_PAGE_SIZE = 50;
+
     @Observed(name = "cfllama.conversation.create",
             contextualName = "create-conversation",
             lowCardinalityKeyValues = {"operation", "create-conversation"})
@@ -83,6 +89,69 @@ public class ConversationService {
         return conversationRepository.findByIdAndUserIdWithMessages(id, userId);
     }
 
+    /**
+     * Loads the conversation row only, leaving the messages collection uninitialized.
+     * Pair with {@link #getRecentHistory} on the chat hot path.
+     */
+    @Transactional(readOnly = true)
+    public Optional<Conversation> getConversationHeaderForUser(UUID id, UUID userId) {
+        return conversationRepository.findByIdAndUserId(id, userId);
+    }
+
+    /**
+     * Returns the newest {@code maxMessages} active messages of a conversation, oldest first.
+     */
+    @Transactional(readOnly = true)
+    public List<Message> getRecentHistory(UUID conversationId, int maxMessages) {
+        return getRecentHistory(conversationId, maxMessages, 0, null);
+    }
+
+    /**
+     * Returns the tail of a conversation's active history, oldest first. Pages backwards
+     * with a (createdAt, id) keyset and stops at {@code maxMessages} or once the next
+     * message would push the total over {@code maxTokens} (0 disables the token budget).
+     * Per-turn cost depends on the window size, not on the conversation length.
+     */
+    @Transactional(readOnly = true)
+    public List<Message> getRecentHistory(UUID conversationId, int maxMessages, int maxTokens,
+                                          ToIntFunction<String> tokenCounter) {
+        if (conversationId == null || maxMessages <= 0) {
+            return List.of();
+        }
+        boolean budgeted = maxTokens > 0 && tokenCounter != null;
+        int pageSize = budgeted ? Math.min(maxMessages, HISTORY_PAGE_SIZE) : maxMessages;
+
+        List<Message> newestFirst = new ArrayList<>();
+        int tokens = 0;
+        int requested = pageSize;
+        List<Message> page = messageRepository.findLatestActive(conversationId, PageRequest.of(0, requested));
+        while (!page.isEmpty()) {
+            for (Message message : page) {
+                if (budgeted) {
+                    tokens += tokenCounter.applyAsInt(message.getContent());
+                    if (tokens > maxTokens) {
+                        Collections.reverse(newestFirst);
+                        return newestFirst;
+                    }
+                }
+                newestFirst.add(message);
+                if (newestFirst.size() >= maxMessages) {
+                    Collections.reverse(newestFirst);
+                    return newestFirst;
+                }
+            }
+            if (page.size() < requested) {
+                break;
+            }
+            Message oldest = page.get(page.size() - 1);
+            requested = Math.min(pageSize, maxMessages - newestFirst.size());
+            page = messageRepository.findActiveBefore(conversationId, oldest.getCreatedAt(), oldest.getId(),
+                    PageRequest.of(0, requested));
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
     @Transactional(readOnly = true)
     public long getConversationCountForUser(UUID userId) {
         return conversationRepository.countByUserId(userId);
@@ -97,19 +166,43 @@ public class ConversationService {
 
     @Transactional
     public Message addMessage(UUID conversationId, Message.MessageRole role, String content, String model) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new IllegalArgumentException("Conversation not found: " + conversationId));
-
-        Message message = Message.builder()
+        return appendMessage(conversationId, Message.builder()
                 .role(role)
                 .content(content)
                 .modelUsed(model)
-                .build();
+                .build());
+    }
+
+    /**
+     * Append-only insert: reserves a sequence number and bumps updatedAt with one UPDATE,
+     * then inserts the message directly. The conversation's messages collection is never
+     * loaded or dirty-checked, so the cost does not grow with conversation length.
+     */
+    @Transactional
+    public Message appendMessage(UUID conversationId, Message message) {
+        return appendMessages(conversationId, List.of(message)).get(0);
+    }
 
-        conversation.addMessage(message);
-        conversationRepository.save(conversation);
+    /**
+     * Batch form of {@link #appendMessage}; sequence numbers follow list order.
+     */
+    @Transactional
+    public List<Message> appendMessages(UUID conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return List.of();
+        }
+        if (conversationRepository.reserveSequenceNumbers(conversationId, messages.size(), LocalDateTime.now()) == 0) {
+            throw new IllegalArgumentException("Conversation not found: " + conversationId);
+        }
+        Integer last = conversationRepository.findLastSequenceNumber(conversationId);
+        int next = (last != null ? last : messages.size()) - messages.size() + 1;
 
-        return message;
+        Conversation reference = conversationRepository.getReferenceById(conversationId);
+        for (Message message : messages) {
+            message.setConversation(reference);
+            message.setSequenceNumber(next++);
+        }
+        return messageRepository.saveAll(messages);
     }
 
     @Transactional
@@ -198,14 +291,18 @@ public class ConversationService {
 
     @Transactional
     public Conversation cloneConversation(UUID conversationId, UUID userId) {
-        Conversation original = conversationRepository.findByIdAndUserIdWithMessages(conversationId, userId)
+        Conversation original = conversationRepository.findByIdAndUserId(conversationId, userId)
             .orElseThrow(() -> new IllegalArgumentException("Conversation not found"));
         Conversation clone = createConversation(original.getTitle() + " (copy)", null, original.getModelName(), userId);
-        if (original.getMessages() != null) {
-            original.getMessages().stream()
-                .filter(m -> Boolean.TRUE.equals(m.getActive()))
-                .forEach(m -> addMessage(clone.getId(), m.getRole(), m.getContent(), m.getModelUsed()));
-        }
+        List<Message> copies = messageRepository.findByConversationIdAndActiveTrueOrderByCreatedAtAsc(conversationId)
+            .stream()
+            .map(m -> Message.builder()
+                .role(m.getRole())
+                .content(m.getContent())
+                .modelUsed(m.getModelUsed())
+                .build())
+            .toList();
+        appendMessages(clone.getId(), copies);
         return clone;
     }
 }
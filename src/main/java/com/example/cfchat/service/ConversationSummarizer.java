@@ -0,0 +1,321 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.Conversation;
+import com.example.cfchat.model.Message;
+import com.example.cfchat.repository.ConversationRepository;
+import com.example.cfchat.repository.MessageRepository;
+import com.example.cfchat.service.context.ContextBudgetPlanner;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rolling compaction of long conversations. Once the turns after the summary
+ * watermark exceed {@code trigger-tokens}, the oldest of them (everything but the
+ * newest {@code keep-tokens}) are folded into the conversation's summary by a
+ * background call to {@code app.chat.summary.model}, and the watermark moves to
+ * the last folded message. Prompts then carry the summary plus the turns after
+ * the watermark instead of the full history.
+ * <p>
+ * Editing or regenerating a message the summary covers discards the summary
+ * ({@link #historyRewritten}), and a watermark whose message is no longer active
+ * counts as no summary at all, so rewritten text never reaches later prompts.
+ */
+@Service
+@Slf4j
+public class ConversationSummarizer implements DisposableBean {
+
+    static final String SYSTEM_PROMPT = """
+            You maintain a running summary of a conversation between a user and an assistant.
+            Merge the new messages into the existing summary. Keep facts, decisions, names, numbers,
+            code identifiers, open questions and the user's stated preferences; drop greetings and
+            filler. Write compact plain prose in the conversation's language, at most %d words.
+            Reply with the updated summary only.""";
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final ContextBudgetPlanner contextBudgetPlanner;
+    private final ModelRouter modelRouter;
+    private final ChatModel defaultChatModel;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler scheduler;
+    private final Set<UUID> compacting = ConcurrentHashMap.newKeySet();
+    private volatile boolean warnedMissingModel;
+
+    @Value("${app.chat.summary.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.chat.summary.model:}")
+    private String summaryModel;
+
+    @Value("${app.chat.summary.trigger-tokens:6000}")
+    private int triggerTokens = 6000;
+
+    @Value("${app.chat.summary.keep-tokens:2000}")
+    private int keepTokens = 2000;
+
+    @Value("${app.chat.summary.max-words:400}")
+    private int maxWords = 400;
+
+    public ConversationSummarizer(ConversationRepository conversationRepository,
+                                  MessageRepository messageRepository,
+                                  ContextBudgetPlanner contextBudgetPlanner,
+                                  ModelRouter modelRouter,
+                                  @Autowired(required = false) OpenAiChatModel defaultChatModel,
+                                  PlatformTransactionManager transactionManager) {
+        this.conversationRepository = conversationRepository;
+        this.messageRepository = messageRepository;
+        this.contextBudgetPlanner = contextBudgetPlanner;
+        this.modelRouter = modelRouter;
+        this.defaultChatModel = defaultChatModel;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.scheduler = Schedulers.newBoundedElastic(2, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "chat-summarize");
+    }
+
+    /**
+     * What a prompt carries from earlier turns: the rolling summary (or null) and the
+     * messages after its watermark, oldest first.
+     */
+    public record History(String summary, List<Message> messages) {
+        public boolean isEmpty() {
+            return summary == null && messages.isEmpty();
+        }
+    }
+
+    /**
+     * Trims the loaded tail to the turns the summary does not cover, and schedules
+     * a compaction when those have grown past {@code trigger-tokens}. The tail is
+     * capped by {@code app.chat.history.max-messages}; when it stops short of the
+     * watermark, the turns in between are not in it, so the compaction counts and
+     * folds from the watermark itself. A watermark that is no longer an active
+     * message is ignored along with its summary, and the compaction clears it.
+     */
+    public History prepare(Conversation conversation, List<Message> tail) {
+        List<Message> unsummarized = tail;
+        String summary = conversation.getSummary();
+        UUID watermark = conversation.getSummaryWatermarkId();
+        boolean reachesWatermark = false;
+        boolean stale = false;
+        if (watermark != null) {
+            for (int i = tail.size() - 1; i >= 0; i--) {
+                if (watermark.equals(tail.get(i).getId())) {
+                    unsummarized = tail.subList(i + 1, tail.size());
+                    reachesWatermark = true;
+                    break;
+                }
+            }
+            if (!reachesWatermark
+                    && messageRepository.findById(watermark).filter(ConversationSummarizer::isActive).isEmpty()) {
+                stale = true;
+                summary = null;
+            }
+        } else {
+            reachesWatermark = tail.isEmpty() || startsConversation(tail.get(0));
+        }
+        if (enabled && conversation.getId() != null
+                && (stale || !reachesWatermark || countTokens(unsummarized) > triggerTokens)) {
+            requestCompaction(conversation.getId(), conversation.getModelName());
+        }
+        return new History(summary, unsummarized);
+    }
+
+    /**
+     * Discards the summary when {@code changed}, a message that was just edited or
+     * deactivated, is at or before the watermark: the summary then carries text the
+     * conversation no longer has. Runs in the caller's transaction.
+     */
+    public void historyRewritten(UUID conversationId, Message changed) {
+        Conversation conversation = conversationRepository.findById(conversationId).orElse(null);
+        if (conversation == null || conversation.getSummaryWatermarkId() == null) {
+            return;
+        }
+        UUID watermarkId = conversation.getSummaryWatermarkId();
+        boolean covered = watermarkId.equals(changed.getId()) || messageRepository.findById(watermarkId)
+                .map(watermark -> !isAfter(changed, watermark))
+                .orElse(true);
+        if (covered && conversationRepository.updateSummary(conversationId, null, null, watermarkId) > 0) {
+            log.info("Discarded the summary of conversation {}: message {} it covers was rewritten",
+                    conversationId, changed.getId());
+        }
+    }
+
+    /** Conversation order: by sequence number where both have one, else by (createdAt, id) like the history queries. */
+    private static boolean isAfter(Message message, Message other) {
+        if (message.getSequenceNumber() != null && other.getSequenceNumber() != null) {
+            return message.getSequenceNumber() > other.getSequenceNumber();
+        }
+        int byTime = message.getCreatedAt().compareTo(other.getCreatedAt());
+        return byTime != 0 ? byTime > 0 : message.getId().compareTo(other.getId()) > 0;
+    }
+
+    private static boolean isActive(Message message) {
+        return !Boolean.FALSE.equals(message.getActive());
+    }
+
+    /** Rows written before sequence numbers existed carry none; assume those start the conversation. */
+    private static boolean startsConversation(Message message) {
+        return message.getSequenceNumber() == null || message.getSequenceNumber() <= 1;
+    }
+
+    /**
+     * Fire-and-forget compaction; at most one runs per conversation at a time.
+     */
+    public void requestCompaction(UUID conversationId, String conversationModel) {
+        if (!compacting.add(conversationId)) {
+            return;
+        }
+        compact(conversationId, conversationModel)
+                .doFinally(signal -> compacting.remove(conversationId))
+                .subscribe();
+    }
+
+    /**
+     * Folds the oldest unsummarized turns into the summary. Emits true when the
+     * watermark advanced; never signals an error.
+     */
+    public Mono<Boolean> compact(UUID conversationId, String conversationModel) {
+        return Mono.fromCallable(() -> compactNow(conversationId, conversationModel))
+                .subscribeOn(scheduler)
+                .onErrorResume(e -> {
+                    log.warn("Summarizing conversation {} failed: {}", conversationId, e.getMessage());
+                    return Mono.just(false);
+                });
+    }
+
+    private boolean compactNow(UUID conversationId, String conversationModel) {
+        Optional<Conversation> found = conversationRepository.findById(conversationId);
+        if (found.isEmpty()) {
+            return false;
+        }
+        Conversation conversation = found.get();
+        UUID previousWatermark = conversation.getSummaryWatermarkId();
+        String previousSummary = conversation.getSummary();
+
+        List<Message> unsummarized;
+        Optional<Message> watermark = previousWatermark != null
+                ? messageRepository.findById(previousWatermark).filter(ConversationSummarizer::isActive)
+                : Optional.empty();
+        if (watermark.isPresent()) {
+            unsummarized = messageRepository.findActiveAfter(conversationId,
+                    watermark.get().getCreatedAt(), watermark.get().getId());
+        } else {
+            // No summary yet, or its watermark message was deleted or deactivated: start over from the beginning
+            unsummarized = messageRepository.findActiveFromStart(conversationId);
+            previousSummary = null;
+        }
+        if (countTokens(unsummarized) <= triggerTokens) {
+            if (previousWatermark != null && watermark.isEmpty()) {
+                // Too little left to summarize; drop the stale summary so prompts stop asking
+                transactionTemplate.execute(status ->
+                        conversationRepository.updateSummary(conversationId, null, null, previousWatermark));
+            }
+            return false;
+        }
+
+        // Keep the newest keep-tokens verbatim; fold everything older into the summary
+        int kept = 0;
+        int split = unsummarized.size();
+        while (split > 0) {
+            int tokens = contextBudgetPlanner.countTokens(unsummarized.get(split - 1).getContent());
+            if (kept + tokens > keepTokens) {
+                break;
+            }
+            kept += tokens;
+            split--;
+        }
+        List<Message> segment = unsummarized.subList(0, split);
+        if (segment.isEmpty()) {
+            return false;
+        }
+
+        ChatModel model = resolveModel(conversationModel);
+        if (model == null) {
+            log.debug("No model available to summarize conversation {}", conversationId);
+            return false;
+        }
+        String summary = summarize(model, previousSummary, segment);
+        if (summary == null || summary.isBlank()) {
+            return false;
+        }
+
+        UUID newWatermark = segment.get(segment.size() - 1).getId();
+        Integer updated = transactionTemplate.execute(status ->
+                conversationRepository.updateSummary(conversationId, summary.strip(), newWatermark, previousWatermark));
+        if (updated == null || updated == 0) {
+            return false;
+        }
+        log.info("Summarized {} messages of conversation {} ({} tokens kept verbatim)",
+                segment.size(), conversationId, kept);
+        return true;
+    }
+
+    private String summarize(ChatModel model, String previousSummary, List<Message> segment) {
+        StringBuilder transcript = new StringBuilder();
+        transcript.append("Existing summary:\n")
+                .append(previousSummary != null ? previousSummary : "(none)")
+                .append("\n\nNew messages:\n");
+        for (Message message : segment) {
+            if (message.getRole() == Message.MessageRole.SYSTEM) {
+                continue;
+            }
+            transcript.append(message.getRole() == Message.MessageRole.USER ? "User: " : "Assistant: ")
+                    .append(message.getContent())
+                    .append("\n");
+        }
+        ChatResponse response = model.call(new Prompt(List.of(
+                new SystemMessage(SYSTEM_PROMPT.formatted(maxWords)),
+                new UserMessage(transcript.toString()))));
+        return response != null && response.getResult() != null
+                ? response.getResult().getOutput().getText()
+                : null;
+    }
+
+    private ChatModel resolveModel(String conversationModel) {
+        boolean configured = summaryModel != null && !summaryModel.isBlank();
+        String name = configured ? summaryModel : conversationModel;
+        if (modelRouter != null && name != null) {
+            ChatModel model = modelRouter.replicas(name).values().stream().findFirst().orElse(null);
+            if (model != null) {
+                return model;
+            }
+        }
+        if (configured && !warnedMissingModel) {
+            warnedMissingModel = true;
+            log.warn("app.chat.summary.model '{}' is not served by any backend; summarizing with the default model instead",
+                    summaryModel);
+        }
+        return defaultChatModel;
+    }
+
+    private int countTokens(List<Message> messages) {
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += contextBudgetPlanner.countTokens(message.getContent());
+        }
+        return tokens;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+}
@@ -1,40 +1,52 @@
 package com.example.cfchat.service;
 
-import com.example.cfchat.config.VectorStoreConfig;
 import com.example.cfchat.dto.DocumentUploadResponse;
 import com.example.cfchat.dto.UserDocumentDto;
-import com.example.cfchat.model.EmbeddingMetric.OperationType;
 import com.example.cfchat.model.User;
 import com.example.cfchat.model.UserDocument;
 import com.example.cfchat.model.UserDocument.DocumentStatus;
 import com.example.cfchat.repository.UserDocumentRepository;
 import com.example.cfchat.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
 import io.micrometer.observation.annotation.Observed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
 import jakarta.annotation.PostConstruct;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.LocalDateTime;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -46,13 +58,41 @@ import java.util.stream.Collectors;
 @Slf4j
 public class DocumentEmbeddingService {
 
+    private static final ObjectMapper METADATA_MAPPER = new ObjectMapper();
+
+    // Searchable chunks: the user's own plus shared documents. HNSW needs the filter inline
+    // with the ORDER BY so iterative scans keep walking the graph until LIMIT rows pass it.
+    private static final String OWNED_CHUNKS_FILTER = "user_id = ? OR document_id = ANY (?)";
+
+    static final String DELETE_DOCUMENT_EMBEDDINGS_SQL = "DELETE FROM document_embeddings WHERE document_id = ?";
+
+    static final String INDEXED_SEARCH_SQL = """
+            SELECT id, content, metadata, embedding <=> ? AS distance
+            FROM document_embeddings
+            WHERE %s
+            ORDER BY embedding <=> ?
+            LIMIT ?
+            """.formatted(OWNED_CHUNKS_FILTER);
+
+    // Materializing the filtered rows first keeps the planner off the index: an exact scan
+    static final String EXACT_SEARCH_SQL = """
+            WITH owned AS MATERIALIZED (
+                SELECT id, content, metadata, embedding
+                FROM document_embeddings
+                WHERE %s
+            )
+            SELECT id, content, metadata, embedding <=> ? AS distance
+            FROM owned
+            ORDER BY distance
+            LIMIT ?
+            """.formatted(OWNED_CHUNKS_FILTER);
+
     private final VectorStore vectorStore;
     private final UserDocumentRepository documentRepository;
     private final UserRepository userRepository;
     private final JdbcTemplate jdbcTemplate;
     private final DocumentStorageService storageService;
-    private final MetricsService metricsService;
-    private final VectorStoreConfig vectorStoreConfig;
+    private final DocumentIngestionPipeline ingestionPipeline;
 
     @Value("${app.documents.max-file-size:10485760}")  // 10MB default
     private long maxFileSize;
@@ -60,16 +100,33 @@ public class DocumentEmbeddingService {
     @Value("${app.documents.max-documents-per-user:50}")
     private int maxDocumentsPerUser;
 
-    @Value("${app.documents.chunk-size:400}")
-    private int chunkSize;
-
-    @Value("${app.documents.chunk-overlap:100}")
-    private int chunkOverlap;
-
     @Value("${app.embedding.allow-destructive-migration:false}")
     private boolean allowDestructiveMigration;
 
-    private TokenTextSplitter textSplitter;
+    @Value("${app.embedding.backfill-batch-size:1000}")
+    private int backfillBatchSize = 1000;
+
+    @Value("${app.documents.search.iterative-scan:true}")
+    private boolean iterativeScan = true;
+
+    // Below this many searchable chunks an exact scan is cheap and never misses a neighbour
+    @Value("${app.documents.search.exact-scan-max-chunks:2000}")
+    private long exactScanMaxChunks = 2000;
+
+    @Value("${app.documents.search.ef-search:100}")
+    private int efSearch = 100;
+
+    @Autowired(required = false)
+    private EmbeddingModel embeddingModel;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    // Cleared once the database rejects hnsw.iterative_scan (pgvector before 0.8)
+    private volatile boolean iterativeScanSupported = true;
+
+    // Set once the metadata columns, their trigger and indexes are in place
+    private volatile boolean metadataColumnsMigrated;
 
     public DocumentEmbeddingService(
             @Autowired(required = false) VectorStore vectorStore,
@@ -77,37 +134,23 @@ public class DocumentEmbeddingService {
             UserRepository userRepository,
             JdbcTemplate jdbcTemplate,
             DocumentStorageService storageService,
-            MetricsService metricsService,
-            @Autowired(required = false) VectorStoreConfig vectorStoreConfig) {
+            DocumentIngestionPipeline ingestionPipeline) {
         this.vectorStore = vectorStore;
         this.documentRepository = documentRepository;
         this.userRepository = userRepository;
         this.jdbcTemplate = jdbcTemplate;
         this.storageService = storageService;
-        this.metricsService = metricsService;
-        this.vectorStoreConfig = vectorStoreConfig;
+        this.ingestionPipeline = ingestionPipeline;
     }
 
     @PostConstruct
     public void init() {
-        // Initialize text splitter with injected config values
-        // Chunk size should stay under embedding model's token limit (512 for nomic)
-        // Use 350 to leave room for overhead and special tokens
-        int effectiveChunkSize = Math.min(chunkSize, 350);
-        this.textSplitter = TokenTextSplitter.builder()
-                .withChunkSize(effectiveChunkSize)
-                .withMinChunkSizeChars(100)  // Lower threshold to capture more content
-                .withMinChunkLengthToEmbed(5)
-                .withMaxNumChunks(10000)
-                .withKeepSeparator(true)
-                .build();
-
-        log.info("DocumentEmbeddingService initialized - vectorStore: {}, chunkSize: {}, overlap: {}",
-                vectorStore != null ? vectorStore.getClass().getSimpleName() : "null",
-                effectiveChunkSize, chunkOverlap);
+        log.info("DocumentEmbeddingService initialized - vectorStore: {}",
+                vectorStore != null ? vectorStore.getClass().getSimpleName() : "null");
 
         // Run database migrations
         migrateErrorMessageColumn();
+        migrateEmbeddingMetadataColumns();
     }
 
     /**
@@ -142,6 +185,104 @@ public class DocumentEmbeddingService {
         }
     }
 
+    /**
+     * Promote user_id, document_id and chunk_index from the JSON metadata to typed,
+     * indexed columns, so deletes and full-document expansion are index range scans.
+     * The vector store only writes metadata, so a trigger fills the columns on every
+     * insert or upsert; rows written before the columns existed are backfilled once
+     * the application is ready. This is idempotent - safe to run multiple times.
+     * <p>
+     * Search, expansion, deletes and ingestion all query these columns, so a failure
+     * here stops startup rather than leaving every document operation to fail later.
+     */
+    private void migrateEmbeddingMetadataColumns() {
+        if (!(vectorStore instanceof PgVectorStore)) {
+            return;
+        }
+        try {
+            jdbcTemplate.execute("""
+                ALTER TABLE document_embeddings
+                    ADD COLUMN IF NOT EXISTS user_id uuid,
+                    ADD COLUMN IF NOT EXISTS document_id uuid,
+                    ADD COLUMN IF NOT EXISTS chunk_index integer
+                """);
+            // Values that are not well-formed (e.g. wiki page chunks, which carry other keys) stay null
+            jdbcTemplate.execute("""
+                CREATE OR REPLACE FUNCTION document_embeddings_metadata_columns() RETURNS trigger AS $$
+                DECLARE
+                    meta jsonb := NEW.metadata::jsonb;
+                BEGIN
+                    NEW.user_id := CASE WHEN meta ->> 'user_id' ~* '^[0-9a-f]{8}-([0-9a-f]{4}-){3}[0-9a-f]{12}$'
+                                        THEN (meta ->> 'user_id')::uuid END;
+                    NEW.document_id := CASE WHEN meta ->> 'document_id' ~* '^[0-9a-f]{8}-([0-9a-f]{4}-){3}[0-9a-f]{12}$'
+                                            THEN (meta ->> 'document_id')::uuid END;
+                    NEW.chunk_index := CASE WHEN meta ->> 'chunk_index' ~ '^-?[0-9]{1,9}$'
+                                            THEN (meta ->> 'chunk_index')::integer END;
+                    RETURN NEW;
+                END
+                $$ LANGUAGE plpgsql
+                """);
+            jdbcTemplate.execute("DROP TRIGGER IF EXISTS document_embeddings_metadata_columns ON document_embeddings");
+            jdbcTemplate.execute("""
+                CREATE TRIGGER document_embeddings_metadata_columns
+                    BEFORE INSERT OR UPDATE OF metadata ON document_embeddings
+                    FOR EACH ROW EXECUTE FUNCTION document_embeddings_metadata_columns()
+                """);
+            jdbcTemplate.execute(
+                    "CREATE INDEX IF NOT EXISTS idx_document_embeddings_document ON document_embeddings (document_id, chunk_index)");
+            jdbcTemplate.execute(
+                    "CREATE INDEX IF NOT EXISTS idx_document_embeddings_user ON document_embeddings (user_id)");
+        } catch (Exception e) {
+            throw new IllegalStateException("Migration of embedding metadata columns failed; document search, "
+                    + "expansion and ingestion depend on them: " + e.getMessage(), e);
+        }
+        metadataColumnsMigrated = true;
+    }
+
+    /**
+     * Fill the metadata columns for rows that predate them, one short transaction per
+     * batch. Rewriting metadata fires the trigger; walking the primary key means rows
+     * whose values cannot be promoted are visited only once. Runs in the background
+     * after startup, so a large table does not hold up readiness; until it finishes,
+     * older documents are missing from search and expansion.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillEmbeddingMetadataColumns() {
+        if (!metadataColumnsMigrated) {
+            return;
+        }
+        String sql = """
+            WITH batch AS (
+                SELECT id FROM document_embeddings
+                WHERE id > ? AND document_id IS NULL AND metadata::jsonb ->> 'document_id' IS NOT NULL
+                ORDER BY id
+                LIMIT ?
+            ), promoted AS (
+                UPDATE document_embeddings e SET metadata = e.metadata
+                FROM batch WHERE e.id = batch.id
+            )
+            SELECT id FROM batch ORDER BY id DESC LIMIT 1
+            """;
+        UUID lastId = new UUID(0, 0);
+        long batches = 0;
+        try {
+            while (true) {
+                List<UUID> last = jdbcTemplate.queryForList(sql, UUID.class, lastId, backfillBatchSize);
+                if (last.isEmpty()) {
+                    break;
+                }
+                lastId = last.get(0);
+                batches++;
+            }
+            if (batches > 0) {
+                log.info("Backfilled embedding metadata columns in {} batches of up to {} rows", batches, backfillBatchSize);
+            }
+        } catch (Exception e) {
+            log.warn("Backfill of embedding metadata columns stopped after {} batches: {}", batches, e.getMessage());
+        }
+    }
+
     /**
      * Check if the embedding service is available.
      */
@@ -150,9 +291,12 @@ public class DocumentEmbeddingService {
     }
 
     /**
-     * Upload and process a document for a user.
-     * Note: Not using @Transactional here so that document status can be updated
-     * to FAILED even if the embedding operation fails.
+     * Accept a document upload and queue it for ingestion. Only validation, the
+     * document record and a local copy of the file happen on the caller's thread;
+     * the returned document id identifies the job, whose progress is available
+     * from {@link #getIngestionProgress(UUID)}.
+     *
+     * @throws DocumentIngestionPipeline.QueueFullException when the ingestion queue is full
      */
     @Observed(name = "cfllama.document.upload",
             contextualName = "document-upload",
@@ -175,174 +319,40 @@ public class DocumentEmbeddingService {
                 .originalFilename(file.getOriginalFilename())
                 .contentType(file.getContentType())
                 .fileSize(file.getSize())
-                .status(DocumentStatus.PROCESSING)
+                .status(DocumentStatus.PENDING)
                 .build();
+        ingestionPipeline.lease(document);
 
         document = documentRepository.save(document);
         log.info("Created document record: {} for user: {}", document.getId(), userId);
 
         try {
-            // Store original document in S3 if enabled
-            if (storageService.isStorageEnabled()) {
-                try {
-                    String storagePath = storageService.storeDocument(userId, document.getId(), file);
-                    document.setStoragePath(storagePath);
-                    log.info("Stored original document in S3: {}", storagePath);
-                } catch (Exception e) {
-                    log.warn("Failed to store document in S3, continuing with embedding only: {}", e.getMessage());
-                }
-            }
-
-            // Read and chunk the document
-            List<Document> documents = readAndChunkDocument(file, document.getId(), userId);
-
-            if (documents.isEmpty()) {
-                throw new RuntimeException("No content could be extracted from the document");
-            }
-
-            // Calculate total characters for metrics
-            long totalCharacters = documents.stream()
-                    .mapToLong(doc -> doc.getText() != null ? doc.getText().length() : 0)
-                    .sum();
-
-            // Store chunks in vector store (this triggers the embedding)
-            long embeddingStartTime = System.currentTimeMillis();
-            vectorStore.accept(documents);
-            long embeddingTime = System.currentTimeMillis() - embeddingStartTime;
-
-            // Update document status
-            document.setStatus(DocumentStatus.COMPLETED);
-            document.setChunkCount(documents.size());
-            document.setProcessedAt(LocalDateTime.now());
-            documentRepository.save(document);
-
-            long processingTime = System.currentTimeMillis() - startTime;
-            log.info("Successfully processed document {} with {} chunks in {}ms (embedding: {}ms)",
-                    document.getId(), documents.size(), processingTime, embeddingTime);
-
-            // Record embedding metrics
-            String embeddingModel = getEmbeddingModelName();
-            metricsService.recordEmbeddingUsage(
-                    userId,
-                    document.getId(),
-                    embeddingModel,
-                    documents.size(),
-                    totalCharacters,
-                    embeddingTime,
-                    OperationType.DOCUMENT_UPLOAD
-            );
-
-            return DocumentUploadResponse.builder()
-                    .documentId(document.getId())
-                    .filename(file.getOriginalFilename())
-                    .status("COMPLETED")
-                    .message("Document processed successfully")
-                    .chunkCount(documents.size())
-                    .processingTimeMs(processingTime)
-                    .build();
-
-        } catch (Exception e) {
-            log.error("Failed to process document {}: {}", document.getId(), e.getMessage(), e);
-
-            document.setStatus(DocumentStatus.FAILED);
-            document.setErrorMessage(truncateErrorMessage(e.getMessage()));
-            documentRepository.save(document);
-
-            return DocumentUploadResponse.builder()
-                    .documentId(document.getId())
-                    .filename(file.getOriginalFilename())
-                    .status("FAILED")
-                    .message("Failed to process document. Please check the file format and try again.")
-                    .processingTimeMs(System.currentTimeMillis() - startTime)
-                    .build();
-        }
-    }
-
-    /**
-     * Read a document and split it into chunks.
-     * Uses streaming to avoid loading large files entirely into memory.
-     */
-    private List<Document> readAndChunkDocument(MultipartFile file, UUID documentId, UUID userId) throws IOException {
-        List<Document> documents;
-
-        String contentType = file.getContentType();
-        String filename = file.getOriginalFilename();
-
-        if (isPdf(contentType, filename)) {
-            // Use PagePdfDocumentReader for PDF files - stream directly from MultipartFile
-            InputStreamResource resource = new InputStreamResource(file.getInputStream());
-            PagePdfDocumentReader pdfReader = new PagePdfDocumentReader(resource);
-            documents = pdfReader.read();
-            log.info("Read {} pages from PDF: {}", documents.size(), filename);
-        } else {
-            // Use Tika for other file types (Word, text, etc.) - stream directly
-            InputStreamResource resource = new InputStreamResource(file.getInputStream());
-            TikaDocumentReader tikaReader = new TikaDocumentReader(resource);
-            documents = tikaReader.read();
-            log.info("Read document using Tika: {}", filename);
-        }
-
-        // Split documents into chunks
-        List<Document> chunkedDocuments = textSplitter.apply(documents);
-
-        // Add metadata to each chunk
-        List<Document> enrichedDocuments = new ArrayList<>();
-        int chunkIndex = 0;
-        for (Document doc : chunkedDocuments) {
-            String content = doc.getText();
-
-            // Clean the content
-            content = cleanContent(content);
-            if (content.isEmpty()) {
-                continue;
-            }
-
-            // Store clean content without source markers - source info goes in metadata only
-            Document enrichedDoc = new Document(content);
-            enrichedDoc.getMetadata().put("user_id", userId.toString());
-            enrichedDoc.getMetadata().put("document_id", documentId.toString());
-            enrichedDoc.getMetadata().put("filename", filename);
-            enrichedDoc.getMetadata().put("chunk_index", chunkIndex);
-            enrichedDoc.getMetadata().put("chunk_total", chunkedDocuments.size());
-            enrichedDoc.getMetadata().put("content_type", contentType);
-
-            // Copy original metadata
-            doc.getMetadata().forEach((key, value) -> {
-                if (!enrichedDoc.getMetadata().containsKey(key)) {
-                    enrichedDoc.getMetadata().put(key, value);
-                }
-            });
-
-            enrichedDocuments.add(enrichedDoc);
-            chunkIndex++;
+            ingestionPipeline.submit(document, userId, file);
+        } catch (IOException | RuntimeException e) {
+            documentRepository.delete(document);
+            throw e;
         }
 
-        log.info("Created {} chunks from document: {}", enrichedDocuments.size(), filename);
-        return enrichedDocuments;
+        return DocumentUploadResponse.builder()
+                .documentId(document.getId())
+                .filename(file.getOriginalFilename())
+                .status(DocumentStatus.PENDING.name())
+                .message("Document queued for processing")
+                .processingTimeMs(System.currentTimeMillis() - startTime)
+                .build();
     }
 
     /**
-     * Clean extracted text content.
+     * Ingestion progress for a document, live while its job runs.
      */
-    private String cleanContent(String content) {
-        if (content == null || content.isEmpty()) {
-            return "";
-        }
-
-        // Remove binary/base64 patterns
-        String cleaned = content.replaceAll("data:image/[^;]+;base64,[A-Za-z0-9+/=\\s]+", "[IMAGE]");
-
-        // Remove non-printable characters
-        cleaned = cleaned.replaceAll("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F\\x7F]+", " ");
-
-        // Normalize whitespace
-        cleaned = cleaned.replaceAll("\\s+", " ").trim();
-
-        return cleaned;
+    public Flux<DocumentIngestionPipeline.Progress> getIngestionProgress(UUID documentId) {
+        return ingestionPipeline.progress(documentId);
     }
 
     /**
-     * Search for relevant document chunks for a user's query.
+     * Search for relevant document chunks for a user's query, among the user's own
+     * documents and shared ones. Ownership is filtered inside the store query, so the
+     * top-k is taken from the user's chunks rather than cut down from a global top-k.
      */
     @Observed(name = "cfllama.rag.search",
             contextualName = "rag-search",
@@ -355,24 +365,103 @@ public class DocumentEmbeddingService {
 
         log.debug("Searching documents for user {} with query: {}", userId, query);
 
-        // Build search request with user filter
-        SearchRequest searchRequest = SearchRequest.builder()
-                .query(query)
-                .topK(topK * 2)  // Get more results to filter
-                .build();
-
-        List<Document> results = vectorStore.similaritySearch(searchRequest);
+        List<String> sharedDocumentIds = documentRepository.findSharedDocumentIds(DocumentStatus.COMPLETED)
+                .stream()
+                .map(UUID::toString)
+                .toList();
 
-        // Filter results by user ID
-        List<Document> userResults = results.stream()
-                .filter(doc -> userId.toString().equals(doc.getMetadata().get("user_id")))
-                .limit(topK)
-                .collect(Collectors.toList());
+        List<Document> userResults = null;
+        if (vectorStore instanceof PgVectorStore && embeddingModel != null && transactionManager != null) {
+            userResults = searchPgVector(userId, sharedDocumentIds, query, topK);
+        }
+        if (userResults == null) {
+            SearchRequest searchRequest = SearchRequest.builder()
+                    .query(query)
+                    .topK(topK)
+                    .filterExpression(ownershipFilter(userId, sharedDocumentIds))
+                    .build();
+            userResults = vectorStore.similaritySearch(searchRequest);
+        }
 
         log.debug("Found {} relevant chunks for user {}", userResults.size(), userId);
         return userResults;
     }
 
+    /**
+     * Matches chunks of the user's own documents and of shared documents.
+     */
+    static Filter.Expression ownershipFilter(UUID userId, List<String> sharedDocumentIds) {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        if (sharedDocumentIds.isEmpty()) {
+            return b.eq("user_id", userId.toString()).build();
+        }
+        return b.or(
+                b.eq("user_id", userId.toString()),
+                b.in("document_id", sharedDocumentIds.toArray())
+        ).build();
+    }
+
+    /**
+     * Filtered top-k straight against pgvector. Small candidate sets get an exact scan;
+     * larger ones use the HNSW index with iterative scans, so filtering out other users'
+     * chunks cannot leave the result short. Returns null when neither path is usable,
+     * and the caller falls back to the vector store's own filtered search.
+     */
+    private List<Document> searchPgVector(UUID userId, List<String> sharedDocumentIds, String query, int topK) {
+        boolean exact = documentRepository.countSearchableChunks(userId, DocumentStatus.COMPLETED) <= exactScanMaxChunks;
+        if (!exact && !(iterativeScan && iterativeScanSupported)) {
+            return null;
+        }
+
+        try {
+            PGvector embedding = new PGvector(embeddingModel.embed(query));
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            return readOnly.execute(status -> {
+                if (!exact) {
+                    // Transaction-local, so pooled connections go back with the defaults
+                    jdbcTemplate.queryForObject("SELECT set_config('hnsw.iterative_scan', 'strict_order', true)", String.class);
+                    jdbcTemplate.queryForObject("SELECT set_config('hnsw.ef_search', ?, true)", String.class,
+                            String.valueOf(Math.max(efSearch, topK)));
+                }
+                return jdbcTemplate.query(exact ? EXACT_SEARCH_SQL : INDEXED_SEARCH_SQL, ps -> {
+                    int i = 1;
+                    if (!exact) {
+                        ps.setObject(i++, embedding);
+                    }
+                    ps.setObject(i++, userId);
+                    ps.setArray(i++, ps.getConnection().createArrayOf("uuid",
+                            sharedDocumentIds.stream().map(UUID::fromString).toArray()));
+                    ps.setObject(i++, embedding);
+                    ps.setInt(i, topK);
+                }, (rs, rowNum) -> toDocument(rs, rs.getDouble("distance")));
+            });
+        } catch (Exception e) {
+            if (!exact && isIterativeScanUnsupported(e)) {
+                iterativeScanSupported = false;
+                log.warn("pgvector iterative index scans unavailable, using the vector store's filtered search: {}",
+                        e.getMessage());
+            } else {
+                // Transient (embedding call, connection): try the direct path again next time
+                log.warn("Direct pgvector search failed, using the vector store's filtered search: {}", e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /** Whether the database rejected the hnsw.iterative_scan setting, as pgvector before 0.8 does. */
+    static boolean isIterativeScanUnsupported(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.contains("hnsw.iterative_scan")
+                    && (message.contains("unrecognized configuration parameter")
+                    || message.contains("invalid configuration parameter"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Fetch all chunks belonging to the specified document IDs from the vector store.
      * Used for full-document retrieval mode: when a chunk matches a query, we retrieve
@@ -389,38 +478,20 @@ public class DocumentEmbeddingService {
 
         try {
             // Query the vector store table directly via JDBC to get all chunks for the given documents
-            // This avoids the similarity-search top-K limit
-            String placeholders = documentIds.stream().map(id -> "?").collect(Collectors.joining(","));
-            String sql = String.format("""
-                SELECT id, content, metadata
-                FROM document_embeddings
-                WHERE metadata::jsonb ->> 'user_id' = ?
-                  AND metadata::jsonb ->> 'document_id' IN (%s)
-                ORDER BY metadata::jsonb ->> 'document_id',
-                         (metadata::jsonb ->> 'chunk_index')::int
-                """, placeholders);
-
-            Object[] params = new Object[1 + documentIds.size()];
-            params[0] = userId.toString();
-            int i = 1;
-            for (String docId : documentIds) {
-                params[i++] = docId;
-            }
+            // This avoids the similarity-search top-K limit. Shared documents are readable by any user.
+            List<UUID> requested = documentIds.stream().map(UUID::fromString).toList();
+            List<UUID> sharedRequested = documentRepository.findSharedDocumentIds(DocumentStatus.COMPLETED)
+                    .stream()
+                    .filter(requested::contains)
+                    .toList();
+            String sql = chunksForDocumentsSql(requested.size(), sharedRequested.size());
 
-            List<Document> allChunks = jdbcTemplate.query(sql, params, (rs, rowNum) -> {
-                String content = rs.getString("content");
-                String metadataJson = rs.getString("metadata");
-                Document doc = new Document(content);
-                try {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> meta = new com.fasterxml.jackson.databind.ObjectMapper()
-                            .readValue(metadataJson, Map.class);
-                    doc.getMetadata().putAll(meta);
-                } catch (Exception e) {
-                    log.warn("Failed to parse metadata for embedding row: {}", e.getMessage());
-                }
-                return doc;
-            });
+            List<Object> params = new ArrayList<>();
+            params.addAll(requested);
+            params.add(userId);
+            params.addAll(sharedRequested);
+
+            List<Document> allChunks = jdbcTemplate.query(sql, (rs, rowNum) -> toDocument(rs, null), params.toArray());
 
             log.debug("Retrieved {} total chunks for {} documents (user {})",
                     allChunks.size(), documentIds.size(), userId);
@@ -432,6 +503,194 @@ public class DocumentEmbeddingService {
         }
     }
 
+    /**
+     * A run of consecutive chunks from one document: one or more hits and their neighbours.
+     *
+     * @param first chunk_index of the first chunk in the window
+     * @param last  chunk_index of the last chunk in the window
+     * @param score best relevance score among the hits inside the window
+     */
+    public record ChunkWindow(String documentId, String filename, int first, int last,
+                              List<Document> chunks, Double score) {}
+
+    private record IndexRange(int first, int last) {}
+
+    /**
+     * Expand each hit to the {@code radius} chunks on either side of it, by chunk_index,
+     * in a single query. Overlapping or adjacent windows in the same document are merged.
+     * Windows are ordered by the rank of their best hit, and chunks within a window by
+     * position in the document. Hits without document_id or chunk_index are kept as they are.
+     */
+    public List<ChunkWindow> getNeighborChunks(UUID userId, List<Document> hits, int radius) {
+        if (hits == null || hits.isEmpty()) {
+            return List.of();
+        }
+
+        // Per document, in hit rank order: the merged index ranges around its hits
+        Map<String, List<IndexRange>> rangesByDocument = new LinkedHashMap<>();
+        for (Document hit : hits) {
+            String documentId = (String) hit.getMetadata().get("document_id");
+            Integer index = chunkIndex(hit);
+            if (documentId == null || index == null) {
+                continue;
+            }
+            rangesByDocument.computeIfAbsent(documentId, k -> new ArrayList<>())
+                    .add(new IndexRange(Math.max(0, index - radius), index + radius));
+        }
+        rangesByDocument.replaceAll((documentId, ranges) -> mergeRanges(ranges));
+
+        Map<String, List<Document>> chunksByDocument = new HashMap<>();
+        if (!rangesByDocument.isEmpty() && vectorStore != null) {
+            try {
+                for (Document chunk : fetchChunkRanges(userId, rangesByDocument)) {
+                    chunksByDocument.computeIfAbsent((String) chunk.getMetadata().get("document_id"), k -> new ArrayList<>())
+                            .add(chunk);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to fetch neighbour chunks, using the matched chunks only: {}", e.getMessage());
+            }
+        }
+
+        List<ChunkWindow> windows = new ArrayList<>();
+        Set<String> placed = new HashSet<>();
+        for (Document hit : hits) {
+            String documentId = (String) hit.getMetadata().get("document_id");
+            Integer index = chunkIndex(hit);
+            List<IndexRange> ranges = documentId != null ? rangesByDocument.get(documentId) : null;
+            if (index == null || ranges == null) {
+                windows.add(new ChunkWindow(documentId, filename(hit), index != null ? index : 0,
+                        index != null ? index : 0, List.of(hit), hit.getScore()));
+                continue;
+            }
+            IndexRange range = ranges.stream()
+                    .filter(r -> r.first() <= index && index <= r.last())
+                    .findFirst()
+                    .orElseThrow();
+            List<Document> chunks = chunksByDocument.getOrDefault(documentId, List.of()).stream()
+                    .filter(chunk -> {
+                        Integer i = chunkIndex(chunk);
+                        return i != null && range.first() <= i && i <= range.last();
+                    })
+                    .toList();
+            if (chunks.isEmpty()) {
+                windows.add(new ChunkWindow(documentId, filename(hit), index, index, List.of(hit), hit.getScore()));
+                continue;
+            }
+            if (!placed.add(documentId + "#" + range.first())) {
+                continue; // A higher-ranked hit already placed this window
+            }
+            windows.add(new ChunkWindow(documentId, filename(hit), chunkIndex(chunks.get(0)),
+                    chunkIndex(chunks.get(chunks.size() - 1)), chunks, hit.getScore()));
+        }
+        return windows;
+    }
+
+    /** Sorted, with overlapping and adjacent ranges joined. */
+    private static List<IndexRange> mergeRanges(List<IndexRange> ranges) {
+        List<IndexRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingInt(IndexRange::first));
+        List<IndexRange> merged = new ArrayList<>();
+        for (IndexRange range : sorted) {
+            IndexRange previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range.first() <= previous.last() + 1) {
+                merged.set(merged.size() - 1, new IndexRange(previous.first(), Math.max(previous.last(), range.last())));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * One round trip for every window: each range is a (document_id, chunk_index) index
+     * range scan, restricted to documents the user owns or that are shared.
+     */
+    private List<Document> fetchChunkRanges(UUID userId, Map<String, List<IndexRange>> rangesByDocument) {
+        List<UUID> requested = rangesByDocument.keySet().stream().map(UUID::fromString).toList();
+        List<UUID> sharedRequested = documentRepository.findSharedDocumentIds(DocumentStatus.COMPLETED)
+                .stream()
+                .filter(requested::contains)
+                .toList();
+
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        rangesByDocument.forEach((documentId, ranges) -> {
+            for (IndexRange range : ranges) {
+                conditions.add("(document_id = ? AND chunk_index BETWEEN ? AND ?)");
+                params.add(UUID.fromString(documentId));
+                params.add(range.first());
+                params.add(range.last());
+            }
+        });
+        String ownership = sharedRequested.isEmpty()
+                ? "user_id = ?"
+                : "(user_id = ? OR document_id IN (%s))".formatted(placeholders(sharedRequested.size()));
+        params.add(userId);
+        params.addAll(sharedRequested);
+
+        String sql = """
+                SELECT id, content, metadata
+                FROM document_embeddings
+                WHERE (%s)
+                  AND %s
+                ORDER BY document_id, chunk_index
+                """.formatted(String.join(" OR ", conditions), ownership);
+        return jdbcTemplate.query(sql, (rs, rowNum) -> toDocument(rs, null), params.toArray());
+    }
+
+    private static Integer chunkIndex(Document doc) {
+        Object index = doc.getMetadata().get("chunk_index");
+        return index instanceof Number number ? number.intValue() : null;
+    }
+
+    private static String filename(Document doc) {
+        return (String) doc.getMetadata().getOrDefault("filename", "document");
+    }
+
+    /**
+     * All chunks of the given documents in reading order, readable when owned by the
+     * user or shared. Served by the (document_id, chunk_index) index.
+     */
+    static String chunksForDocumentsSql(int documents, int sharedDocuments) {
+        String ownership = sharedDocuments == 0
+                ? "user_id = ?"
+                : "(user_id = ? OR document_id IN (%s))".formatted(placeholders(sharedDocuments));
+        return """
+                SELECT id, content, metadata
+                FROM document_embeddings
+                WHERE document_id IN (%s)
+                  AND %s
+                ORDER BY document_id, chunk_index
+                """.formatted(placeholders(documents), ownership);
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Map a document_embeddings row; {@code distance} is the cosine distance when the
+     * row came from a similarity query.
+     */
+    private Document toDocument(ResultSet rs, Double distance) throws SQLException {
+        Document doc = Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .score(distance != null ? 1.0 - distance : null)
+                .build();
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> meta = METADATA_MAPPER.readValue(rs.getString("metadata"), Map.class);
+            doc.getMetadata().putAll(meta);
+        } catch (Exception e) {
+            log.warn("Failed to parse metadata for embedding row: {}", e.getMessage());
+        }
+        if (distance != null) {
+            doc.getMetadata().put("distance", distance);
+        }
+        return doc;
+    }
+
     /**
      * Get all documents for a user.
      */
@@ -496,6 +755,7 @@ public class DocumentEmbeddingService {
         }
 
         UserDocument document = docOpt.get();
+        ingestionPipeline.cancel(documentId);
 
         // Delete embeddings from vector store
         try {
@@ -528,6 +788,7 @@ public class DocumentEmbeddingService {
         List<UserDocument> documents = documentRepository.findByUserIdOrderByCreatedAtDesc(userId);
 
         for (UserDocument doc : documents) {
+            ingestionPipeline.cancel(doc.getId());
             try {
                 deleteDocumentEmbeddings(doc.getId());
             } catch (Exception e) {
@@ -552,12 +813,8 @@ public class DocumentEmbeddingService {
      * Delete embeddings for a specific document from the vector store.
      */
     private void deleteDocumentEmbeddings(UUID documentId) {
-        // Use JDBC to delete embeddings with matching document_id in metadata
-        String sql = """
-            DELETE FROM document_embeddings
-            WHERE metadata::jsonb ->> 'document_id' = ?
-            """;
-        int deleted = jdbcTemplate.update(sql, documentId.toString());
+        // Use JDBC to delete embeddings by the indexed document_id column
+        int deleted = jdbcTemplate.update(DELETE_DOCUMENT_EMBEDDINGS_SQL, documentId);
         log.debug("Deleted {} embeddings for document {}", deleted, documentId);
     }
 
@@ -643,19 +900,6 @@ public class DocumentEmbeddingService {
         return false;
     }
 
-    /**
-     * Check if the file is a PDF.
-     */
-    private boolean isPdf(String contentType, String filename) {
-        if ("application/pdf".equals(contentType)) {
-            return true;
-        }
-        if (filename != null && filename.toLowerCase().endsWith(".pdf")) {
-            return true;
-        }
-        return false;
-    }
-
     /**
      * Sanitize filename for storage.
      */
@@ -672,7 +916,7 @@ public class DocumentEmbeddingService {
     /**
      * Truncate error message to fit in database column.
      */
-    private String truncateErrorMessage(String message) {
+    static String truncateErrorMessage(String message) {
         if (message == null) {
             return null;
         }
@@ -680,16 +924,6 @@ public class DocumentEmbeddingService {
         return message.length() > 1000 ? message.substring(0, 1000) + "..." : message;
     }
 
-    /**
-     * Get the name of the active embedding model for metrics tracking.
-     */
-    private String getEmbeddingModelName() {
-        if (vectorStoreConfig != null && vectorStoreConfig.getActiveEmbeddingModel() != null) {
-            return vectorStoreConfig.getActiveEmbeddingModel().modelName();
-        }
-        return "unknown";
-    }
-
     /**
      * Get shared documents, optionally filtered by filename query.
      */
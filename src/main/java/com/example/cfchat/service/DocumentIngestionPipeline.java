@@ -0,0 +1,693 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.config.VectorStoreConfig;
+import com.example.cfchat.model.EmbeddingMetric.OperationType;
+import com.example.cfchat.model.UserDocument;
+import com.example.cfchat.model.UserDocument.DocumentStatus;
+import com.example.cfchat.repository.UserDocumentRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
+import org.springframework.ai.reader.tika.TikaDocumentReader;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Ingests uploaded documents off the request thread. Each upload becomes a job
+ * that flows through four stages, each with its own workers and connected by
+ * bounded queues: extract (parse the spooled file), chunk (split and tag),
+ * embed and write, the last two through {@link EmbeddingWriter}. A full
+ * downstream queue blocks the stage feeding it, and since stages run
+ * independently, one document can be parsed while another is being embedded.
+ * <p>
+ * Job state is persisted on {@link UserDocument}: PENDING when queued,
+ * PROCESSING once extraction starts, then COMPLETED or FAILED with the reason
+ * in {@code errorMessage}. The upload is spooled to local disk until the job
+ * ends, so jobs interrupted by a restart are picked up again on startup, from
+ * the spool or else from document storage. Chunks already stored by the
+ * interrupted run are kept and not embedded again.
+ * <p>
+ * Each unfinished document carries a lease naming the instance working on it,
+ * renewed while the job runs. On startup only documents whose lease has expired
+ * are resumed, so jobs still running on other instances are left to them.
+ */
+@Service
+@Slf4j
+public class DocumentIngestionPipeline {
+
+    private static final String LOST_UPLOAD_MESSAGE =
+            "Processing was interrupted by a restart and the uploaded file is no longer available";
+
+    private static final Set<DocumentStatus> UNFINISHED = Set.of(DocumentStatus.PENDING, DocumentStatus.PROCESSING);
+
+    public enum Stage {
+        QUEUED, EXTRACTING, CHUNKING, EMBEDDING, WRITING, COMPLETED, FAILED
+    }
+
+    /**
+     * One progress update for a job. {@code sequence} increases by one per event,
+     * and {@code stage} never moves backwards even though batches of the same
+     * document can be embedding and writing at the same time. Progress read from
+     * the stored status carries the number of the event that status matches.
+     */
+    public record Progress(UUID documentId, long sequence, Stage stage,
+                           int chunks, int embedded, int written, String message) {
+        public boolean isTerminal() {
+            return stage == Stage.COMPLETED || stage == Stage.FAILED;
+        }
+    }
+
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException() {
+            super("Too many documents are being processed, please try again shortly");
+        }
+    }
+
+    private final UserDocumentRepository documentRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final DocumentStorageService storageService;
+    private final MetricsService metricsService;
+    private final VectorStoreConfig vectorStoreConfig;
+    private final EmbeddingWriter embeddingWriter;
+
+    @Value("${app.documents.chunk-size:400}")
+    private int chunkSize = 400;
+
+    @Value("${app.documents.ingestion.queue-capacity:16}")
+    private int queueCapacity = 16;
+
+    @Value("${app.documents.ingestion.extract-workers:2}")
+    private int extractWorkers = 2;
+
+    @Value("${app.documents.ingestion.write-workers:1}")
+    private int writeWorkers = 1;
+
+    @Value("${app.documents.ingestion.spool-dir:${java.io.tmpdir}/cf-llama-ingest}")
+    private String spoolDir = System.getProperty("java.io.tmpdir") + "/cf-llama-ingest";
+
+    @Value("${app.documents.ingestion.lease-ms:120000}")
+    private long leaseMs = 120000;
+
+    @Value("${app.documents.ingestion.progress-poll-ms:1000}")
+    private long progressPollMs = 1000;
+
+    /** Names this instance as the owner of the leases it takes. */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<UUID, Job> jobs = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private BlockingQueue<Job> extractQueue;
+    private BlockingQueue<Extracted> chunkQueue;
+    private BlockingQueue<Batch> embedQueue;
+    private BlockingQueue<Batch> writeQueue;
+    private TokenTextSplitter textSplitter;
+    private volatile boolean running;
+
+    public DocumentIngestionPipeline(UserDocumentRepository documentRepository,
+                                     JdbcTemplate jdbcTemplate,
+                                     DocumentStorageService storageService,
+                                     MetricsService metricsService,
+                                     @Autowired(required = false) VectorStoreConfig vectorStoreConfig,
+                                     EmbeddingWriter embeddingWriter) {
+        this.documentRepository = documentRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.storageService = storageService;
+        this.metricsService = metricsService;
+        this.vectorStoreConfig = vectorStoreConfig;
+        this.embeddingWriter = embeddingWriter;
+    }
+
+    /** A document moving through the stages, with its counters and progress stream. */
+    private static final class Job {
+        final UUID documentId;
+        final UUID userId;
+        final String filename;
+        final String contentType;
+        final Path source;
+        final long startedAt = System.currentTimeMillis();
+        final Sinks.Many<Progress> progress = Sinks.many().replay().latest();
+        int chunks;
+        int embedded;
+        int written;
+        long characters;
+        long embeddingMillis;
+        long sequence;
+        Stage stage = Stage.QUEUED;
+        volatile boolean finished;
+
+        Job(UUID documentId, UUID userId, String filename, String contentType, Path source, long sequence) {
+            this.documentId = documentId;
+            this.userId = userId;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.source = source;
+            this.sequence = sequence;
+        }
+
+        synchronized void emit(Stage next, String message) {
+            // The terminal event stays the latest one, so late subscribers still get its message
+            if (stage == Stage.COMPLETED || stage == Stage.FAILED) {
+                return;
+            }
+            if (next.ordinal() > stage.ordinal()) {
+                stage = next;
+            }
+            progress.tryEmitNext(new Progress(documentId, ++sequence, stage, chunks, embedded, written, message));
+        }
+
+        /** Sequence number the next event will carry. */
+        synchronized long nextSequence() {
+            return sequence + 1;
+        }
+
+        /** Marks the job done; false if it already was. */
+        synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            return true;
+        }
+    }
+
+    private record Extracted(Job job, List<Document> pages) {}
+
+    /** A slice of a document's chunks; {@code embeddings} is set once embedded here rather than by the store. */
+    private record Batch(Job job, List<Document> chunks, List<float[]> embeddings) {}
+
+    @FunctionalInterface
+    private interface StageHandler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    @PostConstruct
+    public void start() {
+        // Chunk size should stay under the embedding model's token limit (512 for nomic);
+        // 350 leaves room for overhead and special tokens
+        this.textSplitter = TokenTextSplitter.builder()
+                .withChunkSize(Math.min(chunkSize, 350))
+                .withMinChunkSizeChars(100)
+                .withMinChunkLengthToEmbed(5)
+                .withMaxNumChunks(10000)
+                .withKeepSeparator(true)
+                .build();
+
+        int capacity = Math.max(1, queueCapacity);
+        extractQueue = new ArrayBlockingQueue<>(capacity);
+        chunkQueue = new ArrayBlockingQueue<>(capacity);
+        embedQueue = new ArrayBlockingQueue<>(capacity);
+        writeQueue = new ArrayBlockingQueue<>(capacity);
+
+        running = true;
+        startStage("extract", extractWorkers, extractQueue, Function.identity(), this::extract);
+        startStage("chunk", 1, chunkQueue, Extracted::job, this::chunk);
+        // Stores other than pgvector embed while writing, so their writes get the embedding concurrency
+        boolean directWrite = embeddingWriter.isDirectWrite();
+        startStage("embed", embeddingWriter.getConcurrency(), embedQueue, Batch::job, this::embed);
+        startStage("write", directWrite ? writeWorkers : embeddingWriter.getConcurrency(), writeQueue, Batch::job, this::write);
+        log.info("Document ingestion pipeline started - queue capacity: {}, embedding concurrency: {}, direct writes: {}",
+                capacity, embeddingWriter.getConcurrency(), directWrite);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+    }
+
+    /**
+     * Leases a new document to this instance; call before saving it so that no
+     * other instance resumes it while the upload is being queued here.
+     */
+    public void lease(UserDocument document) {
+        document.setLeaseOwner(instanceId);
+        document.setLeaseUntil(LocalDateTime.now().plus(Duration.ofMillis(leaseMs)));
+    }
+
+    /** Keeps the leases of the jobs running here from expiring. */
+    @Scheduled(fixedDelayString = "${app.documents.ingestion.lease-renew-ms:30000}")
+    public void renewLeases() {
+        List<UUID> running = List.copyOf(jobs.keySet());
+        if (running.isEmpty()) {
+            return;
+        }
+        try {
+            documentRepository.renewLeases(running, instanceId, LocalDateTime.now().plus(Duration.ofMillis(leaseMs)));
+        } catch (Exception e) {
+            log.warn("Failed to renew ingestion leases for {} documents: {}", running.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Spools the upload to local disk and queues it. The document must already be
+     * saved, leased to this instance by {@link #lease}; it stays PENDING until a
+     * worker picks it up.
+     *
+     * @throws QueueFullException when the extract queue has no room
+     */
+    public void submit(UserDocument document, UUID userId, MultipartFile file) throws IOException {
+        Path source = spoolPath(document.getId());
+        Files.createDirectories(source.getParent());
+        file.transferTo(source);
+
+        Job job = new Job(document.getId(), userId, document.getOriginalFilename(), document.getContentType(), source,
+                storedSequence(document));
+        jobs.put(job.documentId, job);
+        job.emit(Stage.QUEUED, "Queued for processing");
+        if (!extractQueue.offer(job)) {
+            jobs.remove(job.documentId);
+            deleteSpool(source);
+            throw new QueueFullException();
+        }
+    }
+
+    /**
+     * Progress for a document: live events while its job runs here. Otherwise the
+     * stored status, polled until the document is finished, since its job may be
+     * running on another instance; one event for a document that already is.
+     */
+    public Flux<Progress> progress(UUID documentId) {
+        Job job = jobs.get(documentId);
+        if (job != null) {
+            return job.progress.asFlux();
+        }
+        return Flux.interval(Duration.ZERO, Duration.ofMillis(Math.max(1, progressPollMs)), Schedulers.boundedElastic())
+                .onBackpressureDrop()
+                .map(tick -> documentRepository.findById(documentId))
+                .takeUntil(document -> document.map(d -> !UNFINISHED.contains(d.getStatus())).orElse(true))
+                .flatMap(Mono::justOrEmpty)
+                .map(DocumentIngestionPipeline::snapshot)
+                .distinctUntilChanged(Progress::stage);
+    }
+
+    /** Stops a job whose document is being deleted; batches still in flight are discarded. */
+    public void cancel(UUID documentId) {
+        Job job = jobs.remove(documentId);
+        if (job != null && job.finish()) {
+            job.emit(Stage.FAILED, "Document was deleted");
+            job.progress.tryEmitComplete();
+            deleteSpool(job.source);
+        }
+    }
+
+    public int getActiveJobCount() {
+        return jobs.size();
+    }
+
+    /**
+     * Re-queues documents left PENDING or PROCESSING by a previous run, once this
+     * instance has claimed their expired lease; documents whose lease another
+     * instance still renews are skipped. The job starts over from extraction, but
+     * chunks that were already stored unchanged are skipped.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        List<UserDocument> unfinished = new ArrayList<>(documentRepository.findByStatusOrderByCreatedAtAsc(DocumentStatus.PENDING));
+        unfinished.addAll(documentRepository.findByStatusOrderByCreatedAtAsc(DocumentStatus.PROCESSING));
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        log.info("Found {} unfinished documents, resuming those whose lease has expired", unfinished.size());
+        // Blocking puts: the queue may hold fewer jobs than there are to resume
+        Thread.ofVirtual().name("ingest-resume").start(() -> {
+            for (UserDocument document : unfinished) {
+                if (!running) {
+                    return;
+                }
+                try {
+                    LocalDateTime now = LocalDateTime.now();
+                    if (documentRepository.claimLease(document.getId(), instanceId,
+                            now.plus(Duration.ofMillis(leaseMs)), now, UNFINISHED) == 0) {
+                        log.debug("Document {} is being processed by another instance", document.getId());
+                        continue;
+                    }
+                    resume(document);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("Failed to resume ingestion of document {}: {}", document.getId(), e.getMessage(), e);
+                    markFailed(document.getId(), e.getMessage(), 0);
+                }
+            }
+        });
+    }
+
+    private void resume(UserDocument document) throws IOException, InterruptedException {
+        Path source = spoolPath(document.getId());
+        if (!Files.exists(source)) {
+            if (document.getStoragePath() == null || !storageService.isStorageEnabled()) {
+                markFailed(document.getId(), LOST_UPLOAD_MESSAGE, 0);
+                return;
+            }
+            Files.createDirectories(source.getParent());
+            try (InputStream stored = storageService.getDocument(document.getStoragePath())) {
+                Files.copy(stored, source, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        // Numbered on from the stored progress, so followers elsewhere never see the sequence go back
+        Job job = new Job(document.getId(), document.getUser().getId(), document.getOriginalFilename(),
+                document.getContentType(), source, storedSequence(document));
+        jobs.put(job.documentId, job);
+        job.emit(Stage.QUEUED, "Queued for processing");
+        extractQueue.put(job);
+    }
+
+    private <T> void startStage(String name, int count, BlockingQueue<T> queue,
+                                Function<T, Job> jobOf, StageHandler<T> handler) {
+        for (int i = 0; i < Math.max(1, count); i++) {
+            workers.add(Thread.ofPlatform().daemon().name("ingest-" + name + "-" + i).start(() -> {
+                while (running) {
+                    T item;
+                    try {
+                        item = queue.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Job job = jobOf.apply(item);
+                    if (job.finished) {
+                        continue;
+                    }
+                    try {
+                        handler.handle(item);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        fail(job, e);
+                    }
+                }
+            }));
+        }
+    }
+
+    private void extract(Job job) throws Exception {
+        documentRepository.findById(job.documentId).ifPresent(document -> {
+            document.setStatus(DocumentStatus.PROCESSING);
+            document.setProgressSequence(job.nextSequence());
+            storeOriginal(job, document);
+            documentRepository.save(document);
+        });
+        job.emit(Stage.EXTRACTING, "Extracting text");
+
+        FileSystemResource resource = new FileSystemResource(job.source);
+        List<Document> pages;
+        if (isPdf(job.contentType, job.filename)) {
+            pages = new PagePdfDocumentReader(resource).read();
+            log.info("Read {} pages from PDF: {}", pages.size(), job.filename);
+        } else {
+            pages = new TikaDocumentReader(resource).read();
+            log.info("Read document using Tika: {}", job.filename);
+        }
+        chunkQueue.put(new Extracted(job, pages));
+    }
+
+    private void chunk(Extracted extracted) throws Exception {
+        Job job = extracted.job();
+        job.emit(Stage.CHUNKING, "Splitting into chunks");
+        List<Document> chunks = split(extracted.pages(), job);
+        if (chunks.isEmpty()) {
+            throw new IllegalStateException("No content could be extracted from the document");
+        }
+
+        // Rows left by an interrupted run are reused when their chunk is unchanged
+        Map<Integer, String> stored = embeddingWriter.existingChunks(job.documentId);
+        List<Document> pending = chunks.stream()
+                .filter(chunk -> !chunk.getText().equals(stored.get((Integer) chunk.getMetadata().get("chunk_index"))))
+                .toList();
+        synchronized (job) {
+            job.chunks = chunks.size();
+            job.characters = chunks.stream().mapToLong(doc -> doc.getText().length()).sum();
+            job.embedded = chunks.size() - pending.size();
+            job.written = job.embedded;
+        }
+        log.info("Created {} chunks from document: {} ({} already stored)",
+                chunks.size(), job.filename, chunks.size() - pending.size());
+        if (pending.isEmpty()) {
+            complete(job);
+            return;
+        }
+        job.emit(Stage.EMBEDDING, "Embedding " + pending.size() + " chunks");
+
+        for (List<Document> batch : embeddingWriter.batches(pending)) {
+            if (job.finished) {
+                return;
+            }
+            embedQueue.put(new Batch(job, batch, null));
+        }
+    }
+
+    private void embed(Batch batch) throws Exception {
+        Job job = batch.job();
+        long startTime = System.currentTimeMillis();
+        List<float[]> embeddings = embeddingWriter.embed(batch.chunks());
+        if (embeddings != null) {
+            synchronized (job) {
+                job.embeddingMillis += System.currentTimeMillis() - startTime;
+                job.embedded += batch.chunks().size();
+                job.emit(Stage.EMBEDDING, "Embedded " + job.embedded + " of " + job.chunks + " chunks");
+            }
+        }
+        writeQueue.put(new Batch(job, batch.chunks(), embeddings));
+    }
+
+    private void write(Batch batch) throws Exception {
+        Job job = batch.job();
+        long startTime = System.currentTimeMillis();
+        embeddingWriter.write(batch.chunks(), batch.embeddings());
+        if (batch.embeddings() == null) {
+            // The store embedded the batch while writing it
+            synchronized (job) {
+                job.embeddingMillis += System.currentTimeMillis() - startTime;
+                job.embedded += batch.chunks().size();
+            }
+        }
+        if (job.finished) {
+            // Cancelled while this batch was in flight
+            deleteEmbeddings(job.documentId);
+            return;
+        }
+        boolean done;
+        synchronized (job) {
+            job.written += batch.chunks().size();
+            done = job.written >= job.chunks;
+            job.emit(Stage.WRITING, "Stored " + job.written + " of " + job.chunks + " chunks");
+        }
+        if (done) {
+            complete(job);
+        }
+    }
+
+    // Stored status is updated before the job leaves the map, so a progress request
+    // arriving in between sees either the live stream or the final status
+    private void complete(Job job) {
+        if (!job.finish()) {
+            return;
+        }
+        deleteSpool(job.source);
+
+        UserDocument document = documentRepository.findById(job.documentId).orElse(null);
+        if (document == null) {
+            deleteEmbeddings(job.documentId);
+            job.emit(Stage.FAILED, "Document was deleted");
+            job.progress.tryEmitComplete();
+            jobs.remove(job.documentId);
+            return;
+        }
+        embeddingWriter.trim(job.documentId, job.chunks);
+        document.setStatus(DocumentStatus.COMPLETED);
+        document.setChunkCount(job.chunks);
+        document.setErrorMessage(null);
+        document.setProcessedAt(LocalDateTime.now());
+        document.setProgressSequence(job.nextSequence());
+        documentRepository.save(document);
+
+        long processingTime = System.currentTimeMillis() - job.startedAt;
+        log.info("Successfully processed document {} with {} chunks in {}ms (embedding: {}ms)",
+                job.documentId, job.chunks, processingTime, job.embeddingMillis);
+        metricsService.recordEmbeddingUsage(job.userId, job.documentId, getEmbeddingModelName(),
+                job.chunks, job.characters, job.embeddingMillis, OperationType.DOCUMENT_UPLOAD);
+
+        job.emit(Stage.COMPLETED, "Document processed successfully");
+        job.progress.tryEmitComplete();
+        jobs.remove(job.documentId);
+    }
+
+    private void fail(Job job, Exception e) {
+        if (!job.finish()) {
+            return;
+        }
+        log.error("Failed to process document {}: {}", job.documentId, e.getMessage(), e);
+        deleteSpool(job.source);
+        try {
+            deleteEmbeddings(job.documentId);
+        } catch (Exception cleanup) {
+            log.warn("Failed to delete partial embeddings for document {}: {}", job.documentId, cleanup.getMessage());
+        }
+        String reason = DocumentEmbeddingService.truncateErrorMessage(
+                e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        markFailed(job.documentId, reason, job.nextSequence());
+        job.emit(Stage.FAILED, reason);
+        job.progress.tryEmitComplete();
+        jobs.remove(job.documentId);
+    }
+
+    /** Stores the failure as progress event {@code sequence}, or the one after the stored event if that is later. */
+    private void markFailed(UUID documentId, String reason, long sequence) {
+        documentRepository.findById(documentId).ifPresent(document -> {
+            document.setStatus(DocumentStatus.FAILED);
+            document.setErrorMessage(DocumentEmbeddingService.truncateErrorMessage(reason));
+            document.setProgressSequence(Math.max(sequence, storedSequence(document) + 1));
+            documentRepository.save(document);
+        });
+    }
+
+    /** Keeps the original in document storage when enabled; a failure here does not fail the job. */
+    private void storeOriginal(Job job, UserDocument document) {
+        if (document.getStoragePath() != null || !storageService.isStorageEnabled()) {
+            return;
+        }
+        try {
+            document.setStoragePath(storageService.storeDocument(
+                    job.userId, job.documentId, job.filename, job.contentType, job.source));
+            log.info("Stored original document in S3: {}", document.getStoragePath());
+        } catch (Exception e) {
+            log.warn("Failed to store document in S3, continuing with embedding only: {}", e.getMessage());
+        }
+    }
+
+    /** Split pages into chunks tagged with owner, document and position. */
+    private List<Document> split(List<Document> pages, Job job) {
+        List<Document> chunkedDocuments = textSplitter.apply(pages);
+
+        List<Document> enrichedDocuments = new ArrayList<>();
+        int chunkIndex = 0;
+        for (Document doc : chunkedDocuments) {
+            String content = cleanContent(doc.getText());
+            if (content.isEmpty()) {
+                continue;
+            }
+
+            // Store clean content without source markers - source info goes in metadata only.
+            // The id is derived from the position so rewriting a chunk replaces its row
+            Document enrichedDoc = new Document(
+                    EmbeddingWriter.chunkId(job.documentId, chunkIndex), content, new HashMap<>());
+            enrichedDoc.getMetadata().put("user_id", job.userId.toString());
+            enrichedDoc.getMetadata().put("document_id", job.documentId.toString());
+            enrichedDoc.getMetadata().put("filename", job.filename);
+            enrichedDoc.getMetadata().put("chunk_index", chunkIndex);
+            enrichedDoc.getMetadata().put("chunk_total", chunkedDocuments.size());
+            enrichedDoc.getMetadata().put("content_type", job.contentType);
+
+            // Copy original metadata
+            doc.getMetadata().forEach((key, value) -> {
+                if (!enrichedDoc.getMetadata().containsKey(key)) {
+                    enrichedDoc.getMetadata().put(key, value);
+                }
+            });
+
+            enrichedDocuments.add(enrichedDoc);
+            chunkIndex++;
+        }
+        return enrichedDocuments;
+    }
+
+    /**
+     * Clean extracted text content.
+     */
+    private static String cleanContent(String content) {
+        if (content == null || content.isEmpty()) {
+            return "";
+        }
+
+        // Remove binary/base64 patterns
+        String cleaned = content.replaceAll("data:image/[^;]+;base64,[A-Za-z0-9+/=\\s]+", "[IMAGE]");
+
+        // Remove non-printable characters
+        cleaned = cleaned.replaceAll("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F\\x7F]+", " ");
+
+        // Normalize whitespace
+        return cleaned.replaceAll("\\s+", " ").trim();
+    }
+
+    private static boolean isPdf(String contentType, String filename) {
+        return "application/pdf".equals(contentType)
+                || (filename != null && filename.toLowerCase().endsWith(".pdf"));
+    }
+
+    private void deleteEmbeddings(UUID documentId) {
+        jdbcTemplate.update(DocumentEmbeddingService.DELETE_DOCUMENT_EMBEDDINGS_SQL, documentId);
+    }
+
+    private Path spoolPath(UUID documentId) {
+        return Path.of(spoolDir).resolve(documentId.toString());
+    }
+
+    private static void deleteSpool(Path source) {
+        try {
+            Files.deleteIfExists(source);
+        } catch (IOException e) {
+            log.debug("Failed to delete spooled upload {}: {}", source, e.getMessage());
+        }
+    }
+
+    private static Progress snapshot(UserDocument document) {
+        Stage stage = switch (document.getStatus()) {
+            case PENDING -> Stage.QUEUED;
+            case PROCESSING -> Stage.EXTRACTING;
+            case COMPLETED -> Stage.COMPLETED;
+            case FAILED -> Stage.FAILED;
+        };
+        int chunks = document.getChunkCount() != null ? document.getChunkCount() : 0;
+        int done = stage == Stage.COMPLETED ? chunks : 0;
+        return new Progress(document.getId(), storedSequence(document), stage, chunks, done, done,
+                document.getErrorMessage());
+    }
+
+    private static long storedSequence(UserDocument document) {
+        return document.getProgressSequence() != null ? document.getProgressSequence() : 0;
+    }
+
+    /**
+     * Get the name of the active embedding model for metrics tracking.
+     */
+    private String getEmbeddingModelName() {
+        if (vectorStoreConfig != null && vectorStoreConfig.getActiveEmbeddingModel() != null) {
+            return vectorStoreConfig.getActiveEmbeddingModel().modelName();
+        }
+        return "unknown";
+    }
+}
@@ -19,6 +19,8 @@ import jakarta.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -126,6 +128,29 @@ public class DocumentStorageService {
      * @return The storage path (S3 key) or null if storage is not enabled
      */
     public String storeDocument(UUID userId, UUID documentId, MultipartFile file) throws IOException {
+        try (InputStream content = file.getInputStream()) {
+            return storeDocument(userId, documentId, file.getOriginalFilename(), file.getContentType(),
+                    file.getSize(), RequestBody.fromInputStream(content, file.getSize()));
+        }
+    }
+
+    /**
+     * Store a document in S3 from a local file.
+     *
+     * @param userId      The user's ID
+     * @param documentId  The document's ID
+     * @param filename    The original filename
+     * @param contentType The content type, may be null
+     * @param source      The file to store
+     * @return The storage path (S3 key) or null if storage is not enabled
+     */
+    public String storeDocument(UUID userId, UUID documentId, String filename, String contentType, Path source)
+            throws IOException {
+        return storeDocument(userId, documentId, filename, contentType, Files.size(source), RequestBody.fromFile(source));
+    }
+
+    private String storeDocument(UUID userId, UUID documentId, String filename, String contentType,
+                                 long size, RequestBody body) throws IOException {
         if (!isStorageEnabled()) {
             log.debug("S3 storage not enabled, skipping document storage");
             return null;
@@ -134,17 +159,17 @@ public class DocumentStorageService {
         DocumentStorageConfig config = getConfigurationOrThrow();
         S3Client client = getOrCreateS3Client();
 
-        String key = buildStorageKey(config, userId, documentId, file.getOriginalFilename());
+        String key = buildStorageKey(config, userId, documentId, filename);
 
         try {
             PutObjectRequest request = PutObjectRequest.builder()
                     .bucket(config.getBucketName())
                     .key(key)
-                    .contentType(file.getContentType())
-                    .contentLength(file.getSize())
+                    .contentType(contentType)
+                    .contentLength(size)
                     .build();
 
-            client.putObject(request, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
+            client.putObject(request, body);
 
             log.info("Stored document {} for user {} at s3://{}/{}", documentId, userId, config.getBucketName(), key);
             return key;
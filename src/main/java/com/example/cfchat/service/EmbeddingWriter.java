@@ -0,0 +1,348 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.config.VectorStoreConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Embeds and stores document chunks in batches. Chunks are grouped into
+ * batches bounded by both token count and size, every embedding call goes
+ * through the rate limiter of the endpoint it targets, and a failed batch is
+ * retried with exponential backoff instead of failing the whole document.
+ * A 429 from the endpoint also pauses every other batch bound for it.
+ * <p>
+ * Rows are keyed by document id and chunk index ({@link #chunkId}), and writes
+ * are upserts, so a retried or resumed batch overwrites its own rows rather
+ * than adding duplicates.
+ */
+@Service
+@Slf4j
+public class EmbeddingWriter {
+
+    private static final ObjectMapper METADATA_MAPPER = new ObjectMapper();
+
+    // A status line at the start of the message, as in "429 Too Many Requests" or "HTTP 429"
+    private static final Pattern RATE_LIMIT_STATUS = Pattern.compile("^(?:HTTP(?:/[\\d.]+)? )?429(?![\\w-])");
+
+    static final String UPSERT_EMBEDDING_SQL = """
+            INSERT INTO document_embeddings (id, content, metadata, embedding) VALUES (?, ?, ?::json, ?)
+            ON CONFLICT (id) DO UPDATE
+            SET content = EXCLUDED.content, metadata = EXCLUDED.metadata, embedding = EXCLUDED.embedding
+            """;
+
+    private static final String EXISTING_CHUNKS_SQL =
+            "SELECT chunk_index, content FROM document_embeddings WHERE document_id = ?";
+
+    private static final String TRIM_CHUNKS_SQL =
+            "DELETE FROM document_embeddings WHERE document_id = ? AND chunk_index >= ?";
+
+    private final VectorStore vectorStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModel embeddingModel;
+    private final VectorStoreConfig vectorStoreConfig;
+    private final MeterRegistry meterRegistry;
+    private final TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Value("${app.embedding.writer.max-batch-tokens:8000}")
+    private int maxBatchTokens = 8000;
+
+    @Value("${app.embedding.writer.max-batch-size:64}")
+    private int maxBatchSize = 64;
+
+    @Value("${app.embedding.writer.concurrency:4}")
+    private int concurrency = 4;
+
+    // 0 disables the rate limit
+    @Value("${app.embedding.writer.requests-per-minute:0}")
+    private int requestsPerMinute;
+
+    @Value("${app.embedding.writer.max-attempts:5}")
+    private int maxAttempts = 5;
+
+    @Value("${app.embedding.writer.backoff-ms:500}")
+    private long backoffMs = 500;
+
+    @Value("${app.embedding.writer.max-backoff-ms:30000}")
+    private long maxBackoffMs = 30000;
+
+    public EmbeddingWriter(@Autowired(required = false) VectorStore vectorStore,
+                           JdbcTemplate jdbcTemplate,
+                           @Autowired(required = false) EmbeddingModel embeddingModel,
+                           @Autowired(required = false) VectorStoreConfig vectorStoreConfig,
+                           @Autowired(required = false) MeterRegistry meterRegistry) {
+        this.vectorStore = vectorStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.embeddingModel = embeddingModel;
+        this.vectorStoreConfig = vectorStoreConfig;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** Throttle state shared by every batch sent to one embedding endpoint. */
+    private static final class Endpoint {
+        final String name;
+        final Bucket bucket;
+        volatile long pausedUntil;
+
+        Endpoint(String name, Bucket bucket) {
+            this.name = name;
+            this.bucket = bucket;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Attempt<T> {
+        T run();
+    }
+
+    /** Stable row id for a chunk, so rewriting it replaces the earlier row. */
+    public static String chunkId(UUID documentId, int chunkIndex) {
+        return UUID.nameUUIDFromBytes(("document:" + documentId + ":" + chunkIndex)
+                .getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Whether chunks are embedded here and inserted over JDBC. Only pgvector is
+     * written directly; other stores embed inside {@link VectorStore#accept}, so
+     * for them {@link #embed} does nothing and {@link #write} does both.
+     */
+    public boolean isDirectWrite() {
+        return vectorStore instanceof PgVectorStore && embeddingModel != null;
+    }
+
+    /** Batches that may be embedded concurrently per endpoint. */
+    public int getConcurrency() {
+        return Math.max(1, concurrency);
+    }
+
+    /**
+     * Splits chunks, in order, into batches of at most {@code max-batch-tokens}
+     * tokens and {@code max-batch-size} chunks. A chunk over the token bound on its
+     * own gets a batch to itself.
+     */
+    public List<List<Document>> batches(List<Document> chunks) {
+        List<List<Document>> batches = new ArrayList<>();
+        List<Document> current = new ArrayList<>();
+        int tokens = 0;
+        for (Document chunk : chunks) {
+            int chunkTokens = tokenCounter.estimate(chunk.getText());
+            if (!current.isEmpty() && (tokens + chunkTokens > maxBatchTokens || current.size() >= maxBatchSize)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                tokens = 0;
+            }
+            current.add(chunk);
+            tokens += chunkTokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Embeds a batch under the endpoint's rate limit, retrying failures. Returns
+     * null when the store embeds on write.
+     */
+    public List<float[]> embed(List<Document> batch) throws InterruptedException {
+        if (!isDirectWrite()) {
+            return null;
+        }
+        Endpoint endpoint = endpoint();
+        return withRetry(endpoint, "embed", () -> {
+            List<float[]> embeddings = embeddingModel.embed(batch.stream().map(Document::getText).toList());
+            if (embeddings.size() != batch.size()) {
+                throw new IllegalStateException("Embedding endpoint returned " + embeddings.size()
+                        + " vectors for " + batch.size() + " chunks");
+            }
+            return embeddings;
+        });
+    }
+
+    /**
+     * Stores a batch, retrying failures. With {@code embeddings} from {@link #embed}
+     * the rows are upserted directly; otherwise the store embeds them under the
+     * endpoint's rate limit.
+     */
+    public void write(List<Document> batch, List<float[]> embeddings) throws InterruptedException {
+        if (embeddings != null) {
+            List<Object[]> rows = rows(batch, embeddings);
+            withRetry(null, "write", () -> jdbcTemplate.batchUpdate(UPSERT_EMBEDDING_SQL, rows));
+        } else {
+            withRetry(endpoint(), "write", () -> {
+                vectorStore.accept(batch);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Chunks already stored for a document, by index. Used to skip chunks whose
+     * row survived an interrupted run; empty when the table cannot be read.
+     */
+    public Map<Integer, String> existingChunks(UUID documentId) {
+        Map<Integer, String> existing = new HashMap<>();
+        try {
+            jdbcTemplate.query(EXISTING_CHUNKS_SQL, rs -> {
+                existing.put(rs.getInt("chunk_index"), rs.getString("content"));
+            }, documentId);
+        } catch (DataAccessException e) {
+            log.debug("Could not read stored chunks for document {}: {}", documentId, e.getMessage());
+        }
+        return existing;
+    }
+
+    /** Drops rows past the document's last chunk, left over from an earlier split. */
+    public void trim(UUID documentId, int chunkCount) {
+        try {
+            int deleted = jdbcTemplate.update(TRIM_CHUNKS_SQL, documentId, chunkCount);
+            if (deleted > 0) {
+                log.debug("Removed {} stale chunks of document {}", deleted, documentId);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Could not trim stored chunks for document {}: {}", documentId, e.getMessage());
+        }
+    }
+
+    private <T> T withRetry(Endpoint endpoint, String operation, Attempt<T> attempt) throws InterruptedException {
+        int attempts = Math.max(1, maxAttempts);
+        for (int i = 1; ; i++) {
+            if (endpoint != null) {
+                acquire(endpoint);
+            }
+            try {
+                return attempt.run();
+            } catch (RuntimeException e) {
+                boolean rateLimited = isRateLimited(e);
+                if (i >= attempts || (!rateLimited && !isRetryable(e))) {
+                    count(endpoint, operation, "failed");
+                    throw e;
+                }
+                long delay = backoff(i);
+                if (rateLimited && endpoint != null) {
+                    // Every batch bound for this endpoint waits out the throttle, not just this one
+                    endpoint.pausedUntil = Math.max(endpoint.pausedUntil, System.currentTimeMillis() + delay);
+                }
+                count(endpoint, operation, rateLimited ? "throttled" : "retried");
+                log.warn("Embedding {} attempt {}/{} failed{}, retrying in {}ms: {}", operation, i, attempts,
+                        rateLimited ? " (rate limited)" : "", delay, e.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private void acquire(Endpoint endpoint) throws InterruptedException {
+        long wait;
+        while ((wait = endpoint.pausedUntil - System.currentTimeMillis()) > 0) {
+            Thread.sleep(wait);
+        }
+        if (endpoint.bucket != null) {
+            endpoint.bucket.asBlocking().consume(1);
+        }
+    }
+
+    /** Exponential backoff with jitter, capped at {@code max-backoff-ms}. */
+    private long backoff(int attempt) {
+        long base = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    private Endpoint endpoint() {
+        return endpoints.computeIfAbsent(endpointName(), name -> new Endpoint(name, requestsPerMinute > 0
+                ? Bucket.builder().addLimit(Bandwidth.builder()
+                        .capacity(requestsPerMinute)
+                        .refillGreedy(requestsPerMinute, Duration.ofMinutes(1))
+                        .build()).build()
+                : null));
+    }
+
+    private String endpointName() {
+        if (vectorStoreConfig != null && vectorStoreConfig.getActiveEmbeddingModel() != null) {
+            VectorStoreConfig.EmbeddingModelInfo info = vectorStoreConfig.getActiveEmbeddingModel();
+            return info.provider() + ":" + (info.serviceName() != null ? info.serviceName() : info.modelName());
+        }
+        return "default";
+    }
+
+    private List<Object[]> rows(List<Document> batch, List<float[]> embeddings) {
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Document chunk = batch.get(i);
+            try {
+                rows.add(new Object[]{UUID.fromString(chunk.getId()), chunk.getText(),
+                        METADATA_MAPPER.writeValueAsString(chunk.getMetadata()), new PGvector(embeddings.get(i))});
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Chunk metadata is not serializable: " + e.getMessage(), e);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 429s show up as different exception types per client: HTTP client exceptions
+     * carry the status code, others (Spring AI's retry exceptions) start their
+     * message with it. A 429 elsewhere in a message, say inside an id, does not count.
+     */
+    static boolean isRateLimited(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestClientResponseException response) {
+                return response.getStatusCode().value() == 429;
+            }
+            if (cause instanceof WebClientResponseException response) {
+                return response.getStatusCode().value() == 429;
+            }
+            String message = cause.getMessage();
+            if (message != null && (RATE_LIMIT_STATUS.matcher(message.strip()).find()
+                    || message.contains("Too Many Requests"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        return !(e instanceof NonTransientAiException || e instanceof IllegalArgumentException);
+    }
+
+    private void count(Endpoint endpoint, String operation, String outcome) {
+        if (meterRegistry != null) {
+            Counter.builder("cfllama.embedding.writer.errors")
+                    .tag("endpoint", endpoint != null ? endpoint.name : "store")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
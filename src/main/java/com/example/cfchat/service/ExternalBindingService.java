@@ -1,5 +1,6 @@
 package com.example.cfchat.service;
 
+import com.example.cfchat.event.ModelCatalogChangedEvent;
 import com.example.cfchat.model.ExternalBinding;
 import com.example.cfchat.repository.ExternalBindingRepository;
 import io.pivotal.cfenv.boot.genai.DefaultGenaiLocator;
@@ -11,6 +12,7 @@ import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClient;
 
@@ -24,10 +26,14 @@ public class ExternalBindingService {
 
     private final ExternalBindingRepository repository;
     private final RestClient.Builder restClientBuilder;
+    private final ApplicationEventPublisher eventPublisher;
 
     // Thread-safe storage for loaded chat models
     private final Map<String, ChatModel> loadedModels = new ConcurrentHashMap<>();
 
+    // Every binding serving a model name; loadedModels holds the one used for direct lookups
+    private final Map<String, Map<UUID, Replica>> modelReplicas = new ConcurrentHashMap<>();
+
     // Thread-safe storage for loaded embedding models
     private final Map<String, EmbeddingModel> loadedEmbeddingModels = new ConcurrentHashMap<>();
 
@@ -49,8 +55,9 @@ public class ExternalBindingService {
     @Getter
     private final Map<String, ExternalModelMetadata> embeddingModelMetadata = new ConcurrentHashMap<>();
 
-    public ExternalBindingService(ExternalBindingRepository repository) {
+    public ExternalBindingService(ExternalBindingRepository repository, ApplicationEventPublisher eventPublisher) {
         this.repository = repository;
+        this.eventPublisher = eventPublisher;
         this.restClientBuilder = RestClient.builder();
     }
 
@@ -76,6 +83,7 @@ public class ExternalBindingService {
         }
 
         log.info("Total external models loaded: {}", loadedModels.size());
+        publishCatalogChange("external bindings loaded");
     }
 
     /**
@@ -134,14 +142,14 @@ public class ExternalBindingService {
                 try {
                     ChatModel chatModel = locator.getChatModelByName(modelName);
                     if (chatModel != null) {
-                        loadedModels.put(modelName, chatModel);
-                        modelNames.add(modelName);
-                        modelMetadata.put(modelName, new ExternalModelMetadata(
+                        registerChatModel(modelName, chatModel, new ExternalModelMetadata(
                                 modelName,
                                 binding.getName(),
                                 binding.getId(),
-                                "GenaiLocator"
+                                "GenaiLocator",
+                                binding.getContextWindow()
                         ));
+                        modelNames.add(modelName);
                         log.info("Registered external chat model via Locator: {} (binding: {})", modelName, binding.getName());
                     }
                 } catch (Exception e) {
@@ -168,7 +176,8 @@ public class ExternalBindingService {
                                 modelName,
                                 binding.getName(),
                                 binding.getId(),
-                                "GenaiLocator"
+                                "GenaiLocator",
+                                binding.getContextWindow()
                         ));
                         log.info("Registered external embedding model via Locator: {} (binding: {})", modelName, binding.getName());
                     }
@@ -200,14 +209,14 @@ public class ExternalBindingService {
                 .defaultOptions(options)
                 .build();
 
-        loadedModels.put(modelName, chatModel);
-        modelNames.add(modelName);
-        modelMetadata.put(modelName, new ExternalModelMetadata(
+        registerChatModel(modelName, chatModel, new ExternalModelMetadata(
                 modelName,
                 binding.getName(),
                 binding.getId(),
-                "OpenAiChatModel"
+                "OpenAiChatModel",
+                binding.getContextWindow()
         ));
+        modelNames.add(modelName);
 
         log.info("Registered external model via direct API: {} (binding: {})", modelName, binding.getName());
     }
@@ -220,8 +229,7 @@ public class ExternalBindingService {
         Set<String> models = bindingModelNames.remove(bindingId);
         if (models != null) {
             for (String modelName : models) {
-                loadedModels.remove(modelName);
-                modelMetadata.remove(modelName);
+                unregisterChatModel(modelName, bindingId);
                 log.info("Unloaded external chat model: {}", modelName);
             }
         }
@@ -242,7 +250,9 @@ public class ExternalBindingService {
      */
     public int reloadModelsFromBinding(ExternalBinding binding) {
         unloadModelsFromBinding(binding.getId());
-        return loadModelsFromBinding(binding);
+        int count = loadModelsFromBinding(binding);
+        publishCatalogChange("binding reloaded: " + binding.getName());
+        return count;
     }
 
     /**
@@ -252,6 +262,42 @@ public class ExternalBindingService {
         return loadedModels.get(modelName);
     }
 
+    /**
+     * All ChatModels serving {@code modelName}, keyed by binding id.
+     */
+    public Map<String, ChatModel> getChatModelReplicas(String modelName) {
+        Map<UUID, Replica> replicas = modelReplicas.get(modelName);
+        if (replicas == null) {
+            return Map.of();
+        }
+        Map<String, ChatModel> byBinding = new LinkedHashMap<>();
+        replicas.forEach((bindingId, replica) -> byBinding.put(bindingId.toString(), replica.chatModel()));
+        return byBinding;
+    }
+
+    private void registerChatModel(String modelName, ChatModel chatModel, ExternalModelMetadata metadata) {
+        modelReplicas.computeIfAbsent(modelName, name -> new ConcurrentHashMap<>())
+                .put(metadata.bindingId(), new Replica(chatModel, metadata));
+        loadedModels.put(modelName, chatModel);
+        modelMetadata.put(modelName, metadata);
+    }
+
+    private void unregisterChatModel(String modelName, UUID bindingId) {
+        Map<UUID, Replica> remaining = modelReplicas.computeIfPresent(modelName, (name, replicas) -> {
+            replicas.remove(bindingId);
+            return replicas.isEmpty() ? null : replicas;
+        });
+        if (remaining == null) {
+            loadedModels.remove(modelName);
+            modelMetadata.remove(modelName);
+        } else {
+            // Another binding still serves this name; fall back to it for direct lookups
+            Replica replica = remaining.values().iterator().next();
+            loadedModels.put(modelName, replica.chatModel());
+            modelMetadata.put(modelName, replica.metadata());
+        }
+    }
+
     /**
      * Check if a model exists in external bindings.
      */
@@ -350,6 +396,7 @@ public class ExternalBindingService {
         // Auto-load if enabled
         if (saved.isEnabled()) {
             loadModelsFromBinding(saved);
+            publishCatalogChange("binding created: " + saved.getName());
         }
 
         return saved;
@@ -363,6 +410,7 @@ public class ExternalBindingService {
             reloadModelsFromBinding(saved);
         } else {
             unloadModelsFromBinding(saved.getId());
+            publishCatalogChange("binding disabled: " + saved.getName());
         }
 
         return saved;
@@ -371,6 +419,7 @@ public class ExternalBindingService {
     public void delete(UUID id) {
         unloadModelsFromBinding(id);
         repository.deleteById(id);
+        publishCatalogChange("binding deleted: " + id);
     }
 
     public ExternalBinding setEnabled(UUID id, boolean enabled) {
@@ -385,10 +434,15 @@ public class ExternalBindingService {
         } else {
             unloadModelsFromBinding(id);
         }
+        publishCatalogChange("binding " + (enabled ? "enabled: " : "disabled: ") + saved.getName());
 
         return saved;
     }
 
+    private void publishCatalogChange(String reason) {
+        eventPublisher.publishEvent(new ModelCatalogChangedEvent(this, reason));
+    }
+
     private boolean isEmbeddingModel(String name) {
         if (name == null) {
             return false;
@@ -401,6 +455,8 @@ public class ExternalBindingService {
                lowerName.contains("ada-002");
     }
 
+    private record Replica(ChatModel chatModel, ExternalModelMetadata metadata) {}
+
     /**
      * Metadata about an external model.
      */
@@ -408,6 +464,7 @@ public class ExternalBindingService {
             String modelName,
             String bindingName,
             UUID bindingId,
-            String modelType
+            String modelType,
+            Integer contextWindow
     ) {}
 }
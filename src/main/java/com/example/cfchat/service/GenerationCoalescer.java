@@ -0,0 +1,102 @@
+package com.example.cfchat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for streamed generations: a request whose key matches a
+ * generation already in flight subscribes to that generation instead of
+ * starting its own. Late joiners get everything emitted so far replayed, then
+ * follow live. The upstream is cancelled only once every subscriber has gone,
+ * and the key is released when it terminates.
+ */
+@Service
+@Slf4j
+public class GenerationCoalescer {
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${app.chat.single-flight.enabled:true}")
+    private boolean enabled = true;
+
+    public GenerationCoalescer(@Autowired(required = false) MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    private static final class Flight<T> {
+        private Flux<T> shared;
+    }
+
+    /**
+     * Streams {@code generate} for {@code key}, or joins the identical generation
+     * already running. A null key opts the request out.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Flux<T> coalesce(String model, String key, Supplier<Flux<T>> generate) {
+        if (!enabled || key == null) {
+            return generate.get();
+        }
+        return Flux.defer(() -> {
+            boolean[] leader = new boolean[1];
+            Flight<T> flight = (Flight<T>) inFlight.computeIfAbsent(key, k -> {
+                Flight<T> created = new Flight<>();
+                // Release the key before the terminal signal reaches subscribers, so a request
+                // made right after completion starts a fresh generation
+                created.shared = Flux.defer(generate)
+                        .doOnTerminate(() -> inFlight.remove(k, created))
+                        .doOnCancel(() -> inFlight.remove(k, created))
+                        .replay()
+                        .refCount();
+                leader[0] = true;
+                return created;
+            });
+            if (!leader[0]) {
+                log.debug("Joining in-flight generation for model {}", model);
+                count(model);
+            }
+            return flight.shared;
+        });
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /** Hex SHA-256 over the given parts, each terminated by a NUL. */
+    public static String keyOf(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                if (part != null) {
+                    digest.update(part.getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void count(String model) {
+        if (meterRegistry != null) {
+            Counter.builder("cfllama.chat.coalesced")
+                    .tag("model", model)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
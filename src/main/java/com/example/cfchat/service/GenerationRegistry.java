@@ -0,0 +1,246 @@
+package com.example.cfchat.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs streamed generations independently of the HTTP connection that started
+ * them. Each generation keeps a bounded ring buffer of its frames, numbered from
+ * 1, so a client whose connection dropped can reattach with {@code Last-Event-ID}
+ * and receive the frames it missed followed by the live tail.
+ * <p>
+ * A generation with no attached client for {@code orphan-timeout-ms} is cancelled;
+ * a finished one is kept for the same period so late reattaches can still replay it.
+ */
+@Component
+@Slf4j
+public class GenerationRegistry {
+
+    @Value("${app.chat.resume.buffer-frames:4096}")
+    private int bufferFrames = 4096;
+
+    @Value("${app.chat.resume.orphan-timeout-ms:60000}")
+    private long orphanTimeoutMs = 60000;
+
+    private final ConcurrentHashMap<UUID, Generation> generations = new ConcurrentHashMap<>();
+    private final Scheduler timer = Schedulers.parallel();
+
+    /** One emitted SSE frame; {@code id} is the value sent as the SSE {@code id:} field. */
+    public record Frame(long id, String event, Object data) {}
+
+    /** Thrown on reattach when the requested frames have already left the ring buffer. */
+    public static class FramesEvictedException extends RuntimeException {
+        public FramesEvictedException(UUID generationId, long lastEventId) {
+            super("Frames after " + lastEventId + " of generation " + generationId + " are no longer buffered");
+        }
+    }
+
+    /**
+     * Subscribes to {@code frames} immediately and keeps the generation running
+     * until it terminates or is orphaned, whether or not anyone is attached.
+     */
+    public Generation start(UUID userId, String event, Flux<?> frames) {
+        return start(userId, event, frames, null, Flux.empty());
+    }
+
+    /**
+     * Like {@link #start(UUID, String, Flux)}, also buffering {@code relay} items as
+     * {@code relayEvent} frames in the same sequence, so they are replayed on reattach.
+     * The relay is subscribed before {@code frames}, so nothing it emits while the
+     * generation starts up is missed, and is disposed when the generation ends.
+     */
+    public Generation start(UUID userId, String event, Flux<?> frames, String relayEvent, Flux<?> relay) {
+        Generation generation = new Generation(UUID.randomUUID(), userId);
+        generations.put(generation.id, generation);
+        generation.relaying(relay.subscribe(
+                data -> generation.emit(relayEvent, data),
+                error -> log.debug("Relay for generation {} failed: {}", generation.id, error.getMessage())));
+        generation.running(frames.subscribe(
+                data -> generation.emit(event, data),
+                generation::fail,
+                generation::finish));
+        return generation;
+    }
+
+    /** Looks up a generation owned by {@code userId}. */
+    public Optional<Generation> find(UUID generationId, UUID userId) {
+        Generation generation = generations.get(generationId);
+        if (generation == null || userId == null || !userId.equals(generation.userId)) {
+            return Optional.empty();
+        }
+        return Optional.of(generation);
+    }
+
+    public int getActiveGenerationCount() {
+        return (int) generations.values().stream().filter(g -> !g.isDone()).count();
+    }
+
+    public final class Generation {
+        private final UUID id;
+        private final UUID userId;
+        private final ArrayDeque<Frame> buffer = new ArrayDeque<>();
+        private final List<Sinks.Many<Frame>> attached = new ArrayList<>();
+        private long nextFrameId = 1;
+        private boolean done;
+        private Throwable failure;
+        private Disposable upstream;
+        private Disposable relay;
+        private Disposable orphanCheck;
+
+        private Generation(UUID id, UUID userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Replays every buffered frame with an id greater than {@code lastEventId},
+         * then follows the generation live until it ends or the subscriber cancels.
+         */
+        public Flux<Frame> attach(long lastEventId) {
+            return Flux.defer(() -> {
+                Sinks.Many<Frame> sink = Sinks.many().unicast().onBackpressureBuffer();
+                synchronized (this) {
+                    long oldest = buffer.isEmpty() ? nextFrameId : buffer.peekFirst().id();
+                    if (lastEventId + 1 < oldest) {
+                        return Flux.error(new FramesEvictedException(id, lastEventId));
+                    }
+                    for (Frame frame : buffer) {
+                        if (frame.id() > lastEventId) {
+                            sink.tryEmitNext(frame);
+                        }
+                    }
+                    if (done) {
+                        terminate(sink);
+                    } else {
+                        attached.add(sink);
+                        cancelOrphanCheck();
+                    }
+                }
+                return sink.asFlux().doFinally(signal -> detach(sink));
+            });
+        }
+
+        /** Stops the upstream generation and completes every attached client. */
+        public void cancel() {
+            Disposable running;
+            synchronized (this) {
+                running = upstream;
+            }
+            if (running != null) {
+                running.dispose();
+            }
+            finish();
+        }
+
+        private synchronized void relaying(Disposable subscription) {
+            relay = subscription;
+        }
+
+        private synchronized void running(Disposable subscription) {
+            upstream = subscription;
+            scheduleOrphanCheck();
+        }
+
+        private synchronized void emit(String event, Object data) {
+            if (done) {
+                return;
+            }
+            Frame frame = new Frame(nextFrameId++, event, data);
+            buffer.addLast(frame);
+            if (buffer.size() > bufferFrames) {
+                buffer.removeFirst();
+            }
+            // Emitting runs the subscriber inline, and a client that cancels there detaches
+            // (re-entering this monitor), so iterate over a snapshot
+            for (Sinks.Many<Frame> sink : List.copyOf(attached)) {
+                sink.tryEmitNext(frame);
+            }
+        }
+
+        private synchronized void fail(Throwable error) {
+            failure = error;
+            finish();
+        }
+
+        private synchronized void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (relay != null) {
+                relay.dispose();
+            }
+            List<Sinks.Many<Frame>> clients = List.copyOf(attached);
+            attached.clear();
+            for (Sinks.Many<Frame> sink : clients) {
+                terminate(sink);
+            }
+            cancelOrphanCheck();
+            // Keep the finished buffer around for late reattaches
+            timer.schedule(() -> generations.remove(id, this), orphanTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void terminate(Sinks.Many<Frame> sink) {
+            if (failure != null) {
+                sink.tryEmitError(failure);
+            } else {
+                sink.tryEmitComplete();
+            }
+        }
+
+        private synchronized void detach(Sinks.Many<Frame> sink) {
+            attached.remove(sink);
+            if (!done && attached.isEmpty()) {
+                scheduleOrphanCheck();
+            }
+        }
+
+        private synchronized void scheduleOrphanCheck() {
+            cancelOrphanCheck();
+            if (done) {
+                return;
+            }
+            orphanCheck = timer.schedule(this::cancelIfOrphaned, orphanTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void cancelOrphanCheck() {
+            if (orphanCheck != null) {
+                orphanCheck.dispose();
+                orphanCheck = null;
+            }
+        }
+
+        private void cancelIfOrphaned() {
+            synchronized (this) {
+                orphanCheck = null;
+                if (done || !attached.isEmpty()) {
+                    return;
+                }
+            }
+            log.info("Cancelling generation {}: no client attached for {}ms", id, orphanTimeoutMs);
+            cancel();
+        }
+    }
+}
@@ -17,6 +17,7 @@ public class MessageEditService {
 
     private final MessageRepository messageRepository;
     private final ConversationService conversationService;
+    private final ConversationSummarizer conversationSummarizer;
 
     @Transactional
     public Message editMessage(UUID conversationId, UUID messageId, String newContent, boolean regenerate) {
@@ -34,6 +35,8 @@ public class MessageEditService {
         // Update the message content
         message.setContent(newContent);
         messageRepository.save(message);
+        // Later messages are deactivated below; either way a summary covering this one is now wrong
+        conversationSummarizer.historyRewritten(conversationId, message);
 
         if (regenerate) {
             // Deactivate all messages after this one
@@ -35,6 +35,14 @@ public class MetricsService {
     public UsageMetric recordUsage(UUID userId, UUID conversationId, String model, String provider,
                                     Integer promptTokens, Integer completionTokens, Long responseTimeMs,
                                     Long timeToFirstTokenMs, Double tokensPerSecond) {
+        return recordUsage(userId, conversationId, model, provider, promptTokens, completionTokens,
+                responseTimeMs, timeToFirstTokenMs, tokensPerSecond, false);
+    }
+
+    @Transactional
+    public UsageMetric recordUsage(UUID userId, UUID conversationId, String model, String provider,
+                                    Integer promptTokens, Integer completionTokens, Long responseTimeMs,
+                                    Long timeToFirstTokenMs, Double tokensPerSecond, boolean hedged) {
         UsageMetric metric = UsageMetric.builder()
                 .userId(userId)
                 .conversationId(conversationId)
@@ -45,6 +53,7 @@ public class MetricsService {
                 .responseTimeMs(responseTimeMs)
                 .timeToFirstTokenMs(timeToFirstTokenMs)
                 .tokensPerSecond(tokensPerSecond)
+                .hedged(hedged)
                 .timestamp(LocalDateTime.now())
                 .build();
 
@@ -1,17 +1,16 @@
 package com.example.cfchat.service;
 
+import com.example.cfchat.event.ModelCatalogChangedEvent;
 import com.example.cfchat.model.ModelAccessRule;
 import com.example.cfchat.model.ModelInfo;
 import com.example.cfchat.repository.ModelAccessRuleRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -19,32 +18,20 @@ import java.util.stream.Collectors;
 public class ModelAccessService {
 
     private final ModelAccessRuleRepository ruleRepository;
-
-    @Value("${app.model-access-control.enabled:false}")
-    private boolean accessControlEnabled;
+    private final ModelRegistry modelRegistry;
+    private final ApplicationEventPublisher eventPublisher;
 
     public boolean isAccessControlEnabled() {
-        return accessControlEnabled;
+        return modelRegistry.isAccessControlEnabled();
     }
 
     /**
      * Filter models based on user's role. Admins always see all models.
+     * Uses the visibility sets precomputed by {@link ModelRegistry}.
      */
     public List<ModelInfo> filterModelsForRole(List<ModelInfo> allModels, String role) {
-        if (!accessControlEnabled || "ADMIN".equalsIgnoreCase(role)) {
-            return allModels;
-        }
-
-        Set<String> allowedIds = ruleRepository.findAllowedModelIds(role)
-                .stream().collect(Collectors.toSet());
-
-        // If no rules exist for this role, show all models (permissive default)
-        if (allowedIds.isEmpty()) {
-            return allModels;
-        }
-
         return allModels.stream()
-                .filter(m -> allowedIds.contains(m.getId()))
+                .filter(m -> modelRegistry.isVisibleToRole(m.getId(), role))
                 .toList();
     }
 
@@ -55,12 +42,15 @@ public class ModelAccessService {
                 .roleName(roleName)
                 .allowed(allowed)
                 .build();
-        return ruleRepository.save(rule);
+        ModelAccessRule saved = ruleRepository.save(rule);
+        eventPublisher.publishEvent(new ModelCatalogChangedEvent(this, "access rule added for " + roleName));
+        return saved;
     }
 
     @Transactional
     public void removeRule(String modelId, String roleName) {
         ruleRepository.deleteByModelIdAndRoleName(modelId, roleName);
+        eventPublisher.publishEvent(new ModelCatalogChangedEvent(this, "access rule removed for " + roleName));
     }
 
     @Transactional(readOnly = true)
@@ -0,0 +1,348 @@
+package com.example.cfchat.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Per-model admission control for generations. Each model gets a permit pool
+ * whose size adapts AIMD-style: it grows by roughly one per limit's worth of
+ * healthy completions and shrinks multiplicatively on errors or when time to
+ * first token exceeds {@code ttft-tolerance} times the best recently observed.
+ * Requests beyond the limit wait in a bounded FIFO queue for up to
+ * {@code queue-timeout-ms}; when that is full they are rejected at once, and
+ * when the wait runs out they are rejected then, both with
+ * {@link ModelOverloadedException}.
+ */
+@Service
+@Slf4j
+public class ModelAdmissionController {
+
+    @Value("${app.chat.admission.initial-limit:8}")
+    private int initialLimit = 8;
+
+    @Value("${app.chat.admission.min-limit:1}")
+    private int minLimit = 1;
+
+    @Value("${app.chat.admission.max-limit:64}")
+    private int maxLimit = 64;
+
+    @Value("${app.chat.admission.max-queue:100}")
+    private int maxQueue = 100;
+
+    @Value("${app.chat.admission.queue-timeout-ms:30000}")
+    private long queueTimeoutMs = 30000;
+
+    @Value("${app.chat.admission.ttft-tolerance:2.0}")
+    private double ttftTolerance = 2.0;
+
+    @Value("${app.chat.admission.backoff-ratio:0.9}")
+    private double backoffRatio = 0.9;
+
+    private final ConcurrentHashMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+    private final Scheduler handoff = Schedulers.parallel();
+
+    /** Rejection when a model's wait queue is full or the wait timed out; mapped to HTTP 429. */
+    public static class ModelOverloadedException extends RuntimeException {
+        public ModelOverloadedException(String model) {
+            super("Model " + model + " is busy, please retry shortly");
+        }
+    }
+
+    /**
+     * Fails fast when the model's queue is already full, so a request can be
+     * rejected with 429 before any work is done for it.
+     */
+    public void checkAdmissible(String model) {
+        Limiter limiter = limiters.get(key(model));
+        if (limiter != null && limiter.isSaturated()) {
+            throw new ModelOverloadedException(model);
+        }
+    }
+
+    /**
+     * Runs {@code call} once a permit for {@code model} is available. While queued,
+     * {@code queueFrame} (if non-null) is emitted with the current 1-based queue
+     * position, for at most {@code queue-timeout-ms} before the stream fails with
+     * {@link ModelOverloadedException}. The permit is held until the stream terminates or is cancelled,
+     * and the time to its first element feeds the adaptive limit. A permit freed
+     * by a finishing stream is handed to the next waiter on another thread, so
+     * the next call never starts inside the finalization of the one it replaces.
+     */
+    public <T> Flux<T> admit(String model, Supplier<Flux<T>> call, IntFunction<T> queueFrame) {
+        return Flux.defer(() -> {
+            Sinks.Many<T> positions = Sinks.many().unicast().onBackpressureBuffer();
+            IntConsumer onPosition = queueFrame == null ? position -> {}
+                    : position -> {
+                        synchronized (positions) {
+                            positions.tryEmitNext(queueFrame.apply(position));
+                        }
+                    };
+            Mono<Permit> permit = acquire(model, onPosition)
+                    .doOnTerminate(positions::tryEmitComplete)
+                    .doOnCancel(positions::tryEmitComplete);
+            // Released in doFinally, once the stream has terminated or been cancelled. The error
+            // is noted first: the merge below cancels this side while the error propagates
+            Flux<T> admitted = permit.flatMapMany(p -> Flux.defer(call)
+                    .doOnNext(item -> p.markFirstToken())
+                    .doOnError(error -> p.markFailed())
+                    .doFinally(signal -> p.release(signal == SignalType.ON_ERROR)));
+            return Flux.merge(positions.asFlux(), admitted);
+        });
+    }
+
+    /**
+     * Blocking variant for synchronous calls: waits up to {@code queue-timeout-ms}
+     * for a permit, runs {@code call}, and releases the permit.
+     */
+    public <T> T call(String model, Supplier<T> call) {
+        Permit permit = acquire(model, position -> {}).block();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            permit.markFirstToken();
+            failed = false;
+            return result;
+        } finally {
+            permit.release(failed);
+        }
+    }
+
+    public int getLimit(String model) {
+        Limiter limiter = limiters.get(key(model));
+        return limiter != null ? limiter.currentLimit() : initialLimit;
+    }
+
+    public int getQueueLength(String model) {
+        Limiter limiter = limiters.get(key(model));
+        return limiter != null ? limiter.queueLength() : 0;
+    }
+
+    public int getInFlight(String model) {
+        Limiter limiter = limiters.get(key(model));
+        return limiter != null ? limiter.inFlight() : 0;
+    }
+
+    /** A permit, or {@link ModelOverloadedException} when the queue is full or the wait times out. */
+    private Mono<Permit> acquire(String model, IntConsumer onPosition) {
+        Limiter limiter = limiters.computeIfAbsent(key(model), Limiter::new);
+        Mono<Permit> permit = Mono.create(sink -> {
+            Waiter waiter = new Waiter(limiter, sink, onPosition);
+            sink.onCancel(waiter::cancel);
+            if (!limiter.enqueue(waiter)) {
+                sink.error(new ModelOverloadedException(model));
+            }
+        });
+        // The timeout cancels the waiter, which leaves the queue (or hands back a permit granted meanwhile)
+        return permit.timeout(Duration.ofMillis(queueTimeoutMs), Mono.error(() -> new ModelOverloadedException(model)));
+    }
+
+    private static String key(String model) {
+        return model != null ? model : "default";
+    }
+
+    /**
+     * A queued request. Granting and cancelling race, so the outcome is decided
+     * once; a permit granted to a request that was cancelled meanwhile is handed back.
+     */
+    private static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Limiter limiter;
+        private final MonoSink<Permit> sink;
+        private final IntConsumer onPosition;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Permit permit;
+
+        Waiter(Limiter limiter, MonoSink<Permit> sink, IntConsumer onPosition) {
+            this.limiter = limiter;
+            this.sink = sink;
+            this.onPosition = onPosition;
+        }
+
+        /** Called with a slot already counted as in flight. */
+        void grant() {
+            permit = new Permit(limiter);
+            if (state.compareAndSet(WAITING, GRANTED)) {
+                sink.success(permit);
+            } else {
+                permit.release(false);
+            }
+        }
+
+        void position(int position) {
+            if (state.get() == WAITING) {
+                onPosition.accept(position);
+            }
+        }
+
+        void cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                limiter.withdraw(this);
+            } else if (permit != null) {
+                // Granted concurrently with the cancel; release is idempotent
+                permit.release(false);
+            }
+        }
+    }
+
+    /** A granted slot; released exactly once. */
+    private static final class Permit {
+        private final Limiter limiter;
+        private final long grantedAt = System.nanoTime();
+        private volatile long firstTokenAt;
+        private volatile boolean failed;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Limiter limiter) {
+            this.limiter = limiter;
+        }
+
+        void markFirstToken() {
+            if (firstTokenAt == 0) {
+                firstTokenAt = System.nanoTime();
+            }
+        }
+
+        void markFailed() {
+            failed = true;
+        }
+
+        void release(boolean failed) {
+            if (released.compareAndSet(false, true)) {
+                long ttftMs = firstTokenAt > 0 ? (firstTokenAt - grantedAt) / 1_000_000 : -1;
+                limiter.release(failed || this.failed, ttftMs);
+            }
+        }
+    }
+
+    private final class Limiter {
+        private final String model;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private double limit = initialLimit;
+        private int inFlight;
+        private double baselineTtftMs;
+
+        Limiter(String model) {
+            this.model = model;
+        }
+
+        synchronized int currentLimit() {
+            return (int) limit;
+        }
+
+        synchronized int queueLength() {
+            return queue.size();
+        }
+
+        synchronized int inFlight() {
+            return inFlight;
+        }
+
+        synchronized boolean isSaturated() {
+            return inFlight >= (int) limit && queue.size() >= maxQueue;
+        }
+
+        /** @return false if the queue is full */
+        boolean enqueue(Waiter waiter) {
+            int position;
+            synchronized (this) {
+                if (queue.isEmpty() && inFlight < (int) limit) {
+                    inFlight++;
+                    position = 0;
+                } else if (queue.size() >= maxQueue) {
+                    return false;
+                } else {
+                    queue.addLast(waiter);
+                    position = queue.size();
+                }
+            }
+            if (position == 0) {
+                waiter.grant();
+            } else {
+                waiter.position(position);
+            }
+            return true;
+        }
+
+        void withdraw(Waiter waiter) {
+            boolean removed;
+            synchronized (this) {
+                removed = queue.remove(waiter);
+            }
+            if (removed) {
+                drain();
+            }
+        }
+
+        void release(boolean failed, long ttftMs) {
+            synchronized (this) {
+                inFlight--;
+                adjust(failed, ttftMs);
+            }
+            drain();
+        }
+
+        private void adjust(boolean failed, long ttftMs) {
+            if (!failed && ttftMs < 0) {
+                // Ended before its first element (e.g. cancelled): no signal either way
+                return;
+            }
+            double previous = limit;
+            boolean slow = false;
+            if (!failed) {
+                // Slowly forget the best TTFT so the baseline can follow a backend that got slower for good
+                baselineTtftMs = baselineTtftMs == 0 ? ttftMs : Math.min(ttftMs, baselineTtftMs * 1.001);
+                slow = ttftMs > Math.max(1, baselineTtftMs) * ttftTolerance;
+            }
+            if (failed || slow) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inFlight + 1 >= (int) limit) {
+                // Only grow when the current limit was actually in use
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if ((int) previous != (int) limit) {
+                log.debug("Admission limit for {} {} to {}", model, limit < previous ? "lowered" : "raised", (int) limit);
+            }
+        }
+
+        /** Grants queued waiters while permits are free and refreshes the others' positions. */
+        private void drain() {
+            List<Waiter> granted = new ArrayList<>();
+            List<Waiter> waiting;
+            synchronized (this) {
+                while (!queue.isEmpty() && inFlight < (int) limit) {
+                    granted.add(queue.pollFirst());
+                    inFlight++;
+                }
+                waiting = granted.isEmpty() ? List.of() : new ArrayList<>(queue);
+            }
+            for (Waiter waiter : granted) {
+                handoff.schedule(waiter::grant);
+            }
+            for (int i = 0; i < waiting.size(); i++) {
+                waiting.get(i).position(i + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.config.GenAiConfig;
+import com.example.cfchat.event.ModelCatalogChangedEvent;
+import com.example.cfchat.model.ModelAccessRule;
+import com.example.cfchat.model.ModelInfo;
+import com.example.cfchat.model.User;
+import com.example.cfchat.repository.ModelAccessRuleRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable, indexed view of the chat models this instance can serve and of
+ * which roles may see them. Lookups never touch the database; the snapshot is
+ * rebuilt and swapped atomically whenever a {@link ModelCatalogChangedEvent}
+ * arrives (binding CRUD, locator reloads, access rule changes, cluster-wide
+ * {@code cache.models} invalidations).
+ */
+@Service
+@Slf4j
+public class ModelRegistry {
+
+    private final ChatClient primaryChatClient;
+    private final ChatClient ollamaChatClient;
+    private final GenAiConfig genAiConfig;
+    private final ExternalBindingService externalBindingService;
+    private final ModelAccessRuleRepository ruleRepository;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    @Value("${spring.profiles.active:default}")
+    private String activeProfile;
+
+    @Value("${app.model-access-control.enabled:false}")
+    private boolean accessControlEnabled;
+
+    public ModelRegistry(
+            @Autowired(required = false) ChatClient primaryChatClient,
+            @Autowired(required = false) @Qualifier("ollamaChatClient") ChatClient ollamaChatClient,
+            @Autowired(required = false) GenAiConfig genAiConfig,
+            @Autowired(required = false) ExternalBindingService externalBindingService,
+            ModelAccessRuleRepository ruleRepository) {
+        this.primaryChatClient = primaryChatClient;
+        this.ollamaChatClient = ollamaChatClient;
+        this.genAiConfig = genAiConfig;
+        this.externalBindingService = externalBindingService;
+        this.ruleRepository = ruleRepository;
+    }
+
+    /**
+     * Point-in-time catalog. {@code visibleByRole} only holds roles that are
+     * actually restricted; any other role sees {@code models}.
+     */
+    record Snapshot(List<ModelInfo> models,
+                    Map<String, ModelInfo> byId,
+                    Map<String, List<ModelInfo>> byProvider,
+                    Map<String, List<ModelInfo>> visibleByRole,
+                    Map<String, Set<String>> visibleIdsByRole) {}
+
+    // Rebuild after commit so access rule changes are visible; non-transactional publishers fire immediately
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onModelCatalogChanged(ModelCatalogChangedEvent event) {
+        log.debug("Rebuilding model registry: {}", event.getReason());
+        refresh();
+    }
+
+    /**
+     * Rebuilds the snapshot from the configured providers and access rules and
+     * publishes it in a single atomic swap.
+     */
+    public void refresh() {
+        Snapshot next = buildSnapshot();
+        snapshot.set(next);
+        log.info("Model registry refreshed: {} model(s), {} restricted role(s)",
+                next.models().size(), next.visibleByRole().size());
+    }
+
+    public boolean isAccessControlEnabled() {
+        return accessControlEnabled;
+    }
+
+    /** All models in display order. */
+    public List<ModelInfo> getModels() {
+        return current().models();
+    }
+
+    public ModelInfo find(String modelId) {
+        return modelId != null ? current().byId().get(modelId) : null;
+    }
+
+    public boolean contains(String modelId) {
+        return find(modelId) != null;
+    }
+
+    public List<ModelInfo> getModelsByProvider(String provider) {
+        return current().byProvider().getOrDefault(provider, List.of());
+    }
+
+    /** Models the given role may pick. Admins and unrestricted roles see everything. */
+    public List<ModelInfo> getModelsForRole(String role) {
+        Snapshot current = current();
+        if (role == null || isAdmin(role)) {
+            return current.models();
+        }
+        return current.visibleByRole().getOrDefault(role.toUpperCase(), current.models());
+    }
+
+    public boolean isVisibleToRole(String modelId, String role) {
+        if (role == null || isAdmin(role)) {
+            return true;
+        }
+        Set<String> allowed = current().visibleIdsByRole().get(role.toUpperCase());
+        return allowed == null || allowed.contains(modelId);
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            // First use before any catalog event; concurrent first callers may both build, last one wins
+            current = buildSnapshot();
+            if (!snapshot.compareAndSet(null, current)) {
+                current = snapshot.get();
+            }
+        }
+        return current;
+    }
+
+    private Snapshot buildSnapshot() {
+        List<ModelInfo> models = enumerateModels();
+
+        Map<String, ModelInfo> byId = new LinkedHashMap<>();
+        Map<String, List<ModelInfo>> byProvider = new LinkedHashMap<>();
+        for (ModelInfo model : models) {
+            byId.putIfAbsent(model.getId(), model);
+            byProvider.computeIfAbsent(model.getProvider(), k -> new ArrayList<>()).add(model);
+        }
+        byProvider.replaceAll((provider, list) -> List.copyOf(list));
+
+        Map<String, Set<String>> visibleIdsByRole = new HashMap<>();
+        Map<String, List<ModelInfo>> visibleByRole = new HashMap<>();
+        if (accessControlEnabled) {
+            Map<String, Set<String>> allowedByRole = ruleRepository.findAll().stream()
+                    .filter(ModelAccessRule::isAllowed)
+                    .collect(Collectors.groupingBy(r -> r.getRoleName().toUpperCase(),
+                            Collectors.mapping(ModelAccessRule::getModelId, Collectors.toUnmodifiableSet())));
+            // A role without rules keeps the permissive default of seeing every model
+            allowedByRole.forEach((role, allowed) -> {
+                if (isAdmin(role)) {
+                    return;
+                }
+                visibleIdsByRole.put(role, allowed);
+                visibleByRole.put(role, models.stream().filter(m -> allowed.contains(m.getId())).toList());
+            });
+        }
+
+        return new Snapshot(List.copyOf(models), Collections.unmodifiableMap(byId),
+                Collections.unmodifiableMap(byProvider), Map.copyOf(visibleByRole), Map.copyOf(visibleIdsByRole));
+    }
+
+    private List<ModelInfo> enumerateModels() {
+        List<ModelInfo> models = new ArrayList<>();
+
+        // Check if running in cloud profile with GenAI
+        boolean isCloudProfile = activeProfile != null && activeProfile.contains("cloud");
+
+        if (isCloudProfile && primaryChatClient != null) {
+            // Running on Tanzu with GenAI service - get actual model names
+            List<String> genAiModelNames = genAiConfig != null ? genAiConfig.getAvailableModelNames() : List.of();
+
+            if (!genAiModelNames.isEmpty()) {
+                for (String modelName : genAiModelNames) {
+                    // Skip embedding models - only include chat models
+                    if (modelName.toLowerCase().contains("embed")) {
+                        continue;
+                    }
+                    models.add(ModelInfo.builder()
+                            .id(modelName)
+                            .name(modelName)
+                            .provider("genai")
+                            .description("Tanzu GenAI: " + modelName)
+                            .available(true)
+                            .build());
+                }
+            } else {
+                // Fallback if we can't get the model names
+                models.add(ModelInfo.builder()
+                        .id("genai")
+                        .name("Tanzu GenAI")
+                        .provider("genai")
+                        .description("Model provided by Tanzu GenAI service")
+                        .available(true)
+                        .build());
+            }
+        } else {
+            // Local development with OpenAI/Ollama
+            if (primaryChatClient != null) {
+                models.add(ModelInfo.builder()
+                        .id("gpt-4o-mini")
+                        .name("GPT-4o Mini")
+                        .provider("openai")
+                        .description("Fast and efficient model for most tasks")
+                        .available(true)
+                        .contextWindow(128_000)
+                        .build());
+                models.add(ModelInfo.builder()
+                        .id("gpt-4o")
+                        .name("GPT-4o")
+                        .provider("openai")
+                        .description("Most capable OpenAI model")
+                        .available(true)
+                        .contextWindow(128_000)
+                        .build());
+                models.add(ModelInfo.builder()
+                        .id("gpt-4-turbo")
+                        .name("GPT-4 Turbo")
+                        .provider("openai")
+                        .description("Powerful model with vision capabilities")
+                        .available(true)
+                        .contextWindow(128_000)
+                        .build());
+            }
+        }
+
+        if (ollamaChatClient != null) {
+            models.add(ModelInfo.builder()
+                    .id("llama3.2")
+                    .name("Llama 3.2")
+                    .provider("ollama")
+                    .description("Meta's latest open-source model")
+                    .available(true)
+                    .build());
+            models.add(ModelInfo.builder()
+                    .id("mistral")
+                    .name("Mistral")
+                    .provider("ollama")
+                    .description("Efficient open-source model")
+                    .available(true)
+                    .build());
+            models.add(ModelInfo.builder()
+                    .id("codellama")
+                    .name("Code Llama")
+                    .provider("ollama")
+                    .description("Specialized for code generation")
+                    .available(true)
+                    .build());
+        }
+
+        // Add external binding models
+        if (externalBindingService != null) {
+            for (String modelName : externalBindingService.getAvailableModelNames()) {
+                // Skip embedding models
+                if (modelName.toLowerCase().contains("embed")) {
+                    continue;
+                }
+                ExternalBindingService.ExternalModelMetadata metadata =
+                        externalBindingService.getModelMetadata().get(modelName);
+                String bindingName = metadata != null ? metadata.bindingName() : "External";
+                models.add(ModelInfo.builder()
+                        .id(modelName)
+                        .name(modelName)
+                        .provider("external")
+                        .description("External API: " + bindingName)
+                        .available(true)
+                        .contextWindow(metadata != null ? metadata.contextWindow() : null)
+                        .build());
+            }
+        }
+
+        return models;
+    }
+
+    private static boolean isAdmin(String role) {
+        return User.UserRole.ADMIN.name().equalsIgnoreCase(role);
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.config.GenAiConfig;
+import com.example.cfchat.event.ModelCatalogChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Spreads requests for one logical model across every backend that serves it
+ * (GenAI services and external bindings exposing the same model name). Each
+ * backend tracks an EWMA of time to first token and tokens/sec plus its
+ * in-flight count; a request goes to the better of two randomly sampled
+ * backends (power of two choices). A backend that fails
+ * {@code eject-after-failures} times in a row is ejected for {@code eject-ms},
+ * then re-admitted after a single successful half-open probe.
+ */
+@Service
+@Slf4j
+public class ModelRouter {
+
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final GenAiConfig genAiConfig;
+    private final ExternalBindingService externalBindingService;
+    private final Map<BackendKey, BackendStats> stats = new ConcurrentHashMap<>();
+
+    @Value("${app.chat.routing.eject-after-failures:3}")
+    private int ejectAfterFailures = 3;
+
+    @Value("${app.chat.routing.eject-ms:30000}")
+    private long ejectMs = 30000;
+
+    public ModelRouter(
+            @Autowired(required = false) GenAiConfig genAiConfig,
+            @Autowired(required = false) ExternalBindingService externalBindingService) {
+        this.genAiConfig = genAiConfig;
+        this.externalBindingService = externalBindingService;
+    }
+
+    /**
+     * @param backend binding id for external bindings, {@code genai:<service>} for
+     *                GenAI services; matches {@link ChatClientPool.ClientKey#backend()}
+     */
+    public record BackendKey(String backend, String model) {}
+
+    /** Point-in-time view of a backend's routing statistics. */
+    public record BackendSnapshot(String backend, double ttftMs, double tokensPerSecond,
+                                  int inFlight, long requests, boolean ejected) {}
+
+    /**
+     * Every backend serving {@code model}, in discovery order.
+     */
+    public Map<String, ChatModel> replicas(String model) {
+        Map<String, ChatModel> replicas = new LinkedHashMap<>();
+        if (model == null) {
+            return replicas;
+        }
+        if (genAiConfig != null) {
+            genAiConfig.getChatModelReplicas(model)
+                    .forEach((service, chatModel) -> replicas.put(ChatClientPool.GENAI_BACKEND + ":" + service, chatModel));
+        }
+        if (externalBindingService != null) {
+            replicas.putAll(externalBindingService.getChatModelReplicas(model));
+        }
+        return replicas;
+    }
+
+    /**
+     * Picks a backend for {@code model}, or returns null when fewer than two
+     * backends serve it and there is nothing to route.
+     */
+    public Route route(String model) {
+        return route(model, null);
+    }
+
+    /**
+     * Like {@link #route(String)}, but never picks {@code excludedBackend}
+     * (e.g. the backend a failed attempt just ran on).
+     */
+    public Route route(String model, String excludedBackend) {
+        Map<String, ChatModel> replicas = replicas(model);
+        if (replicas.size() < 2) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        List<String> eligible = new ArrayList<>();
+        for (String backend : replicas.keySet()) {
+            if (!backend.equals(excludedBackend) && stats(backend, model).isAvailable(now)) {
+                eligible.add(backend);
+            }
+        }
+
+        // A backend whose probe another request claimed in the meantime is dropped and the pick repeated
+        String chosen = null;
+        while (chosen == null && !eligible.isEmpty()) {
+            String candidate = pickTwo(eligible, model);
+            if (stats(candidate, model).tryClaim(now)) {
+                chosen = candidate;
+            } else {
+                eligible.remove(candidate);
+            }
+        }
+        if (chosen == null) {
+            // Everything is ejected: keep serving from the backend that was ejected first
+            chosen = replicas.keySet().stream()
+                    .filter(backend -> !backend.equals(excludedBackend))
+                    .min((a, b) -> Long.compare(stats(a, model).ejectedUntil, stats(b, model).ejectedUntil))
+                    .orElseThrow();
+        }
+        return new Route(chosen, model, replicas.get(chosen), stats(chosen, model));
+    }
+
+    public List<BackendSnapshot> getBackends(String model) {
+        long now = System.currentTimeMillis();
+        List<BackendSnapshot> snapshots = new ArrayList<>();
+        for (String backend : replicas(model).keySet()) {
+            BackendStats s = stats(backend, model);
+            snapshots.add(new BackendSnapshot(backend, s.ttftMs, s.tokensPerSecond, s.inFlight.get(),
+                    s.requests.get(), s.ejectedUntil > now));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forgets statistics for backends that no longer serve their model.
+     */
+    @EventListener
+    public void onModelCatalogChanged(ModelCatalogChangedEvent event) {
+        stats.keySet().removeIf(key -> !replicas(key.model()).containsKey(key.backend()));
+    }
+
+    private String pickTwo(List<String> eligible, String model) {
+        if (eligible.size() == 1) {
+            return eligible.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(eligible.size());
+        int second = random.nextInt(eligible.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        String a = eligible.get(first);
+        String b = eligible.get(second);
+        return stats(a, model).score() <= stats(b, model).score() ? a : b;
+    }
+
+    private BackendStats stats(String backend, String model) {
+        return stats.computeIfAbsent(new BackendKey(backend, model), key -> new BackendStats());
+    }
+
+    private final class BackendStats {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong probeStartedAt = new AtomicLong();
+        private volatile double ttftMs;
+        private volatile double tokensPerSecond;
+        private int consecutiveFailures;
+        private volatile long ejectedUntil;
+
+        /** Expected wait for a new request; unmeasured backends score best so they get tried. */
+        double score() {
+            return (inFlight.get() + 1) * Math.max(ttftMs, 1.0);
+        }
+
+        boolean isAvailable(long now) {
+            if (ejectedUntil == 0) {
+                return true;
+            }
+            // Once the ejection expires one request probes the backend; a probe that never
+            // reports back (e.g. rejected before it ran) is given up after another eject period
+            long probe = probeStartedAt.get();
+            return ejectedUntil <= now && (probe == 0 || now - probe > ejectMs);
+        }
+
+        /**
+         * Takes the backend for one request. Once its ejection has expired only the
+         * request that wins the probe slot gets it; false for every other one.
+         */
+        boolean tryClaim(long now) {
+            long until = ejectedUntil;
+            if (until == 0 || until > now) {
+                return true;
+            }
+            long probe = probeStartedAt.get();
+            if (probe != 0 && now - probe <= ejectMs) {
+                return false;
+            }
+            return probeStartedAt.compareAndSet(probe, now);
+        }
+
+        private boolean isProbing() {
+            return probeStartedAt.get() != 0;
+        }
+
+        /** @param ttft time to first token, or -1 for a blocking call, which has none */
+        synchronized void success(long ttft, double tps) {
+            if (ttft >= 0) {
+                ttftMs = ttftMs == 0 ? ttft : EWMA_ALPHA * ttft + (1 - EWMA_ALPHA) * ttftMs;
+            }
+            if (tps > 0) {
+                tokensPerSecond = tokensPerSecond == 0 ? tps : EWMA_ALPHA * tps + (1 - EWMA_ALPHA) * tokensPerSecond;
+            }
+            consecutiveFailures = 0;
+            ejectedUntil = 0;
+            probeStartedAt.set(0);
+        }
+
+        synchronized void failure(String backend, String model) {
+            consecutiveFailures++;
+            boolean failedProbe = isProbing();
+            if (failedProbe || consecutiveFailures >= ejectAfterFailures) {
+                if (ejectedUntil == 0 || failedProbe) {
+                    log.warn("Ejecting backend {} for model {} after {} consecutive failures",
+                            backend, model, consecutiveFailures);
+                }
+                ejectedUntil = System.currentTimeMillis() + ejectMs;
+                probeStartedAt.set(0);
+            }
+        }
+
+        void cancelled() {
+            probeStartedAt.set(0);
+        }
+    }
+
+    /**
+     * One routed request. Wrap the backend call with {@link #stream(Supplier)} or
+     * {@link #call(Supplier)} so its outcome updates the backend's statistics.
+     */
+    public final class Route {
+        private final String backend;
+        private final String model;
+        private final ChatModel chatModel;
+        private final BackendStats backendStats;
+
+        private Route(String backend, String model, ChatModel chatModel, BackendStats backendStats) {
+            this.backend = backend;
+            this.model = model;
+            this.chatModel = chatModel;
+            this.backendStats = backendStats;
+        }
+
+        public String backend() { return backend; }
+        public ChatModel chatModel() { return chatModel; }
+
+        public <T> Flux<T> stream(Supplier<Flux<T>> stream) {
+            return Flux.defer(() -> {
+                long start = System.currentTimeMillis();
+                AtomicLong firstAt = new AtomicLong();
+                AtomicInteger chunks = new AtomicInteger();
+                AtomicBoolean settled = new AtomicBoolean();
+                backendStats.inFlight.incrementAndGet();
+                backendStats.requests.incrementAndGet();
+                return stream.get()
+                        .doOnNext(item -> {
+                            firstAt.compareAndSet(0, System.currentTimeMillis());
+                            chunks.incrementAndGet();
+                        })
+                        .doOnComplete(() -> {
+                            if (settled.compareAndSet(false, true)) {
+                                long end = System.currentTimeMillis();
+                                long first = firstAt.get() > 0 ? firstAt.get() : end;
+                                double seconds = (end - first) / 1000.0;
+                                backendStats.success(first - start, seconds > 0 ? chunks.get() / seconds : 0);
+                            }
+                        })
+                        .doOnError(error -> {
+                            if (settled.compareAndSet(false, true)) {
+                                backendStats.failure(backend, model);
+                            }
+                        })
+                        .doOnCancel(() -> {
+                            if (settled.compareAndSet(false, true)) {
+                                backendStats.cancelled();
+                            }
+                        })
+                        .doFinally(signal -> backendStats.inFlight.decrementAndGet());
+            });
+        }
+
+        /**
+         * Runs a blocking call. Its total latency says nothing about time to first
+         * token, so only the outcome is recorded; TTFT comes from streams.
+         */
+        public <T> T call(Supplier<T> call) {
+            backendStats.inFlight.incrementAndGet();
+            backendStats.requests.incrementAndGet();
+            try {
+                T result = call.get();
+                backendStats.success(-1, 0);
+                return result;
+            } catch (RuntimeException e) {
+                backendStats.failure(backend, model);
+                throw e;
+            } finally {
+                backendStats.inFlight.decrementAndGet();
+            }
+        }
+    }
+}
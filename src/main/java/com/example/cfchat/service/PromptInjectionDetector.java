@@ -1,31 +1,41 @@
 package com.example.cfchat.service;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.regex.Pattern;
-
 @Service
 @Slf4j
 public class PromptInjectionDetector {
 
+    /** Newline-separated phrases ({@code re:} prefix for regexes) replacing the built-in list. */
+    public static final String PATTERNS_KEY = "security.prompt_injection.patterns";
+
+    private static final SafetyScanner DEFAULT_SCANNER = SafetyScanner.builder()
+            .regex("ignore (all )?(previous|above|prior) instructions")
+            .literal("you are now")
+            .literal("new instruction:")
+            .literal("system:")
+            .regex("forget (all |everything |your )(previous |prior )?instructions")
+            .regex("disregard (all |any )?(previous |prior )?instructions")
+            .regex("override (the |your )?system (prompt|message)")
+            .build();
+
     @Value("${security.prompt-injection.enabled:true}")
     private boolean enabled;
 
     @Value("${security.prompt-injection.action:warn}")
     private String action; // warn or block
 
-    private static final List<Pattern> PATTERNS = List.of(
-        Pattern.compile("ignore (all )?(previous|above|prior) instructions", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("you are now", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("new instruction:", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("system:\\s*", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("forget (all |everything |your )(previous |prior )?instructions", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("disregard (all |any )?(previous |prior )?instructions", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("override (the |your )?system (prompt|message)", Pattern.CASE_INSENSITIVE)
-    );
+    @Autowired(required = false)
+    private SystemSettingService systemSettingService;
+
+    @Autowired(required = false)
+    private EventService eventService;
+
+    private volatile SafetyScanner scanner = DEFAULT_SCANNER;
 
     public record InjectionResult(boolean detected, String pattern, String action) {}
 
@@ -34,12 +44,35 @@ public class PromptInjectionDetector {
     public InjectionResult check(String message) {
         if (!enabled || message == null) return new InjectionResult(false, null, null);
 
-        for (Pattern p : PATTERNS) {
-            if (p.matcher(message).find()) {
-                log.warn("Prompt injection pattern detected: {}", p.pattern());
-                return new InjectionResult(true, p.pattern(), action);
-            }
+        SafetyScanner.Match match = scanner.find(message);
+        if (match != null) {
+            log.warn("Prompt injection pattern detected: {}", match.pattern());
+            return new InjectionResult(true, match.pattern(), action);
         }
         return new InjectionResult(false, null, null);
     }
+
+    /** Loads the configured pattern list and reloads it whenever the setting changes, on any node. */
+    @PostConstruct
+    void loadPatterns() {
+        reloadPatterns();
+        if (eventService == null) return;
+        eventService.subscribe(CacheInvalidationService.CHANNEL_SETTINGS, (channel, message) -> {
+            if (PATTERNS_KEY.equals(message)) {
+                reloadPatterns();
+            }
+        });
+    }
+
+    void reloadPatterns() {
+        if (systemSettingService == null) return;
+        String spec = systemSettingService.getSetting(PATTERNS_KEY, "");
+        try {
+            SafetyScanner configured = spec.isBlank() ? DEFAULT_SCANNER : SafetyScanner.parse(spec);
+            scanner = configured;
+            log.info("Prompt injection scanner loaded with {} patterns", configured.patternCount());
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid {} setting, keeping the previous patterns: {}", PATTERNS_KEY, e.getMessage());
+        }
+    }
 }
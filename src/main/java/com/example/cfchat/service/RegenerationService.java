@@ -17,6 +17,7 @@ import java.util.stream.Collectors;
 public class RegenerationService {
 
     private final MessageRepository messageRepository;
+    private final ConversationSummarizer conversationSummarizer;
 
     /**
      * Prepare for regeneration by deactivating the last assistant message.
@@ -41,6 +42,7 @@ public class RegenerationService {
             // Store parent message ID for alternatives tracking
             lastAssistant.setParentMessageId(findPrecedingUserMessageId(messages, lastAssistant));
             messageRepository.save(lastAssistant);
+            conversationSummarizer.historyRewritten(conversationId, lastAssistant);
             log.info("Deactivated assistant message {} for regeneration", lastAssistant.getId());
         }
 
@@ -81,8 +83,12 @@ public class RegenerationService {
         List<Message> alternatives = getAlternatives(conversationId, messageId);
 
         for (Message alt : alternatives) {
+            boolean wasActive = Boolean.TRUE.equals(alt.getActive());
             alt.setActive(alt.getId().equals(messageId));
             messageRepository.save(alt);
+            if (wasActive && !alt.getActive()) {
+                conversationSummarizer.historyRewritten(conversationId, alt);
+            }
         }
 
         return alternatives.stream()
@@ -0,0 +1,286 @@
+package com.example.cfchat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Answers repeated stateless prompts (a new or temporary chat, no document
+ * context, no tools) from memory instead of the model. Entries are keyed by
+ * (model, thinking level, system prompt hash, normalized prompt); when {@code
+ * similarity-threshold} is above zero, a miss falls back to the most similar
+ * cached prompt for the same model, thinking level and system prompt by
+ * embedding cosine.
+ * <p>
+ * Opt-in per model and per skill through the {@code response_cache.models} and
+ * {@code response_cache.skills} system settings (comma-separated names or ids,
+ * {@code *} for all). Turns without a skill only need the model listed.
+ */
+@Service
+@Slf4j
+public class ResponseCache {
+
+    public static final String MODELS_SETTING = "response_cache.models";
+    public static final String SKILLS_SETTING = "response_cache.skills";
+
+    private final SystemSettingService systemSettingService;
+    private final CacheInvalidationService cacheInvalidationService;
+    private final SkillService skillService;
+    private final EmbeddingModel embeddingModel;
+    private final MeterRegistry meterRegistry;
+    private Cache<Key, Entry> entries;
+
+    @Value("${app.chat.response-cache.ttl-seconds:3600}")
+    private long ttlSeconds = 3600;
+
+    @Value("${app.chat.response-cache.max-entries:1000}")
+    private long maxEntries = 1000;
+
+    @Value("${app.chat.response-cache.similarity-threshold:0}")
+    private double similarityThreshold;
+
+    @Value("${app.chat.response-cache.replay-chunk-chars:16}")
+    private int replayChunkChars = 16;
+
+    @Value("${app.chat.response-cache.replay-interval-ms:10}")
+    private long replayIntervalMs = 10;
+
+    public ResponseCache(SystemSettingService systemSettingService,
+                         @Autowired(required = false) CacheInvalidationService cacheInvalidationService,
+                         @Autowired(required = false) SkillService skillService,
+                         @Autowired(required = false) EmbeddingModel embeddingModel,
+                         @Autowired(required = false) MeterRegistry meterRegistry) {
+        this.systemSettingService = systemSettingService;
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.skillService = skillService;
+        this.embeddingModel = embeddingModel;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        entries = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, ttlSeconds)))
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    private record Key(String model, String thinkingLevel, String systemPromptHash, String prompt) {}
+
+    private record Entry(String response, float[] embedding) {}
+
+    /**
+     * One cacheable turn: {@link #cached()} is the stored answer on a hit, and
+     * {@link #store(String)} records the model's answer after a miss.
+     */
+    public final class Lookup {
+        private final Key key;
+        private final String prompt;
+        private final String cached;
+        private float[] embedding;
+
+        private Lookup(Key key, String prompt, String cached, float[] embedding) {
+            this.key = key;
+            this.prompt = prompt;
+            this.cached = cached;
+            this.embedding = embedding;
+        }
+
+        public String cached() {
+            return cached;
+        }
+
+        public boolean isHit() {
+            return cached != null;
+        }
+
+        public void store(String response) {
+            if (cached != null || response == null || response.isBlank()) {
+                return;
+            }
+            if (embedding == null && similarityThreshold > 0) {
+                embedding = embed(prompt);
+            }
+            entries.put(key, new Entry(response, embedding));
+        }
+    }
+
+    /**
+     * Looks up a stateless turn, or returns null when caching is not enabled
+     * for the model or skill.
+     */
+    public Lookup lookup(String model, String thinkingLevel, UUID skillId, String systemPrompt, String prompt) {
+        if (model == null || prompt == null || !isEnabledFor(model, skillId)) {
+            return null;
+        }
+        Key key = new Key(model, thinkingLevel != null ? thinkingLevel : "",
+                hash(systemPrompt != null ? systemPrompt : ""), normalize(prompt));
+        Entry exact = entries.getIfPresent(key);
+        if (exact != null) {
+            count("hit", model);
+            return new Lookup(key, prompt, exact.response(), exact.embedding());
+        }
+
+        float[] embedding = null;
+        if (similarityThreshold > 0) {
+            embedding = embed(prompt);
+            Entry similar = embedding != null ? mostSimilar(key, embedding) : null;
+            if (similar != null) {
+                count("similar", model);
+                return new Lookup(key, prompt, similar.response(), embedding);
+            }
+        }
+        count("miss", model);
+        return new Lookup(key, prompt, null, embedding);
+    }
+
+    /**
+     * Streams a cached answer back in {@code replay-chunk-chars} pieces, one every
+     * {@code replay-interval-ms}, so the client renders it like a live stream.
+     */
+    public Flux<String> replay(String response) {
+        List<String> chunks = chunk(response, Math.max(1, replayChunkChars));
+        Flux<String> replay = Flux.fromIterable(chunks);
+        return replayIntervalMs > 0 ? replay.delayElements(Duration.ofMillis(replayIntervalMs)) : replay;
+    }
+
+    public long size() {
+        entries.cleanUp();
+        return entries.estimatedSize();
+    }
+
+    public void clear() {
+        entries.invalidateAll();
+    }
+
+    boolean isEnabledFor(String model, UUID skillId) {
+        if (!matches(SystemSettingService.parseList(setting(MODELS_SETTING)), model)) {
+            return false;
+        }
+        if (skillId == null) {
+            return true;
+        }
+        Set<String> skills = SystemSettingService.parseList(setting(SKILLS_SETTING));
+        if (matches(skills, skillId.toString())) {
+            return true;
+        }
+        return skillService != null && skillService.getSkillById(skillId)
+                .map(skill -> skills.contains(skill.getName()))
+                .orElse(false);
+    }
+
+    static String normalize(String prompt) {
+        return prompt.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private Entry mostSimilar(Key key, float[] embedding) {
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        for (Map.Entry<Key, Entry> candidate : entries.asMap().entrySet()) {
+            Key other = candidate.getKey();
+            float[] otherEmbedding = candidate.getValue().embedding();
+            if (otherEmbedding == null || !other.model().equals(key.model())
+                    || !other.thinkingLevel().equals(key.thinkingLevel())
+                    || !other.systemPromptHash().equals(key.systemPromptHash())) {
+                continue;
+            }
+            double score = cosine(embedding, otherEmbedding);
+            if (score >= bestScore) {
+                bestScore = score;
+                best = candidate.getValue();
+            }
+        }
+        return best;
+    }
+
+    private float[] embed(String prompt) {
+        if (embeddingModel == null) {
+            return null;
+        }
+        try {
+            return embeddingModel.embed(normalize(prompt));
+        } catch (Exception e) {
+            log.debug("Embedding prompt for the response cache failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private String setting(String key) {
+        return cacheInvalidationService != null
+                ? cacheInvalidationService.getCachedSetting(key, "")
+                : systemSettingService.getSetting(key, "");
+    }
+
+    private void count(String outcome, String model) {
+        if (meterRegistry != null) {
+            Counter.builder("cfllama.chat.response_cache")
+                    .tag("outcome", outcome)
+                    .tag("model", model)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    private static boolean matches(Set<String> allowed, String value) {
+        return allowed.contains("*") || allowed.contains(value);
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    private static List<String> chunk(String text, int size) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + size);
+            // Never split a surrogate pair across two events
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.cfchat.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled multi-pattern matcher for safety checks. Literal phrases go into one
+ * Aho-Corasick automaton that case-folds each character as it is read, so the
+ * input is neither copied nor lowercased; patterns that need regex features are
+ * joined into a single alternation that runs only when no phrase matched. Scan
+ * cost is linear in the input for any number of phrases.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+public final class SafetyScanner {
+
+    private static final String REGEX_PREFIX = "re:";
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final int ASCII = 128;
+
+    private static final SafetyScanner EMPTY = builder().build();
+
+    /** The first pattern found in a scanned text. */
+    public record Match(String pattern, int start, int end) {}
+
+    private final String[] literals;
+    // Automaton: dense transitions for ASCII, sparse ones (completed lazily through
+    // failure links) for everything else
+    private final int[][] next;
+    private final Map<Character, Integer>[] sparse;
+    private final int[] fail;
+    private final int[] output;
+
+    private final Pattern residual;
+    private final String[] residualPatterns;
+
+    private SafetyScanner(List<String> literalPatterns, List<String> regexPatterns) {
+        this.literals = literalPatterns.toArray(String[]::new);
+        Automaton automaton = new Automaton(literals);
+        this.next = automaton.next;
+        this.sparse = automaton.sparse;
+        this.fail = automaton.fail;
+        this.output = automaton.output;
+
+        this.residualPatterns = regexPatterns.toArray(String[]::new);
+        if (residualPatterns.length == 0) {
+            this.residual = null;
+        } else {
+            StringBuilder combined = new StringBuilder();
+            for (int i = 0; i < residualPatterns.length; i++) {
+                if (i > 0) {
+                    combined.append('|');
+                }
+                combined.append("(?<r").append(i).append('>').append(residualPatterns[i]).append(')');
+            }
+            this.residual = Pattern.compile(combined.toString(), Pattern.CASE_INSENSITIVE);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static SafetyScanner empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Compiles a pattern list with one pattern per line. Lines starting with
+     * {@code re:} are regular expressions; all others are literal phrases. Blank
+     * lines and lines starting with {@code #} are skipped.
+     */
+    public static SafetyScanner parse(String spec) {
+        Builder builder = builder();
+        for (String line : spec.split("\\R")) {
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.startsWith(REGEX_PREFIX)) {
+                builder.regex(trimmed.substring(REGEX_PREFIX.length()).strip());
+            } else {
+                builder.literal(trimmed);
+            }
+        }
+        return builder.build();
+    }
+
+    public boolean isEmpty() {
+        return literals.length == 0 && residual == null;
+    }
+
+    public int patternCount() {
+        return literals.length + residualPatterns.length;
+    }
+
+    /** The first literal match by end position, else the first regex match, else null. */
+    public Match find(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        if (literals.length > 0) {
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                state = step(state, Character.toLowerCase(text.charAt(i)));
+                int matched = output[state];
+                if (matched >= 0) {
+                    return new Match(literals[matched], i + 1 - literals[matched].length(), i + 1);
+                }
+            }
+        }
+        if (residual != null) {
+            Matcher matcher = residual.matcher(text);
+            if (matcher.find()) {
+                for (int i = 0; i < residualPatterns.length; i++) {
+                    if (matcher.start("r" + i) >= 0) {
+                        return new Match(residualPatterns[i], matcher.start(), matcher.end());
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean matches(CharSequence text) {
+        return find(text) != null;
+    }
+
+    /**
+     * Starts an incremental scan over text that arrives in pieces, such as a
+     * streamed response. Regexes are re-run over the last {@code regexWindow}
+     * characters plus each new piece, so they can match across piece boundaries
+     * only within that window.
+     */
+    public Session session(int regexWindow) {
+        return new Session(Math.max(0, regexWindow));
+    }
+
+    /**
+     * Resumable scan state. The automaton state carries over between pieces, so
+     * every character is stepped through exactly once and a phrase split across
+     * pieces is still found. Not thread-safe; use one session per stream.
+     */
+    public final class Session {
+        private final int regexWindow;
+        private final StringBuilder tail = new StringBuilder();
+        private int state;
+        private int offset;
+        private long scanned;
+
+        private Session(int regexWindow) {
+            this.regexWindow = regexWindow;
+        }
+
+        /** The first match ending inside {@code piece}, with offsets into the whole stream, or null. */
+        public Match feed(CharSequence piece) {
+            if (piece == null || piece.isEmpty()) {
+                return null;
+            }
+            int start = offset;
+            offset += piece.length();
+            if (literals.length > 0) {
+                scanned += piece.length();
+                for (int i = 0; i < piece.length(); i++) {
+                    state = step(state, Character.toLowerCase(piece.charAt(i)));
+                    int matched = output[state];
+                    if (matched >= 0) {
+                        int end = start + i + 1;
+                        return new Match(literals[matched], end - literals[matched].length(), end);
+                    }
+                }
+            }
+            return residual != null ? feedResidual(start, piece) : null;
+        }
+
+        /** Characters examined so far, counting regex window re-reads. */
+        public long scanned() {
+            return scanned;
+        }
+
+        private Match feedResidual(int start, CharSequence piece) {
+            int tailLength = tail.length();
+            tail.append(piece);
+            scanned += tail.length();
+            Matcher matcher = residual.matcher(tail);
+            Match match = null;
+            while (match == null && matcher.find()) {
+                // Matches wholly inside the carried-over tail were reported by an earlier piece
+                if (matcher.end() <= tailLength) {
+                    continue;
+                }
+                for (int i = 0; i < residualPatterns.length; i++) {
+                    if (matcher.start("r" + i) >= 0) {
+                        int base = start - tailLength;
+                        match = new Match(residualPatterns[i], base + matcher.start(), base + matcher.end());
+                        break;
+                    }
+                }
+            }
+            if (tail.length() > regexWindow) {
+                tail.delete(0, tail.length() - regexWindow);
+            }
+            return match;
+        }
+    }
+
+    private int step(int state, char c) {
+        if (c < ASCII) {
+            return next[state][c];
+        }
+        while (true) {
+            Integer target = sparse[state] != null ? sparse[state].get(c) : null;
+            if (target != null) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    public static final class Builder {
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> regexes = new ArrayList<>();
+
+        private Builder() {}
+
+        public Builder literal(String phrase) {
+            if (phrase != null && !phrase.isEmpty()) {
+                literals.add(fold(phrase));
+            }
+            return this;
+        }
+
+        /**
+         * Adds a case-insensitive regex. Patterns without metacharacters are
+         * matched as literal phrases instead.
+         */
+        public Builder regex(String regex) {
+            if (regex == null || regex.isEmpty()) {
+                return this;
+            }
+            if (regex.chars().noneMatch(c -> REGEX_METACHARACTERS.indexOf(c) >= 0)) {
+                return literal(regex);
+            }
+            Pattern.compile(regex);
+            regexes.add(regex);
+            return this;
+        }
+
+        public SafetyScanner build() {
+            return new SafetyScanner(List.copyOf(literals), List.copyOf(regexes));
+        }
+
+        private static String fold(String phrase) {
+            char[] folded = phrase.toCharArray();
+            for (int i = 0; i < folded.length; i++) {
+                folded[i] = Character.toLowerCase(folded[i]);
+            }
+            return new String(folded);
+        }
+    }
+
+    /** Aho-Corasick construction over case-folded phrases. */
+    private static final class Automaton {
+        private int[][] next;
+        private Map<Character, Integer>[] sparse;
+        private int[] fail;
+        private int[] output;
+
+        @SuppressWarnings("unchecked")
+        Automaton(String[] phrases) {
+            List<int[]> dense = new ArrayList<>();
+            List<Map<Character, Integer>> others = new ArrayList<>();
+            List<Integer> ends = new ArrayList<>();
+            dense.add(emptyRow());
+            others.add(null);
+            ends.add(-1);
+
+            for (int p = 0; p < phrases.length; p++) {
+                int state = 0;
+                for (char c : phrases[p].toCharArray()) {
+                    int target = c < ASCII ? dense.get(state)[c] : others.get(state) != null
+                            ? others.get(state).getOrDefault(c, -1) : -1;
+                    if (target <= 0) {
+                        target = dense.size();
+                        dense.add(emptyRow());
+                        others.add(null);
+                        ends.add(-1);
+                        if (c < ASCII) {
+                            dense.get(state)[c] = target;
+                        } else {
+                            if (others.get(state) == null) {
+                                others.set(state, new HashMap<>());
+                            }
+                            others.get(state).put(c, target);
+                        }
+                    }
+                    state = target;
+                }
+                if (ends.get(state) < 0) {
+                    ends.set(state, p);
+                }
+            }
+
+            int size = dense.size();
+            next = dense.toArray(int[][]::new);
+            sparse = others.toArray(Map[]::new);
+            fail = new int[size];
+            output = new int[size];
+            for (int i = 0; i < size; i++) {
+                output[i] = ends.get(i);
+            }
+
+            // Breadth-first: failure links, then complete the ASCII rows into a DFA
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < ASCII; c++) {
+                int child = next[0][c];
+                if (child > 0) {
+                    fail[child] = 0;
+                    queue.add(child);
+                } else {
+                    next[0][c] = 0;
+                }
+            }
+            if (sparse[0] != null) {
+                for (int child : sparse[0].values()) {
+                    fail[child] = 0;
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                if (output[state] < 0) {
+                    output[state] = output[fail[state]];
+                }
+                for (int c = 0; c < ASCII; c++) {
+                    int child = next[state][c];
+                    if (child > 0) {
+                        fail[child] = next[fail[state]][c];
+                        queue.add(child);
+                    } else {
+                        next[state][c] = next[fail[state]][c];
+                    }
+                }
+                if (sparse[state] != null) {
+                    for (Map.Entry<Character, Integer> edge : sparse[state].entrySet()) {
+                        int child = edge.getValue();
+                        fail[child] = sparseStep(fail[state], edge.getKey());
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+
+        private int sparseStep(int state, char c) {
+            while (true) {
+                Integer target = sparse[state] != null ? sparse[state].get(c) : null;
+                if (target != null) {
+                    return target;
+                }
+                if (state == 0) {
+                    return 0;
+                }
+                state = fail[state];
+            }
+        }
+
+        private static int[] emptyRow() {
+            int[] row = new int[ASCII];
+            Arrays.fill(row, -1);
+            return row;
+        }
+    }
+}
@@ -8,12 +8,16 @@ import com.example.cfchat.repository.UserAccessRepository;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
@@ -24,12 +28,21 @@ public class SkillService {
     private final UserAccessRepository userAccessRepository;
     private final ToolService toolService;
     private final ObjectMapper objectMapper;
+    private final EventService eventService;
+
+    // Bumped on every committed skill change, here or on another node, so rendered prompt prefixes can be invalidated
+    private final AtomicLong version = new AtomicLong();
 
     public record SkillApplication(
         String augmentedSystemPrompt,
         List<Tool> tools
     ) {}
 
+    @PostConstruct
+    void init() {
+        eventService.subscribe(CacheInvalidationService.CHANNEL_SKILLS, (channel, message) -> version.incrementAndGet());
+    }
+
     public List<Skill> getAllSkills() {
         return skillRepository.findAll();
     }
@@ -51,7 +64,9 @@ public class SkillService {
         if (skillRepository.existsByName(skill.getName())) {
             throw new IllegalArgumentException("Skill with name '" + skill.getName() + "' already exists");
         }
-        return skillRepository.save(skill);
+        Skill saved = skillRepository.save(skill);
+        skillsChanged();
+        return saved;
     }
 
     @Transactional
@@ -79,7 +94,9 @@ public class SkillService {
             skill.setToolIds(updates.getToolIds());
         }
 
-        return skillRepository.save(skill);
+        Skill saved = skillRepository.save(skill);
+        skillsChanged();
+        return saved;
     }
 
     @Transactional
@@ -87,7 +104,9 @@ public class SkillService {
         Skill skill = skillRepository.findById(id)
             .orElseThrow(() -> new IllegalArgumentException("Skill not found: " + id));
         skill.setEnabled(enabled);
-        return skillRepository.save(skill);
+        Skill saved = skillRepository.save(skill);
+        skillsChanged();
+        return saved;
     }
 
     @Transactional
@@ -97,6 +116,35 @@ public class SkillService {
         }
         userAccessRepository.deleteByResourceIdAndAccessType(id, AccessType.SKILL);
         skillRepository.deleteById(id);
+        skillsChanged();
+    }
+
+    /**
+     * Bumps the version once the surrounding transaction commits, so a prefix rendered
+     * in between cannot be cached under the new version with the old skill, and tells
+     * the other nodes to do the same.
+     */
+    private void skillsChanged() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publishChange();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publishChange();
+            }
+        });
+    }
+
+    private void publishChange() {
+        version.incrementAndGet();
+        eventService.broadcast(CacheInvalidationService.CHANNEL_SKILLS, "invalidate");
+    }
+
+    /** Changes whenever any skill is created, edited, enabled, disabled or deleted. */
+    public long getVersion() {
+        return version.get();
     }
 
     public List<Skill> getAccessibleSkills(UUID userId) {
@@ -0,0 +1,130 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.dto.ChatDelta;
+import com.example.cfchat.dto.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Batches token deltas ahead of the SSE writer. Providers often emit one token
+ * per chunk; text is held for at most {@code coalesce-window-ms} after the first pending
+ * delta, or until {@code max-frame-chars} accumulate, and then written as one frame.
+ */
+@Component
+public class StreamCoalescer {
+
+    @Value("${app.chat.stream.coalesce-window-ms:40}")
+    private long windowMs = 40;
+
+    @Value("${app.chat.stream.max-frame-chars:512}")
+    private int maxFrameChars = 512;
+
+    private final Scheduler timer = Schedulers.parallel();
+
+    /**
+     * Coalesces a chat stream into SSE frames. The first response, queue-position
+     * updates and any complete or error response are passed through whole; content
+     * chunks in between become {@link ChatDelta} frames.
+     */
+    public Flux<Object> coalesce(Flux<ChatResponse> responses) {
+        return Flux.defer(() -> {
+            AtomicBoolean first = new AtomicBoolean(true);
+            return batch(responses, resp -> {
+                if (first.getAndSet(false) || resp.isComplete() || resp.getError() != null
+                        || resp.getQueuePosition() != null) {
+                    return null;
+                }
+                return resp.getContent() != null ? resp.getContent() : "";
+            }, ChatDelta::new);
+        });
+    }
+
+    /**
+     * Coalesces raw text chunks; every emitted element is the concatenation of one batch.
+     */
+    public Flux<String> coalesceText(Flux<String> chunks) {
+        return batch(chunks, chunk -> chunk != null ? chunk : "", text -> text).cast(String.class);
+    }
+
+    /**
+     * @param deltaOf text to merge for an element, or null to flush and pass the element through
+     * @param frameOf wraps merged text into the emitted frame
+     */
+    private <T> Flux<Object> batch(Flux<T> source, Function<T, String> deltaOf, Function<String, Object> frameOf) {
+        return Flux.create(sink -> {
+            Pending pending = new Pending(sink, frameOf);
+            Disposable upstream = source.subscribe(
+                    item -> pending.accept(item, deltaOf.apply(item)),
+                    error -> {
+                        pending.flush();
+                        sink.error(error);
+                    },
+                    () -> {
+                        pending.flush();
+                        sink.complete();
+                    });
+            sink.onDispose(() -> {
+                upstream.dispose();
+                pending.cancelTimer();
+            });
+        });
+    }
+
+    private final class Pending {
+        private final FluxSink<Object> sink;
+        private final Function<String, Object> frameOf;
+        private final StringBuilder text = new StringBuilder();
+        private Disposable scheduledFlush;
+
+        Pending(FluxSink<Object> sink, Function<String, Object> frameOf) {
+            this.sink = sink;
+            this.frameOf = frameOf;
+        }
+
+        synchronized void accept(Object item, String delta) {
+            if (delta == null) {
+                flush();
+                sink.next(item);
+                return;
+            }
+            if (delta.isEmpty()) {
+                return;
+            }
+            text.append(delta);
+            if (text.length() >= maxFrameChars) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::timedFlush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void timedFlush() {
+            scheduledFlush = null;
+            flush();
+        }
+
+        synchronized void flush() {
+            cancelTimer();
+            if (!text.isEmpty()) {
+                sink.next(frameOf.apply(text.toString()));
+                text.setLength(0);
+            }
+        }
+
+        synchronized void cancelTimer() {
+            if (scheduledFlush != null) {
+                scheduledFlush.dispose();
+                scheduledFlush = null;
+            }
+        }
+    }
+}
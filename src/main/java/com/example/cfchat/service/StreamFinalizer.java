@@ -0,0 +1,259 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.sql.SQLNonTransientException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persists the outcome of a streamed chat turn (assistant message, usage metric,
+ * first-exchange title) in one transaction on a dedicated scheduler, so the
+ * final SSE event never waits on the database. Transient failures are retried
+ * with backoff; rejections such as constraint violations are not.
+ * <p>
+ * Exchanges that still cannot be stored are dead-lettered: written as JSON to
+ * {@code dead-letter-dir}, readable by the service user only since they hold the
+ * answer text, and replayed on a schedule until the database takes them. Ones the
+ * database rejected are kept as {@code *.rejected.json} for an operator instead.
+ */
+@Service
+@Slf4j
+public class StreamFinalizer implements DisposableBean {
+
+    private static final Logger deadLetterLog = LoggerFactory.getLogger("com.example.cfchat.deadletter");
+
+    private static final ObjectMapper DEAD_LETTER_MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private static final String REJECTED_SUFFIX = ".rejected.json";
+
+    private final ConversationService conversationService;
+    private final MetricsService metricsService;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler scheduler;
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    @Value("${app.chat.finalization.max-retries:3}")
+    private int maxRetries = 3;
+
+    @Value("${app.chat.finalization.retry-backoff-ms:200}")
+    private long retryBackoffMs = 200;
+
+    @Value("${app.chat.finalization.dead-letter-dir:${java.io.tmpdir}/cf-llama-dead-letters}")
+    private String deadLetterDir = System.getProperty("java.io.tmpdir") + "/cf-llama-dead-letters";
+
+    public StreamFinalizer(ConversationService conversationService,
+                           MetricsService metricsService,
+                           PlatformTransactionManager transactionManager) {
+        this.conversationService = conversationService;
+        this.metricsService = metricsService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.scheduler = Schedulers.newBoundedElastic(
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "chat-finalize");
+    }
+
+    /**
+     * Everything needed to record one completed streamed turn.
+     *
+     * @param hedged    whether a second backend was raced against a slow first token
+     * @param truncated the stream was cancelled or failed; {@code content} is what arrived before that
+     * @param title     new conversation title, or null to leave it unchanged
+     * @param startedAt when generation started; the assistant message is dated to it, so a follow-up
+     *                  message saved before this exchange is persisted still sorts after the reply
+     */
+    public record CompletedExchange(UUID userId, UUID conversationId, String model, String provider,
+                                    String content, int promptTokens, int completionTokens,
+                                    long responseTimeMs, Long timeToFirstTokenMs, Double tokensPerSecond,
+                                    boolean hedged, boolean truncated, String title, LocalDateTime startedAt) {}
+
+    /** Scheduler for finalization work that must stay off Reactor and servlet threads. */
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Fire-and-forget: schedules persistence and returns immediately.
+     */
+    public void submit(CompletedExchange exchange) {
+        persist(exchange).subscribe();
+    }
+
+    /**
+     * Persists the exchange on the finalization scheduler. Never signals an error;
+     * an exchange that cannot be stored is dead-lettered.
+     */
+    public Mono<Void> persist(CompletedExchange exchange) {
+        return Mono.<Void>fromRunnable(() -> transactionTemplate.executeWithoutResult(status -> write(exchange)))
+                .subscribeOn(scheduler)
+                .retryWhen(Retry.backoff(maxRetries, Duration.ofMillis(retryBackoffMs))
+                        .filter(StreamFinalizer::isTransient)
+                        .doBeforeRetry(signal -> log.warn("Retrying persistence of conversation {} (attempt {}): {}",
+                                exchange.conversationId(), signal.totalRetries() + 1, signal.failure().getMessage())))
+                .onErrorResume(e -> {
+                    deadLetter(exchange, Exceptions.isRetryExhausted(e) && e.getCause() != null ? e.getCause() : e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Stores dead-lettered exchanges, one attempt each, deleting those that make it.
+     * Rejected ones and ones that fail with a rejection now are left for an operator.
+     *
+     * @return the number of exchanges stored
+     */
+    @Scheduled(fixedDelayString = "${app.chat.finalization.replay-interval-ms:300000}")
+    public int replayDeadLetters() {
+        Path dir = Path.of(deadLetterDir);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(REJECTED_SUFFIX)) {
+                    continue;
+                }
+                CompletedExchange exchange;
+                try {
+                    exchange = DEAD_LETTER_MAPPER.readValue(file.toFile(), CompletedExchange.class);
+                    transactionTemplate.executeWithoutResult(status -> write(exchange));
+                } catch (IOException e) {
+                    log.warn("Cannot read dead-lettered exchange {}: {}", file.getFileName(), e.getMessage());
+                    continue;
+                } catch (RuntimeException e) {
+                    if (isTransient(e)) {
+                        log.warn("Dead-lettered exchanges cannot be stored yet: {}", e.getMessage());
+                        break;
+                    }
+                    log.error("Database rejected dead-lettered exchange {}: {}", file.getFileName(), e.getMessage());
+                    Files.move(file, rejectedPath(file), StandardCopyOption.REPLACE_EXISTING);
+                    continue;
+                }
+                Files.deleteIfExists(file);
+                deadLetterLog.info("replayed conversationId={} file={}", exchange.conversationId(), file.getFileName());
+                replayed++;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to replay dead-lettered exchanges from {}: {}", dir, e.getMessage());
+        }
+        if (replayed > 0) {
+            log.info("Stored {} dead-lettered chat exchanges", replayed);
+        }
+        return replayed;
+    }
+
+    public long getDeadLetterCount() {
+        return deadLetters.get();
+    }
+
+    private void write(CompletedExchange exchange) {
+        if (!exchange.truncated() || !exchange.content().isEmpty()) {
+            conversationService.appendMessage(exchange.conversationId(), Message.builder()
+                    .role(Message.MessageRole.ASSISTANT)
+                    .content(exchange.content())
+                    .modelUsed(exchange.model())
+                    .truncated(exchange.truncated())
+                    .createdAt(exchange.startedAt())
+                    .build());
+        }
+
+        metricsService.recordUsage(exchange.userId(), exchange.conversationId(), exchange.model(), exchange.provider(),
+                exchange.promptTokens(), exchange.completionTokens(), exchange.responseTimeMs(),
+                exchange.timeToFirstTokenMs(), exchange.tokensPerSecond(), exchange.hedged());
+
+        if (exchange.title() != null) {
+            conversationService.updateConversationTitle(exchange.conversationId(), exchange.title());
+        }
+    }
+
+    private void deadLetter(CompletedExchange exchange, Throwable cause) {
+        deadLetters.incrementAndGet();
+        boolean rejected = !isTransient(cause);
+        if (rejected) {
+            log.error("Database rejected assistant message for conversation {}: {}",
+                    exchange.conversationId(), cause.getMessage());
+        } else {
+            log.error("Giving up persisting assistant message for conversation {} after {} retries: {}",
+                    exchange.conversationId(), maxRetries, cause.getMessage());
+        }
+        Path file = store(exchange, rejected);
+        // Identifiers and sizes only: message content and user ids stay out of the logs
+        deadLetterLog.error("conversationId={} model={} provider={} promptTokens={} completionTokens={} "
+                        + "responseTimeMs={} truncated={} contentLength={} startedAt={} rejected={} file={}",
+                exchange.conversationId(), exchange.model(), exchange.provider(),
+                exchange.promptTokens(), exchange.completionTokens(), exchange.responseTimeMs(),
+                exchange.truncated(), exchange.content().length(), exchange.startedAt(), rejected,
+                file != null ? file.getFileName() : "none");
+    }
+
+    /** Writes the exchange owner-readable only, via a temp file so replay never sees a partial one. */
+    private Path store(CompletedExchange exchange, boolean rejected) {
+        try {
+            Path dir = Path.of(deadLetterDir);
+            boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+            if (!Files.isDirectory(dir)) {
+                Files.createDirectories(dir, posix ? new FileAttribute<?>[]{ownerOnly("rwx------")} : new FileAttribute<?>[0]);
+            }
+            String name = exchange.conversationId() + "-" + UUID.randomUUID();
+            Path temp = Files.createTempFile(dir, name, ".tmp",
+                    posix ? new FileAttribute<?>[]{ownerOnly("rw-------")} : new FileAttribute<?>[0]);
+            DEAD_LETTER_MAPPER.writeValue(temp.toFile(), exchange);
+            return Files.move(temp, dir.resolve(name + (rejected ? REJECTED_SUFFIX : ".json")), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to store dead-lettered exchange for conversation {}; the reply is lost: {}",
+                    exchange.conversationId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static FileAttribute<?> ownerOnly(String permissions) {
+        return PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions));
+    }
+
+    private static Path rejectedPath(Path file) {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - ".json".length()) + REJECTED_SUFFIX);
+    }
+
+    /** Constraint violations and other rejections fail the same way on every attempt. */
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NonTransientDataAccessException || cause instanceof SQLNonTransientException) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.cfchat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the wait for a stalled backend. When a stream has not produced its first
+ * element within the model's TTFT threshold, the same request is issued to an
+ * alternate (another backend for the model, or {@code fallback-model}); whichever
+ * emits first is streamed and the other is cancelled. A primary that fails before
+ * its first element triggers the alternate at once; one that completes without
+ * any element is an answer (an empty one) and is never hedged.
+ * <p>
+ * The threshold is {@code ttft-threshold-ms} when set, otherwise the p95 of the
+ * model's recent TTFTs (never below {@code min-threshold-ms}; {@code
+ * initial-threshold-ms} until enough samples exist).
+ */
+@Service
+@Slf4j
+public class StreamHedger {
+
+    private static final int WINDOW = 100;
+    private static final int MIN_SAMPLES = 20;
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, TtftWindow> windows = new ConcurrentHashMap<>();
+
+    @Value("${app.chat.hedge.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.chat.hedge.ttft-threshold-ms:0}")
+    private long ttftThresholdMs;
+
+    @Value("${app.chat.hedge.min-threshold-ms:1000}")
+    private long minThresholdMs = 1000;
+
+    @Value("${app.chat.hedge.initial-threshold-ms:10000}")
+    private long initialThresholdMs = 10000;
+
+    @Value("${app.chat.hedge.fallback-model:}")
+    private String fallbackModel;
+
+    public StreamHedger(@Autowired(required = false) MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Model to hedge with when no other backend serves the requested one, or null. */
+    public String getFallbackModel(String model) {
+        return fallbackModel != null && !fallbackModel.isBlank() && !fallbackModel.equals(model) ? fallbackModel : null;
+    }
+
+    /**
+     * Streams {@code primary}, racing it against {@code alternate} once the TTFT
+     * threshold passes without a first element. {@code onHedge} runs when the
+     * alternate is issued. Without hedging enabled or an alternate, this only
+     * records the primary's TTFT.
+     */
+    public <T> Flux<T> hedge(String model, Flux<T> primary, Supplier<Flux<T>> alternate, Runnable onHedge) {
+        return hedge(model, primary, model, alternate, onHedge, () -> {});
+    }
+
+    /**
+     * As {@link #hedge(String, Flux, Supplier, Runnable)}, where the alternate may be
+     * a different model: its TTFT is recorded under {@code alternateModel}, and
+     * {@code onHedgeWon} runs when the alternate delivers first and so answers.
+     */
+    public <T> Flux<T> hedge(String model, Flux<T> primary, String alternateModel, Supplier<Flux<T>> alternate,
+                             Runnable onHedge, Runnable onHedgeWon) {
+        if (!enabled || alternate == null) {
+            return timed(model, primary);
+        }
+        return Flux.defer(() -> {
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            Sinks.Empty<Void> primaryEmpty = Sinks.empty();
+            AtomicBoolean primaryEmitted = new AtomicBoolean();
+            AtomicBoolean primaryCompletedEmpty = new AtomicBoolean();
+            long threshold = thresholdFor(model);
+
+            Flux<T> first = timed(model, primary)
+                    .doOnNext(item -> primaryEmitted.set(true))
+                    .doOnComplete(() -> {
+                        if (!primaryEmitted.get()) {
+                            primaryCompletedEmpty.set(true);
+                            primaryEmpty.tryEmitEmpty();
+                        }
+                    })
+                    .onErrorResume(error -> {
+                        if (primaryEmitted.get()) {
+                            return Flux.error(error);
+                        }
+                        // Nothing streamed yet: fail over instead of surfacing the error
+                        log.warn("Stream for model {} failed before its first token, failing over: {}",
+                                model, error.getMessage());
+                        primaryFailed.tryEmitEmpty();
+                        return Flux.empty();
+                    });
+            // Issued on a slow first token or a failure before it; an empty completion settles the race instead
+            Mono<Boolean> issueHedge = Mono.firstWithSignal(
+                    Mono.delay(Duration.ofMillis(threshold)).thenReturn(true),
+                    primaryFailed.asMono().thenReturn(true),
+                    primaryEmpty.asMono().thenReturn(false));
+            Flux<T> second = issueHedge.flatMapMany(issue -> !issue ? Flux.<T>empty() : Flux.defer(() -> {
+                log.info("No first token from model {} within {}ms, hedging", model, threshold);
+                count("issued", model);
+                onHedge.run();
+                return timed(alternateModel, alternate.get());
+            }));
+            AtomicBoolean hedgeWon = new AtomicBoolean();
+            return Flux.firstWithValue(first, second.doOnNext(item -> {
+                if (hedgeWon.compareAndSet(false, true)) {
+                    count("won", model);
+                    onHedgeWon.run();
+                }
+            })).onErrorResume(error -> error instanceof NoSuchElementException && primaryCompletedEmpty.get(),
+                    error -> Flux.empty());
+        });
+    }
+
+    /**
+     * TTFT after which a request for {@code model} is hedged.
+     */
+    public long thresholdFor(String model) {
+        if (ttftThresholdMs > 0) {
+            return ttftThresholdMs;
+        }
+        TtftWindow window = windows.get(key(model));
+        long p95 = window != null ? window.percentile(0.95) : -1;
+        return p95 < 0 ? initialThresholdMs : Math.max(minThresholdMs, p95);
+    }
+
+    void record(String model, long ttftMs) {
+        windows.computeIfAbsent(key(model), k -> new TtftWindow()).add(ttftMs);
+    }
+
+    private <T> Flux<T> timed(String model, Flux<T> stream) {
+        return Flux.defer(() -> {
+            long start = System.currentTimeMillis();
+            AtomicBoolean first = new AtomicBoolean();
+            return stream.doOnNext(item -> {
+                if (first.compareAndSet(false, true)) {
+                    record(model, System.currentTimeMillis() - start);
+                }
+            });
+        });
+    }
+
+    private void count(String outcome, String model) {
+        if (meterRegistry != null) {
+            Counter.builder("cfllama.chat.hedge")
+                    .description("Hedged stream requests issued, and how many the hedge won")
+                    .tag("outcome", outcome)
+                    .tag("model", key(model))
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    private static String key(String model) {
+        return model != null ? model : "default";
+    }
+
+    /** Ring of the most recent TTFT samples for one model. */
+    private static final class TtftWindow {
+        private final long[] samples = new long[WINDOW];
+        private int next;
+        private int size;
+
+        synchronized void add(long ttftMs) {
+            samples[next] = ttftMs;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+        }
+
+        /** @return the percentile, or -1 when there are too few samples */
+        synchronized long percentile(double p) {
+            if (size < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(p * size) - 1)];
+        }
+    }
+}
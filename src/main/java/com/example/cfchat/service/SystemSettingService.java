@@ -7,11 +7,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -46,8 +51,19 @@ public class SystemSettingService {
             systemSettingRepository.save(setting);
         }
         log.info("System setting updated: {} = {}", key, value);
-        if (eventService != null) {
-            eventService.broadcast("cache.settings", key);
+        if (eventService == null) {
+            return;
+        }
+        // Only after commit: a read racing an earlier broadcast would re-cache the old value on every node
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    eventService.broadcast(CacheInvalidationService.CHANNEL_SETTINGS, key);
+                }
+            });
+        } else {
+            eventService.broadcast(CacheInvalidationService.CHANNEL_SETTINGS, key);
         }
     }
 
@@ -66,4 +82,15 @@ public class SystemSettingService {
         }
         return Boolean.parseBoolean(value);
     }
+
+    /** Splits a comma-separated setting value into its trimmed, non-empty items. */
+    public static Set<String> parseList(String value) {
+        if (value == null || value.isBlank()) {
+            return Set.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
 }
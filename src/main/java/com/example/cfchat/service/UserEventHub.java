@@ -0,0 +1,84 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.event.WikiOpEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes {@link WikiOpEvent}s to the open streams of the user they belong to.
+ * Listens once on the application context instead of registering a listener
+ * per stream, so an event only reaches the owning user's subscribers.
+ */
+@Component
+@Slf4j
+public class UserEventHub {
+
+    private final ConcurrentHashMap<UUID, Set<Sinks.Many<WikiOpEvent>>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Live wiki operations for {@code userId}. When {@code conversationId} is set,
+     * events bound to a different conversation are skipped. The subscription is
+     * removed when the returned flux is cancelled, errors or completes.
+     */
+    public Flux<WikiOpEvent> wikiOps(UUID userId, UUID conversationId) {
+        if (userId == null) {
+            return Flux.never();
+        }
+        return Flux.defer(() -> {
+            Sinks.Many<WikiOpEvent> sink = Sinks.many().unicast().onBackpressureBuffer();
+            subscribers.compute(userId, (id, sinks) -> {
+                Set<Sinks.Many<WikiOpEvent>> userSinks = sinks != null ? sinks : ConcurrentHashMap.newKeySet();
+                userSinks.add(sink);
+                return userSinks;
+            });
+            return sink.asFlux()
+                    .filter(evt -> conversationId == null || evt.getConversationId() == null
+                            || conversationId.equals(evt.getConversationId()))
+                    .doFinally(signal -> unsubscribe(userId, sink));
+        });
+    }
+
+    @EventListener
+    public void onWikiOp(WikiOpEvent evt) {
+        dispatch(evt);
+    }
+
+    /** @return the number of sinks the event was handed to */
+    int dispatch(WikiOpEvent evt) {
+        if (evt.getUserId() == null) {
+            return 0;
+        }
+        Set<Sinks.Many<WikiOpEvent>> sinks = subscribers.get(evt.getUserId());
+        if (sinks == null) {
+            return 0;
+        }
+        int delivered = 0;
+        for (Sinks.Many<WikiOpEvent> sink : sinks) {
+            // Unicast sinks reject concurrent emitters; wiki writes for one user can race
+            synchronized (sink) {
+                if (sink.tryEmitNext(evt).isSuccess()) {
+                    delivered++;
+                }
+            }
+        }
+        return delivered;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void unsubscribe(UUID userId, Sinks.Many<WikiOpEvent> sink) {
+        subscribers.computeIfPresent(userId, (id, sinks) -> {
+            sinks.remove(sink);
+            return sinks.isEmpty() ? null : sinks;
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.cfchat.service.context;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pure-Java byte-level BPE token counter for tiktoken-style vocabularies
+ * (cl100k_base and compatible). Text is split with the cl100k pre-tokenizer
+ * pattern and each piece is merged by lowest rank, exactly as tiktoken does;
+ * only the resulting token count is kept.
+ *
+ * <p>The vocabulary is the plain {@code .tiktoken} format: one
+ * {@code <base64 bytes> <rank>} pair per line.
+ */
+public class BpeTokenizer implements Tokenizer {
+
+    public static final Pattern CL100K_PATTERN = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+                    + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    // Pieces longer than this are merged in slices to keep the quadratic merge bounded
+    private static final int MAX_PIECE_BYTES = 512;
+
+    // Byte sequences are keyed as ISO-8859-1 strings: one char per byte, cheap equals/hashCode
+    private final Map<String, Integer> ranks;
+    private final Pattern pattern;
+    private final String name;
+
+    public BpeTokenizer(String name, Map<String, Integer> ranks, Pattern pattern) {
+        this.name = name;
+        this.ranks = Map.copyOf(ranks);
+        this.pattern = pattern;
+    }
+
+    public static BpeTokenizer fromTiktoken(String name, InputStream vocabulary) throws IOException {
+        Map<String, Integer> ranks = new HashMap<>(128_000);
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(vocabulary, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] token = decoder.decode(line.substring(0, space));
+                ranks.put(new String(token, StandardCharsets.ISO_8859_1),
+                        Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        if (ranks.isEmpty()) {
+            throw new IOException("Tokenizer vocabulary is empty");
+        }
+        return new BpeTokenizer(name, ranks, CL100K_PATTERN);
+    }
+
+    @Override
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int total = 0;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            byte[] piece = matcher.group().getBytes(StandardCharsets.UTF_8);
+            for (int offset = 0; offset < piece.length; offset += MAX_PIECE_BYTES) {
+                total += countPiece(piece, offset, Math.min(MAX_PIECE_BYTES, piece.length - offset));
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    private int countPiece(byte[] piece, int offset, int length) {
+        if (length == 1 || ranks.containsKey(key(piece, offset, length))) {
+            return 1;
+        }
+        // bounds[i] is the start of part i; bounds[parts] is the end of the piece
+        int[] bounds = new int[length + 1];
+        for (int i = 0; i <= length; i++) {
+            bounds[i] = offset + i;
+        }
+        int parts = length;
+        while (parts > 1) {
+            int bestRank = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            for (int i = 0; i < parts - 1; i++) {
+                Integer rank = ranks.get(key(piece, bounds[i], bounds[i + 2] - bounds[i]));
+                if (rank != null && rank < bestRank) {
+                    bestRank = rank;
+                    bestIndex = i;
+                }
+            }
+            if (bestIndex < 0) {
+                break;
+            }
+            // Merge part bestIndex with its right neighbour
+            System.arraycopy(bounds, bestIndex + 2, bounds, bestIndex + 1, parts - bestIndex - 1);
+            parts--;
+        }
+        return parts;
+    }
+
+    private static String key(byte[] bytes, int offset, int length) {
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.cfchat.service.context;
+
+import com.example.cfchat.config.ChatConfig;
+import com.example.cfchat.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs a prompt into a model's context window. Required sections and the current
+ * message are always kept; optional sections are admitted in priority order while
+ * they fit; history is then filled newest-first with whatever budget remains.
+ */
+@Component
+@Slf4j
+public class ContextBudgetPlanner {
+
+    // Per-message framing cost of the chat format (role markers, separators)
+    static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private static final String SECTION_SEPARATOR = "\n\n";
+
+    private final Tokenizer tokenizer;
+    private final ChatConfig chatConfig;
+
+    public ContextBudgetPlanner(Tokenizer tokenizer, ChatConfig chatConfig) {
+        this.tokenizer = tokenizer;
+        this.chatConfig = chatConfig;
+    }
+
+    /**
+     * A piece of the prompt. Lower {@code priority} values are admitted first;
+     * sections are emitted in the order given regardless of priority. Trailing
+     * sections go in front of the current user message instead of the system
+     * prompt, so per-turn context does not disturb the cacheable prefix.
+     */
+    public record PromptSection(String name, String text, boolean required, int priority, boolean trailing) {
+
+        public static PromptSection required(String name, String text) {
+            return new PromptSection(name, text, true, 0, false);
+        }
+
+        public static PromptSection optional(String name, String text, int priority) {
+            return new PromptSection(name, text, false, priority, false);
+        }
+
+        public PromptSection asTrailing() {
+            return new PromptSection(name, text, required, priority, true);
+        }
+    }
+
+    /**
+     * @param trailingContext admitted trailing sections, to be sent ahead of the
+     *                        current message; empty when there are none
+     */
+    public record ContextPlan(String systemPrompt, String trailingContext, List<Message> history, int usedTokens,
+                              int budgetTokens, List<String> droppedSections, int droppedHistoryMessages) {
+
+        /** The current message with any trailing context in front of it. */
+        public String currentMessage(String message) {
+            return trailingContext.isEmpty() ? message : trailingContext + SECTION_SEPARATOR + message;
+        }
+    }
+
+    public int countTokens(String text) {
+        return tokenizer.count(text);
+    }
+
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * Resolves the context window for a model: configured override, then the
+     * window advertised by the model metadata, then the configured default.
+     */
+    public int contextWindowFor(String model, Integer advertisedWindow) {
+        ChatConfig.Context context = chatConfig.getContext();
+        Integer configured = model != null ? context.getModelWindows().get(model) : null;
+        if (configured != null && configured > 0) {
+            return configured;
+        }
+        if (advertisedWindow != null && advertisedWindow > 0) {
+            return advertisedWindow;
+        }
+        return context.getDefaultWindowTokens();
+    }
+
+    /**
+     * @param history prior turns, oldest first
+     */
+    public ContextPlan plan(int contextWindow, List<PromptSection> sections, List<Message> history,
+                           String currentMessage) {
+        int budget = Math.max(0, contextWindow - chatConfig.getContext().getReservedOutputTokens());
+
+        // The system message and the current user message are always sent
+        int used = 2 * MESSAGE_OVERHEAD_TOKENS + tokenizer.count(currentMessage);
+        List<PromptSection> admitted = new ArrayList<>();
+        for (PromptSection section : sections) {
+            if (section.required() && hasText(section)) {
+                admitted.add(section);
+                used += sectionCost(section);
+            }
+        }
+        if (used > budget) {
+            log.warn("Required prompt sections use {} tokens, over the {} token budget", used, budget);
+        }
+
+        List<String> dropped = new ArrayList<>();
+        List<PromptSection> optional = sections.stream()
+                .filter(s -> !s.required() && hasText(s))
+                .sorted(Comparator.comparingInt(PromptSection::priority))
+                .toList();
+        for (PromptSection section : optional) {
+            int cost = sectionCost(section);
+            if (used + cost <= budget) {
+                admitted.add(section);
+                used += cost;
+            } else {
+                dropped.add(section.name());
+            }
+        }
+
+        List<Message> kept = new ArrayList<>();
+        int index = history.size() - 1;
+        for (; index >= 0; index--) {
+            Message message = history.get(index);
+            int cost = MESSAGE_OVERHEAD_TOKENS + tokenizer.count(message.getContent());
+            if (used + cost > budget) {
+                break;
+            }
+            kept.add(message);
+            used += cost;
+        }
+        Collections.reverse(kept);
+
+        StringBuilder systemPrompt = new StringBuilder();
+        StringBuilder trailingContext = new StringBuilder();
+        for (PromptSection section : sections) {
+            if (admitted.contains(section)) {
+                StringBuilder target = section.trailing() ? trailingContext : systemPrompt;
+                if (!target.isEmpty()) {
+                    target.append(SECTION_SEPARATOR);
+                }
+                target.append(section.text());
+            }
+        }
+
+        if (!dropped.isEmpty() || index >= 0) {
+            log.debug("Context budget {} tokens: dropped sections {} and {} older history message(s)",
+                    budget, dropped, index + 1);
+        }
+        return new ContextPlan(systemPrompt.toString(), trailingContext.toString(), kept, used, budget, List.copyOf(dropped), index + 1);
+    }
+
+    private int sectionCost(PromptSection section) {
+        return tokenizer.count(section.text()) + tokenizer.count(SECTION_SEPARATOR);
+    }
+
+    private static boolean hasText(PromptSection section) {
+        return section.text() != null && !section.text().isBlank();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.cfchat.service.context;
+
+/**
+ * What a {@link ContextContributor} adds to the prompt: a system prompt section,
+ * a rewritten user message (e.g. the question wrapped with a fetched transcript),
+ * or nothing.
+ */
+public record ContextContribution(ContextBudgetPlanner.PromptSection section, String rewrittenMessage) {
+
+    private static final ContextContribution NONE = new ContextContribution(null, null);
+
+    public static ContextContribution section(ContextBudgetPlanner.PromptSection section) {
+        return new ContextContribution(section, null);
+    }
+
+    public static ContextContribution rewrite(String rewrittenMessage) {
+        return new ContextContribution(null, rewrittenMessage);
+    }
+
+    public static ContextContribution none() {
+        return NONE;
+    }
+
+    public boolean isEmpty() {
+        return section == null && rewrittenMessage == null;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.cfchat.service.context;
+
+import java.util.function.Supplier;
+
+/**
+ * One independent source of prompt enrichment (wiki index, document search,
+ * linked page fetch). Contributors run concurrently and must not depend on
+ * each other's output.
+ */
+public interface ContextContributor {
+
+    String name();
+
+    /**
+     * Produces this contributor's piece of the prompt. May block on I/O; runs on
+     * a virtual thread and is interrupted if the enrichment deadline passes.
+     */
+    ContextContribution contribute() throws Exception;
+
+    static ContextContributor of(String name, Supplier<ContextContribution> supplier) {
+        return new ContextContributor() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public ContextContribution contribute() {
+                return supplier.get();
+            }
+        };
+    }
+}
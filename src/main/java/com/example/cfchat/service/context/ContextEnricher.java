@@ -0,0 +1,118 @@
+package com.example.cfchat.service.context;
+
+import com.example.cfchat.config.ChatConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs {@link ContextContributor}s concurrently on virtual threads under one
+ * overall deadline, so enrichment costs roughly the slowest source instead of
+ * the sum of all of them. Contributors still running at the deadline are
+ * interrupted and dropped.
+ */
+@Component
+@Slf4j
+public class ContextEnricher implements DisposableBean {
+
+    public enum Status { OK, EMPTY, TIMED_OUT, FAILED }
+
+    /**
+     * @param contributions non-empty contributions by contributor name, in submission order
+     * @param outcomes      status of every contributor, in submission order
+     */
+    public record EnrichmentResult(Map<String, ContextContribution> contributions,
+                                   Map<String, Status> outcomes, long elapsedMs) {
+
+        public static final EnrichmentResult EMPTY = new EnrichmentResult(Map.of(), Map.of(), 0);
+
+        public ContextContribution get(String name) {
+            return contributions.get(name);
+        }
+
+        /** Outcomes as lower-case strings for response metadata; null when nothing ran. */
+        public Map<String, String> report() {
+            if (outcomes.isEmpty()) {
+                return null;
+            }
+            Map<String, String> report = new LinkedHashMap<>();
+            outcomes.forEach((name, status) -> report.put(name, status.name().toLowerCase()));
+            return report;
+        }
+    }
+
+    private final ChatConfig chatConfig;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ContextEnricher(ChatConfig chatConfig) {
+        this.chatConfig = chatConfig;
+    }
+
+    public EnrichmentResult enrich(List<ContextContributor> contributors) {
+        return enrich(contributors, Duration.ofMillis(chatConfig.getEnrichmentBudgetMs()));
+    }
+
+    public EnrichmentResult enrich(List<ContextContributor> contributors, Duration budget) {
+        if (contributors.isEmpty()) {
+            return EnrichmentResult.EMPTY;
+        }
+        long start = System.nanoTime();
+        long deadline = start + budget.toNanos();
+
+        List<Future<ContextContribution>> futures = new ArrayList<>(contributors.size());
+        for (ContextContributor contributor : contributors) {
+            futures.add(executor.submit(contributor::contribute));
+        }
+
+        Map<String, ContextContribution> contributions = new LinkedHashMap<>();
+        Map<String, Status> outcomes = new LinkedHashMap<>();
+        for (int i = 0; i < contributors.size(); i++) {
+            String name = contributors.get(i).name();
+            Future<ContextContribution> future = futures.get(i);
+            try {
+                ContextContribution contribution = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (contribution == null || contribution.isEmpty()) {
+                    outcomes.put(name, Status.EMPTY);
+                } else {
+                    contributions.put(name, contribution);
+                    outcomes.put(name, Status.OK);
+                }
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                outcomes.put(name, Status.TIMED_OUT);
+                log.warn("Context contributor '{}' missed the {}ms enrichment deadline", name, budget.toMillis());
+            } catch (ExecutionException e) {
+                outcomes.put(name, Status.FAILED);
+                log.warn("Context contributor '{}' failed: {}", name, e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                outcomes.put(name, Status.TIMED_OUT);
+                break;
+            }
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.debug("Context enrichment finished in {}ms: {}", elapsedMs, outcomes);
+        return new EnrichmentResult(Collections.unmodifiableMap(contributions),
+                Collections.unmodifiableMap(outcomes), elapsedMs);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.cfchat.service.context;
+
+/**
+ * Fallback tokenizer: roughly four characters per token, which is close enough
+ * for English text on BPE vocabularies when no vocabulary file is configured.
+ */
+public class HeuristicTokenizer implements Tokenizer {
+
+    @Override
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (int) Math.ceil(text.length() / 4.0);
+    }
+
+    @Override
+    public String name() {
+        return "heuristic";
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.cfchat.service.context;
+
+import com.example.cfchat.config.ChatConfig;
+import com.example.cfchat.model.Skill;
+import com.example.cfchat.service.SkillService;
+import com.example.cfchat.service.ThinkingOptionsBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the static head of the system prompt (base prompt, skill augmentation,
+ * thinking-level suffix) once per (skill, model, thinking level) and hands back
+ * the same string on every turn, so backends with prefix caching (vLLM, Ollama,
+ * OpenAI-compatible servers) can reuse the prefill for it. Entries are stamped
+ * with {@link SkillService#getVersion()} and re-rendered after any skill edit or
+ * a change of the base prompt.
+ */
+@Component
+@Slf4j
+public class PromptPrefixCache {
+
+    static final int MAX_ENTRIES = 1000;
+
+    private static final String SECTION_SEPARATOR = "\n\n";
+
+    private final ChatConfig chatConfig;
+    private final SkillService skillService;
+    private final ThinkingOptionsBuilder thinkingOptionsBuilder;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    public PromptPrefixCache(ChatConfig chatConfig,
+                             @Autowired(required = false) SkillService skillService,
+                             @Autowired(required = false) ThinkingOptionsBuilder thinkingOptionsBuilder) {
+        this.chatConfig = chatConfig;
+        this.skillService = skillService;
+        this.thinkingOptionsBuilder = thinkingOptionsBuilder;
+    }
+
+    private record Key(UUID skillId, String model, String thinkingLevel) {}
+
+    private record Entry(long skillVersion, String basePrompt, String prefix) {}
+
+    /**
+     * The rendered static prefix; byte-identical across calls until a skill is
+     * edited or the base prompt changes.
+     */
+    public String prefix(UUID skillId, String model, String thinkingLevel) {
+        Key key = new Key(skillId, model, thinkingLevel);
+        long version = skillService != null ? skillService.getVersion() : 0;
+        String basePrompt = chatConfig.getSystemPrompt();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.skillVersion() == version && Objects.equals(entry.basePrompt(), basePrompt)) {
+            return entry.prefix();
+        }
+        String prefix = render(basePrompt, skillId, model, thinkingLevel);
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(key, new Entry(version, basePrompt, prefix));
+        return prefix;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private String render(String basePrompt, UUID skillId, String model, String thinkingLevel) {
+        StringBuilder prefix = new StringBuilder();
+        append(prefix, basePrompt);
+
+        if (skillId != null && skillService != null) {
+            try {
+                Skill skill = skillService.getSkillById(skillId).orElse(null);
+                if (skill != null && skill.isEnabled()) {
+                    append(prefix, skill.getSystemPromptAugmentation());
+                    log.debug("Applied skill '{}' to system prompt", skill.getName());
+                }
+            } catch (Exception e) {
+                log.warn("Failed to apply skill {}: {}", skillId, e.getMessage());
+            }
+        }
+
+        // Per-model thinking-level suffix (e.g. /no_think for Qwen3, verbal nudge for
+        // plain Ollama models). gpt-oss is handled via OpenAiChatOptions.reasoningEffort.
+        if (thinkingOptionsBuilder != null && model != null) {
+            append(prefix, thinkingOptionsBuilder.systemPromptSuffix(model, thinkingLevel));
+        }
+        return prefix.toString();
+    }
+
+    private static void append(StringBuilder prefix, String text) {
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        if (!prefix.isEmpty()) {
+            prefix.append(SECTION_SEPARATOR);
+        }
+        prefix.append(text);
+    }
+}
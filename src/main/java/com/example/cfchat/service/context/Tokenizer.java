@@ -0,0 +1,11 @@
+package com.example.cfchat.service.context;
+
+/**
+ * Counts model tokens for prompt budgeting. Implementations must be thread-safe.
+ */
+public interface Tokenizer {
+
+    int count(String text);
+
+    String name();
+}
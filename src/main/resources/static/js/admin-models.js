@@ -100,6 +100,7 @@ function showEditBindingModal(bindingId) {
     document.getElementById('bindingApiKey').placeholder = 'Leave blank to keep existing key';
     document.getElementById('bindingApiKey').required = false;
     document.getElementById('bindingConfigUrl').value = binding.configUrl || '';
+    document.getElementById('bindingContextWindow').value = binding.contextWindow || '';
     document.getElementById('bindingModal').classList.add('open');
 }
 
@@ -117,7 +118,8 @@ document.getElementById('bindingForm').addEventListener('submit', function(e) {
         name: document.getElementById('bindingName').value,
         description: document.getElementById('bindingDescription').value,
         apiBase: document.getElementById('bindingApiBase').value,
-        configUrl: document.getElementById('bindingConfigUrl').value
+        configUrl: document.getElementById('bindingConfigUrl').value,
+        contextWindow: document.getElementById('bindingContextWindow').value
     };
 
     // Only include apiKey if it's provided (for edits, allow empty to keep existing)
@@ -240,6 +240,7 @@ class ChatApp {
         this.ragRetrievalModeSection = document.getElementById('ragRetrievalModeSection');
         this.ragModeToggle = document.getElementById('ragModeToggle');
         this.ragModeSnippetBtn = document.getElementById('ragModeSnippet');
+        this.ragModeWindowBtn = document.getElementById('ragModeWindow');
         this.ragModeFullBtn = document.getElementById('ragModeFull');
 
         // Temporary chat toggle
@@ -1123,13 +1124,41 @@ class ChatApp {
                 }, 100);
             };
 
-            const reader = response.body.getReader();
+            let reader = response.body.getReader();
             const decoder = new TextDecoder();
             let buffer = '';  // Buffer for incomplete SSE events
             let currentEvent = 'message';  // Track SSE event name
 
+            // The server keeps generating if this connection drops; reattach
+            // with the last fully received event id to replay what was missed.
+            const generationId = response.headers.get('X-Generation-Id');
+            this.currentGenerationId = generationId;
+            let lastEventId = '0';
+            let pendingEventId = null;
+            let resumeAttempts = 0;
+
             while (true) {
-                const { value, done } = await reader.read();
+                let chunk;
+                try {
+                    chunk = await reader.read();
+                } catch (readError) {
+                    if (!generationId || streamComplete || !this.abortController
+                            || this.abortController.signal.aborted || resumeAttempts >= 3) {
+                        throw readError;
+                    }
+                    resumeAttempts++;
+                    const resumed = await fetch(`/api/chat/stream/${generationId}`, {
+                        headers: { 'Last-Event-ID': lastEventId },
+                        signal: this.abortController.signal
+                    });
+                    if (!resumed.ok) throw readError;
+                    reader = resumed.body.getReader();
+                    buffer = '';
+                    currentEvent = 'message';
+                    pendingEventId = null;
+                    continue;
+                }
+                const { value, done } = chunk;
                 if (done) break;
 
                 buffer += decoder.decode(value, { stream: true });
@@ -1139,6 +1168,10 @@ class ChatApp {
                 buffer = lines.pop() || '';
 
                 for (const line of lines) {
+                    if (line.startsWith('id:')) {
+                        pendingEventId = line.slice(3).trim();
+                        continue;
+                    }
                     if (line.startsWith('event:')) {
                         currentEvent = line.slice(6).trim() || 'message';
                         continue;
@@ -1149,6 +1182,10 @@ class ChatApp {
                         continue;
                     }
                     if (line.startsWith('data:')) {
+                        if (pendingEventId) {
+                            lastEventId = pendingEventId;
+                            pendingEventId = null;
+                        }
                         try {
                             const jsonStr = line.slice(5).trim();
                             if (!jsonStr) continue;
@@ -1236,6 +1273,15 @@ class ChatApp {
                                 if (!data.temporary) {
                                     this.refreshConversationsList();
                                 }
+                            } else if (data.queuePosition != null) {
+                                // Waiting for a slot on a busy model
+                                if (!fullContent) {
+                                    textEl.textContent = `Waiting for the model… (position ${data.queuePosition} in queue)`;
+                                }
+                            } else if (data.d) {
+                                // Coalesced delta frame: text only, no metadata
+                                routeChunk(data.d);
+                                debouncedStreamRender();
                             } else if (data.content) {
                                 routeChunk(data.content);
                                 debouncedStreamRender();
@@ -1270,8 +1316,8 @@ class ChatApp {
                                 this.highlightCode(textEl);
                                 this.renderMath(textEl);
                                 this.renderArtifacts(textEl);
-                            } else if (data.content) {
-                                routeChunk(data.content);
+                            } else if (data.d || data.content) {
+                                routeChunk(data.d || data.content);
                             }
                         }
                     } catch (e) {
@@ -1299,6 +1345,7 @@ class ChatApp {
             }
             this.hideCancelButton();
             this.abortController = null;
+            this.currentGenerationId = null;
         }
     }
 
@@ -1321,6 +1368,11 @@ class ChatApp {
     }
 
     cancelStream() {
+        if (this.currentGenerationId) {
+            // Generation outlives the connection, so stop it explicitly; the partial answer is kept
+            fetch(`/api/chat/${this.currentGenerationId}/cancel`, { method: 'POST' }).catch(() => {});
+            this.currentGenerationId = null;
+        }
         if (this.abortController) {
             this.abortController.abort();
             this.abortController = null;
@@ -1922,6 +1974,10 @@ class ChatApp {
         if (this.useDocumentsToggle) {
             this.useDocumentsToggle.addEventListener('change', (e) => {
                 this.useDocumentContext = e.target.checked;
+                // The retrieval mode only matters while documents are in use
+                if (this.ragRetrievalModeSection) {
+                    this.ragRetrievalModeSection.style.display = e.target.checked ? '' : 'none';
+                }
             });
         }
 
@@ -1941,9 +1997,10 @@ class ChatApp {
 
     /**
      * Set the RAG retrieval mode and persist to server and localStorage.
-     * @param {string} mode - "snippet" or "full"
+     * @param {string} mode - "snippet", "window" or "full"
      */
     setRagRetrievalMode(mode) {
+        if (!['snippet', 'window', 'full'].includes(mode)) return;
         this.ragRetrievalMode = mode;
         localStorage.setItem('ragRetrievalMode', mode);
         this.applyRagModeUI(mode);
@@ -1960,12 +2017,14 @@ class ChatApp {
 
     /**
      * Update the RAG mode toggle UI to reflect the active mode.
-     * @param {string} mode - "snippet" or "full"
+     * @param {string} mode - "snippet", "window" or "full"
      */
     applyRagModeUI(mode) {
         if (!this.ragModeToggle) return;
         this.ragModeToggle.querySelectorAll('.rag-mode-btn').forEach(btn => {
-            btn.classList.toggle('active', btn.dataset.mode === mode);
+            const isActive = btn.dataset.mode === mode;
+            btn.classList.toggle('active', isActive);
+            btn.setAttribute('aria-checked', isActive ? 'true' : 'false');
         });
     }
 
@@ -2175,7 +2234,17 @@ class ChatApp {
                 body: formData
             });
 
-            const result = await response.json();
+            let result = await response.json();
+
+            if (response.ok && result.status === 'PENDING') {
+                this.progressText.textContent = `Processing ${file.name}...`;
+                result = await this.followIngestion(result.documentId, (progress) => {
+                    this.progressText.textContent = `${file.name}: ${progress.message}`;
+                    if (progress.chunks > 0) {
+                        this.progressFill.style.width = `${Math.round(100 * progress.written / progress.chunks)}%`;
+                    }
+                });
+            }
 
             if (response.ok && result.status === 'COMPLETED') {
                 this.haptic();
@@ -2205,6 +2274,68 @@ class ChatApp {
         }
     }
 
+    /**
+     * Follows a queued upload's progress stream until it completes or fails.
+     * Resolves with {status, message} like the upload response.
+     */
+    followIngestion(documentId, onProgress) {
+        return new Promise((resolve) => {
+            let source = null;
+            let settled = false;
+            let attempts = 0;
+            const settle = (status, message) => {
+                if (settled) return;
+                settled = true;
+                if (source) source.close();
+                resolve({ documentId, status, message });
+            };
+            const connect = () => {
+                source = new EventSource(`/api/documents/${documentId}/progress`);
+                source.addEventListener('progress', (e) => {
+                    attempts = 0;
+                    const progress = JSON.parse(e.data);
+                    if (onProgress) onProgress(progress);
+                    if (progress.stage === 'COMPLETED' || progress.stage === 'FAILED') {
+                        settle(progress.stage, progress.message);
+                    }
+                });
+                // The stream can close before the final event (a proxy timeout, a restart),
+                // so check the stored status and only report a failure the server recorded
+                source.onerror = async () => {
+                    source.close();
+                    if (settled) return;
+                    try {
+                        const response = await fetch(`/api/documents/${documentId}`);
+                        if (response.status === 404) {
+                            settle('FAILED', 'Document was deleted');
+                            return;
+                        }
+                        if (response.ok) {
+                            const doc = await response.json();
+                            if (doc.status === 'COMPLETED') {
+                                settle('COMPLETED', 'Document processed successfully');
+                                return;
+                            }
+                            if (doc.status === 'FAILED') {
+                                settle('FAILED', doc.errorMessage || 'Processing failed');
+                                return;
+                            }
+                            attempts = 0;
+                        }
+                    } catch (error) {
+                        console.warn('Could not check document status:', error);
+                    }
+                    if (++attempts > 5) {
+                        settle('FAILED', 'Lost connection while processing');
+                        return;
+                    }
+                    setTimeout(connect, 2000);
+                };
+            };
+            connect();
+        });
+    }
+
     async deleteDocument(documentId) {
         if (!confirm('Are you sure you want to delete this document?')) {
             return;
@@ -2264,7 +2395,10 @@ class ChatApp {
             });
 
             if (response.ok) {
-                const result = await response.json();
+                let result = await response.json();
+                if (result.status === 'PENDING') {
+                    result = await this.followIngestion(result.documentId);
+                }
                 if (result.status === 'COMPLETED') {
                     alert('Pasted content uploaded as document successfully.');
                     await this.loadDocuments();
@@ -0,0 +1,115 @@
+package com.example.cfchat.controller;
+
+import com.example.cfchat.auth.UserService;
+import com.example.cfchat.model.SystemSetting;
+import com.example.cfchat.model.User;
+import com.example.cfchat.repository.ConversationRepository;
+import com.example.cfchat.repository.EmbeddingMetricRepository;
+import com.example.cfchat.repository.OrganizationRepository;
+import com.example.cfchat.repository.SystemSettingRepository;
+import com.example.cfchat.repository.UsageMetricRepository;
+import com.example.cfchat.repository.UserAccessRepository;
+import com.example.cfchat.service.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Saving the moderation and prompt-injection pattern settings through the admin
+ * API reloads the scanners, the same way a save on another node would.
+ */
+class AdminSettingsReloadTest {
+
+    private final Map<String, SystemSetting> rows = new ConcurrentHashMap<>();
+    private ContentModerationService moderation;
+    private PromptInjectionDetector injectionDetector;
+    private AdminController controller;
+
+    @BeforeEach
+    void setUp() {
+        SystemSettingRepository repository = mock(SystemSettingRepository.class);
+        when(repository.findByKey(anyString())).thenAnswer(invocation -> Optional.ofNullable(rows.get(invocation.<String>getArgument(0))));
+        when(repository.save(any(SystemSetting.class))).thenAnswer(invocation -> {
+            SystemSetting row = invocation.getArgument(0);
+            rows.put(row.getKey(), row);
+            return row;
+        });
+        LocalEventService eventService = new LocalEventService();
+        SystemSettingService settingService = new SystemSettingService(repository);
+        ReflectionTestUtils.setField(settingService, "eventService", eventService);
+
+        moderation = new ContentModerationService();
+        ReflectionTestUtils.setField(moderation, "enabled", true);
+        ReflectionTestUtils.setField(moderation, "action", "block");
+        ReflectionTestUtils.setField(moderation, "systemSettingService", settingService);
+        ReflectionTestUtils.setField(moderation, "eventService", eventService);
+        ReflectionTestUtils.invokeMethod(moderation, "loadPatterns");
+
+        injectionDetector = new PromptInjectionDetector();
+        ReflectionTestUtils.setField(injectionDetector, "enabled", true);
+        ReflectionTestUtils.setField(injectionDetector, "action", "block");
+        ReflectionTestUtils.setField(injectionDetector, "systemSettingService", settingService);
+        ReflectionTestUtils.setField(injectionDetector, "eventService", eventService);
+        ReflectionTestUtils.invokeMethod(injectionDetector, "loadPatterns");
+
+        UserService userService = mock(UserService.class);
+        when(userService.getCurrentUser()).thenReturn(Optional.of(
+                User.builder().username("admin").role(User.UserRole.ADMIN).build()));
+        controller = new AdminController(userService, mock(ConversationService.class),
+                mock(ConversationRepository.class), mock(ChatService.class), null,
+                mock(OrganizationRepository.class), mock(UserAccessService.class), mock(DatabaseStatsService.class),
+                mock(UsageMetricRepository.class), mock(EmbeddingMetricRepository.class),
+                mock(UserAccessRepository.class), null, settingService, null, null,
+                mock(OutboundUrlPolicy.class), null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void savingModerationPatterns_reloadsTheScanner() {
+        assertThat(moderation.check("tell me about the quarterly numbers").flagged()).isFalse();
+
+        controller.saveSetting(Map.of("key", ContentModerationService.PATTERNS_KEY, "value", "quarterly numbers"));
+
+        assertThat(moderation.check("tell me about the quarterly numbers").flagged()).isTrue();
+        assertThat(moderation.check("how to make a bomb").flagged()).isFalse();
+    }
+
+    @Test
+    void savingInjectionPatterns_reloadsTheDetector() {
+        assertThat(injectionDetector.check("please act as admin").detected()).isFalse();
+
+        controller.saveSetting(Map.of("key", PromptInjectionDetector.PATTERNS_KEY, "value", "re:act as (root|admin)"));
+
+        assertThat(injectionDetector.check("please act as admin").detected()).isTrue();
+        assertThat(injectionDetector.check("you are now a pirate").detected()).isFalse();
+    }
+
+    @Test
+    void patternsAreReloadedOnlyOnceTheSaveCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        controller.saveSetting(Map.of("key", ContentModerationService.PATTERNS_KEY, "value", "quarterly numbers"));
+        assertThat(moderation.check("tell me about the quarterly numbers").flagged()).isFalse();
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(moderation.check("tell me about the quarterly numbers").flagged()).isTrue();
+    }
+}
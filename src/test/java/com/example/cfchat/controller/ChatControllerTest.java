@@ -9,6 +9,7 @@ import com.example.cfchat.model.Tool;
 import com.example.cfchat.model.ToolType;
 import com.example.cfchat.model.User;
 import com.example.cfchat.service.ChatService;
+import com.example.cfchat.service.GenerationRegistry;
 import com.example.cfchat.service.McpService;
 import com.example.cfchat.service.SkillService;
 import com.example.cfchat.service.ToolService;
@@ -17,12 +18,17 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
 
 import java.util.*;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
@@ -30,6 +36,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(ChatController.class)
+@Import(GenerationRegistry.class)
 class ChatControllerTest {
 
     @Autowired
@@ -60,7 +67,13 @@ class ChatControllerTest {
     private com.example.cfchat.mcp.McpToolCallbackCacheService mcpToolCallbackCacheService;
 
     @MockBean
-    private org.springframework.context.event.ApplicationEventMulticaster applicationEventMulticaster;
+    private com.example.cfchat.service.UserEventHub userEventHub;
+
+    @MockBean
+    private com.example.cfchat.service.StreamCoalescer streamCoalescer;
+
+    @Autowired
+    private GenerationRegistry generationRegistry;
 
     @Test
     @WithMockUser(username = "testuser")
@@ -114,7 +127,7 @@ class ChatControllerTest {
                 ModelInfo.builder().name("gpt-4o").provider("openai").available(true).build(),
                 ModelInfo.builder().name("llama3.2").provider("ollama").available(true).build()
         );
-        when(chatService.getAvailableModels()).thenReturn(models);
+        when(chatService.getAvailableModels(any())).thenReturn(models);
 
         mockMvc.perform(get("/api/chat/models"))
                 .andExpect(status().isOk())
@@ -194,4 +207,141 @@ class ChatControllerTest {
         mockMvc.perform(get("/api/chat/models"))
                 .andExpect(status().isUnauthorized());
     }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void chatStream_returnsGenerationIdOfTheRunningGeneration() throws Exception {
+        UUID userId = UUID.randomUUID();
+        when(userService.getCurrentUser()).thenReturn(Optional.of(User.builder().id(userId).username("testuser").build()));
+        when(userEventHub.wikiOps(any(), any())).thenReturn(Flux.empty());
+        when(streamCoalescer.coalesce(any())).thenAnswer(inv -> inv.<Flux<ChatResponse>>getArgument(0).cast(Object.class));
+        when(chatService.chatStream(any(ChatRequest.class))).thenReturn(Flux.just(
+                ChatResponse.builder().content("Hello").build(),
+                ChatResponse.builder().content("").complete(true).build()));
+
+        MvcResult result = mockMvc.perform(post("/api/chat/stream")
+                        .with(csrf())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("message", "Hi"))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(5_000);
+
+        UUID generationId = UUID.fromString(result.getResponse().getHeader("X-Generation-Id"));
+        assertThat(generationRegistry.find(generationId, userId)).isPresent();
+        assertThat(result.getResponse().getContentAsString())
+                .contains("id:1\nevent:message\ndata:{", "\"content\":\"Hello\"", "id:2\n");
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void resumeStream_replaysEveryFrameWithoutLastEventId() throws Exception {
+        UUID userId = currentUser();
+        GenerationRegistry.Generation generation = generationRegistry.start(userId, "message", Flux.just("a", "b", "c"));
+
+        String body = resume(generation.getId(), null);
+
+        assertThat(body).contains("id:1\nevent:message\ndata:a", "id:2\n", "id:3\n");
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void resumeStream_replaysOnlyFramesAfterLastEventId() throws Exception {
+        UUID userId = currentUser();
+        GenerationRegistry.Generation generation = generationRegistry.start(userId, "message", Flux.just("a", "b", "c"));
+
+        String body = resume(generation.getId(), "1");
+
+        assertThat(body).contains("id:2\nevent:message\ndata:b", "id:3\nevent:message\ndata:c")
+                .doesNotContain("id:1\n");
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void resumeStream_evictedFrames_endWithAnErrorFrame() throws Exception {
+        UUID userId = currentUser();
+        ReflectionTestUtils.setField(generationRegistry, "bufferFrames", 2);
+        GenerationRegistry.Generation generation;
+        try {
+            generation = generationRegistry.start(userId, "message", Flux.just("a", "b", "c", "d", "e"));
+        } finally {
+            ReflectionTestUtils.setField(generationRegistry, "bufferFrames", 4096);
+        }
+
+        String body = resume(generation.getId(), "1");
+
+        assertThat(body).contains("event:message", "Stream can no longer be resumed", "\"complete\":true")
+                .doesNotContain("data:b");
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void resumeStream_anotherUsersGeneration_returnsNotFound() throws Exception {
+        currentUser();
+        GenerationRegistry.Generation generation =
+                generationRegistry.start(UUID.randomUUID(), "message", Flux.just("secret"));
+
+        mockMvc.perform(get("/api/chat/stream/{id}", generation.getId()))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void cancelGeneration_stopsTheOwnersGeneration() throws Exception {
+        UUID userId = currentUser();
+        GenerationRegistry.Generation generation = generationRegistry.start(userId, "message", Flux.never());
+
+        mockMvc.perform(post("/api/chat/{id}/cancel", generation.getId()).with(csrf()))
+                .andExpect(status().isNoContent());
+
+        assertThat(generation.isDone()).isTrue();
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void cancelGeneration_unknownOrForeignGeneration_returnsNotFound() throws Exception {
+        currentUser();
+        GenerationRegistry.Generation foreign = generationRegistry.start(UUID.randomUUID(), "message", Flux.never());
+
+        mockMvc.perform(post("/api/chat/{id}/cancel", UUID.randomUUID()).with(csrf()))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/api/chat/{id}/cancel", foreign.getId()).with(csrf()))
+                .andExpect(status().isNotFound());
+
+        assertThat(foreign.isDone()).isFalse();
+        foreign.cancel();
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void cancelStream_deletesTheOwnersGenerationOrReturnsNotFound() throws Exception {
+        UUID userId = currentUser();
+        GenerationRegistry.Generation generation = generationRegistry.start(userId, "message", Flux.never());
+
+        mockMvc.perform(delete("/api/chat/stream/{id}", generation.getId()).with(csrf()))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(delete("/api/chat/stream/{id}", UUID.randomUUID()).with(csrf()))
+                .andExpect(status().isNotFound());
+
+        assertThat(generation.isDone()).isTrue();
+    }
+
+    private UUID currentUser() {
+        UUID userId = UUID.randomUUID();
+        when(userService.getCurrentUser()).thenReturn(Optional.of(User.builder().id(userId).username("testuser").build()));
+        return userId;
+    }
+
+    private String resume(UUID generationId, String lastEventId) throws Exception {
+        var request = get("/api/chat/stream/{id}", generationId);
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        MvcResult result = mockMvc.perform(request)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(5_000);
+        assertThat(result.getResponse().getHeader("X-Generation-Id")).isEqualTo(generationId.toString());
+        return result.getResponse().getContentAsString();
+    }
 }
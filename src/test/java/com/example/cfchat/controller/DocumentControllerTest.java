@@ -6,6 +6,7 @@ import com.example.cfchat.dto.UserDocumentDto;
 import com.example.cfchat.model.User;
 import com.example.cfchat.model.UserDocument;
 import com.example.cfchat.service.DocumentEmbeddingService;
+import com.example.cfchat.service.DocumentIngestionPipeline;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -13,9 +14,12 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
 
 import java.util.*;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -83,10 +87,12 @@ class DocumentControllerTest {
         when(userService.getCurrentUser()).thenReturn(Optional.of(user));
         when(documentService.isAvailable()).thenReturn(true);
 
+        UUID documentId = UUID.randomUUID();
         DocumentUploadResponse response = DocumentUploadResponse.builder()
+                .documentId(documentId)
                 .filename("test.pdf")
-                .status("SUCCESS")
-                .message("Document uploaded and embedded")
+                .status("PENDING")
+                .message("Document queued for processing")
                 .build();
         when(documentService.uploadDocument(eq(userId), any())).thenReturn(response);
 
@@ -95,8 +101,67 @@ class DocumentControllerTest {
 
         mockMvc.perform(multipart("/api/documents/upload").file(file)
                         .with(csrf()))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$.status").value("SUCCESS"));
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.documentId").value(documentId.toString()));
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void streamProgress_ownDocument_streamsNumberedProgressEvents() throws Exception {
+        UUID userId = UUID.randomUUID();
+        UUID documentId = UUID.randomUUID();
+        when(userService.getCurrentUser()).thenReturn(Optional.of(User.builder().id(userId).username("testuser").build()));
+        when(documentService.getUserDocument(userId, documentId))
+                .thenReturn(Optional.of(UserDocumentDto.builder().id(documentId).build()));
+        when(documentService.getIngestionProgress(documentId)).thenReturn(Flux.just(
+                new DocumentIngestionPipeline.Progress(documentId, 4, DocumentIngestionPipeline.Stage.WRITING,
+                        3, 3, 2, "Stored 2 of 3 chunks"),
+                new DocumentIngestionPipeline.Progress(documentId, 5, DocumentIngestionPipeline.Stage.COMPLETED,
+                        3, 3, 3, "Document processed successfully")));
+
+        MvcResult result = mockMvc.perform(get("/api/documents/{id}/progress", documentId))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(5_000);
+
+        assertThat(result.getResponse().getContentAsString())
+                .contains("id:4\nevent:progress\ndata:{", "\"stage\":\"WRITING\"", "\"written\":2")
+                .contains("id:5\nevent:progress\ndata:{", "\"stage\":\"COMPLETED\"");
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void streamProgress_anotherUsersDocument_returnsNotFound() throws Exception {
+        UUID userId = UUID.randomUUID();
+        UUID documentId = UUID.randomUUID();
+        when(userService.getCurrentUser()).thenReturn(Optional.of(User.builder().id(userId).username("testuser").build()));
+        when(documentService.getUserDocument(userId, documentId)).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/documents/{id}/progress", documentId))
+                .andExpect(status().isNotFound());
+
+        verify(documentService, never()).getIngestionProgress(any());
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void uploadDocument_queueFull_returnsServiceUnavailable() throws Exception {
+        UUID userId = UUID.randomUUID();
+        User user = User.builder().id(userId).username("testuser").build();
+        when(userService.getCurrentUser()).thenReturn(Optional.of(user));
+        when(documentService.isAvailable()).thenReturn(true);
+        when(documentService.uploadDocument(eq(userId), any()))
+                .thenThrow(new DocumentIngestionPipeline.QueueFullException());
+
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "test.pdf", "application/pdf", "content".getBytes());
+
+        mockMvc.perform(multipart("/api/documents/upload").file(file)
+                        .with(csrf()))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists("Retry-After"))
+                .andExpect(jsonPath("$.status").value("ERROR"));
     }
 
     @Test
@@ -1,5 +1,6 @@
 package com.example.cfchat.controller;
 
+import com.example.cfchat.service.ModelAdmissionController;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -45,6 +46,16 @@ class GlobalExceptionHandlerTest {
         assertThat(response.getBody()).containsEntry("error", "Service temporarily unavailable");
     }
 
+    @Test
+    void handleModelOverloaded_returnsTooManyRequests() {
+        ResponseEntity<Map<String, String>> response =
+                handler.handleModelOverloaded(new ModelAdmissionController.ModelOverloadedException("llama3"));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(response.getHeaders().getFirst("Retry-After")).isEqualTo("5");
+        assertThat(response.getBody().get("error")).contains("llama3");
+    }
+
     @Test
     void handleGeneral_returnsInternalServerError() {
         ResponseEntity<Map<String, String>> response =
@@ -0,0 +1,170 @@
+package com.example.cfchat.repository;
+
+import com.example.cfchat.model.Conversation;
+import com.example.cfchat.model.Message;
+import com.example.cfchat.service.ConversationService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+@Import(ConversationService.class)
+class MessageRepositoryTest {
+
+    private static final int SEEDED_MESSAGES = 10_000;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Conversation conversation;
+    private Statistics statistics;
+
+    @BeforeEach
+    void seedLongConversation() {
+        conversation = entityManager.persistAndFlush(Conversation.builder()
+                .title("Long running").modelProvider("openai").build());
+
+        // One second apart so ordering is deterministic; every 10th message is inactive
+        entityManager.getEntityManager().createNativeQuery(
+                "INSERT INTO messages (id, role, content, is_active, favorited, created_at, conversation_id) " +
+                "SELECT RANDOM_UUID(), CASE WHEN MOD(X, 2) = 0 THEN 'USER' ELSE 'ASSISTANT' END, " +
+                "CONCAT('msg-', X), MOD(X, 10) <> 0, FALSE, " +
+                "DATEADD('SECOND', X, TIMESTAMP '2026-01-01 00:00:00'), ?1 " +
+                "FROM SYSTEM_RANGE(1, " + SEEDED_MESSAGES + ")")
+                .setParameter(1, conversation.getId())
+                .executeUpdate();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void findLatestActive_readsOnlyTheRequestedWindow() {
+        List<Message> page = messageRepository.findLatestActive(conversation.getId(), PageRequest.of(0, 50));
+
+        assertThat(page).hasSize(50);
+        assertThat(page.get(0).getContent()).isEqualTo("msg-9999");
+        assertThat(page).noneMatch(m -> m.getContent().endsWith("0"));
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(50);
+    }
+
+    @Test
+    void findActiveBefore_continuesFromCursor() {
+        List<Message> first = messageRepository.findLatestActive(conversation.getId(), PageRequest.of(0, 3));
+        Message cursor = first.get(first.size() - 1);
+
+        List<Message> next = messageRepository.findActiveBefore(conversation.getId(),
+                cursor.getCreatedAt(), cursor.getId(), PageRequest.of(0, 3));
+
+        assertThat(first).extracting(Message::getContent).containsExactly("msg-9999", "msg-9998", "msg-9997");
+        assertThat(next).extracting(Message::getContent).containsExactly("msg-9996", "msg-9995", "msg-9994");
+    }
+
+    @Test
+    void getRecentHistory_returnsTailOldestFirstInOneStatement() {
+        List<Message> history = conversationService.getRecentHistory(conversation.getId(), 50);
+
+        assertThat(history).hasSize(50);
+        assertThat(history.get(history.size() - 1).getContent()).isEqualTo("msg-9999");
+        assertThat(history.get(0).getCreatedAt()).isBefore(history.get(1).getCreatedAt());
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
+
+    @Test
+    void getRecentHistory_stopsAtTokenBudget() {
+        // Every message costs 10 "tokens": a 250 budget admits exactly 25 messages
+        List<Message> history = conversationService.getRecentHistory(conversation.getId(), 500, 250, text -> 10);
+
+        assertThat(history).hasSize(25);
+        assertThat(history.get(history.size() - 1).getContent()).isEqualTo("msg-9999");
+        assertThat(statistics.getEntityLoadCount()).isLessThanOrEqualTo(50);
+    }
+
+    @Test
+    void getRecentHistory_pagesWithKeysetWhenBudgetSpansPages() {
+        List<Message> history = conversationService.getRecentHistory(conversation.getId(), 120, 100_000, text -> 1);
+
+        assertThat(history).hasSize(120);
+        assertThat(history).extracting(Message::getContent).doesNotHaveDuplicates();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(120);
+    }
+
+    @Test
+    void appendMessage_statementCountDoesNotGrowWithConversationLength() {
+        Conversation empty = entityManager.persistAndFlush(Conversation.builder()
+                .title("Fresh").modelProvider("openai").build());
+        entityManager.clear();
+        statistics.clear();
+
+        conversationService.addMessage(empty.getId(), Message.MessageRole.USER, "short", null);
+        entityManager.flush();
+        long shortConversationStatements = statistics.getPrepareStatementCount();
+        statistics.clear();
+
+        Message appended = conversationService.addMessage(conversation.getId(), Message.MessageRole.USER, "long", null);
+        entityManager.flush();
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(shortConversationStatements).isEqualTo(3);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(appended.getSequenceNumber()).isEqualTo(SEEDED_MESSAGES + 1);
+    }
+
+    @Test
+    void appendMessage_toEmptyConversationStartsAtOne() {
+        Conversation empty = entityManager.persistAndFlush(Conversation.builder()
+                .title("Fresh").modelProvider("openai").build());
+        entityManager.clear();
+
+        Message first = conversationService.addMessage(empty.getId(), Message.MessageRole.USER, "one", null);
+        Message second = conversationService.addMessage(empty.getId(), Message.MessageRole.ASSISTANT, "two", null);
+
+        assertThat(first.getSequenceNumber()).isEqualTo(1);
+        assertThat(second.getSequenceNumber()).isEqualTo(2);
+    }
+
+    @Test
+    void appendMessages_advancesSequenceAndUpdatedAt() {
+        Conversation before = entityManager.find(Conversation.class, conversation.getId());
+        entityManager.clear();
+
+        conversationService.addMessage(conversation.getId(), Message.MessageRole.USER, "one", null);
+        conversationService.addMessage(conversation.getId(), Message.MessageRole.ASSISTANT, "two", "gpt-4o");
+        entityManager.flush();
+        entityManager.clear();
+
+        Conversation after = entityManager.find(Conversation.class, conversation.getId());
+        List<Message> tail = messageRepository.findLatestActive(conversation.getId(), PageRequest.of(0, 2));
+        // Existing messages predate sequencing; new numbers continue after them
+        assertThat(after.getLastSequenceNumber()).isEqualTo(SEEDED_MESSAGES + 2);
+        assertThat(after.getUpdatedAt()).isAfterOrEqualTo(before.getUpdatedAt());
+        assertThat(tail).extracting(Message::getSequenceNumber)
+                .containsExactlyInAnyOrder(SEEDED_MESSAGES + 1, SEEDED_MESSAGES + 2);
+    }
+}
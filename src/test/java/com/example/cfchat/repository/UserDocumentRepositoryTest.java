@@ -0,0 +1,94 @@
+package com.example.cfchat.repository;
+
+import com.example.cfchat.model.User;
+import com.example.cfchat.model.UserDocument;
+import com.example.cfchat.model.UserDocument.DocumentStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class UserDocumentRepositoryTest {
+
+    private static final Set<DocumentStatus> UNFINISHED = Set.of(DocumentStatus.PENDING, DocumentStatus.PROCESSING);
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserDocumentRepository documentRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = entityManager.persistAndFlush(User.builder()
+                .username("alice")
+                .passwordHash("hash")
+                .role(User.UserRole.USER)
+                .authProvider(User.AuthProvider.LOCAL)
+                .build());
+    }
+
+    @Test
+    void claimLease_takesUnleasedAndExpiredDocumentsOnly() {
+        LocalDateTime now = LocalDateTime.now();
+        UserDocument unleased = document(DocumentStatus.PROCESSING, null, null);
+        UserDocument expired = document(DocumentStatus.PENDING, "node-a", now.minusMinutes(1));
+        UserDocument live = document(DocumentStatus.PROCESSING, "node-a", now.plusMinutes(1));
+        UserDocument finished = document(DocumentStatus.COMPLETED, null, null);
+
+        assertThat(documentRepository.claimLease(unleased.getId(), "node-b", now.plusMinutes(2), now, UNFINISHED)).isEqualTo(1);
+        assertThat(documentRepository.claimLease(expired.getId(), "node-b", now.plusMinutes(2), now, UNFINISHED)).isEqualTo(1);
+        assertThat(documentRepository.claimLease(live.getId(), "node-b", now.plusMinutes(2), now, UNFINISHED)).isZero();
+        assertThat(documentRepository.claimLease(finished.getId(), "node-b", now.plusMinutes(2), now, UNFINISHED)).isZero();
+
+        assertThat(documentRepository.findById(expired.getId()).orElseThrow().getLeaseOwner()).isEqualTo("node-b");
+        assertThat(documentRepository.findById(live.getId()).orElseThrow().getLeaseOwner()).isEqualTo("node-a");
+    }
+
+    @Test
+    void claimLease_secondClaimantLosesWhileTheLeaseHolds() {
+        LocalDateTime now = LocalDateTime.now();
+        UserDocument document = document(DocumentStatus.PENDING, null, null);
+
+        assertThat(documentRepository.claimLease(document.getId(), "node-a", now.plusMinutes(2), now, UNFINISHED)).isEqualTo(1);
+        assertThat(documentRepository.claimLease(document.getId(), "node-b", now.plusMinutes(2), now, UNFINISHED)).isZero();
+        assertThat(documentRepository.findById(document.getId()).orElseThrow().getLeaseOwner()).isEqualTo("node-a");
+    }
+
+    @Test
+    void renewLeases_extendsOnlyTheCallersLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        UserDocument mine = document(DocumentStatus.PROCESSING, "node-a", now.plusSeconds(10));
+        UserDocument theirs = document(DocumentStatus.PROCESSING, "node-b", now.plusSeconds(10));
+
+        int renewed = documentRepository.renewLeases(List.of(mine.getId(), theirs.getId()), "node-a", now.plusMinutes(5));
+
+        assertThat(renewed).isEqualTo(1);
+        assertThat(documentRepository.findById(mine.getId()).orElseThrow().getLeaseUntil()).isAfter(now.plusMinutes(4));
+        assertThat(documentRepository.findById(theirs.getId()).orElseThrow().getLeaseUntil()).isBefore(now.plusMinutes(1));
+    }
+
+    private UserDocument document(DocumentStatus status, String leaseOwner, LocalDateTime leaseUntil) {
+        return entityManager.persistAndFlush(UserDocument.builder()
+                .user(user)
+                .filename("report.txt")
+                .originalFilename("report.txt")
+                .contentType("text/plain")
+                .status(status)
+                .leaseOwner(leaseOwner)
+                .leaseUntil(leaseUntil)
+                .build());
+    }
+}
@@ -1,11 +1,13 @@
 package com.example.cfchat.service;
 
+import com.example.cfchat.event.ModelCatalogChangedEvent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -21,11 +23,14 @@ class CacheInvalidationServiceTest {
     @Mock
     private SystemSettingService systemSettingService;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     private CacheInvalidationService cacheInvalidationService;
 
     @BeforeEach
     void setUp() {
-        cacheInvalidationService = new CacheInvalidationService(eventService, systemSettingService);
+        cacheInvalidationService = new CacheInvalidationService(eventService, systemSettingService, eventPublisher);
         // Invoke @PostConstruct manually since Mockito does not call it
         cacheInvalidationService.init();
     }
@@ -123,6 +128,16 @@ class CacheInvalidationServiceTest {
         assertThat(cacheInvalidationService.getModelsGeneration()).isEqualTo(before + 1);
     }
 
+    @Test
+    void modelsEvent_publishesModelCatalogChanged() {
+        ArgumentCaptor<EventService.EventListener> listenerCaptor = ArgumentCaptor.forClass(EventService.EventListener.class);
+        verify(eventService).subscribe(eq(CacheInvalidationService.CHANNEL_MODELS), listenerCaptor.capture());
+
+        listenerCaptor.getValue().onMessage(CacheInvalidationService.CHANNEL_MODELS, "invalidate");
+
+        verify(eventPublisher).publishEvent(any(ModelCatalogChangedEvent.class));
+    }
+
     @Test
     void settingsEvent_clearsCachedSettings() {
         // First, populate the cache
@@ -0,0 +1,124 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.event.ModelCatalogChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientCustomizer;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatClientPoolTest {
+
+    @Mock
+    private ExternalBindingService externalBindingService;
+
+    @Mock
+    private ObjectProvider<ChatClientCustomizer> customizerProvider;
+
+    @Mock
+    private ChatClientCustomizer customizer;
+
+    private final UUID bindingId = UUID.randomUUID();
+    private SimpleMeterRegistry meterRegistry;
+    private ChatClientPool pool;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        when(customizerProvider.orderedStream()).thenReturn(Stream.of(customizer));
+        lenient().when(externalBindingService.getModelMetadata()).thenReturn(Map.of("remote-llm",
+                new ExternalBindingService.ExternalModelMetadata("remote-llm", "partner", bindingId, "chat", null)));
+        pool = new ChatClientPool(null, externalBindingService, customizerProvider, meterRegistry);
+    }
+
+    @Test
+    void forExternalModel_reusesClientAcrossRequests() {
+        when(externalBindingService.getChatModelByName("remote-llm")).thenReturn(mock(ChatModel.class));
+
+        ChatClientPool.PooledChatClient first = pool.forExternalModel("remote-llm");
+        ChatClientPool.PooledChatClient second = pool.forExternalModel("remote-llm");
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.client()).isSameAs(first.client());
+        assertThat(first.key()).isEqualTo(new ChatClientPool.ClientKey(bindingId.toString(), "remote-llm"));
+        // Shared defaults are applied once, at construction
+        verify(customizer, times(1)).customize(any(ChatClient.Builder.class));
+    }
+
+    @Test
+    void bindingUpdate_evictsClientAndGauge() {
+        ChatModel original = mock(ChatModel.class);
+        ChatModel reloaded = mock(ChatModel.class);
+        when(externalBindingService.getChatModelByName("remote-llm")).thenReturn(original);
+        ChatClientPool.PooledChatClient before = pool.forExternalModel("remote-llm");
+        assertThat(meterRegistry.find("cfllama.chat.client.inflight").tag("model", "remote-llm").gauge()).isNotNull();
+
+        when(externalBindingService.getChatModelByName("remote-llm")).thenReturn(reloaded);
+        pool.onModelCatalogChanged(new ModelCatalogChangedEvent(this, "binding reloaded"));
+
+        assertThat(pool.size()).isZero();
+        assertThat(meterRegistry.find("cfllama.chat.client.inflight").gauges()).isEmpty();
+        ChatClientPool.PooledChatClient after = pool.forExternalModel("remote-llm");
+        assertThat(after).isNotSameAs(before);
+        assertThat(after.chatModel()).isSameAs(reloaded);
+    }
+
+    @Test
+    void bindingDelete_evictsClient() {
+        when(externalBindingService.getChatModelByName("remote-llm")).thenReturn(mock(ChatModel.class));
+        pool.forExternalModel("remote-llm");
+
+        when(externalBindingService.getChatModelByName("remote-llm")).thenReturn(null);
+        pool.onModelCatalogChanged(new ModelCatalogChangedEvent(this, "binding deleted"));
+
+        assertThat(pool.size()).isZero();
+        assertThat(pool.forExternalModel("remote-llm")).isNull();
+    }
+
+    @Test
+    void stream_tracksInFlightUntilTermination() {
+        when(externalBindingService.getChatModelByName("remote-llm")).thenReturn(mock(ChatModel.class));
+        ChatClientPool.PooledChatClient pooled = pool.forExternalModel("remote-llm");
+
+        List<Double> observed = new ArrayList<>();
+        pooled.stream(() -> Flux.just("a", "b"))
+                .doOnNext(v -> observed.add(meterRegistry.get("cfllama.chat.client.inflight").gauge().value()))
+                .blockLast();
+
+        assertThat(observed).containsExactly(1.0, 1.0);
+
+        assertThat(pooled.inFlight()).isZero();
+        assertThat(pooled.call(() -> pooled.inFlight())).isEqualTo(1);
+        assertThat(pooled.inFlight()).isZero();
+    }
+
+    @Test
+    void forDefaultClient_wrapsBeanWithoutRebuilding() {
+        ChatClient bean = mock(ChatClient.class);
+
+        ChatClientPool.PooledChatClient pooled = pool.forDefaultClient("primary", bean);
+
+        assertThat(pooled.client()).isSameAs(bean);
+        assertThat(pool.forDefaultClient("primary", bean)).isSameAs(pooled);
+        pool.onModelCatalogChanged(new ModelCatalogChangedEvent(this, "unrelated"));
+        assertThat(pool.size()).isEqualTo(1);
+        verifyNoInteractions(customizer);
+    }
+}
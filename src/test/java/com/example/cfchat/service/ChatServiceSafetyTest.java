@@ -4,6 +4,10 @@ import com.example.cfchat.auth.UserService;
 import com.example.cfchat.config.ChatConfig;
 import com.example.cfchat.dto.ChatRequest;
 import com.example.cfchat.service.ExternalBindingService;
+import com.example.cfchat.service.context.ContextBudgetPlanner;
+import com.example.cfchat.service.context.ContextEnricher;
+import com.example.cfchat.service.context.HeuristicTokenizer;
+import com.example.cfchat.service.context.PromptPrefixCache;
 import org.junit.jupiter.api.Test;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
@@ -76,7 +80,19 @@ class ChatServiceSafetyTest {
                 moderationService,
                 promptInjectionDetector,
                 mock(ThinkingOptionsBuilder.class),
-                mock(RagPromptBuilder.class)
+                mock(RagPromptBuilder.class),
+                new ContextBudgetPlanner(new HeuristicTokenizer(), chatConfig),
+                mock(ModelRegistry.class),
+                mock(ChatClientPool.class),
+                new ContextEnricher(chatConfig),
+                mock(StreamFinalizer.class),
+                new ModelAdmissionController(),
+                new ModelRouter(null, null),
+                new StreamHedger(null),
+                new PromptPrefixCache(chatConfig, null, null),
+                null,
+                null,
+                new GenerationCoalescer(null)
         );
     }
 }
@@ -0,0 +1,352 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.auth.UserService;
+import com.example.cfchat.config.ChatConfig;
+import com.example.cfchat.controller.ChatController;
+import com.example.cfchat.dto.ChatRequest;
+import com.example.cfchat.dto.ChatResponse;
+import com.example.cfchat.model.Conversation;
+import com.example.cfchat.model.Message;
+import com.example.cfchat.model.User;
+import com.example.cfchat.service.context.ContextBudgetPlanner;
+import com.example.cfchat.service.context.ContextEnricher;
+import com.example.cfchat.service.context.HeuristicTokenizer;
+import com.example.cfchat.service.context.PromptPrefixCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChatServiceStreamingTest {
+
+    private final UUID conversationId = UUID.randomUUID();
+    private ConversationService conversationService;
+    private UserService userService;
+    private OpenAiChatModel chatModel;
+    private StreamFinalizer streamFinalizer;
+    private ContextEnricher contextEnricher;
+    private ChatService chatService;
+
+    @BeforeEach
+    void setUp() {
+        ChatConfig chatConfig = new ChatConfig();
+        chatConfig.setDefaultProvider("openai");
+
+        conversationService = mock(ConversationService.class);
+        when(conversationService.createConversation(any(), any(), any(), any()))
+                .thenReturn(Conversation.builder().id(conversationId).title("New Conversation").build());
+        when(conversationService.getRecentHistory(any(), anyInt(), anyInt(), any())).thenReturn(List.of());
+
+        userService = mock(UserService.class);
+        when(userService.getCurrentUser()).thenReturn(Optional.empty());
+
+        chatModel = mock(OpenAiChatModel.class);
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.just(token("Hello"), token(" world")));
+
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        streamFinalizer = new StreamFinalizer(conversationService, mock(MetricsService.class), transactionManager);
+        contextEnricher = new ContextEnricher(chatConfig);
+
+        chatService = new ChatService(
+                null, chatModel, null, null,
+                conversationService, mock(MarkdownService.class), chatConfig, userService,
+                mock(MetricsService.class), null, null, null, null, mock(ExternalBindingService.class),
+                null, null, null, null, null, null, null,
+                mock(ThinkingOptionsBuilder.class), mock(RagPromptBuilder.class),
+                new ContextBudgetPlanner(new HeuristicTokenizer(), chatConfig),
+                mock(ModelRegistry.class), mock(ChatClientPool.class), contextEnricher, streamFinalizer,
+                new ModelAdmissionController(), new ModelRouter(null, null),
+                new StreamHedger(null), new PromptPrefixCache(chatConfig, null, null), null, null,
+                new GenerationCoalescer(null));
+        ReflectionTestUtils.setField(chatService, "streamingTimeoutMinutes", 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamFinalizer.destroy();
+        contextEnricher.destroy();
+    }
+
+    @Test
+    void chatStream_completesWithoutWaitingOnSlowPersistence() throws InterruptedException {
+        CountDownLatch persisted = new CountDownLatch(1);
+        when(conversationService.appendMessage(eq(conversationId), any()))
+                .thenAnswer(inv -> {
+                    Thread.sleep(2_000);
+                    persisted.countDown();
+                    return null;
+                });
+
+        long start = System.nanoTime();
+        List<ChatResponse> events = chatService.chatStream(ChatRequest.builder().message("Hi").build())
+                .collectList()
+                .block(Duration.ofSeconds(10));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LocalDateTime completedAt = LocalDateTime.now();
+
+        assertThat(elapsedMs).isLessThan(1_500);
+        assertThat(events).extracting(ChatResponse::getContent).containsExactly("Hello", " world", "");
+        assertThat(events).last().satisfies(last -> {
+            assertThat(last.isComplete()).isTrue();
+            assertThat(last.getError()).isNull();
+            assertThat(last.getConversationId()).isEqualTo(conversationId);
+        });
+        assertThat(persisted.getCount()).isEqualTo(1);
+
+        // Persistence still happens, just after the complete event
+        assertThat(persisted.await(5, TimeUnit.SECONDS)).isTrue();
+        verify(conversationService, timeout(2_000)).updateConversationTitle(conversationId, "Hi");
+        ArgumentCaptor<Message> saved = ArgumentCaptor.forClass(Message.class);
+        verify(conversationService).appendMessage(eq(conversationId), saved.capture());
+        assertThat(saved.getValue()).matches(assistantMessage("Hello world")::matches);
+        // Dated to when generation started, not to when the write finally ran
+        assertThat(saved.getValue().getCreatedAt()).isBefore(completedAt);
+    }
+
+    @Test
+    void chatStream_cancelStopsUpstreamAndKeepsPartialAnswer() throws InterruptedException {
+        AtomicInteger emitted = new AtomicInteger();
+        CountDownLatch upstreamCancelled = new CountDownLatch(1);
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.interval(Duration.ofMillis(5))
+                .map(i -> {
+                    emitted.incrementAndGet();
+                    return token("t");
+                })
+                .doOnCancel(upstreamCancelled::countDown));
+
+        // Stop after ten chunks, as a client disconnect or cancel request would
+        List<ChatResponse> received = chatService.chatStream(ChatRequest.builder().message("Hi").build())
+                .take(10)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(received).hasSize(10);
+        // The cancel crosses a scheduler hop, so it can land just after block() returns
+        assertThat(upstreamCancelled.await(2, TimeUnit.SECONDS)).isTrue();
+        int emittedAtCancel = emitted.get();
+        Thread.sleep(100);
+        assertThat(emitted.get()).isEqualTo(emittedAtCancel);
+
+        ArgumentCaptor<Message> saved = ArgumentCaptor.forClass(Message.class);
+        verify(conversationService, timeout(2_000)).appendMessage(eq(conversationId), saved.capture());
+        assertThat(saved.getValue().getContent()).isEqualTo("t".repeat(10));
+        assertThat(saved.getValue().getTruncated()).isTrue();
+        assertThat(saved.getValue().getRole()).isEqualTo(Message.MessageRole.ASSISTANT);
+        verify(conversationService, times(1)).appendMessage(eq(conversationId), any());
+    }
+
+    @Test
+    void cancelGeneration_persistsTheTruncatedPartialAnswer() throws InterruptedException {
+        UUID userId = UUID.randomUUID();
+        when(userService.getCurrentUser()).thenReturn(Optional.of(User.builder().id(userId).username("alice").build()));
+        UserEventHub userEventHub = mock(UserEventHub.class);
+        when(userEventHub.wikiOps(any(), any())).thenReturn(Flux.empty());
+        ChatController controller = new ChatController(chatService, userService, null, null, null, null,
+                new StreamCoalescer(), new GenerationRegistry(), userEventHub);
+        AtomicInteger emitted = new AtomicInteger();
+        CountDownLatch streaming = new CountDownLatch(10);
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.interval(Duration.ofMillis(5))
+                .map(i -> {
+                    emitted.incrementAndGet();
+                    streaming.countDown();
+                    return token("t");
+                }));
+
+        // Nobody attaches: the generation runs detached until the cancel request arrives
+        UUID generationId = UUID.fromString(controller.chatStream(ChatRequest.builder().message("Hi").build())
+                .getHeaders().getFirst("X-Generation-Id"));
+        assertThat(streaming.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(controller.cancelGeneration(generationId).getStatusCode().value()).isEqualTo(204);
+        // A chunk already being mapped on the interval thread may still land
+        Thread.sleep(50);
+        int emittedAtCancel = emitted.get();
+
+        ArgumentCaptor<Message> saved = ArgumentCaptor.forClass(Message.class);
+        verify(conversationService, timeout(2_000)).appendMessage(eq(conversationId), saved.capture());
+        assertThat(saved.getValue().getRole()).isEqualTo(Message.MessageRole.ASSISTANT);
+        assertThat(saved.getValue().getTruncated()).isTrue();
+        assertThat(saved.getValue().getContent()).matches("t+")
+                .hasSizeGreaterThanOrEqualTo(10)
+                .hasSizeLessThanOrEqualTo(emittedAtCancel);
+        Thread.sleep(100);
+        assertThat(emitted.get()).isEqualTo(emittedAtCancel);
+        assertThat(controller.cancelGeneration(UUID.randomUUID()).getStatusCode().value()).isEqualTo(404);
+    }
+
+    @Test
+    void chatStream_repeatedStatelessPromptIsReplayedFromCache() {
+        SystemSettingService settings = mock(SystemSettingService.class);
+        when(settings.getSetting(ResponseCache.MODELS_SETTING, "")).thenReturn("*");
+        ResponseCache responseCache = new ResponseCache(settings, null, null, null, null);
+        responseCache.init();
+        ReflectionTestUtils.setField(chatService, "responseCache", responseCache);
+
+        List<ChatResponse> first = chatService.chatStream(ChatRequest.builder().message("What is CF?").build())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        List<ChatResponse> second = chatService.chatStream(ChatRequest.builder().message("  what is  cf? ").build())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(first).extracting(ChatResponse::getContent).containsExactly("Hello", " world", "");
+        assertThat(second).extracting(ChatResponse::getContent).containsExactly("Hello world", "");
+        assertThat(second).last().satisfies(last -> assertThat(last.isComplete()).isTrue());
+        verify(chatModel, times(1)).stream(any(Prompt.class));
+    }
+
+    @Test
+    void chatStream_hedgedFallbackAnswerIsNotCachedForTheRequestedModel() {
+        SystemSettingService settings = mock(SystemSettingService.class);
+        when(settings.getSetting(ResponseCache.MODELS_SETTING, "")).thenReturn("*");
+        ResponseCache responseCache = new ResponseCache(settings, null, null, null, null);
+        responseCache.init();
+        ReflectionTestUtils.setField(chatService, "responseCache", responseCache);
+        StreamHedger hedger = (StreamHedger) ReflectionTestUtils.getField(chatService, "streamHedger");
+        ReflectionTestUtils.setField(hedger, "enabled", true);
+        ReflectionTestUtils.setField(hedger, "ttftThresholdMs", 50L);
+        ReflectionTestUtils.setField(hedger, "fallbackModel", "llama3-mini");
+        // The primary stalls, so the fallback answers
+        when(chatModel.stream(any(Prompt.class)))
+                .thenReturn(Flux.never(), Flux.just(token("Hello"), token(" world")));
+
+        List<ChatResponse> first = chatService.chatStream(ChatRequest.builder().message("What is CF?").build())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(first).last().satisfies(last -> assertThat(last.getModel()).isEqualTo("llama3-mini"));
+        assertThat(responseCache.size()).isZero();
+    }
+
+    @Test
+    void chatStream_fallbackHedgeHoldsAPermitOfTheFallbackModel() {
+        ModelAdmissionController admission =
+                (ModelAdmissionController) ReflectionTestUtils.getField(chatService, "admissionController");
+        StreamHedger hedger = (StreamHedger) ReflectionTestUtils.getField(chatService, "streamHedger");
+        ReflectionTestUtils.setField(hedger, "enabled", true);
+        ReflectionTestUtils.setField(hedger, "ttftThresholdMs", 50L);
+        ReflectionTestUtils.setField(hedger, "fallbackModel", "llama3-mini");
+        AtomicInteger fallbackInFlight = new AtomicInteger();
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.never(), Flux.defer(() -> {
+            fallbackInFlight.set(admission.getInFlight("llama3-mini"));
+            return Flux.just(token("Hello"));
+        }));
+
+        List<ChatResponse> events = chatService.chatStream(ChatRequest.builder().message("Hi").build())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(events).last().satisfies(last -> assertThat(last.getModel()).isEqualTo("llama3-mini"));
+        assertThat(fallbackInFlight).hasValue(1);
+        assertThat(admission.getInFlight("llama3-mini")).isZero();
+    }
+
+    @Test
+    void chatStream_concurrentIdenticalPromptsShareOneGeneration() {
+        when(chatModel.stream(any(Prompt.class)))
+                .thenReturn(Flux.just(token("Hello"), token(" world")).delayElements(Duration.ofMillis(100)));
+
+        List<Flux<String>> requests = new java.util.ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(chatService.chatStream(ChatRequest.builder().message("Hi").build())
+                    .filter(event -> !event.isComplete())
+                    .map(ChatResponse::getContent)
+                    .reduce("", String::concat)
+                    .flux());
+        }
+        List<String> outputs = Flux.merge(requests).collectList().block(Duration.ofSeconds(10));
+
+        assertThat(outputs).hasSize(4).containsOnly("Hello world");
+        verify(chatModel, times(1)).stream(any(Prompt.class));
+        // Every caller still stores its own copy of the answer
+        verify(conversationService, timeout(2_000).times(4))
+                .appendMessage(eq(conversationId), argThat(assistantMessage("Hello world")));
+    }
+
+    @Test
+    void chatStream_joinersOfAHedgedGenerationReportTheAnsweringModel() {
+        StreamHedger hedger = (StreamHedger) ReflectionTestUtils.getField(chatService, "streamHedger");
+        ReflectionTestUtils.setField(hedger, "enabled", true);
+        ReflectionTestUtils.setField(hedger, "ttftThresholdMs", 50L);
+        ReflectionTestUtils.setField(hedger, "fallbackModel", "llama3-mini");
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.never(),
+                Flux.just(token("Hello"), token(" world")).delayElements(Duration.ofMillis(100)));
+
+        List<Flux<ChatResponse>> requests = new java.util.ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(chatService.chatStream(ChatRequest.builder().message("Hi").build()).takeLast(1));
+        }
+        List<ChatResponse> finals = Flux.merge(requests).collectList().block(Duration.ofSeconds(10));
+
+        assertThat(finals).hasSize(3).allSatisfy(last -> assertThat(last.getModel()).isEqualTo("llama3-mini"));
+        verify(chatModel, times(2)).stream(any(Prompt.class));
+    }
+
+    @Test
+    void chatStream_outputMatchingBlockingRuleIsCutMidStream() {
+        ContentModerationService moderation = new ContentModerationService();
+        ReflectionTestUtils.setField(moderation, "enabled", true);
+        ReflectionTestUtils.setField(moderation, "action", "block");
+        ReflectionTestUtils.setField(chatService, "contentModerationService", moderation);
+
+        // The forbidden phrase arrives split across three chunks, followed by an endless tail
+        AtomicInteger emitted = new AtomicInteger();
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        List<String> chunks = List.of("Sure. Here is how", " to ma", "ke a bo", "mb: first");
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.range(0, Integer.MAX_VALUE)
+                .map(i -> {
+                    emitted.incrementAndGet();
+                    return token(i < chunks.size() ? chunks.get(i) : " more");
+                })
+                .doOnCancel(() -> upstreamCancelled.set(true)));
+
+        List<ChatResponse> events = chatService.chatStream(ChatRequest.builder().message("Hi").build())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(events).extracting(ChatResponse::getContent).containsExactly(
+                "Sure. Here is how", " to ma", "ke a bo",
+                "This response was stopped because it matched the content safety policy.", "");
+        assertThat(upstreamCancelled).isTrue();
+        assertThat(emitted.get()).isLessThanOrEqualTo(4 + 256);
+        verify(conversationService, timeout(2_000)).appendMessage(eq(conversationId), argThat(assistantMessage(
+                "This response was stopped because it matched the content safety policy.")));
+    }
+
+    private static ArgumentMatcher<Message> assistantMessage(String content) {
+        return message -> message.getRole() == Message.MessageRole.ASSISTANT
+                && message.getContent().equals(content) && "unknown".equals(message.getModelUsed())
+                && !message.getTruncated() && message.getCreatedAt() != null;
+    }
+
+    private static org.springframework.ai.chat.model.ChatResponse token(String text) {
+        return new org.springframework.ai.chat.model.ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
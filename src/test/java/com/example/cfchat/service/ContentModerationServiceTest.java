@@ -5,6 +5,8 @@ import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 class ContentModerationServiceTest {
 
@@ -105,6 +107,54 @@ class ContentModerationServiceTest {
         assertThat(result.flagged()).isFalse();
     }
 
+    @Test
+    void reloadPatterns_replacesBuiltInListFromSettings() {
+        SystemSettingService settings = mock(SystemSettingService.class);
+        when(settings.getSetting(ContentModerationService.PATTERNS_KEY, ""))
+                .thenReturn("buy followers\nre:free\\s+crypto");
+        ReflectionTestUtils.setField(moderationService, "systemSettingService", settings);
+
+        moderationService.reloadPatterns();
+
+        assertThat(moderationService.check("Where can I BUY FOLLOWERS?").flagged()).isTrue();
+        assertThat(moderationService.check("claim your free   crypto").flagged()).isTrue();
+        assertThat(moderationService.check("how to make a bomb").flagged()).isFalse();
+    }
+
+    @Test
+    void reloadPatterns_keepsPreviousListOnInvalidRegex() {
+        SystemSettingService settings = mock(SystemSettingService.class);
+        when(settings.getSetting(ContentModerationService.PATTERNS_KEY, "")).thenReturn("re:(unclosed");
+        ReflectionTestUtils.setField(moderationService, "systemSettingService", settings);
+
+        moderationService.reloadPatterns();
+
+        assertThat(moderationService.check("how to make a bomb").flagged()).isTrue();
+    }
+
+    @Test
+    void openOutputCheck_flagsPhraseCompletedByLaterChunk() {
+        ContentModerationService.OutputCheck check = moderationService.openOutputCheck();
+
+        assertThat(check.feed("Here is how to ma").flagged()).isFalse();
+        ContentModerationService.ModerationResult result = check.feed("ke a bomb");
+
+        assertThat(result.flagged()).isTrue();
+        assertThat(result.reason()).contains("how to make a bomb");
+        assertThat(result.action()).isEqualTo("warn");
+        assertThat(check.scannedChars()).isEqualTo(26);
+    }
+
+    @Test
+    void openOutputCheck_returnsNullWhenDisabled() {
+        ReflectionTestUtils.setField(moderationService, "outputEnabled", false);
+        assertThat(moderationService.openOutputCheck()).isNull();
+
+        ReflectionTestUtils.setField(moderationService, "outputEnabled", true);
+        ReflectionTestUtils.setField(moderationService, "enabled", false);
+        assertThat(moderationService.openOutputCheck()).isNull();
+    }
+
     @Test
     void isEnabled_reflectsConfiguration() {
         assertThat(moderationService.isEnabled()).isTrue();
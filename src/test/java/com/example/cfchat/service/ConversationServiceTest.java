@@ -20,6 +20,7 @@ import java.util.UUID;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -112,27 +113,49 @@ class ConversationServiceTest {
     }
 
     @Test
-    void addMessage_validConversation_addsMessage() {
+    void addMessage_validConversation_insertsWithoutLoadingAggregate() {
         UUID convId = UUID.randomUUID();
-        Conversation conv = buildConversation("Chat");
-        conv.setId(convId);
-        when(conversationRepository.findById(convId)).thenReturn(Optional.of(conv));
-        when(conversationRepository.save(any())).thenAnswer(i -> i.getArgument(0));
+        Conversation reference = buildConversation("Chat");
+        reference.setId(convId);
+        when(conversationRepository.reserveSequenceNumbers(eq(convId), eq(1), any())).thenReturn(1);
+        when(conversationRepository.findLastSequenceNumber(convId)).thenReturn(7);
+        when(conversationRepository.getReferenceById(convId)).thenReturn(reference);
+        when(messageRepository.saveAll(anyList())).thenAnswer(i -> i.getArgument(0));
 
         Message result = conversationService.addMessage(convId, Message.MessageRole.USER, "Hello", null);
 
         assertThat(result.getContent()).isEqualTo("Hello");
         assertThat(result.getRole()).isEqualTo(Message.MessageRole.USER);
+        assertThat(result.getSequenceNumber()).isEqualTo(7);
+        assertThat(result.getConversation()).isSameAs(reference);
+        verify(conversationRepository, never()).findById(any());
+        verify(conversationRepository, never()).save(any());
+    }
+
+    @Test
+    void appendMessages_assignsConsecutiveSequenceNumbers() {
+        UUID convId = UUID.randomUUID();
+        when(conversationRepository.reserveSequenceNumbers(eq(convId), eq(3), any())).thenReturn(1);
+        when(conversationRepository.findLastSequenceNumber(convId)).thenReturn(12);
+        when(messageRepository.saveAll(anyList())).thenAnswer(i -> i.getArgument(0));
+
+        List<Message> result = conversationService.appendMessages(convId, List.of(
+                Message.builder().role(Message.MessageRole.USER).content("a").build(),
+                Message.builder().role(Message.MessageRole.ASSISTANT).content("b").build(),
+                Message.builder().role(Message.MessageRole.USER).content("c").build()));
+
+        assertThat(result).extracting(Message::getSequenceNumber).containsExactly(10, 11, 12);
     }
 
     @Test
     void addMessage_nonexistentConversation_throwsException() {
         UUID convId = UUID.randomUUID();
-        when(conversationRepository.findById(convId)).thenReturn(Optional.empty());
+        when(conversationRepository.reserveSequenceNumbers(eq(convId), eq(1), any())).thenReturn(0);
 
         assertThatThrownBy(() -> conversationService.addMessage(convId, Message.MessageRole.USER, "Hello", null))
                 .isInstanceOf(IllegalArgumentException.class)
                 .hasMessageContaining("Conversation not found");
+        verify(messageRepository, never()).saveAll(any());
     }
 
     @Test
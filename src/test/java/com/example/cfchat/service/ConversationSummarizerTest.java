@@ -0,0 +1,303 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.config.ChatConfig;
+import com.example.cfchat.model.Conversation;
+import com.example.cfchat.model.Message;
+import com.example.cfchat.repository.ConversationRepository;
+import com.example.cfchat.repository.MessageRepository;
+import com.example.cfchat.service.context.ContextBudgetPlanner;
+import com.example.cfchat.service.context.Tokenizer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class ConversationSummarizerTest {
+
+    /** Every message costs 10 tokens. */
+    private static final Tokenizer FIXED = new Tokenizer() {
+        @Override
+        public int count(String text) {
+            return text == null || text.isEmpty() ? 0 : 10;
+        }
+
+        @Override
+        public String name() {
+            return "fixed";
+        }
+    };
+
+    private final UUID conversationId = UUID.randomUUID();
+    private final List<Prompt> prompts = new ArrayList<>();
+    private ConversationRepository conversationRepository;
+    private MessageRepository messageRepository;
+    private ConversationSummarizer summarizer;
+
+    @BeforeEach
+    void setUp() {
+        conversationRepository = mock(ConversationRepository.class);
+        messageRepository = mock(MessageRepository.class);
+        when(conversationRepository.updateSummary(any(), anyString(), any(), any())).thenReturn(1);
+
+        // Deterministic summarizer: reports how many transcript lines it folded in
+        ChatModel fakeModel = prompt -> {
+            prompts.add(prompt);
+            String transcript = prompt.getInstructions().get(1).getText();
+            long lines = transcript.lines().filter(line -> line.startsWith("User: ") || line.startsWith("Assistant: ")).count();
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("summary of " + lines))));
+        };
+        ModelRouter modelRouter = mock(ModelRouter.class);
+        when(modelRouter.replicas("cheap-model")).thenReturn(Map.of("backend", fakeModel));
+
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+
+        summarizer = new ConversationSummarizer(conversationRepository, messageRepository,
+                new ContextBudgetPlanner(FIXED, new ChatConfig()), modelRouter, null, transactionManager);
+        ReflectionTestUtils.setField(summarizer, "summaryModel", "cheap-model");
+        ReflectionTestUtils.setField(summarizer, "triggerTokens", 50);
+        ReflectionTestUtils.setField(summarizer, "keepTokens", 20);
+    }
+
+    @AfterEach
+    void tearDown() {
+        summarizer.destroy();
+    }
+
+    @Test
+    void compact_foldsOldestTurnsAndAdvancesWatermark() {
+        List<Message> messages = messages(8);
+        when(conversationRepository.findById(conversationId)).thenReturn(Optional.of(conversation(null, null)));
+        when(messageRepository.findActiveFromStart(conversationId)).thenReturn(messages);
+
+        assertThat(summarizer.compact(conversationId, "chat-model").block(Duration.ofSeconds(5))).isTrue();
+
+        // The newest 20 tokens (two messages) stay verbatim; the six before them are summarized
+        verify(conversationRepository).updateSummary(eq(conversationId), eq("summary of 6"),
+                eq(messages.get(5).getId()), isNull());
+        String transcript = prompts.get(0).getInstructions().get(1).getText();
+        assertThat(transcript).startsWith("Existing summary:\n(none)");
+        assertThat(transcript).contains("User: m0", "Assistant: m5").doesNotContain("m6", "m7");
+    }
+
+    @Test
+    void compact_isIncrementalFromTheWatermark() {
+        List<Message> messages = messages(16);
+        Message watermark = messages.get(5);
+        when(conversationRepository.findById(conversationId))
+                .thenReturn(Optional.of(conversation("summary of 6", watermark.getId())));
+        when(messageRepository.findById(watermark.getId())).thenReturn(Optional.of(watermark));
+        when(messageRepository.findActiveAfter(conversationId, watermark.getCreatedAt(), watermark.getId()))
+                .thenReturn(messages.subList(6, 16));
+
+        assertThat(summarizer.compact(conversationId, "chat-model").block(Duration.ofSeconds(5))).isTrue();
+
+        verify(conversationRepository).updateSummary(eq(conversationId), eq("summary of 8"),
+                eq(messages.get(13).getId()), eq(watermark.getId()));
+        String transcript = prompts.get(0).getInstructions().get(1).getText();
+        assertThat(transcript).startsWith("Existing summary:\nsummary of 6");
+        assertThat(transcript).contains("User: m6", "Assistant: m13").doesNotContain("m5\n", "m14");
+    }
+
+    @Test
+    void compact_belowThreshold_leavesSummaryAlone() {
+        when(conversationRepository.findById(conversationId)).thenReturn(Optional.of(conversation(null, null)));
+        when(messageRepository.findActiveFromStart(conversationId)).thenReturn(messages(5));
+
+        assertThat(summarizer.compact(conversationId, "chat-model").block(Duration.ofSeconds(5))).isFalse();
+
+        assertThat(prompts).isEmpty();
+        verify(conversationRepository, never()).updateSummary(any(), any(), any(), any());
+    }
+
+    @Test
+    void prepare_sendsSummaryPlusTurnsAfterWatermark() {
+        List<Message> messages = messages(10);
+        Conversation conversation = conversation("summary of 6", messages.get(5).getId());
+
+        ConversationSummarizer.History history = summarizer.prepare(conversation, messages.subList(2, 10));
+
+        assertThat(history.summary()).isEqualTo("summary of 6");
+        assertThat(history.messages()).extracting(Message::getContent).containsExactly("m6", "m7", "m8", "m9");
+        // 40 unsummarized tokens are under the trigger, so no compaction is scheduled
+        verifyNoInteractions(conversationRepository, messageRepository);
+    }
+
+    @Test
+    void prepare_tailCappedShortOfWatermark_compactsFromTheWatermark() {
+        List<Message> messages = messages(16);
+        Message watermark = messages.get(1);
+        Conversation conversation = conversation("summary of 2", watermark.getId());
+        when(conversationRepository.findById(conversationId)).thenReturn(Optional.of(conversation));
+        when(messageRepository.findById(watermark.getId())).thenReturn(Optional.of(watermark));
+        when(messageRepository.findActiveAfter(conversationId, watermark.getCreatedAt(), watermark.getId()))
+                .thenReturn(messages.subList(2, 16));
+
+        // Only 30 tokens are loaded, but 140 sit after the watermark
+        summarizer.prepare(conversation, messages.subList(13, 16));
+
+        verify(conversationRepository, timeout(5_000)).updateSummary(eq(conversationId), eq("summary of 12"),
+                eq(messages.get(13).getId()), eq(watermark.getId()));
+        String transcript = prompts.get(0).getInstructions().get(1).getText();
+        assertThat(transcript).contains("User: m2", "Assistant: m13").doesNotContain("m14");
+    }
+
+    @Test
+    void prepare_withoutSummary_keepsTheWholeTail() {
+        List<Message> messages = messages(3);
+
+        ConversationSummarizer.History history = summarizer.prepare(conversation(null, null), messages);
+
+        assertThat(history.summary()).isNull();
+        assertThat(history.messages()).isEqualTo(messages);
+    }
+
+    @Test
+    void prepare_inactiveWatermark_ignoresTheSummaryAndClearsIt() {
+        List<Message> messages = messages(6);
+        Message watermark = messages.get(3);
+        watermark.setActive(false);
+        List<Message> active = new ArrayList<>(messages);
+        active.remove(watermark);
+        Conversation conversation = conversation("summary mentioning the discarded answer", watermark.getId());
+        when(conversationRepository.findById(conversationId)).thenReturn(Optional.of(conversation));
+        when(messageRepository.findById(watermark.getId())).thenReturn(Optional.of(watermark));
+        when(messageRepository.findActiveFromStart(conversationId)).thenReturn(active);
+
+        ConversationSummarizer.History history = summarizer.prepare(conversation, active);
+
+        assertThat(history.summary()).isNull();
+        assertThat(history.messages()).isEqualTo(active);
+        // 50 active tokens do not warrant a new summary, so the stale one is dropped instead of refolded
+        verify(conversationRepository, timeout(5_000)).updateSummary(conversationId, null, null, watermark.getId());
+        assertThat(prompts).isEmpty();
+    }
+
+    @Test
+    void compact_inactiveWatermark_resummarizesFromTheStart() {
+        List<Message> messages = messages(10);
+        Message watermark = messages.get(5);
+        watermark.setActive(false);
+        List<Message> active = new ArrayList<>(messages);
+        active.remove(watermark);
+        when(conversationRepository.findById(conversationId))
+                .thenReturn(Optional.of(conversation("summary of 6", watermark.getId())));
+        when(messageRepository.findById(watermark.getId())).thenReturn(Optional.of(watermark));
+        when(messageRepository.findActiveFromStart(conversationId)).thenReturn(active);
+
+        assertThat(summarizer.compact(conversationId, "chat-model").block(Duration.ofSeconds(5))).isTrue();
+
+        verify(conversationRepository).updateSummary(eq(conversationId), eq("summary of 7"),
+                eq(active.get(6).getId()), eq(watermark.getId()));
+        assertThat(prompts.get(0).getInstructions().get(1).getText()).startsWith("Existing summary:\n(none)");
+    }
+
+    @Test
+    void editingAMessageAtOrBeforeTheWatermark_discardsTheSummary() {
+        List<Message> messages = messages(8);
+        Message watermark = messages.get(5);
+        stubConversation(messages, watermark);
+        MessageEditService editService = new MessageEditService(messageRepository, mock(ConversationService.class), summarizer);
+
+        editService.editMessage(conversationId, messages.get(2).getId(), "m2, edited", true);
+
+        verify(conversationRepository).updateSummary(conversationId, null, null, watermark.getId());
+        assertThat(messages.subList(3, 8)).allMatch(m -> Boolean.FALSE.equals(m.getActive()));
+    }
+
+    @Test
+    void editingAMessageAfterTheWatermark_keepsTheSummary() {
+        List<Message> messages = messages(8);
+        Message watermark = messages.get(3);
+        stubConversation(messages, watermark);
+        MessageEditService editService = new MessageEditService(messageRepository, mock(ConversationService.class), summarizer);
+
+        editService.editMessage(conversationId, messages.get(6).getId(), "m6, edited", true);
+
+        verify(conversationRepository, never()).updateSummary(any(), any(), any(), any());
+    }
+
+    @Test
+    void regeneratingTheWatermarkAnswer_discardsTheSummary() {
+        List<Message> messages = messages(8);
+        Message watermark = messages.get(7);
+        stubConversation(messages, watermark);
+        RegenerationService regenerationService = new RegenerationService(messageRepository, summarizer);
+
+        regenerationService.prepareRegeneration(conversationId);
+
+        assertThat(watermark.getActive()).isFalse();
+        verify(conversationRepository).updateSummary(conversationId, null, null, watermark.getId());
+    }
+
+    @Test
+    void regeneratingPastTheWatermark_keepsTheSummary() {
+        List<Message> messages = messages(8);
+        Message watermark = messages.get(5);
+        stubConversation(messages, watermark);
+        RegenerationService regenerationService = new RegenerationService(messageRepository, summarizer);
+
+        regenerationService.prepareRegeneration(conversationId);
+
+        assertThat(messages.get(7).getActive()).isFalse();
+        verify(conversationRepository, never()).updateSummary(any(), any(), any(), any());
+    }
+
+    private void stubConversation(List<Message> messages, Message watermark) {
+        Conversation conversation = conversation("summary up to " + watermark.getContent(), watermark.getId());
+        messages.forEach(message -> {
+            message.setConversation(conversation);
+            when(messageRepository.findById(message.getId())).thenReturn(Optional.of(message));
+        });
+        when(conversationRepository.findById(conversationId)).thenReturn(Optional.of(conversation));
+        when(messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId)).thenReturn(messages);
+        when(conversationRepository.updateSummary(conversationId, null, null, watermark.getId())).thenReturn(1);
+    }
+
+    private Conversation conversation(String summary, UUID watermark) {
+        return Conversation.builder()
+                .id(conversationId)
+                .title("Long chat")
+                .modelName("chat-model")
+                .summary(summary)
+                .summaryWatermarkId(watermark)
+                .build();
+    }
+
+    /** Alternating user/assistant messages m0..m(n-1), oldest first. */
+    private static List<Message> messages(int count) {
+        LocalDateTime start = LocalDateTime.of(2026, 1, 1, 12, 0);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(Message.builder()
+                    .id(UUID.randomUUID())
+                    .role(i % 2 == 0 ? Message.MessageRole.USER : Message.MessageRole.ASSISTANT)
+                    .content("m" + i)
+                    .createdAt(start.plusMinutes(i))
+                    .build());
+        }
+        return messages;
+    }
+}
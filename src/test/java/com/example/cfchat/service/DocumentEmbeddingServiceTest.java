@@ -0,0 +1,511 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.UserDocument;
+import com.example.cfchat.model.UserDocument.DocumentStatus;
+import com.example.cfchat.repository.UserDocumentRepository;
+import com.example.cfchat.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DocumentEmbeddingServiceTest {
+
+    private static final int USERS = 300;
+    private static final int CHUNKS_PER_USER = 20;
+    private static final int SHARED_CHUNKS = 5;
+    private static final int TOP_K = 5;
+
+    private OwnerIndexedVectorStore vectorStore;
+    private UserDocumentRepository documentRepository;
+    private DocumentEmbeddingService service;
+    private final List<UUID> users = new ArrayList<>();
+    private final UUID sharedDocumentId = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        vectorStore = new OwnerIndexedVectorStore();
+        documentRepository = mock(UserDocumentRepository.class);
+        when(documentRepository.findSharedDocumentIds(DocumentStatus.COMPLETED)).thenReturn(List.of(sharedDocumentId));
+
+        Random random = new Random(3);
+        List<Document> chunks = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            UUID userId = UUID.randomUUID();
+            users.add(userId);
+            UUID documentId = UUID.randomUUID();
+            for (int c = 0; c < CHUNKS_PER_USER; c++) {
+                chunks.add(chunk(userId, documentId, c, randomWords(random)));
+            }
+        }
+        for (int c = 0; c < SHARED_CHUNKS; c++) {
+            chunks.add(chunk(users.get(0), sharedDocumentId, c, randomWords(random)));
+        }
+        vectorStore.add(chunks);
+
+        service = new DocumentEmbeddingService(vectorStore, documentRepository, mock(UserRepository.class),
+                mock(JdbcTemplate.class), mock(DocumentStorageService.class), mock(DocumentIngestionPipeline.class));
+    }
+
+    @Test
+    void searchUserDocuments_returnsFullTopKFromOwnAndSharedChunks() {
+        for (UUID userId : users) {
+            List<Document> results = service.searchUserDocuments(userId, "quick brown fox", TOP_K);
+
+            assertThat(results).hasSize(TOP_K);
+            assertThat(results).allSatisfy(doc -> assertThat(
+                    userId.toString().equals(doc.getMetadata().get("user_id"))
+                            || sharedDocumentId.toString().equals(doc.getMetadata().get("document_id"))).isTrue());
+            assertThat(results).extracting(Document::getId)
+                    .containsExactlyElementsOf(vectorStore.exactTopK(userId, sharedDocumentId, "quick brown fox", TOP_K));
+
+            // The store only scored this user's chunks and the shared ones, never the whole corpus
+            assertThat(vectorStore.lastRequest.getTopK()).isEqualTo(TOP_K);
+            assertThat(vectorStore.lastCandidatesRead).isLessThanOrEqualTo(CHUNKS_PER_USER + SHARED_CHUNKS);
+        }
+    }
+
+    @Test
+    void searchUserDocuments_withoutSharedDocumentsFiltersByOwnerOnly() {
+        when(documentRepository.findSharedDocumentIds(DocumentStatus.COMPLETED)).thenReturn(List.of());
+        UUID userId = users.get(USERS - 1);
+
+        List<Document> results = service.searchUserDocuments(userId, "lazy dog", TOP_K);
+
+        assertThat(results).hasSize(TOP_K)
+                .allSatisfy(doc -> assertThat(doc.getMetadata().get("user_id")).isEqualTo(userId.toString()));
+        assertThat(vectorStore.lastRequest.getFilterExpression().type()).isEqualTo(Filter.ExpressionType.EQ);
+        assertThat(vectorStore.lastCandidatesRead).isEqualTo(CHUNKS_PER_USER);
+    }
+
+    @Test
+    void init_failsStartupWhenTheMetadataColumnsCannotBeAdded() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        doThrow(new BadSqlGrammarException("migrate", "ALTER TABLE document_embeddings",
+                new SQLException("ERROR: must be owner of table document_embeddings", "42501")))
+                .when(jdbc).execute(contains("ADD COLUMN IF NOT EXISTS user_id"));
+        DocumentEmbeddingService service = new DocumentEmbeddingService(mock(PgVectorStore.class), documentRepository,
+                mock(UserRepository.class), jdbc, mock(DocumentStorageService.class), mock(DocumentIngestionPipeline.class));
+
+        assertThatThrownBy(service::init)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("embedding metadata columns");
+        service.backfillEmbeddingMetadataColumns();
+        verify(jdbc, never()).queryForList(anyString(), eq(UUID.class), any(), any());
+    }
+
+    @Test
+    void init_leavesTheBackfillForAfterStartup() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        when(jdbc.queryForList(anyString(), eq(UUID.class), any(), any()))
+                .thenReturn(List.of(UUID.randomUUID()), List.of());
+        DocumentEmbeddingService service = new DocumentEmbeddingService(mock(PgVectorStore.class), documentRepository,
+                mock(UserRepository.class), jdbc, mock(DocumentStorageService.class), mock(DocumentIngestionPipeline.class));
+
+        service.init();
+        verify(jdbc, never()).queryForList(anyString(), eq(UUID.class), any(), any());
+
+        service.backfillEmbeddingMetadataColumns();
+        verify(jdbc, times(2)).queryForList(anyString(), eq(UUID.class), any(), any());
+    }
+
+    @Test
+    void searchPgVector_smallCandidateSetUsesTheExactScan() {
+        JdbcTemplate jdbc = pgVectorJdbc();
+        DocumentEmbeddingService service = pgVectorBackedService(jdbc, 10);
+
+        assertThat(service.searchUserDocuments(users.get(0), "quick brown fox", TOP_K)).hasSize(1);
+
+        verify(jdbc).query(eq(DocumentEmbeddingService.EXACT_SEARCH_SQL), any(PreparedStatementSetter.class), any(RowMapper.class));
+        verify(jdbc, never()).queryForObject(contains("hnsw.iterative_scan"), eq(String.class));
+    }
+
+    @Test
+    void searchPgVector_largeCandidateSetUsesTheIndexWithIterativeScans() {
+        JdbcTemplate jdbc = pgVectorJdbc();
+        DocumentEmbeddingService service = pgVectorBackedService(jdbc, 1_000_000);
+
+        assertThat(service.searchUserDocuments(users.get(0), "quick brown fox", TOP_K)).hasSize(1);
+
+        verify(jdbc).queryForObject(contains("hnsw.iterative_scan"), eq(String.class));
+        verify(jdbc).query(eq(DocumentEmbeddingService.INDEXED_SEARCH_SQL), any(PreparedStatementSetter.class), any(RowMapper.class));
+    }
+
+    @Test
+    void searchPgVector_transientFailureKeepsTheIndexedPath() {
+        JdbcTemplate jdbc = pgVectorJdbc();
+        DocumentEmbeddingService service = pgVectorBackedService(jdbc, 1_000_000);
+        EmbeddingModel embeddingModel = (EmbeddingModel) ReflectionTestUtils.getField(service, "embeddingModel");
+        when(embeddingModel.embed(anyString())).thenThrow(new RuntimeException("503 Service Unavailable"))
+                .thenReturn(new float[]{1f, 0f});
+
+        assertThat(service.searchUserDocuments(users.get(0), "quick brown fox", TOP_K)).hasSize(TOP_K);
+        service.searchUserDocuments(users.get(0), "quick brown fox", TOP_K);
+
+        assertThat(ReflectionTestUtils.getField(service, "iterativeScanSupported")).isEqualTo(true);
+        verify(jdbc).query(eq(DocumentEmbeddingService.INDEXED_SEARCH_SQL), any(PreparedStatementSetter.class), any(RowMapper.class));
+    }
+
+    @Test
+    void searchPgVector_rejectedIterativeScanSettingFallsBackForGood() {
+        JdbcTemplate jdbc = pgVectorJdbc();
+        when(jdbc.queryForObject(contains("hnsw.iterative_scan"), eq(String.class))).thenThrow(new BadSqlGrammarException(
+                "set_config", "SELECT set_config('hnsw.iterative_scan', 'strict_order', true)",
+                new SQLException("ERROR: unrecognized configuration parameter \"hnsw.iterative_scan\"", "42704")));
+        DocumentEmbeddingService service = pgVectorBackedService(jdbc, 1_000_000);
+
+        assertThat(service.searchUserDocuments(users.get(0), "quick brown fox", TOP_K)).hasSize(TOP_K);
+        service.searchUserDocuments(users.get(0), "quick brown fox", TOP_K);
+
+        assertThat(ReflectionTestUtils.getField(service, "iterativeScanSupported")).isEqualTo(false);
+        verify(jdbc, times(1)).queryForObject(contains("hnsw.iterative_scan"), eq(String.class));
+        verify(jdbc, never()).query(anyString(), any(PreparedStatementSetter.class), any(RowMapper.class));
+    }
+
+    @Test
+    void getAllChunksForDocuments_readsOwnAndSharedChunksInOrderThroughTheDocumentIndex() {
+        JdbcTemplate jdbc = h2WithEmbeddingColumns();
+        UUID owner = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        UUID ownDocument = UUID.randomUUID();
+        UUID otherDocument = UUID.randomUUID();
+        seed(jdbc, owner, ownDocument, 5);
+        seed(jdbc, other, otherDocument, 5);
+        seed(jdbc, other, sharedDocumentId, 3);
+        for (int d = 0; d < 50; d++) {
+            seed(jdbc, owner, UUID.randomUUID(), 10);
+        }
+        jdbc.execute("ANALYZE");
+        DocumentEmbeddingService service = jdbcBackedService(jdbc);
+
+        List<Document> chunks = service.getAllChunksForDocuments(owner,
+                Set.of(ownDocument.toString(), otherDocument.toString(), sharedDocumentId.toString()));
+
+        assertThat(chunks).extracting(doc -> doc.getMetadata().get("document_id") + "#" + doc.getMetadata().get("chunk_index"))
+                .containsExactlyInAnyOrderElementsOf(expectedKeys(List.of(ownDocument, sharedDocumentId), List.of(5, 3)));
+        assertThat(chunks).noneMatch(doc -> otherDocument.toString().equals(doc.getMetadata().get("document_id")));
+        assertThat(chunks.stream().filter(doc -> ownDocument.toString().equals(doc.getMetadata().get("document_id")))
+                .map(doc -> ((Number) doc.getMetadata().get("chunk_index")).intValue()))
+                .containsExactly(0, 1, 2, 3, 4);
+
+        String plan = explain(jdbc, DocumentEmbeddingService.chunksForDocumentsSql(1, 0), ownDocument, owner);
+        assertThat(plan).contains("IDX_DOCUMENT_EMBEDDINGS_DOCUMENT").doesNotContain("tableScan");
+    }
+
+    @Test
+    void deleteDocument_removesEmbeddingsThroughTheDocumentIndex() {
+        JdbcTemplate jdbc = h2WithEmbeddingColumns();
+        UUID owner = UUID.randomUUID();
+        UUID documentId = UUID.randomUUID();
+        UUID keptDocument = UUID.randomUUID();
+        seed(jdbc, owner, documentId, 4);
+        seed(jdbc, owner, keptDocument, 4);
+        when(documentRepository.findByIdAndUserId(documentId, owner))
+                .thenReturn(Optional.of(UserDocument.builder().id(documentId).build()));
+
+        assertThat(jdbcBackedService(jdbc).deleteDocument(owner, documentId)).isTrue();
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM document_embeddings WHERE document_id = ?",
+                Integer.class, documentId)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM document_embeddings", Integer.class)).isEqualTo(4);
+        String plan = explain(jdbc, DocumentEmbeddingService.DELETE_DOCUMENT_EMBEDDINGS_SQL, documentId);
+        assertThat(plan).contains("IDX_DOCUMENT_EMBEDDINGS_DOCUMENT").doesNotContain("tableScan");
+    }
+
+    @Test
+    void getNeighborChunks_mergesOverlappingWindowsInOneRoundTrip() {
+        CountingDataSource dataSource = new CountingDataSource();
+        JdbcTemplate jdbc = h2WithEmbeddingColumns(dataSource);
+        UUID owner = UUID.randomUUID();
+        UUID manual = UUID.randomUUID();
+        UUID notes = UUID.randomUUID();
+        seed(jdbc, owner, manual, 30);
+        seed(jdbc, owner, notes, 4);
+        DocumentEmbeddingService service = jdbcBackedService(jdbc);
+        List<Document> hits = List.of(hit(manual, 5, 0.9), hit(notes, 0, 0.8), hit(manual, 3, 0.7), hit(manual, 20, 0.6));
+        dataSource.connections = 0;
+
+        List<DocumentEmbeddingService.ChunkWindow> windows = service.getNeighborChunks(owner, hits, 2);
+
+        assertThat(dataSource.connections).isEqualTo(1);
+        assertThat(windows).extracting(w -> w.documentId() + ":" + w.first() + "-" + w.last())
+                .containsExactly(manual + ":1-7", notes + ":0-2", manual + ":18-22");
+        assertThat(windows.get(0).chunks()).extracting(Document::getText)
+                .containsExactly("chunk 1", "chunk 2", "chunk 3", "chunk 4", "chunk 5", "chunk 6", "chunk 7");
+        assertThat(windows.get(0).score()).isEqualTo(0.9);
+    }
+
+    @Test
+    void getNeighborChunks_clampsAtDocumentEndsAndKeepsHitsWithoutPosition() {
+        JdbcTemplate jdbc = h2WithEmbeddingColumns();
+        UUID owner = UUID.randomUUID();
+        UUID documentId = UUID.randomUUID();
+        seed(jdbc, owner, documentId, 3);
+        Document unpositioned = new Document("web result");
+
+        List<DocumentEmbeddingService.ChunkWindow> windows = jdbcBackedService(jdbc)
+                .getNeighborChunks(owner, List.of(hit(documentId, 2, 0.5), unpositioned), 4);
+
+        assertThat(windows).hasSize(2);
+        assertThat(windows.get(0).chunks()).extracting(Document::getText).containsExactly("chunk 0", "chunk 1", "chunk 2");
+        assertThat(windows.get(1).chunks()).containsExactly(unpositioned);
+    }
+
+    /** The promoted columns and indexes as the startup migration leaves them, on H2. */
+    private static JdbcTemplate h2WithEmbeddingColumns() {
+        return h2WithEmbeddingColumns(new CountingDataSource());
+    }
+
+    private static JdbcTemplate h2WithEmbeddingColumns(CountingDataSource dataSource) {
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("""
+                CREATE TABLE document_embeddings (
+                    id UUID PRIMARY KEY,
+                    content VARCHAR(4000),
+                    metadata VARCHAR(4000),
+                    user_id UUID,
+                    document_id UUID,
+                    chunk_index INTEGER
+                )
+                """);
+        jdbc.execute("CREATE INDEX idx_document_embeddings_document ON document_embeddings (document_id, chunk_index)");
+        jdbc.execute("CREATE INDEX idx_document_embeddings_user ON document_embeddings (user_id)");
+        return jdbc;
+    }
+
+    private static void seed(JdbcTemplate jdbc, UUID userId, UUID documentId, int chunks) {
+        // Insert out of order so the ORDER BY is what sorts them
+        for (int c = chunks - 1; c >= 0; c--) {
+            String metadata = "{\"user_id\":\"%s\",\"document_id\":\"%s\",\"chunk_index\":%d}"
+                    .formatted(userId, documentId, c);
+            jdbc.update("INSERT INTO document_embeddings VALUES (?, ?, ?, ?, ?, ?)",
+                    UUID.randomUUID(), "chunk " + c, metadata, userId, documentId, c);
+        }
+    }
+
+    private static Document hit(UUID documentId, int chunkIndex, double score) {
+        Document hit = Document.builder().text("chunk " + chunkIndex).score(score).build();
+        hit.getMetadata().put("document_id", documentId.toString());
+        hit.getMetadata().put("chunk_index", chunkIndex);
+        return hit;
+    }
+
+    /** H2 in-memory database that counts connections, one per statement round trip. */
+    static final class CountingDataSource extends DriverManagerDataSource {
+        int connections;
+
+        CountingDataSource() {
+            super("jdbc:h2:mem:embeddings-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            connections++;
+            return super.getConnection();
+        }
+    }
+
+    /** JDBC that answers every direct pgvector search with a single chunk. */
+    @SuppressWarnings("unchecked")
+    private static JdbcTemplate pgVectorJdbc() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        when(jdbc.query(anyString(), any(PreparedStatementSetter.class), any(RowMapper.class)))
+                .thenReturn(List.of(new Document("direct hit")));
+        return jdbc;
+    }
+
+    /** Service whose store is a PgVectorStore, so searches take the direct pgvector path first. */
+    private DocumentEmbeddingService pgVectorBackedService(JdbcTemplate jdbc, long searchableChunks) {
+        PgVectorStore pgVectorStore = mock(PgVectorStore.class);
+        when(pgVectorStore.similaritySearch(any(SearchRequest.class)))
+                .thenAnswer(invocation -> vectorStore.similaritySearch(invocation.<SearchRequest>getArgument(0)));
+        when(documentRepository.countSearchableChunks(any(), eq(DocumentStatus.COMPLETED))).thenReturn(searchableChunks);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1f, 0f});
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+
+        DocumentEmbeddingService service = new DocumentEmbeddingService(pgVectorStore, documentRepository,
+                mock(UserRepository.class), jdbc, mock(DocumentStorageService.class), mock(DocumentIngestionPipeline.class));
+        ReflectionTestUtils.setField(service, "embeddingModel", embeddingModel);
+        ReflectionTestUtils.setField(service, "transactionManager", transactionManager);
+        return service;
+    }
+
+    private DocumentEmbeddingService jdbcBackedService(JdbcTemplate jdbc) {
+        return new DocumentEmbeddingService(vectorStore, documentRepository, mock(UserRepository.class),
+                jdbc, mock(DocumentStorageService.class), mock(DocumentIngestionPipeline.class));
+    }
+
+    private static List<String> expectedKeys(List<UUID> documents, List<Integer> counts) {
+        List<String> keys = new ArrayList<>();
+        for (int d = 0; d < documents.size(); d++) {
+            for (int c = 0; c < counts.get(d); c++) {
+                keys.add(documents.get(d) + "#" + c);
+            }
+        }
+        return keys;
+    }
+
+    private static String explain(JdbcTemplate jdbc, String sql, Object... params) {
+        String literal = sql;
+        for (Object param : params) {
+            literal = literal.replaceFirst("\\?", "'" + param + "'");
+        }
+        return String.join("\n", jdbc.queryForList("EXPLAIN " + literal, String.class));
+    }
+
+    private static Document chunk(UUID userId, UUID documentId, int index, String text) {
+        Document doc = new Document(text);
+        doc.getMetadata().put("user_id", userId.toString());
+        doc.getMetadata().put("document_id", documentId.toString());
+        doc.getMetadata().put("chunk_index", index);
+        return doc;
+    }
+
+    private static String randomWords(Random random) {
+        String[] words = {"quick", "brown", "fox", "lazy", "dog", "vector", "index", "graph", "query", "tenant"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * In-process stand-in for a filtered vector index: chunks are indexed by owner and
+     * document, and a search only scores the partitions its filter selects.
+     */
+    static final class OwnerIndexedVectorStore implements VectorStore {
+        private final Map<String, List<Document>> byUser = new HashMap<>();
+        private final Map<String, List<Document>> byDocument = new HashMap<>();
+        SearchRequest lastRequest;
+        int lastCandidatesRead;
+
+        @Override
+        public void add(List<Document> documents) {
+            for (Document doc : documents) {
+                byUser.computeIfAbsent((String) doc.getMetadata().get("user_id"), k -> new ArrayList<>()).add(doc);
+                byDocument.computeIfAbsent((String) doc.getMetadata().get("document_id"), k -> new ArrayList<>()).add(doc);
+            }
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            lastRequest = request;
+            Set<Document> candidates = new LinkedHashSet<>();
+            collect(request.getFilterExpression(), candidates);
+            lastCandidatesRead = candidates.size();
+            return rank(candidates, request.getQuery(), request.getTopK()).stream()
+                    .map(scored -> scored.getKey().mutate().score(scored.getValue()).build())
+                    .toList();
+        }
+
+        List<String> exactTopK(UUID userId, UUID sharedDocumentId, String query, int topK) {
+            Set<Document> candidates = new LinkedHashSet<>(byUser.get(userId.toString()));
+            candidates.addAll(byDocument.get(sharedDocumentId.toString()));
+            return rank(candidates, query, topK).stream().map(scored -> scored.getKey().getId()).toList();
+        }
+
+        private void collect(Filter.Expression expression, Set<Document> candidates) {
+            switch (expression.type()) {
+                case OR -> {
+                    collect((Filter.Expression) expression.left(), candidates);
+                    collect((Filter.Expression) expression.right(), candidates);
+                }
+                case EQ -> candidates.addAll(partition(expression, ((Filter.Value) expression.right()).value()));
+                case IN -> {
+                    for (Object value : (List<?>) ((Filter.Value) expression.right()).value()) {
+                        candidates.addAll(partition(expression, value));
+                    }
+                }
+                default -> throw new UnsupportedOperationException("Unindexed filter: " + expression);
+            }
+        }
+
+        private List<Document> partition(Filter.Expression expression, Object value) {
+            String key = ((Filter.Key) expression.left()).key();
+            Map<String, List<Document>> index = switch (key) {
+                case "user_id" -> byUser;
+                case "document_id" -> byDocument;
+                default -> throw new UnsupportedOperationException("Unindexed key: " + key);
+            };
+            return index.getOrDefault(String.valueOf(value), List.of());
+        }
+
+        private static List<Map.Entry<Document, Double>> rank(Set<Document> candidates, String query, int topK) {
+            float[] q = embed(query);
+            return candidates.stream()
+                    .map(doc -> Map.entry(doc, cosine(q, embed(doc.getText()))))
+                    .sorted(Map.Entry.<Document, Double>comparingByValue(Comparator.reverseOrder())
+                            .thenComparing(entry -> entry.getKey().getId()))
+                    .limit(topK)
+                    .toList();
+        }
+
+        private static float[] embed(String text) {
+            float[] vector = new float[26];
+            for (char c : text.toCharArray()) {
+                if (c >= 'a' && c <= 'z') {
+                    vector[c - 'a']++;
+                }
+            }
+            return vector;
+        }
+
+        private static double cosine(float[] a, float[] b) {
+            double dot = 0;
+            double normA = 0;
+            double normB = 0;
+            for (int i = 0; i < a.length; i++) {
+                dot += a[i] * b[i];
+                normA += a[i] * a[i];
+                normB += b[i] * b[i];
+            }
+            return normA == 0 || normB == 0 ? 0 : dot / (Math.sqrt(normA) * Math.sqrt(normB));
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.User;
+import com.example.cfchat.model.UserDocument;
+import com.example.cfchat.model.UserDocument.DocumentStatus;
+import com.example.cfchat.repository.UserDocumentRepository;
+import com.example.cfchat.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentIngestionPipelineTest {
+
+    private static final long EMBED_LATENCY_MS = 200;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path spoolDir;
+
+    private final Map<UUID, UserDocument> documents = new ConcurrentHashMap<>();
+    private final User user = User.builder().id(UUID.randomUUID()).username("alice").build();
+    private SlowEmbeddingModel embeddingModel;
+    private EmbeddingVectorStore vectorStore;
+    private DocumentIngestionPipeline pipeline;
+    private DocumentEmbeddingService service;
+
+    @BeforeEach
+    void setUp() {
+        UserDocumentRepository documentRepository = mock(UserDocumentRepository.class);
+        when(documentRepository.save(any())).thenAnswer(invocation -> {
+            UserDocument document = invocation.getArgument(0);
+            if (document.getId() == null) {
+                document.setId(UUID.randomUUID());
+            }
+            documents.put(document.getId(), document);
+            return document;
+        });
+        when(documentRepository.findById(any())).thenAnswer(invocation ->
+                Optional.ofNullable(documents.get(invocation.<UUID>getArgument(0))));
+        when(documentRepository.findByStatusOrderByCreatedAtAsc(any())).thenAnswer(invocation ->
+                documents.values().stream().filter(d -> d.getStatus() == invocation.getArgument(0)).toList());
+        when(documentRepository.claimLease(any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            UserDocument document = documents.get(invocation.<UUID>getArgument(0));
+            synchronized (document) {
+                Collection<DocumentStatus> statuses = invocation.getArgument(4);
+                LocalDateTime now = invocation.getArgument(3);
+                if (!statuses.contains(document.getStatus())
+                        || (document.getLeaseUntil() != null && !document.getLeaseUntil().isBefore(now))) {
+                    return 0;
+                }
+                document.setLeaseOwner(invocation.getArgument(1));
+                document.setLeaseUntil(invocation.getArgument(2));
+                return 1;
+            }
+        });
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
+
+        embeddingModel = new SlowEmbeddingModel();
+        vectorStore = new EmbeddingVectorStore(embeddingModel);
+        EmbeddingWriter writer = new EmbeddingWriter(vectorStore, mock(JdbcTemplate.class), embeddingModel, null, null);
+        ReflectionTestUtils.setField(writer, "maxBatchSize", 2);
+        pipeline = new DocumentIngestionPipeline(documentRepository, mock(JdbcTemplate.class),
+                mock(DocumentStorageService.class), mock(MetricsService.class), null, writer);
+        ReflectionTestUtils.setField(pipeline, "spoolDir", spoolDir.toString());
+        pipeline.start();
+
+        service = new DocumentEmbeddingService(vectorStore, documentRepository, userRepository,
+                mock(JdbcTemplate.class), mock(DocumentStorageService.class), pipeline);
+        ReflectionTestUtils.setField(service, "maxFileSize", 10_000_000L);
+        ReflectionTestUtils.setField(service, "maxDocumentsPerUser", 50);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.stop();
+    }
+
+    @Test
+    void upload_returnsBeforeEmbeddingAndStreamsOrderedProgress() throws Exception {
+        long start = System.nanoTime();
+        var response = service.uploadDocument(user.getId(), textFile("handbook.txt", 2000));
+        long elapsedMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertThat(response.getStatus()).isEqualTo("PENDING");
+        assertThat(elapsedMs).isLessThan(EMBED_LATENCY_MS);
+        assertThat(embeddingModel.completed.get()).isZero();
+
+        List<DocumentIngestionPipeline.Progress> events =
+                service.getIngestionProgress(response.getDocumentId()).collectList().block(TIMEOUT);
+
+        assertThat(events).isNotEmpty();
+        for (int i = 1; i < events.size(); i++) {
+            DocumentIngestionPipeline.Progress previous = events.get(i - 1);
+            DocumentIngestionPipeline.Progress current = events.get(i);
+            assertThat(current.sequence()).isEqualTo(previous.sequence() + 1);
+            assertThat(current.stage()).isGreaterThanOrEqualTo(previous.stage());
+            assertThat(current.written()).isGreaterThanOrEqualTo(previous.written());
+        }
+        DocumentIngestionPipeline.Progress last = events.get(events.size() - 1);
+        assertThat(last.stage()).isEqualTo(DocumentIngestionPipeline.Stage.COMPLETED);
+        assertThat(last.chunks()).isGreaterThan(2);
+        assertThat(last.written()).isEqualTo(last.chunks());
+        assertThat(events).filteredOn(e -> e.stage() == DocumentIngestionPipeline.Stage.WRITING)
+                .hasSize((last.chunks() + 1) / 2);
+
+        assertThat(vectorStore.chunkIndexes(response.getDocumentId()))
+                .containsExactlyInAnyOrderElementsOf(range(last.chunks()));
+        UserDocument stored = documents.get(response.getDocumentId());
+        assertThat(stored.getStatus()).isEqualTo(DocumentStatus.COMPLETED);
+        assertThat(stored.getChunkCount()).isEqualTo(last.chunks());
+        assertThat(stored.getProgressSequence()).isEqualTo(last.sequence());
+        assertThat(Files.list(spoolDir)).isEmpty();
+    }
+
+    @Test
+    void stagesOverlapAcrossDocuments() throws Exception {
+        UUID first = service.uploadDocument(user.getId(), textFile("first.txt", 2000)).getDocumentId();
+        UUID second = service.uploadDocument(user.getId(), textFile("second.txt", 2000)).getDocumentId();
+
+        ConcurrentLinkedQueue<String> log = new ConcurrentLinkedQueue<>();
+        var firstDone = service.getIngestionProgress(first)
+                .doOnNext(e -> log.add("first:" + e.stage())).then().toFuture();
+        service.getIngestionProgress(second)
+                .doOnNext(e -> log.add("second:" + e.stage())).then().block(TIMEOUT);
+        firstDone.get();
+
+        List<String> order = new ArrayList<>(log);
+        // The second document was split and queued for embedding while the first was still being embedded
+        assertThat(order.indexOf("second:EMBEDDING")).isLessThan(order.indexOf("first:COMPLETED"));
+        assertThat(documents.get(first).getStatus()).isEqualTo(DocumentStatus.COMPLETED);
+        assertThat(documents.get(second).getStatus()).isEqualTo(DocumentStatus.COMPLETED);
+    }
+
+    @Test
+    void upload_withoutExtractableTextFailsWithReason() throws Exception {
+        var response = service.uploadDocument(user.getId(),
+                new MockMultipartFile("file", "blank.txt", "text/plain", "   \n   ".getBytes(StandardCharsets.UTF_8)));
+
+        List<DocumentIngestionPipeline.Progress> events =
+                service.getIngestionProgress(response.getDocumentId()).collectList().block(TIMEOUT);
+
+        assertThat(events.get(events.size() - 1).stage()).isEqualTo(DocumentIngestionPipeline.Stage.FAILED);
+        UserDocument stored = documents.get(response.getDocumentId());
+        assertThat(stored.getStatus()).isEqualTo(DocumentStatus.FAILED);
+        assertThat(stored.getErrorMessage()).isNotBlank();
+        assertThat(vectorStore.chunkIndexes(response.getDocumentId())).isEmpty();
+    }
+
+    @Test
+    void progress_lateSubscriberStillGetsTheTerminalEvent() throws Exception {
+        var response = service.uploadDocument(user.getId(), textFile("handbook.txt", 2000));
+        var progress = service.getIngestionProgress(response.getDocumentId());
+
+        // The document disappears mid-job, as when another instance deletes it
+        progress.filter(e -> e.stage() == DocumentIngestionPipeline.Stage.EMBEDDING).blockFirst(TIMEOUT);
+        documents.remove(response.getDocumentId());
+        progress.blockLast(TIMEOUT);
+
+        List<DocumentIngestionPipeline.Progress> late = progress.collectList().block(TIMEOUT);
+        assertThat(late).singleElement().satisfies(last -> {
+            assertThat(last.stage()).isEqualTo(DocumentIngestionPipeline.Stage.FAILED);
+            assertThat(last.message()).isEqualTo("Document was deleted");
+        });
+    }
+
+    @Test
+    void resumeInterrupted_resumesTheStoredProgressNumbering() throws Exception {
+        UserDocument interrupted = document(DocumentStatus.PROCESSING, "report.txt");
+        interrupted.setProgressSequence(12L);
+        Files.writeString(spoolDir.resolve(interrupted.getId().toString()), text(1000));
+        UserDocument lost = document(DocumentStatus.PENDING, "lost.txt");
+        lost.setProgressSequence(3L);
+
+        pipeline.resumeInterrupted();
+
+        awaitTerminal(interrupted.getId());
+        awaitTerminal(lost.getId());
+        assertThat(interrupted.getProgressSequence()).isGreaterThan(13L);
+        assertThat(lost.getProgressSequence()).isEqualTo(4L);
+    }
+
+    @Test
+    void resumeInterrupted_requeuesSpooledJobsAndFailsLostOnes() throws Exception {
+        UserDocument interrupted = document(DocumentStatus.PROCESSING, "report.txt");
+        Files.writeString(spoolDir.resolve(interrupted.getId().toString()), text(1000));
+        UserDocument lost = document(DocumentStatus.PENDING, "lost.txt");
+
+        pipeline.resumeInterrupted();
+
+        awaitTerminal(interrupted.getId());
+        awaitTerminal(lost.getId());
+        assertThat(interrupted.getStatus()).isEqualTo(DocumentStatus.COMPLETED);
+        assertThat(vectorStore.chunkIndexes(interrupted.getId())).hasSize(interrupted.getChunkCount());
+        assertThat(lost.getStatus()).isEqualTo(DocumentStatus.FAILED);
+        assertThat(lost.getErrorMessage()).contains("no longer available");
+    }
+
+    @Test
+    void resumeInterrupted_leavesDocumentsLeasedByAnotherInstance() throws Exception {
+        UserDocument owned = document(DocumentStatus.PROCESSING, "owned.txt");
+        owned.setLeaseOwner("other-instance");
+        owned.setLeaseUntil(LocalDateTime.now().plusMinutes(1));
+        Files.writeString(spoolDir.resolve(owned.getId().toString()), text(1000));
+        UserDocument abandoned = document(DocumentStatus.PROCESSING, "abandoned.txt");
+        abandoned.setLeaseOwner("crashed-instance");
+        abandoned.setLeaseUntil(LocalDateTime.now().minusMinutes(1));
+        Files.writeString(spoolDir.resolve(abandoned.getId().toString()), text(1000));
+
+        pipeline.resumeInterrupted();
+
+        awaitTerminal(abandoned.getId());
+        assertThat(abandoned.getStatus()).isEqualTo(DocumentStatus.COMPLETED);
+        assertThat(abandoned.getLeaseOwner()).isNotEqualTo("crashed-instance");
+        assertThat(owned.getStatus()).isEqualTo(DocumentStatus.PROCESSING);
+        assertThat(owned.getLeaseOwner()).isEqualTo("other-instance");
+        assertThat(vectorStore.chunkIndexes(owned.getId())).isEmpty();
+        assertThat(Files.exists(spoolDir.resolve(owned.getId().toString()))).isTrue();
+    }
+
+    @Test
+    void progress_followsTheStoredStatusOfAJobRunningElsewhere() {
+        ReflectionTestUtils.setField(pipeline, "progressPollMs", 20L);
+        UserDocument elsewhere = document(DocumentStatus.PROCESSING, "elsewhere.txt");
+        elsewhere.setProgressSequence(2L);
+
+        var events = pipeline.progress(elsewhere.getId()).collectList().toFuture();
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            elsewhere.setChunkCount(7);
+            elsewhere.setProgressSequence(9L);
+            elsewhere.setStatus(DocumentStatus.COMPLETED);
+        });
+
+        List<DocumentIngestionPipeline.Progress> received = events.orTimeout(TIMEOUT.toSeconds(), TimeUnit.SECONDS).join();
+        assertThat(received).extracting(DocumentIngestionPipeline.Progress::stage)
+                .containsExactly(DocumentIngestionPipeline.Stage.EXTRACTING, DocumentIngestionPipeline.Stage.COMPLETED);
+        assertThat(received.get(1).written()).isEqualTo(7);
+        // Numbered like the owning job's events, so they keep increasing
+        assertThat(received).extracting(DocumentIngestionPipeline.Progress::sequence).containsExactly(2L, 9L);
+    }
+
+    @Test
+    void progress_ofAFinishedDocumentIsASingleEvent() {
+        UserDocument finished = document(DocumentStatus.FAILED, "broken.txt");
+        finished.setErrorMessage("No content could be extracted from the document");
+
+        List<DocumentIngestionPipeline.Progress> received = pipeline.progress(finished.getId()).collectList().block(TIMEOUT);
+
+        assertThat(received).singleElement().satisfies(progress -> {
+            assertThat(progress.stage()).isEqualTo(DocumentIngestionPipeline.Stage.FAILED);
+            assertThat(progress.message()).contains("No content");
+        });
+    }
+
+    private UserDocument document(DocumentStatus status, String filename) {
+        UserDocument document = UserDocument.builder()
+                .id(UUID.randomUUID())
+                .user(user)
+                .filename(filename)
+                .originalFilename(filename)
+                .contentType("text/plain")
+                .status(status)
+                .build();
+        documents.put(document.getId(), document);
+        return document;
+    }
+
+    private void awaitTerminal(UUID documentId) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            DocumentStatus status = documents.get(documentId).getStatus();
+            if (status == DocumentStatus.COMPLETED || status == DocumentStatus.FAILED) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Document " + documentId + " did not finish processing");
+    }
+
+    private static MockMultipartFile textFile(String name, int words) {
+        return new MockMultipartFile("file", name, "text/plain", text(words).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(int words) {
+        String[] vocabulary = {"policy", "travel", "expense", "approval", "manager", "receipt", "budget", "report"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(vocabulary[i % vocabulary.length]).append(i % 12 == 11 ? ". " : " ");
+        }
+        return text.toString();
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> range = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    /** Embeds every text after a fixed delay, like a remote embedding endpoint. */
+    static final class SlowEmbeddingModel implements EmbeddingModel {
+        final AtomicInteger completed = new AtomicInteger();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            try {
+                Thread.sleep(EMBED_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(new float[]{text.length()}, embeddings.size()));
+            }
+            completed.incrementAndGet();
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return call(new EmbeddingRequest(List.of(document.getText()), null)).getResult().getOutput();
+        }
+    }
+
+    /** Store that embeds on add and upserts by id, as the pgvector store does. */
+    static final class EmbeddingVectorStore implements VectorStore {
+        private final EmbeddingModel embeddingModel;
+        private final Map<String, Document> rows = new ConcurrentHashMap<>();
+
+        EmbeddingVectorStore(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            embeddingModel.embed(documents.stream().map(Document::getText).toList());
+            documents.forEach(doc -> rows.put(doc.getId(), doc));
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            idList.forEach(rows::remove);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            return List.of();
+        }
+
+        List<Integer> chunkIndexes(UUID documentId) {
+            return rows.values().stream()
+                    .filter(doc -> documentId.toString().equals(doc.getMetadata().get("document_id")))
+                    .map(doc -> (Integer) doc.getMetadata().get("chunk_index"))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.cfchat.service;
+
+import com.pgvector.PGvector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class EmbeddingWriterTest {
+
+    private final UUID documentId = UUID.randomUUID();
+    private FlakyEmbeddingModel embeddingModel;
+    private DocumentIngestionPipelineTest.EmbeddingVectorStore vectorStore;
+    private EmbeddingWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        embeddingModel = new FlakyEmbeddingModel();
+        vectorStore = new DocumentIngestionPipelineTest.EmbeddingVectorStore(embeddingModel);
+        writer = new EmbeddingWriter(vectorStore, mock(JdbcTemplate.class), embeddingModel, null, null);
+        ReflectionTestUtils.setField(writer, "backoffMs", 1L);
+        ReflectionTestUtils.setField(writer, "maxBackoffMs", 5L);
+    }
+
+    @Test
+    void batches_areBoundedByTokensAndSize() {
+        ReflectionTestUtils.setField(writer, "maxBatchTokens", 50);
+        ReflectionTestUtils.setField(writer, "maxBatchSize", 3);
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            chunks.add(chunk(i, "short chunk"));
+        }
+        chunks.add(chunk(4, "word ".repeat(80)));
+        chunks.add(chunk(5, "short chunk"));
+
+        List<List<Document>> batches = writer.batches(chunks);
+
+        assertThat(batches).extracting(List::size).containsExactly(3, 1, 1, 1);
+        assertThat(batches.stream().flatMap(List::stream).toList()).containsExactlyElementsOf(chunks);
+    }
+
+    @Test
+    void write_retriesThrottledBatchesUntilEveryChunkIsStoredOnce() throws Exception {
+        embeddingModel.throttleEvery = 2;
+        List<Document> chunks = chunks(40);
+        ReflectionTestUtils.setField(writer, "maxBatchSize", 4);
+
+        writeConcurrently(writer, chunks);
+
+        assertThat(embeddingModel.throttled.get()).isPositive();
+        assertThat(vectorStore.chunkIndexes(documentId)).containsExactlyInAnyOrderElementsOf(
+                chunks.stream().map(c -> (Integer) c.getMetadata().get("chunk_index")).toList());
+    }
+
+    @Test
+    void write_upsertsEveryChunkOnceThroughRandomTransientFailures() throws Exception {
+        embeddingModel.random = new Random(42);
+        embeddingModel.failureRate = 0.3;
+        FlakyJdbcTemplate jdbc = new FlakyJdbcTemplate(new Random(7), 0.3);
+        PgVectorStore store = PgVectorStore.builder(jdbc, embeddingModel).initializeSchema(false).build();
+        EmbeddingWriter writer = new EmbeddingWriter(store, jdbc, embeddingModel, null, null);
+        ReflectionTestUtils.setField(writer, "backoffMs", 1L);
+        ReflectionTestUtils.setField(writer, "maxBackoffMs", 5L);
+        ReflectionTestUtils.setField(writer, "maxAttempts", 30);
+        ReflectionTestUtils.setField(writer, "maxBatchSize", 4);
+        assertThat(writer.isDirectWrite()).isTrue();
+        List<Document> chunks = chunks(80);
+
+        writeConcurrently(writer, chunks);
+        // A resumed run writes some chunks again, one of them changed
+        List<Document> rewritten = List.of(chunks.get(0), chunk(1, "chunk number 1, edited"));
+        writer.write(rewritten, writer.embed(rewritten));
+
+        assertThat(embeddingModel.throttled.get() + embeddingModel.unavailable.get()).isPositive();
+        assertThat(jdbc.failed.get()).isPositive();
+        List<Map<String, Object>> rows = jdbc.queryForList("SELECT id, content, embedding FROM document_embeddings");
+        assertThat(rows).hasSize(chunks.size());
+        for (Map<String, Object> row : rows) {
+            String content = (String) row.get("content");
+            assertThat(row.get("embedding")).isEqualTo(new PGvector(new float[]{content.length()}).getValue());
+        }
+        assertThat(rows).extracting(row -> row.get("id").toString()).containsExactlyInAnyOrderElementsOf(
+                chunks.stream().map(Document::getId).toList());
+        assertThat(rows).extracting(row -> row.get("content")).contains("chunk number 1, edited")
+                .doesNotContain("chunk number 1");
+    }
+
+    @Test
+    void embed_waitsForTheRequestsPerMinuteBudget() throws Exception {
+        EmbeddingWriter direct = new EmbeddingWriter(mock(PgVectorStore.class), mock(JdbcTemplate.class), embeddingModel, null, null);
+        ReflectionTestUtils.setField(direct, "requestsPerMinute", 2);
+
+        direct.embed(List.of(chunk(0, "first")));
+        direct.embed(List.of(chunk(1, "second")));
+        CountDownLatch third = new CountDownLatch(1);
+        Thread waiting = Thread.ofVirtual().start(() -> {
+            try {
+                direct.embed(List.of(chunk(2, "third")));
+                third.countDown();
+            } catch (InterruptedException e) {
+                // Still waiting for the budget when the test gave up on it
+            }
+        });
+
+        assertThat(third.await(500, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(embeddingModel.calls.get()).isEqualTo(2);
+        waiting.interrupt();
+        waiting.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(embeddingModel.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void write_doesNotRetryNonTransientErrors() {
+        embeddingModel.failure = new NonTransientAiException("400 Bad Request: input too long");
+        List<Document> batch = List.of(chunk(0, "too long"));
+
+        assertThatThrownBy(() -> writer.write(batch, null)).isInstanceOf(NonTransientAiException.class);
+        assertThat(embeddingModel.calls.get()).isEqualTo(1);
+        assertThat(vectorStore.chunkIndexes(documentId)).isEmpty();
+    }
+
+    @Test
+    void write_rewritingABatchReplacesItsRows() throws Exception {
+        writer.write(List.of(chunk(0, "first"), chunk(1, "second")), null);
+        writer.write(List.of(chunk(0, "first"), chunk(1, "second, edited")), null);
+
+        assertThat(vectorStore.chunkIndexes(documentId)).containsExactlyInAnyOrder(0, 1);
+    }
+
+    @Test
+    void chunkId_isStablePerDocumentAndPosition() {
+        assertThat(EmbeddingWriter.chunkId(documentId, 3)).isEqualTo(EmbeddingWriter.chunkId(documentId, 3));
+        assertThat(EmbeddingWriter.chunkId(documentId, 3)).isNotEqualTo(EmbeddingWriter.chunkId(documentId, 4));
+        assertThat(EmbeddingWriter.chunkId(documentId, 3)).isNotEqualTo(EmbeddingWriter.chunkId(UUID.randomUUID(), 3));
+    }
+
+    @Test
+    void isRateLimited_findsStatusInCauseChain() {
+        assertThat(EmbeddingWriter.isRateLimited(
+                new IllegalStateException("wrapped", new RuntimeException("429 Too Many Requests")))).isTrue();
+        assertThat(EmbeddingWriter.isRateLimited(new RuntimeException("503 Service Unavailable"))).isFalse();
+    }
+
+    @Test
+    void isRateLimited_matchesTheStatusCodeRatherThanAnyDigits() {
+        assertThat(EmbeddingWriter.isRateLimited(new IllegalStateException("wrapped", tooManyRequests()))).isTrue();
+        assertThat(EmbeddingWriter.isRateLimited(
+                WebClientResponseException.create(429, "Too Many Requests", HttpHeaders.EMPTY, new byte[0], null))).isTrue();
+        assertThat(EmbeddingWriter.isRateLimited(new TransientAiException("429 - {\"error\":\"rate limit exceeded\"}"))).isTrue();
+        assertThat(EmbeddingWriter.isRateLimited(new RuntimeException("HTTP 429"))).isTrue();
+
+        assertThat(EmbeddingWriter.isRateLimited(serviceUnavailable())).isFalse();
+        assertThat(EmbeddingWriter.isRateLimited(
+                new RuntimeException("Failed to store chunk 4290a1c7-3f42-4429-9429-b1d4429e0429"))).isFalse();
+        assertThat(EmbeddingWriter.isRateLimited(new RuntimeException("4291 rows were not written"))).isFalse();
+        assertThat(EmbeddingWriter.isRateLimited(new RuntimeException("Read timed out after 429ms"))).isFalse();
+    }
+
+    private List<Document> chunks(int count) {
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chunks.add(chunk(i, "chunk number " + i));
+        }
+        return chunks;
+    }
+
+    private static void writeConcurrently(EmbeddingWriter writer, List<Document> chunks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(writer.getConcurrency());
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (List<Document> batch : writer.batches(chunks)) {
+                writes.add(executor.submit(() -> {
+                    writer.write(batch, writer.embed(batch));
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static HttpClientErrorException tooManyRequests() {
+        return HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+                HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+    }
+
+    private static HttpServerErrorException serviceUnavailable() {
+        return (HttpServerErrorException) HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable",
+                HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+    }
+
+    private Document chunk(int index, String text) {
+        Document document = new Document(EmbeddingWriter.chunkId(documentId, index), text, new HashMap<>());
+        document.getMetadata().put("document_id", documentId.toString());
+        document.getMetadata().put("chunk_index", index);
+        return document;
+    }
+
+    /**
+     * Embedding endpoint that rejects every n-th call with a 429, fails a random
+     * share of calls with a 429, a 503 or a timeout, or fails with a fixed error.
+     */
+    static final class FlakyEmbeddingModel implements EmbeddingModel {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger throttled = new AtomicInteger();
+        final AtomicInteger unavailable = new AtomicInteger();
+        volatile int throttleEvery;
+        volatile double failureRate;
+        volatile Random random;
+        volatile RuntimeException failure;
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            int call = calls.incrementAndGet();
+            if (failure != null) {
+                throw failure;
+            }
+            if (throttleEvery > 0 && call % throttleEvery == 0) {
+                throttled.incrementAndGet();
+                throw tooManyRequests();
+            }
+            if (random != null) {
+                double roll;
+                synchronized (random) {
+                    roll = random.nextDouble();
+                }
+                if (roll < failureRate / 3) {
+                    throttled.incrementAndGet();
+                    throw tooManyRequests();
+                }
+                if (roll < failureRate * 2 / 3) {
+                    unavailable.incrementAndGet();
+                    throw serviceUnavailable();
+                }
+                if (roll < failureRate) {
+                    unavailable.incrementAndGet();
+                    throw new ResourceAccessException("I/O error on POST request: Read timed out");
+                }
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(new float[]{text.length()}, embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return call(new EmbeddingRequest(List.of(document.getText()), null)).getResult().getOutput();
+        }
+    }
+
+    /**
+     * H2 standing in for pgvector: the upsert is run as H2's equivalent MERGE, with
+     * vectors in their text form, and a random share of batches fails transiently
+     * before reaching the database.
+     */
+    static final class FlakyJdbcTemplate extends JdbcTemplate {
+        private static final String H2_UPSERT_SQL =
+                "MERGE INTO document_embeddings (id, content, metadata, embedding) KEY (id) VALUES (?, ?, ? FORMAT JSON, ?)";
+
+        final AtomicInteger failed = new AtomicInteger();
+        private final Random random;
+        private final double failureRate;
+
+        FlakyJdbcTemplate(Random random, double failureRate) {
+            super(new DriverManagerDataSource("jdbc:h2:mem:upsert-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+            this.random = random;
+            this.failureRate = failureRate;
+            execute("CREATE TABLE document_embeddings (id UUID PRIMARY KEY, content VARCHAR(4000), metadata JSON, embedding VARCHAR(4000))");
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            if (!EmbeddingWriter.UPSERT_EMBEDDING_SQL.equals(sql)) {
+                return super.batchUpdate(sql, batchArgs);
+            }
+            synchronized (random) {
+                if (random.nextDouble() < failureRate) {
+                    failed.incrementAndGet();
+                    throw new TransientDataAccessResourceException("Connection reset");
+                }
+            }
+            List<Object[]> rows = batchArgs.stream()
+                    .map(args -> new Object[]{args[0], args[1], args[2], ((PGvector) args[3]).getValue()})
+                    .toList();
+            return super.batchUpdate(H2_UPSERT_SQL, rows);
+        }
+    }
+}
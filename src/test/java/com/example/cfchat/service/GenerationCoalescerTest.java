@@ -0,0 +1,128 @@
+package com.example.cfchat.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GenerationCoalescerTest {
+
+    private static final String MODEL = "llama3";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final AtomicBoolean upstreamCancelled = new AtomicBoolean();
+    private GenerationCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new GenerationCoalescer(meterRegistry);
+    }
+
+    @Test
+    void concurrentIdenticalRequests_shareOneUpstream() {
+        List<Flux<String>> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(coalescer.coalesce(MODEL, "key", slowGeneration("Hello", " world")).collectList()
+                    .map(tokens -> String.join("", tokens)).flux());
+        }
+
+        List<String> outputs = Flux.merge(requests).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(outputs).hasSize(5).containsOnly("Hello world");
+        assertThat(upstreamCalls).hasValue(1);
+        assertThat(meterRegistry.counter("cfllama.chat.coalesced", "model", MODEL).count()).isEqualTo(4);
+        assertThat(coalescer.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void lateJoiner_receivesTokensEmittedBeforeItArrived() throws InterruptedException {
+        List<String> first = new ArrayList<>();
+        Disposable leader = coalescer.coalesce(MODEL, "key", slowGeneration("a", "b", "c", "d"))
+                .subscribe(first::add);
+        Thread.sleep(120);
+
+        List<String> late = coalescer.coalesce(MODEL, "key", slowGeneration("x"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(late).containsExactly("a", "b", "c", "d");
+        assertThat(upstreamCalls).hasValue(1);
+        leader.dispose();
+    }
+
+    @Test
+    void differentKeys_generateIndependently() {
+        Flux.merge(
+                coalescer.coalesce(MODEL, "one", slowGeneration("1")),
+                coalescer.coalesce(MODEL, "two", slowGeneration("2")),
+                coalescer.coalesce(MODEL, null, slowGeneration("3"))
+        ).blockLast(Duration.ofSeconds(5));
+
+        assertThat(upstreamCalls).hasValue(3);
+    }
+
+    @Test
+    void upstreamIsCancelledOnlyWhenEverySubscriberLeaves() throws InterruptedException {
+        Supplier<Flux<String>> endless = () -> {
+            upstreamCalls.incrementAndGet();
+            return Flux.interval(Duration.ofMillis(10)).map(String::valueOf)
+                    .doOnCancel(() -> upstreamCancelled.set(true));
+        };
+        Disposable first = coalescer.coalesce(MODEL, "key", endless).subscribe();
+        Disposable second = coalescer.coalesce(MODEL, "key", endless).subscribe();
+
+        first.dispose();
+        Thread.sleep(50);
+        assertThat(upstreamCancelled).isFalse();
+
+        second.dispose();
+        assertThat(upstreamCancelled).isTrue();
+        assertThat(coalescer.getInFlightCount()).isZero();
+        assertThat(upstreamCalls).hasValue(1);
+    }
+
+    @Test
+    void completedGeneration_isNotReusedByLaterRequests() {
+        coalescer.coalesce(MODEL, "key", slowGeneration("one")).blockLast(Duration.ofSeconds(5));
+        coalescer.coalesce(MODEL, "key", slowGeneration("two")).blockLast(Duration.ofSeconds(5));
+
+        assertThat(upstreamCalls).hasValue(2);
+    }
+
+    @Test
+    void disabled_alwaysGenerates() {
+        ReflectionTestUtils.setField(coalescer, "enabled", false);
+
+        Flux.merge(
+                coalescer.coalesce(MODEL, "key", slowGeneration("a")),
+                coalescer.coalesce(MODEL, "key", slowGeneration("a"))
+        ).blockLast(Duration.ofSeconds(5));
+
+        assertThat(upstreamCalls).hasValue(2);
+    }
+
+    @Test
+    void keyOf_separatesParts() {
+        assertThat(GenerationCoalescer.keyOf("ab", "c")).isNotEqualTo(GenerationCoalescer.keyOf("a", "bc"));
+        assertThat(GenerationCoalescer.keyOf("a", null)).isEqualTo(GenerationCoalescer.keyOf("a", null));
+    }
+
+    private Supplier<Flux<String>> slowGeneration(String... tokens) {
+        return () -> {
+            upstreamCalls.incrementAndGet();
+            return Flux.just(tokens).delayElements(Duration.ofMillis(50));
+        };
+    }
+}
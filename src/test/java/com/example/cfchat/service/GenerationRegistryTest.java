@@ -0,0 +1,135 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.dto.ChatDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class GenerationRegistryTest {
+
+    private final UUID userId = UUID.randomUUID();
+    private GenerationRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new GenerationRegistry();
+        ReflectionTestUtils.setField(registry, "orphanTimeoutMs", 200L);
+    }
+
+    @Test
+    void attach_afterDisconnect_replaysMissedFramesByteIdentical() {
+        String answer = "The quick brown fox jumps over the lazy dog. Ünïcödé ✓";
+        Flux<ChatDelta> model = Flux.fromArray(answer.split(""))
+                .map(ChatDelta::new)
+                .delayElements(Duration.ofMillis(2));
+
+        GenerationRegistry.Generation generation = registry.start(userId, "message", model);
+
+        // First connection drops after ten frames
+        List<GenerationRegistry.Frame> before = generation.attach(0).take(10).collectList().block(Duration.ofSeconds(5));
+        long lastEventId = before.get(before.size() - 1).id();
+
+        List<GenerationRegistry.Frame> after = generation.attach(lastEventId).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(text(before) + text(after)).isEqualTo(answer);
+        assertThat(after.get(0).id()).isEqualTo(lastEventId + 1);
+    }
+
+    @Test
+    void attach_afterCompletion_replaysEverything() {
+        GenerationRegistry.Generation generation = registry.start(userId, "message",
+                Flux.just(new ChatDelta("a"), new ChatDelta("b"), new ChatDelta("c")));
+
+        assertThat(generation.isDone()).isTrue();
+        assertThat(generation.attach(1).collectList().block(Duration.ofSeconds(5)))
+                .extracting(GenerationRegistry.Frame::id)
+                .containsExactly(2L, 3L);
+    }
+
+    @Test
+    void attach_whenFramesWereEvicted_fails() {
+        ReflectionTestUtils.setField(registry, "bufferFrames", 2);
+        GenerationRegistry.Generation generation = registry.start(userId, "message",
+                Flux.just(new ChatDelta("a"), new ChatDelta("b"), new ChatDelta("c"), new ChatDelta("d")));
+
+        assertThatThrownBy(() -> generation.attach(1).collectList().block(Duration.ofSeconds(5)))
+                .isInstanceOf(GenerationRegistry.FramesEvictedException.class);
+        assertThat(generation.attach(2).collectList().block(Duration.ofSeconds(5))).hasSize(2);
+    }
+
+    @Test
+    void orphanedGeneration_isCancelled() throws InterruptedException {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Sinks.Many<ChatDelta> model = Sinks.many().unicast().onBackpressureBuffer();
+
+        GenerationRegistry.Generation generation = registry.start(userId, "message",
+                model.asFlux().doOnCancel(() -> cancelled.set(true)));
+        generation.attach(0).take(Duration.ofMillis(20)).blockLast(Duration.ofSeconds(5));
+
+        Thread.sleep(400);
+
+        assertThat(cancelled).isTrue();
+        assertThat(generation.isDone()).isTrue();
+    }
+
+    @Test
+    void attachedClient_keepsGenerationAlive() throws InterruptedException {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Sinks.Many<ChatDelta> model = Sinks.many().unicast().onBackpressureBuffer();
+
+        GenerationRegistry.Generation generation = registry.start(userId, "message",
+                model.asFlux().doOnCancel(() -> cancelled.set(true)));
+        generation.attach(0).subscribe();
+
+        Thread.sleep(400);
+
+        assertThat(cancelled).isFalse();
+        model.tryEmitComplete();
+        assertThat(generation.isDone()).isTrue();
+    }
+
+    @Test
+    void find_onlyReturnsTheOwnersGeneration() {
+        GenerationRegistry.Generation generation = registry.start(userId, "message", Flux.never());
+
+        assertThat(registry.find(generation.getId(), userId)).contains(generation);
+        assertThat(registry.find(generation.getId(), UUID.randomUUID())).isEmpty();
+        assertThat(registry.find(generation.getId(), null)).isEmpty();
+        generation.cancel();
+    }
+
+    @Test
+    void relay_isSubscribedFirstAndReplayedInSequence() {
+        Sinks.Many<String> wikiOps = Sinks.many().multicast().directBestEffort();
+        Sinks.Many<ChatDelta> model = Sinks.many().unicast().onBackpressureBuffer();
+        // The relay emits as soon as the chat stream is subscribed, as a tool round would
+        Flux<ChatDelta> chat = model.asFlux().doOnSubscribe(s -> wikiOps.tryEmitNext("page-created"));
+
+        GenerationRegistry.Generation generation = registry.start(userId, "message", chat, "wiki_op", wikiOps.asFlux());
+        model.tryEmitNext(new ChatDelta("done"));
+        model.tryEmitComplete();
+
+        assertThat(generation.attach(0).collectList().block(Duration.ofSeconds(5)))
+                .extracting(GenerationRegistry.Frame::id, GenerationRegistry.Frame::event)
+                .containsExactly(tuple(1L, "wiki_op"), tuple(2L, "message"));
+        // Ended with the generation
+        assertThat(wikiOps.currentSubscriberCount()).isZero();
+    }
+
+    private static String text(List<GenerationRegistry.Frame> frames) {
+        StringBuilder text = new StringBuilder();
+        frames.forEach(frame -> text.append(((ChatDelta) frame.data()).d()));
+        return text.toString();
+    }
+}
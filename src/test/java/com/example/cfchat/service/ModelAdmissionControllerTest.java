@@ -0,0 +1,171 @@
+package com.example.cfchat.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ModelAdmissionControllerTest {
+
+    private static final String MODEL = "llama3";
+
+    private ModelAdmissionController admission;
+
+    @BeforeEach
+    void setUp() {
+        admission = new ModelAdmissionController();
+        ReflectionTestUtils.setField(admission, "initialLimit", 16);
+        ReflectionTestUtils.setField(admission, "maxQueue", 500);
+    }
+
+    @Test
+    void limitConverges_whenLatencyGrowsWithConcurrency() {
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        // Fake model: time to first token is 10ms per request in flight
+        java.util.function.Supplier<Flux<String>> model = () -> Flux.defer(() -> {
+            int inFlight = concurrent.incrementAndGet();
+            peak.accumulateAndGet(inFlight, Math::max);
+            return Mono.delay(Duration.ofMillis(10L * inFlight)).thenMany(Flux.just("a", "b"));
+        }).doFinally(signal -> concurrent.decrementAndGet());
+
+        // Learn the uncontended baseline
+        for (int i = 0; i < 3; i++) {
+            admission.admit(MODEL, model, null).blockLast(Duration.ofSeconds(5));
+        }
+
+        List<String> tokens = Flux.range(0, 200)
+                .flatMap(i -> admission.admit(MODEL, model, null), 200)
+                .collectList()
+                .block(Duration.ofSeconds(60));
+
+        assertThat(tokens).hasSize(400);
+        assertThat(admission.getLimit(MODEL)).isBetween(1, 4);
+        assertThat(admission.getQueueLength(MODEL)).isZero();
+        assertThat(admission.getInFlight(MODEL)).isZero();
+        assertThat(peak.get()).isLessThanOrEqualTo(16);
+    }
+
+    @Test
+    void queuedRequests_receivePositionFrames() {
+        ReflectionTestUtils.setField(admission, "initialLimit", 1);
+        Disposable holder = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+
+        List<String> frames = admission.admit(MODEL, () -> Flux.just("token"), position -> "queued:" + position)
+                .take(1)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(frames).containsExactly("queued:1");
+        holder.dispose();
+    }
+
+    @Test
+    void queuedRequest_runsWhenPermitIsReleased() {
+        ReflectionTestUtils.setField(admission, "initialLimit", 1);
+        Disposable holder = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+        Mono<List<String>> waiting = admission.admit(MODEL, () -> Flux.just("token"), position -> "queued:" + position)
+                .collectList()
+                .cache();
+        waiting.subscribe();
+        assertThat(admission.getQueueLength(MODEL)).isEqualTo(1);
+
+        holder.dispose();
+
+        assertThat(waiting.block(Duration.ofSeconds(5))).containsExactly("queued:1", "token");
+        assertThat(admission.getInFlight(MODEL)).isZero();
+    }
+
+    @Test
+    void fullQueue_rejectsImmediately() {
+        ReflectionTestUtils.setField(admission, "initialLimit", 1);
+        ReflectionTestUtils.setField(admission, "maxQueue", 1);
+        Disposable holder = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+        Disposable queued = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+
+        assertThatThrownBy(() -> admission.checkAdmissible(MODEL))
+                .isInstanceOf(ModelAdmissionController.ModelOverloadedException.class);
+        assertThatThrownBy(() -> admission.admit(MODEL, () -> Flux.just("x"), null).blockLast(Duration.ofSeconds(5)))
+                .isInstanceOf(ModelAdmissionController.ModelOverloadedException.class);
+
+        queued.dispose();
+        holder.dispose();
+        assertThat(admission.getQueueLength(MODEL)).isZero();
+        assertThat(admission.getInFlight(MODEL)).isZero();
+    }
+
+    @Test
+    void cancelledWhileQueued_leavesTheQueue() {
+        ReflectionTestUtils.setField(admission, "initialLimit", 1);
+        Disposable holder = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+        Disposable queued = admission.admit(MODEL, () -> Flux.just("x"), null).subscribe();
+        assertThat(admission.getQueueLength(MODEL)).isEqualTo(1);
+
+        queued.dispose();
+
+        assertThat(admission.getQueueLength(MODEL)).isZero();
+        holder.dispose();
+        assertThat(admission.getInFlight(MODEL)).isZero();
+    }
+
+    @Test
+    void call_timesOutWaitingForAPermit() {
+        ReflectionTestUtils.setField(admission, "initialLimit", 1);
+        ReflectionTestUtils.setField(admission, "queueTimeoutMs", 50L);
+        Disposable holder = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+
+        assertThatThrownBy(() -> admission.call(MODEL, () -> "never runs"))
+                .isInstanceOf(ModelAdmissionController.ModelOverloadedException.class);
+        assertThat(admission.getQueueLength(MODEL)).isZero();
+
+        holder.dispose();
+        assertThat(admission.call(MODEL, () -> "ok")).isEqualTo("ok");
+        assertThat(admission.getInFlight(MODEL)).isZero();
+    }
+
+    @Test
+    void admit_queuedStreamTimesOutWaitingForAPermit() {
+        ReflectionTestUtils.setField(admission, "initialLimit", 1);
+        ReflectionTestUtils.setField(admission, "queueTimeoutMs", 50L);
+        Disposable holder = admission.admit(MODEL, Flux::<String>never, null).subscribe();
+        AtomicInteger started = new AtomicInteger();
+
+        List<String> frames = new CopyOnWriteArrayList<>();
+        assertThatThrownBy(() -> admission.admit(MODEL, () -> {
+                    started.incrementAndGet();
+                    return Flux.just("never runs");
+                }, position -> "queued:" + position)
+                .doOnNext(frames::add)
+                .blockLast(Duration.ofSeconds(5)))
+                .isInstanceOf(ModelAdmissionController.ModelOverloadedException.class);
+
+        assertThat(frames).containsExactly("queued:1");
+        assertThat(started.get()).isZero();
+        assertThat(admission.getQueueLength(MODEL)).isZero();
+        holder.dispose();
+        assertThat(admission.getInFlight(MODEL)).isZero();
+        assertThat(admission.admit(MODEL, () -> Flux.just("ok"), null).blockLast(Duration.ofSeconds(5))).isEqualTo("ok");
+    }
+
+    @Test
+    void errors_shrinkTheLimit() {
+        for (int i = 0; i < 5; i++) {
+            admission.admit(MODEL, () -> Flux.<String>error(new IllegalStateException("backend down")), null)
+                    .onErrorResume(e -> Flux.empty())
+                    .blockLast(Duration.ofSeconds(5));
+        }
+
+        assertThat(admission.getLimit(MODEL)).isLessThan(16);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.event.ModelCatalogChangedEvent;
+import com.example.cfchat.model.ModelAccessRule;
+import com.example.cfchat.model.ModelInfo;
+import com.example.cfchat.repository.ModelAccessRuleRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ModelRegistryTest {
+
+    @Mock
+    private ChatClient primaryChatClient;
+
+    @Mock
+    private ExternalBindingService externalBindingService;
+
+    @Mock
+    private ModelAccessRuleRepository ruleRepository;
+
+    private ModelRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new ModelRegistry(primaryChatClient, null, null, externalBindingService, ruleRepository);
+        ReflectionTestUtils.setField(registry, "activeProfile", "default");
+        ReflectionTestUtils.setField(registry, "accessControlEnabled", true);
+        lenient().when(externalBindingService.getAvailableModelNames()).thenReturn(List.of());
+        lenient().when(ruleRepository.findAll()).thenReturn(List.of());
+    }
+
+    @Test
+    void lookups_buildSnapshotOnceAndNeverQueryPerRequest() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(registry.contains("gpt-4o")).isTrue();
+            assertThat(registry.contains("nope")).isFalse();
+            registry.getModelsForRole("USER");
+        }
+
+        verify(ruleRepository, times(1)).findAll();
+        verify(externalBindingService, times(1)).getAvailableModelNames();
+    }
+
+    @Test
+    void indexesByIdAndProvider() {
+        assertThat(registry.find("gpt-4o").getContextWindow()).isEqualTo(128_000);
+        assertThat(registry.getModelsByProvider("openai")).extracting(ModelInfo::getId)
+                .containsExactly("gpt-4o-mini", "gpt-4o", "gpt-4-turbo");
+        assertThat(registry.getModelsByProvider("ollama")).isEmpty();
+    }
+
+    @Test
+    void catalogChange_swapsInNewSnapshot() {
+        assertThat(registry.contains("remote-llm")).isFalse();
+
+        UUID bindingId = UUID.randomUUID();
+        when(externalBindingService.getAvailableModelNames()).thenReturn(List.of("remote-llm", "remote-embed"));
+        when(externalBindingService.getModelMetadata()).thenReturn(Map.of("remote-llm",
+                new ExternalBindingService.ExternalModelMetadata("remote-llm", "partner", bindingId, "chat", 8192)));
+        registry.onModelCatalogChanged(new ModelCatalogChangedEvent(this, "binding created"));
+
+        assertThat(registry.find("remote-llm").getContextWindow()).isEqualTo(8192);
+        assertThat(registry.contains("remote-embed")).isFalse();
+        assertThat(registry.getModelsByProvider("external")).hasSize(1);
+    }
+
+    @Test
+    void roleVisibility_isPrecomputedFromAllowRules() {
+        when(ruleRepository.findAll()).thenReturn(List.of(
+                ModelAccessRule.builder().modelId("gpt-4o-mini").roleName("USER").allowed(true).build(),
+                ModelAccessRule.builder().modelId("gpt-4o").roleName("USER").allowed(false).build()));
+
+        assertThat(registry.getModelsForRole("USER")).extracting(ModelInfo::getId).containsExactly("gpt-4o-mini");
+        assertThat(registry.isVisibleToRole("gpt-4o", "user")).isFalse();
+        assertThat(registry.getModelsForRole("ADMIN")).hasSize(3);
+        // Roles without allow rules keep the permissive default
+        assertThat(registry.getModelsForRole("AUDITOR")).hasSize(3);
+    }
+
+    @Test
+    void accessControlDisabled_skipsRuleTable() {
+        ReflectionTestUtils.setField(registry, "accessControlEnabled", false);
+
+        assertThat(registry.getModelsForRole("USER")).hasSize(3);
+        verifyNoInteractions(ruleRepository);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.cfchat.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ModelRouterTest {
+
+    private static final String MODEL = "llama3";
+
+    private final ExternalBindingService externalBindingService = mock(ExternalBindingService.class);
+    private ModelRouter router;
+
+    @BeforeEach
+    void setUp() {
+        router = new ModelRouter(null, externalBindingService);
+        ReflectionTestUtils.setField(router, "ejectAfterFailures", 2);
+        ReflectionTestUtils.setField(router, "ejectMs", 200L);
+    }
+
+    @Test
+    void route_withSingleBackend_returnsNull() {
+        when(externalBindingService.getChatModelReplicas(MODEL)).thenReturn(Map.of("only", mock(ChatModel.class)));
+
+        assertThat(router.route(MODEL)).isNull();
+    }
+
+    @Test
+    void traffic_favoursTheFasterBackend() {
+        when(externalBindingService.getChatModelReplicas(MODEL))
+                .thenReturn(Map.of("fast", mock(ChatModel.class), "slow", mock(ChatModel.class)));
+        Map<String, Long> ttftByBackend = Map.of("fast", 5L, "slow", 60L);
+        Map<String, AtomicInteger> served = new ConcurrentHashMap<>();
+
+        Flux.range(0, 200)
+                .flatMap(i -> {
+                    ModelRouter.Route route = router.route(MODEL);
+                    served.computeIfAbsent(route.backend(), b -> new AtomicInteger()).incrementAndGet();
+                    return route.stream(() -> Mono.delay(Duration.ofMillis(ttftByBackend.get(route.backend())))
+                            .thenMany(Flux.just("a", "b")));
+                }, 8)
+                .blockLast(Duration.ofSeconds(30));
+
+        int fast = served.get("fast").get();
+        int slow = served.getOrDefault("slow", new AtomicInteger()).get();
+        assertThat(fast + slow).isEqualTo(200);
+        assertThat(slow).isPositive();
+        assertThat(fast).isGreaterThan(slow * 3);
+        assertThat(router.getBackends(MODEL)).allSatisfy(backend -> assertThat(backend.inFlight()).isZero());
+    }
+
+    @Test
+    void failingBackend_isEjectedThenReadmittedAfterProbe() throws Exception {
+        when(externalBindingService.getChatModelReplicas(MODEL))
+                .thenReturn(Map.of("good", mock(ChatModel.class), "bad", mock(ChatModel.class)));
+        AtomicBoolean badIsDown = new AtomicBoolean(true);
+
+        // Run until "bad" has failed enough times to be ejected
+        int badFailures = 0;
+        for (int i = 0; i < 100 && badFailures < 2; i++) {
+            if (run(router.route(MODEL), badIsDown).equals("bad")) {
+                badFailures++;
+            }
+        }
+        assertThat(badFailures).isEqualTo(2);
+        assertThat(ejected("bad")).isTrue();
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(run(router.route(MODEL), badIsDown)).isEqualTo("good");
+        }
+
+        // Ejection expired: a failed probe ejects again straight away
+        Thread.sleep(250);
+        assertThat(ejected("bad")).isFalse();
+        assertThat(runUntil("bad", badIsDown)).isTrue();
+        assertThat(ejected("bad")).isTrue();
+
+        // Backend recovered: the next probe re-admits it
+        badIsDown.set(false);
+        Thread.sleep(250);
+        assertThat(runUntil("bad", badIsDown)).isTrue();
+        assertThat(ejected("bad")).isFalse();
+    }
+
+    @Test
+    void call_updatesStatistics() {
+        when(externalBindingService.getChatModelReplicas(MODEL))
+                .thenReturn(Map.of("a", mock(ChatModel.class), "b", mock(ChatModel.class)));
+
+        ModelRouter.Route route = router.route(MODEL);
+        assertThat(route.call(() -> "answer")).isEqualTo("answer");
+
+        assertThat(router.getBackends(MODEL))
+                .filteredOn(backend -> backend.backend().equals(route.backend()))
+                .singleElement()
+                .satisfies(backend -> {
+                    assertThat(backend.requests()).isEqualTo(1);
+                    assertThat(backend.inFlight()).isZero();
+                });
+    }
+
+    @Test
+    void call_doesNotFeedTheTtftAverage() {
+        when(externalBindingService.getChatModelReplicas(MODEL))
+                .thenReturn(Map.of("a", mock(ChatModel.class), "b", mock(ChatModel.class)));
+
+        ModelRouter.Route route = router.route(MODEL);
+        route.call(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "answer";
+        });
+
+        assertThat(router.getBackends(MODEL))
+                .filteredOn(backend -> backend.backend().equals(route.backend()))
+                .singleElement()
+                .satisfies(backend -> assertThat(backend.ttftMs()).isZero());
+    }
+
+    @Test
+    void expiredEjection_admitsExactlyOneConcurrentProbe() throws Exception {
+        when(externalBindingService.getChatModelReplicas(MODEL))
+                .thenReturn(Map.of("good", mock(ChatModel.class), "bad", mock(ChatModel.class)));
+        AtomicBoolean badIsDown = new AtomicBoolean(true);
+        assertThat(runUntil("bad", badIsDown)).isTrue();
+        assertThat(runUntil("bad", badIsDown)).isTrue();
+        assertThat(ejected("bad")).isTrue();
+        Thread.sleep(250);
+
+        int threads = 32;
+        java.util.concurrent.CyclicBarrier barrier = new java.util.concurrent.CyclicBarrier(threads);
+        AtomicInteger probes = new AtomicInteger();
+        java.util.List<Thread> racers = new java.util.ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            racers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    return;
+                }
+                if (router.route(MODEL).backend().equals("bad")) {
+                    probes.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread racer : racers) {
+            racer.join(5_000);
+        }
+
+        assertThat(probes).hasValue(1);
+    }
+
+    /** Runs one request on the routed backend and returns the backend's name. */
+    private String run(ModelRouter.Route route, AtomicBoolean badIsDown) {
+        boolean fails = route.backend().equals("bad") && badIsDown.get();
+        route.stream(() -> fails ? Flux.<String>error(new IllegalStateException("down")) : Flux.just("ok"))
+                .onErrorResume(e -> Flux.empty())
+                .blockLast(Duration.ofSeconds(5));
+        return route.backend();
+    }
+
+    private boolean runUntil(String backend, AtomicBoolean badIsDown) {
+        for (int i = 0; i < 100; i++) {
+            if (run(router.route(MODEL), badIsDown).equals(backend)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean ejected(String backend) {
+        return router.getBackends(MODEL).stream()
+                .filter(b -> b.backend().equals(backend))
+                .findFirst()
+                .orElseThrow()
+                .ejected();
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.Skill;
+import com.example.cfchat.model.SystemSetting;
+import com.example.cfchat.repository.SystemSettingRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ResponseCacheTest {
+
+    private static final String MODEL = "llama3";
+    private static final String SYSTEM = "You are a helpful assistant.";
+
+    /** Embeds a text as its counts of the letters a, e and o, so near-rewordings land close together. */
+    private static final EmbeddingModel VOWELS = new EmbeddingModel() {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        private float[] vector(String text) {
+            return new float[] {
+                    text.chars().filter(c -> c == 'a').count(),
+                    text.chars().filter(c -> c == 'e').count(),
+                    text.chars().filter(c -> c == 'o').count()
+            };
+        }
+    };
+
+    private SystemSettingService settings;
+    private SkillService skillService;
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        settings = mock(SystemSettingService.class);
+        when(settings.getSetting(ResponseCache.MODELS_SETTING, "")).thenReturn(MODEL);
+        when(settings.getSetting(ResponseCache.SKILLS_SETTING, "")).thenReturn("");
+        skillService = mock(SkillService.class);
+        cache = new ResponseCache(settings, null, skillService, VOWELS, null);
+        ReflectionTestUtils.setField(cache, "replayIntervalMs", 0L);
+        cache.init();
+    }
+
+    @Test
+    void lookup_hitsOnNormalizedPromptAfterStore() {
+        ResponseCache.Lookup miss = cache.lookup(MODEL, null, null, SYSTEM, "Summarize the travel policy");
+        assertThat(miss.isHit()).isFalse();
+        miss.store("Book economy.");
+
+        ResponseCache.Lookup hit = cache.lookup(MODEL, null, null, SYSTEM, "  summarize the   TRAVEL policy\n");
+        assertThat(hit.isHit()).isTrue();
+        assertThat(hit.cached()).isEqualTo("Book economy.");
+    }
+
+    @Test
+    void lookup_keysOnModelThinkingLevelAndSystemPrompt() {
+        when(settings.getSetting(ResponseCache.MODELS_SETTING, "")).thenReturn("*");
+        cache.lookup(MODEL, null, null, SYSTEM, "hello").store("hi");
+
+        assertThat(cache.lookup("other-model", null, null, SYSTEM, "hello").isHit()).isFalse();
+        assertThat(cache.lookup(MODEL, "high", null, SYSTEM, "hello").isHit()).isFalse();
+        assertThat(cache.lookup(MODEL, null, null, "You are a pirate.", "hello").isHit()).isFalse();
+    }
+
+    @Test
+    void lookup_isDisabledForUnlistedModelsAndSkills() {
+        UUID skillId = UUID.randomUUID();
+        when(skillService.getSkillById(skillId)).thenReturn(Optional.of(Skill.builder().id(skillId).name("policy").build()));
+
+        assertThat(cache.lookup("unlisted", null, null, SYSTEM, "hello")).isNull();
+        assertThat(cache.lookup(MODEL, null, skillId, SYSTEM, "hello")).isNull();
+
+        when(settings.getSetting(ResponseCache.SKILLS_SETTING, "")).thenReturn("policy, other");
+        assertThat(cache.lookup(MODEL, null, skillId, SYSTEM, "hello")).isNotNull();
+    }
+
+    @Test
+    void lookup_followsModelSettingChangedAtRuntime() {
+        Map<String, SystemSetting> rows = new ConcurrentHashMap<>();
+        SystemSettingRepository repository = mock(SystemSettingRepository.class);
+        when(repository.findByKey(anyString())).thenAnswer(invocation -> Optional.ofNullable(rows.get(invocation.<String>getArgument(0))));
+        when(repository.save(any(SystemSetting.class))).thenAnswer(invocation -> {
+            SystemSetting row = invocation.getArgument(0);
+            rows.put(row.getKey(), row);
+            return row;
+        });
+        LocalEventService eventService = new LocalEventService();
+        SystemSettingService settingService = new SystemSettingService(repository);
+        ReflectionTestUtils.setField(settingService, "eventService", eventService);
+        CacheInvalidationService invalidation = new CacheInvalidationService(eventService, settingService,
+                mock(ApplicationEventPublisher.class));
+        invalidation.init();
+        ResponseCache runtime = new ResponseCache(settingService, invalidation, skillService, VOWELS, null);
+        runtime.init();
+
+        assertThat(runtime.lookup(MODEL, null, null, SYSTEM, "hello")).isNull();
+
+        settingService.setSetting(ResponseCache.MODELS_SETTING, MODEL);
+        assertThat(runtime.lookup(MODEL, null, null, SYSTEM, "hello")).isNotNull();
+
+        settingService.setSetting(ResponseCache.MODELS_SETTING, "");
+        assertThat(runtime.lookup(MODEL, null, null, SYSTEM, "hello")).isNull();
+    }
+
+    @Test
+    void lookup_fallsBackToSimilarPromptAboveThreshold() {
+        ReflectionTestUtils.setField(cache, "similarityThreshold", 0.95);
+        cache.lookup(MODEL, null, null, SYSTEM, "what are the office hours").store("9 to 5.");
+
+        ResponseCache.Lookup similar = cache.lookup(MODEL, null, null, SYSTEM, "what are office hours?");
+        ResponseCache.Lookup unrelated = cache.lookup(MODEL, null, null, SYSTEM, "eeeeeeee");
+
+        assertThat(similar.cached()).isEqualTo("9 to 5.");
+        assertThat(unrelated.isHit()).isFalse();
+    }
+
+    @Test
+    void entriesExpireAfterTtl() {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 1L);
+        cache.init();
+        cache.lookup(MODEL, null, null, SYSTEM, "hello").store("hi");
+
+        assertThat(cache.lookup(MODEL, null, null, SYSTEM, "hello").isHit()).isTrue();
+        sleep(Duration.ofMillis(1_200));
+        assertThat(cache.lookup(MODEL, null, null, SYSTEM, "hello").isHit()).isFalse();
+    }
+
+    @Test
+    void replay_emitsFixedSizeChunksInOrder() {
+        ReflectionTestUtils.setField(cache, "replayChunkChars", 4);
+
+        List<String> chunks = cache.replay("Hello world").collectList().block(Duration.ofSeconds(5));
+
+        assertThat(chunks).containsExactly("Hell", "o wo", "rld");
+    }
+
+    @Test
+    void replay_isPacedByInterval() {
+        ReflectionTestUtils.setField(cache, "replayChunkChars", 1);
+        ReflectionTestUtils.setField(cache, "replayIntervalMs", 50L);
+        AtomicInteger received = new AtomicInteger();
+
+        long start = System.nanoTime();
+        cache.replay("abcd").doOnNext(chunk -> received.incrementAndGet()).blockLast(Duration.ofSeconds(5));
+
+        assertThat(received).hasValue(4);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
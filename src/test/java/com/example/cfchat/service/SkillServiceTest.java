@@ -0,0 +1,64 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.Skill;
+import com.example.cfchat.repository.SkillRepository;
+import com.example.cfchat.repository.UserAccessRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SkillServiceTest {
+
+    private SkillRepository skillRepository;
+    private LocalEventService eventService;
+    private SkillService skillService;
+
+    @BeforeEach
+    void setUp() {
+        skillRepository = mock(SkillRepository.class);
+        when(skillRepository.save(any(Skill.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        eventService = spy(new LocalEventService());
+        skillService = new SkillService(skillRepository, mock(UserAccessRepository.class),
+                mock(ToolService.class), new ObjectMapper(), eventService);
+        skillService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void version_changesOnlyAfterCommitAndIsBroadcast() {
+        TransactionSynchronizationManager.initSynchronization();
+        long before = skillService.getVersion();
+
+        skillService.createSkill(Skill.builder().name("reviewer").build());
+
+        assertThat(skillService.getVersion()).isEqualTo(before);
+        verify(eventService, never()).broadcast(eq(CacheInvalidationService.CHANNEL_SKILLS), any());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(skillService.getVersion()).isGreaterThan(before);
+        verify(eventService).broadcast(eq(CacheInvalidationService.CHANNEL_SKILLS), any());
+    }
+
+    @Test
+    void version_changesWhenAnotherNodeEditsASkill() {
+        long before = skillService.getVersion();
+
+        eventService.broadcast(CacheInvalidationService.CHANNEL_SKILLS, "invalidate");
+
+        assertThat(skillService.getVersion()).isGreaterThan(before);
+    }
+}
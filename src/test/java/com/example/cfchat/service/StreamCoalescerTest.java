@@ -0,0 +1,99 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.dto.ChatDelta;
+import com.example.cfchat.dto.ChatResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamCoalescerTest {
+
+    private final UUID conversationId = UUID.randomUUID();
+    private StreamCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new StreamCoalescer();
+        ReflectionTestUtils.setField(coalescer, "windowMs", 25L);
+        ReflectionTestUtils.setField(coalescer, "maxFrameChars", 512);
+    }
+
+    @Test
+    void coalesce_batchesTenThousandSingleCharacterChunks() {
+        String expected = "x".repeat(10_000);
+        Flux<ChatResponse> tokens = Flux.range(0, 10_000).map(i -> chunk("x"));
+
+        List<Object> frames = coalescer.coalesce(tokens.concatWith(Flux.just(complete(expected))))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        // first chunk + ceil(9999 / 512) deltas + complete
+        assertThat(frames).hasSize(1 + 20 + 1);
+        assertThat(reassemble(frames)).isEqualTo(expected);
+        assertThat(frames.get(0)).isInstanceOfSatisfying(ChatResponse.class,
+                first -> assertThat(first.getConversationId()).isEqualTo(conversationId));
+        assertThat(frames.get(frames.size() - 1)).isInstanceOfSatisfying(ChatResponse.class,
+                last -> assertThat(last.isComplete()).isTrue());
+    }
+
+    @Test
+    void coalesce_flushesPendingTextAfterTheWindow() {
+        Flux<ChatResponse> slow = Flux.just(chunk("Hel"), chunk("lo"), chunk(" wor"))
+                .concatWith(Flux.just(chunk("ld")).delaySubscription(Duration.ofMillis(150)));
+
+        List<Object> frames = coalescer.coalesce(slow).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(frames).hasSize(3);
+        assertThat(frames.get(1)).isEqualTo(new ChatDelta("lo wor"));
+        assertThat(frames.get(2)).isEqualTo(new ChatDelta("ld"));
+    }
+
+    @Test
+    void coalesce_flushesBeforeAnErrorFrame() {
+        ChatResponse error = ChatResponse.builder().conversationId(conversationId).error("boom").complete(true).build();
+
+        List<Object> frames = coalescer.coalesce(Flux.just(chunk("a"), chunk("b"), chunk("c"), error))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(frames).containsExactly(chunk("a"), new ChatDelta("bc"), error);
+    }
+
+    @Test
+    void coalesceText_concatenatesChunks() {
+        List<String> batches = coalescer.coalesceText(Flux.fromStream(IntStream.range(0, 1_000).mapToObj(i -> "y")))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(batches).hasSize(2);
+        assertThat(String.join("", batches)).isEqualTo("y".repeat(1_000));
+    }
+
+    private ChatResponse chunk(String text) {
+        return ChatResponse.builder().conversationId(conversationId).content(text).streaming(true).build();
+    }
+
+    private ChatResponse complete(String text) {
+        return ChatResponse.builder().conversationId(conversationId).content("").htmlContent(text).complete(true).build();
+    }
+
+    private static String reassemble(List<Object> frames) {
+        StringBuilder text = new StringBuilder();
+        for (Object frame : frames) {
+            if (frame instanceof ChatDelta delta) {
+                text.append(delta.d());
+            } else if (frame instanceof ChatResponse response && !response.isComplete()) {
+                text.append(response.getContent());
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StreamFinalizerTest {
+
+    private static final LocalDateTime STARTED_AT = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    @Mock
+    private ConversationService conversationService;
+
+    @Mock
+    private MetricsService metricsService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path deadLetterDir;
+
+    private StreamFinalizer finalizer;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        finalizer = new StreamFinalizer(conversationService, metricsService, transactionManager);
+        ReflectionTestUtils.setField(finalizer, "retryBackoffMs", 10L);
+        ReflectionTestUtils.setField(finalizer, "deadLetterDir", deadLetterDir.resolve("dead-letters").toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        finalizer.destroy();
+    }
+
+    @Test
+    void persist_writesMessageUsageAndTitleInOneTransaction() {
+        UUID conversationId = UUID.randomUUID();
+
+        finalizer.persist(exchange(conversationId, "Greeting")).block(Duration.ofSeconds(5));
+
+        verify(conversationService).appendMessage(eq(conversationId), argThat(message ->
+                message.getRole() == Message.MessageRole.ASSISTANT && message.getContent().equals("answer")
+                        && message.getModelUsed().equals("gpt-4o") && !message.getTruncated()
+                        && STARTED_AT.equals(message.getCreatedAt())));
+        verify(metricsService).recordUsage(any(), eq(conversationId), eq("gpt-4o"), eq("openai"),
+                eq(3), eq(5), eq(120L), eq(40L), eq(41.6), eq(false));
+        verify(conversationService).updateConversationTitle(conversationId, "Greeting");
+        verify(transactionManager, times(1)).getTransaction(any());
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    void persist_truncatedExchange_savesFlaggedMessageAndPartialUsage() {
+        UUID conversationId = UUID.randomUUID();
+        StreamFinalizer.CompletedExchange partial = new StreamFinalizer.CompletedExchange(UUID.randomUUID(),
+                conversationId, "gpt-4o", "openai", "half an ans", 3, 2, 80L, 40L, null, false, true, null, STARTED_AT);
+
+        finalizer.persist(partial).block(Duration.ofSeconds(5));
+
+        verify(conversationService).appendMessage(eq(conversationId),
+                argThat(message -> message.getTruncated() && message.getContent().equals("half an ans")));
+        verify(metricsService).recordUsage(any(), eq(conversationId), eq("gpt-4o"), eq("openai"),
+                eq(3), eq(2), eq(80L), eq(40L), isNull(), eq(false));
+    }
+
+    @Test
+    void persist_runsOffTheCallingThread() {
+        Thread caller = Thread.currentThread();
+        Thread[] writer = new Thread[1];
+        when(conversationService.appendMessage(any(), any())).thenAnswer(inv -> {
+            writer[0] = Thread.currentThread();
+            return null;
+        });
+
+        finalizer.persist(exchange(UUID.randomUUID(), null)).block(Duration.ofSeconds(5));
+
+        assertThat(writer[0]).isNotSameAs(caller);
+        assertThat(writer[0].getName()).startsWith("chat-finalize");
+        verify(conversationService, never()).updateConversationTitle(any(), any());
+    }
+
+    @Test
+    void persist_retriesTransientFailures() {
+        when(conversationService.appendMessage(any(), any()))
+                .thenThrow(new IllegalStateException("connection reset"))
+                .thenReturn(null);
+
+        finalizer.persist(exchange(UUID.randomUUID(), null)).block(Duration.ofSeconds(5));
+
+        verify(conversationService, times(2)).appendMessage(any(), any());
+        verify(metricsService, times(1)).recordUsage(any(), any(), any(), any(), any(), any(), any(), any(), any(), anyBoolean());
+        assertThat(finalizer.getDeadLetterCount()).isZero();
+    }
+
+    @Test
+    void persist_deadLettersAfterRetriesAreExhausted() throws IOException {
+        when(conversationService.appendMessage(any(), any()))
+                .thenThrow(new IllegalStateException("database down"));
+
+        finalizer.persist(exchange(UUID.randomUUID(), null)).block(Duration.ofSeconds(5));
+
+        // initial attempt + 3 retries, then the exchange is parked instead of propagating the error
+        verify(conversationService, times(4)).appendMessage(any(), any());
+        verifyNoInteractions(metricsService);
+        assertThat(finalizer.getDeadLetterCount()).isEqualTo(1);
+        List<Path> parked = deadLetters();
+        assertThat(parked).singleElement().satisfies(file -> {
+            assertThat(file.getFileName().toString()).endsWith(".json").doesNotEndWith(".rejected.json");
+            assertThat(Files.readString(file)).contains("\"content\":\"answer\"");
+            assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file))).isEqualTo("rw-------");
+        });
+    }
+
+    @Test
+    void persist_doesNotRetryConstraintViolations() throws IOException {
+        when(conversationService.appendMessage(any(), any()))
+                .thenThrow(new DataIntegrityViolationException("duplicate key value violates unique constraint"));
+
+        finalizer.persist(exchange(UUID.randomUUID(), null)).block(Duration.ofSeconds(5));
+
+        verify(conversationService, times(1)).appendMessage(any(), any());
+        assertThat(finalizer.getDeadLetterCount()).isEqualTo(1);
+        assertThat(deadLetters()).singleElement()
+                .satisfies(file -> assertThat(file.getFileName().toString()).endsWith(".rejected.json"));
+    }
+
+    @Test
+    void replayDeadLetters_storesParkedExchangesOnceTheDatabaseIsBack() throws IOException {
+        UUID conversationId = UUID.randomUUID();
+        when(conversationService.appendMessage(any(), any()))
+                .thenThrow(new IllegalStateException("database down"));
+        finalizer.persist(exchange(conversationId, "Greeting")).block(Duration.ofSeconds(5));
+
+        // Still down: the exchange stays parked
+        assertThat(finalizer.replayDeadLetters()).isZero();
+        assertThat(deadLetters()).hasSize(1);
+
+        reset(conversationService);
+        assertThat(finalizer.replayDeadLetters()).isEqualTo(1);
+
+        verify(conversationService).appendMessage(eq(conversationId), argThat(message ->
+                message.getContent().equals("answer") && STARTED_AT.equals(message.getCreatedAt())));
+        verify(conversationService).updateConversationTitle(conversationId, "Greeting");
+        assertThat(deadLetters()).isEmpty();
+        assertThat(finalizer.replayDeadLetters()).isZero();
+    }
+
+    private List<Path> deadLetters() throws IOException {
+        try (var files = Files.list(deadLetterDir.resolve("dead-letters"))) {
+            return files.toList();
+        }
+    }
+
+    private static StreamFinalizer.CompletedExchange exchange(UUID conversationId, String title) {
+        return new StreamFinalizer.CompletedExchange(UUID.randomUUID(), conversationId, "gpt-4o", "openai",
+                "answer", 3, 5, 120L, 40L, 41.6, false, false, title, STARTED_AT);
+    }
+}
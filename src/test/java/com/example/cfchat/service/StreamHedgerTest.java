@@ -0,0 +1,154 @@
+package com.example.cfchat.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamHedgerTest {
+
+    private static final String MODEL = "llama3";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private StreamHedger hedger;
+
+    @BeforeEach
+    void setUp() {
+        hedger = new StreamHedger(meterRegistry);
+        ReflectionTestUtils.setField(hedger, "enabled", true);
+        ReflectionTestUtils.setField(hedger, "ttftThresholdMs", 200L);
+    }
+
+    @Test
+    void stalledPrimary_switchesToAlternateAfterThreshold() {
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+        AtomicBoolean hedged = new AtomicBoolean();
+        Flux<String> stalled = Flux.<String>never().doOnCancel(() -> primaryCancelled.set(true));
+
+        long start = System.nanoTime();
+        List<String> tokens = hedger.hedge(MODEL, stalled, () -> Flux.just("Hello", " world"), () -> hedged.set(true))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(tokens).containsExactly("Hello", " world");
+        assertThat(elapsedMs).isBetween(200L, 2_000L);
+        assertThat(primaryCancelled).isTrue();
+        assertThat(hedged).isTrue();
+        assertThat(meterRegistry.counter("cfllama.chat.hedge", "outcome", "issued", "model", MODEL).count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("cfllama.chat.hedge", "outcome", "won", "model", MODEL).count()).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fallbackWin_isReportedAndTimedUnderTheFallbackModel() {
+        AtomicReference<String> answeredBy = new AtomicReference<>(MODEL);
+
+        List<String> tokens = hedger.hedge(MODEL, Flux.<String>never(), "llama3-mini",
+                        () -> Flux.just("Hello"), () -> {}, () -> answeredBy.set("llama3-mini"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(tokens).containsExactly("Hello");
+        assertThat(answeredBy).hasValue("llama3-mini");
+        Map<String, ?> windows = (Map<String, ?>) ReflectionTestUtils.getField(hedger, "windows");
+        assertThat(windows).containsOnlyKeys("llama3-mini");
+    }
+
+    @Test
+    void fastPrimary_neverIssuesTheHedge() {
+        AtomicBoolean alternateSubscribed = new AtomicBoolean();
+
+        List<String> tokens = hedger.hedge(MODEL, Flux.just("fast"),
+                        () -> Flux.just("slow").doOnSubscribe(s -> alternateSubscribed.set(true)), () -> {})
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(tokens).containsExactly("fast");
+        assertThat(alternateSubscribed).isFalse();
+    }
+
+    @Test
+    void emptyPrimary_completesWithoutHedging() {
+        AtomicBoolean alternateSubscribed = new AtomicBoolean();
+        AtomicBoolean hedged = new AtomicBoolean();
+
+        long start = System.nanoTime();
+        List<String> tokens = hedger.hedge(MODEL, Flux.<String>empty(),
+                        () -> Flux.just("other").doOnSubscribe(s -> alternateSubscribed.set(true)), () -> hedged.set(true))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(tokens).isEmpty();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(200);
+        assertThat(alternateSubscribed).isFalse();
+        assertThat(hedged).isFalse();
+    }
+
+    @Test
+    void primaryFailingBeforeFirstToken_failsOverWithoutWaiting() {
+        ReflectionTestUtils.setField(hedger, "ttftThresholdMs", 10_000L);
+
+        long start = System.nanoTime();
+        List<String> tokens = hedger.hedge(MODEL, Flux.<String>error(new IllegalStateException("connection refused")),
+                        () -> Flux.just("recovered"), () -> {})
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(tokens).containsExactly("recovered");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2_000);
+    }
+
+    @Test
+    void primaryFailingMidStream_propagatesTheError() {
+        Flux<String> primary = Flux.just("partial").concatWith(Flux.error(new IllegalStateException("reset")));
+
+        List<String> received = new java.util.ArrayList<>();
+        hedger.hedge(MODEL, primary, () -> Flux.just("other"), () -> {})
+                .doOnNext(received::add)
+                .onErrorResume(e -> Flux.empty())
+                .blockLast(Duration.ofSeconds(5));
+
+        assertThat(received).containsExactly("partial");
+    }
+
+    @Test
+    void disabled_passesThePrimaryThrough() {
+        ReflectionTestUtils.setField(hedger, "enabled", false);
+
+        List<String> tokens = hedger.hedge(MODEL, Flux.just("only"), () -> Flux.just("other"), () -> {})
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(tokens).containsExactly("only");
+    }
+
+    @Test
+    void thresholdFor_derivesFromRecentP95() {
+        ReflectionTestUtils.setField(hedger, "ttftThresholdMs", 0L);
+        ReflectionTestUtils.setField(hedger, "minThresholdMs", 100L);
+        ReflectionTestUtils.setField(hedger, "initialThresholdMs", 10_000L);
+
+        assertThat(hedger.thresholdFor(MODEL)).isEqualTo(10_000L);
+
+        for (int i = 1; i <= 100; i++) {
+            hedger.record(MODEL, i * 10L);
+        }
+        assertThat(hedger.thresholdFor(MODEL)).isEqualTo(950L);
+
+        for (int i = 0; i < 100; i++) {
+            hedger.record(MODEL, 5L);
+        }
+        assertThat(hedger.thresholdFor(MODEL)).isEqualTo(100L);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.cfchat.service;
+
+import com.example.cfchat.event.WikiOpEvent;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserEventHubTest {
+
+    private final UserEventHub hub = new UserEventHub();
+
+    @Test
+    void dispatch_reachesOnlyTheOwningUsersStreams() throws Exception {
+        int users = 50;
+        int streamsPerUser = 10;
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            userIds.add(UUID.randomUUID());
+        }
+        Map<UUID, Queue<WikiOpEvent>> received = new ConcurrentHashMap<>();
+        Queue<Disposable> subscriptions = new ConcurrentLinkedQueue<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> registrations = new ArrayList<>();
+        for (UUID userId : userIds) {
+            for (int s = 0; s < streamsPerUser; s++) {
+                registrations.add(pool.submit(() -> subscriptions.add(hub.wikiOps(userId, null)
+                        .subscribe(evt -> received.computeIfAbsent(userId, id -> new ConcurrentLinkedQueue<>()).add(evt)))));
+            }
+        }
+        for (Future<?> registration : registrations) {
+            registration.get(5, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertThat(hub.getSubscriberCount()).isEqualTo(users * streamsPerUser);
+
+        UUID owner = userIds.get(7);
+        int delivered = hub.dispatch(event(owner, null));
+
+        assertThat(delivered).isEqualTo(streamsPerUser);
+        assertThat(received).containsOnlyKeys(owner);
+        assertThat(received.get(owner)).hasSize(streamsPerUser);
+
+        subscriptions.forEach(Disposable::dispose);
+        assertThat(hub.getSubscriberCount()).isZero();
+    }
+
+    @Test
+    void wikiOps_skipsEventsForOtherConversations() {
+        UUID userId = UUID.randomUUID();
+        UUID conversationId = UUID.randomUUID();
+        List<WikiOpEvent> received = new ArrayList<>();
+        Disposable subscription = hub.wikiOps(userId, conversationId).subscribe(received::add);
+
+        hub.dispatch(event(userId, conversationId));
+        hub.dispatch(event(userId, UUID.randomUUID()));
+        hub.dispatch(event(userId, null));
+
+        assertThat(received).hasSize(2);
+        subscription.dispose();
+    }
+
+    @Test
+    void dispatch_withoutSubscribers_deliversNothing() {
+        assertThat(hub.dispatch(event(UUID.randomUUID(), null))).isZero();
+        assertThat(hub.dispatch(event(null, null))).isZero();
+    }
+
+    @Test
+    void wikiOps_withoutUser_registersNothing() {
+        Disposable subscription = hub.wikiOps(null, null).subscribe();
+
+        assertThat(hub.getSubscriberCount()).isZero();
+        subscription.dispose();
+    }
+
+    private WikiOpEvent event(UUID userId, UUID conversationId) {
+        return new WikiOpEvent(this, userId, conversationId, null);
+    }
+}
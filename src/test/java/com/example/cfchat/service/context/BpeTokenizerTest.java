@@ -0,0 +1,68 @@
+package com.example.cfchat.service.context;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BpeTokenizerTest {
+
+    /** All single bytes, then the merges he, ll, hell and the whole word " world". */
+    private static BpeTokenizer tinyVocabulary() throws IOException {
+        StringBuilder vocab = new StringBuilder();
+        Base64.Encoder encoder = Base64.getEncoder();
+        int rank = 0;
+        for (int b = 0; b < 256; b++) {
+            vocab.append(encoder.encodeToString(new byte[]{(byte) b})).append(' ').append(rank++).append('\n');
+        }
+        for (String merge : List.of("he", "ll", "hell", " world")) {
+            vocab.append(encoder.encodeToString(merge.getBytes(StandardCharsets.UTF_8)))
+                    .append(' ').append(rank++).append('\n');
+        }
+        return BpeTokenizer.fromTiktoken("tiny",
+                new ByteArrayInputStream(vocab.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void count_mergesPairsByLowestRank() throws IOException {
+        // hello -> he|l|l|o -> he|ll|o -> hell|o
+        assertThat(tinyVocabulary().count("hello")).isEqualTo(2);
+    }
+
+    @Test
+    void count_wholePieceInVocabularyIsOneToken() throws IOException {
+        // "hello" = 2, " world" = 1 (pre-tokenizer keeps the leading space with the word)
+        assertThat(tinyVocabulary().count("hello world")).isEqualTo(3);
+    }
+
+    @Test
+    void count_unmergedBytesCountIndividually() throws IOException {
+        // Each of the 3 UTF-8 bytes of the euro sign stays a separate token
+        assertThat(tinyVocabulary().count("€")).isEqualTo(3);
+    }
+
+    @Test
+    void count_splitsDigitsIntoGroupsOfThree() throws IOException {
+        // 1234567 -> 123|456|7, each group falls back to single bytes: 3 + 3 + 1
+        assertThat(tinyVocabulary().count("1234567")).isEqualTo(7);
+    }
+
+    @Test
+    void count_nullOrEmpty_returnsZero() throws IOException {
+        BpeTokenizer tokenizer = tinyVocabulary();
+        assertThat(tokenizer.count(null)).isZero();
+        assertThat(tokenizer.count("")).isZero();
+    }
+
+    @Test
+    void fromTiktoken_emptyVocabulary_throws() {
+        assertThatThrownBy(() -> BpeTokenizer.fromTiktoken("empty", new ByteArrayInputStream(new byte[0])))
+                .isInstanceOf(IOException.class);
+    }
+}
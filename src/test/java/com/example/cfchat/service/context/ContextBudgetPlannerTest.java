@@ -0,0 +1,133 @@
+package com.example.cfchat.service.context;
+
+import com.example.cfchat.config.ChatConfig;
+import com.example.cfchat.model.Message;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextBudgetPlannerTest {
+
+    /** Every non-empty text costs 10 tokens, so budgets are easy to reason about. */
+    private static final Tokenizer FIXED = new Tokenizer() {
+        @Override
+        public int count(String text) {
+            return text == null || text.isEmpty() ? 0 : 10;
+        }
+
+        @Override
+        public String name() {
+            return "fixed";
+        }
+    };
+
+    private ChatConfig chatConfig;
+    private ContextBudgetPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        chatConfig = new ChatConfig();
+        chatConfig.getContext().setReservedOutputTokens(0);
+        planner = new ContextBudgetPlanner(FIXED, chatConfig);
+    }
+
+    @Test
+    void plan_keepsRequiredSectionsAndNewestHistoryWithinBudget() {
+        // fixed cost: 2 * 4 overhead + 10 current message + (10 + 10) base section = 38
+        // each history message costs 4 + 10 = 14, so a 100 token window fits 4 of them
+        List<Message> history = history(10);
+
+        ContextBudgetPlanner.ContextPlan plan = planner.plan(100,
+                List.of(ContextBudgetPlanner.PromptSection.required("base", "You are helpful.")),
+                history, "question");
+
+        assertThat(plan.history()).extracting(Message::getContent)
+                .containsExactly("m6", "m7", "m8", "m9");
+        assertThat(plan.droppedHistoryMessages()).isEqualTo(6);
+        assertThat(plan.usedTokens()).isEqualTo(38 + 4 * 14).isLessThanOrEqualTo(plan.budgetTokens());
+    }
+
+    @Test
+    void plan_admitsOptionalSectionsByPriorityButEmitsInDeclaredOrder() {
+        // fixed cost 38 (base included); each optional section costs 20, so a 70 window admits one
+        ContextBudgetPlanner.ContextPlan plan = planner.plan(70, List.of(
+                        ContextBudgetPlanner.PromptSection.required("base", "BASE"),
+                        ContextBudgetPlanner.PromptSection.optional("wiki", "WIKI", 2),
+                        ContextBudgetPlanner.PromptSection.optional("documents", "DOCS", 1)),
+                List.of(), "question");
+
+        assertThat(plan.systemPrompt()).isEqualTo("BASE\n\nDOCS");
+        assertThat(plan.droppedSections()).containsExactly("wiki");
+    }
+
+    @Test
+    void plan_sectionsBeforeHistory() {
+        // 38 + 20 documents = 58; a 72 window leaves room for exactly one history message
+        ContextBudgetPlanner.ContextPlan plan = planner.plan(72, List.of(
+                        ContextBudgetPlanner.PromptSection.required("base", "BASE"),
+                        ContextBudgetPlanner.PromptSection.optional("documents", "DOCS", 1)),
+                history(3), "question");
+
+        assertThat(plan.systemPrompt()).contains("DOCS");
+        assertThat(plan.history()).extracting(Message::getContent).containsExactly("m2");
+    }
+
+    @Test
+    void plan_requiredSectionsSurviveEvenOverBudget() {
+        ContextBudgetPlanner.ContextPlan plan = planner.plan(10, List.of(
+                        ContextBudgetPlanner.PromptSection.required("base", "BASE"),
+                        ContextBudgetPlanner.PromptSection.required("thinking", "/no_think")),
+                history(2), "question");
+
+        assertThat(plan.systemPrompt()).isEqualTo("BASE\n\n/no_think");
+        assertThat(plan.history()).isEmpty();
+    }
+
+    @Test
+    void plan_reservesOutputTokens() {
+        chatConfig.getContext().setReservedOutputTokens(50);
+
+        ContextBudgetPlanner.ContextPlan plan = planner.plan(100,
+                List.of(ContextBudgetPlanner.PromptSection.required("base", "BASE")), history(10), "question");
+
+        assertThat(plan.budgetTokens()).isEqualTo(50);
+        assertThat(plan.history()).hasSize(0);
+    }
+
+    @Test
+    void plan_rendersTrailingSectionsOutsideTheSystemPrompt() {
+        ContextBudgetPlanner.ContextPlan plan = planner.plan(1000, List.of(
+                ContextBudgetPlanner.PromptSection.required("prefix", "PREFIX"),
+                ContextBudgetPlanner.PromptSection.optional("documents", "DOCS", 1).asTrailing(),
+                ContextBudgetPlanner.PromptSection.optional("wiki", "WIKI", 2)), history(2), "question");
+
+        assertThat(plan.systemPrompt()).isEqualTo("PREFIX\n\nWIKI");
+        assertThat(plan.trailingContext()).isEqualTo("DOCS");
+        assertThat(plan.currentMessage("question")).isEqualTo("DOCS\n\nquestion");
+    }
+
+    @Test
+    void contextWindowFor_prefersConfiguredThenAdvertisedThenDefault() {
+        chatConfig.getContext().getModelWindows().put("llama3.2", 4096);
+        chatConfig.getContext().setDefaultWindowTokens(8192);
+
+        assertThat(planner.contextWindowFor("llama3.2", 128_000)).isEqualTo(4096);
+        assertThat(planner.contextWindowFor("gpt-4o", 128_000)).isEqualTo(128_000);
+        assertThat(planner.contextWindowFor("unknown", null)).isEqualTo(8192);
+    }
+
+    private static List<Message> history(int size) {
+        List<Message> history = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            history.add(Message.builder()
+                    .role(i % 2 == 0 ? Message.MessageRole.USER : Message.MessageRole.ASSISTANT)
+                    .content("m" + i)
+                    .build());
+        }
+        return history;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.cfchat.service.context;
+
+import com.example.cfchat.config.ChatConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class ContextEnricherTest {
+
+    private ContextEnricher enricher;
+
+    @BeforeEach
+    void setUp() {
+        enricher = new ContextEnricher(new ChatConfig());
+    }
+
+    @AfterEach
+    void tearDown() {
+        enricher.destroy();
+    }
+
+    @Test
+    void enrich_runsContributorsConcurrently() {
+        List<ContextContributor> contributors = List.of(
+                sleeping("wiki", 300, ContextContribution.section(ContextBudgetPlanner.PromptSection.optional("wiki", "W", 2))),
+                sleeping("documents", 300, ContextContribution.section(ContextBudgetPlanner.PromptSection.optional("documents", "D", 1))),
+                sleeping("web", 300, ContextContribution.rewrite("rewritten")));
+
+        long start = System.nanoTime();
+        ContextEnricher.EnrichmentResult result = enricher.enrich(contributors, Duration.ofSeconds(5));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Roughly the slowest contributor, well under the 900ms serial sum
+        assertThat(elapsedMs).isLessThan(700);
+        assertThat(result.contributions()).containsOnlyKeys("wiki", "documents", "web");
+        assertThat(result.get("web").rewrittenMessage()).isEqualTo("rewritten");
+        assertThat(result.report()).containsExactly(
+                entry("wiki", "ok"),
+                entry("documents", "ok"),
+                entry("web", "ok"));
+    }
+
+    @Test
+    void enrich_dropsContributorsThatMissTheDeadline() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        ContextContributor slow = new ContextContributor() {
+            @Override
+            public String name() {
+                return "youtube";
+            }
+
+            @Override
+            public ContextContribution contribute() throws Exception {
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return ContextContribution.rewrite("too late");
+            }
+        };
+
+        long start = System.nanoTime();
+        ContextEnricher.EnrichmentResult result = enricher.enrich(
+                List.of(slow, sleeping("wiki", 10, ContextContribution.section(
+                        ContextBudgetPlanner.PromptSection.optional("wiki", "W", 2)))),
+                Duration.ofMillis(200));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsedMs).isLessThan(1_000);
+        assertThat(result.outcomes()).containsEntry("youtube", ContextEnricher.Status.TIMED_OUT)
+                .containsEntry("wiki", ContextEnricher.Status.OK);
+        assertThat(result.get("youtube")).isNull();
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void enrich_reportsEmptyAndFailedContributors() {
+        ContextEnricher.EnrichmentResult result = enricher.enrich(List.of(
+                ContextContributor.of("documents", ContextContribution::none),
+                ContextContributor.of("web", () -> {
+                    throw new IllegalStateException("connection refused");
+                })), Duration.ofSeconds(1));
+
+        assertThat(result.contributions()).isEmpty();
+        assertThat(result.report()).containsEntry("documents", "empty").containsEntry("web", "failed");
+    }
+
+    @Test
+    void enrich_noContributors_reportsNothing() {
+        assertThat(enricher.enrich(List.of()).report()).isNull();
+    }
+
+    private static ContextContributor sleeping(String name, long millis, ContextContribution contribution) {
+        return new ContextContributor() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public ContextContribution contribute() throws Exception {
+                Thread.sleep(millis);
+                return contribution;
+            }
+        };
+    }
+}
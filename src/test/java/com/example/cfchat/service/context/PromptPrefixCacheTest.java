@@ -0,0 +1,87 @@
+package com.example.cfchat.service.context;
+
+import com.example.cfchat.config.ChatConfig;
+import com.example.cfchat.model.Skill;
+import com.example.cfchat.service.SkillService;
+import com.example.cfchat.service.ThinkingOptionsBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class PromptPrefixCacheTest {
+
+    private final UUID skillId = UUID.randomUUID();
+    private ChatConfig chatConfig;
+    private SkillService skillService;
+    private PromptPrefixCache cache;
+
+    @BeforeEach
+    void setUp() {
+        chatConfig = new ChatConfig();
+        chatConfig.setSystemPrompt("You are a helpful assistant.");
+        skillService = mock(SkillService.class);
+        when(skillService.getSkillById(skillId)).thenReturn(Optional.of(skill("Answer like a pirate.")));
+        cache = new PromptPrefixCache(chatConfig, skillService, new ThinkingOptionsBuilder());
+    }
+
+    @Test
+    void prefix_isByteIdenticalAcrossTurns() {
+        String first = cache.prefix(skillId, "qwen3-8b", "none");
+        String second = cache.prefix(skillId, "qwen3-8b", "none");
+
+        assertThat(first).isEqualTo("You are a helpful assistant.\n\nAnswer like a pirate.\n\n/no_think");
+        assertThat(second).isSameAs(first);
+        verify(skillService, times(1)).getSkillById(skillId);
+    }
+
+    @Test
+    void prefix_isRenderedPerModel() {
+        assertThat(cache.prefix(skillId, "qwen3-8b", "none")).endsWith("/no_think");
+        assertThat(cache.prefix(skillId, "qwen3-8b", "high")).isEqualTo("You are a helpful assistant.\n\nAnswer like a pirate.");
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void prefix_isRebuiltAfterSkillEdit() {
+        String before = cache.prefix(skillId, "qwen3-8b", "high");
+
+        when(skillService.getSkillById(skillId)).thenReturn(Optional.of(skill("Answer like a poet.")));
+        when(skillService.getVersion()).thenReturn(1L);
+        String after = cache.prefix(skillId, "qwen3-8b", "high");
+
+        assertThat(before).endsWith("pirate.");
+        assertThat(after).isEqualTo("You are a helpful assistant.\n\nAnswer like a poet.");
+        assertThat(cache.prefix(skillId, "qwen3-8b", "high")).isSameAs(after);
+    }
+
+    @Test
+    void prefix_isRebuiltAfterBasePromptChange() {
+        cache.prefix(null, "qwen3-8b", "high");
+
+        chatConfig.setSystemPrompt("You are terse.");
+
+        assertThat(cache.prefix(null, "qwen3-8b", "high")).isEqualTo("You are terse.");
+    }
+
+    @Test
+    void prefix_skipsDisabledSkill() {
+        Skill disabled = skill("Answer like a pirate.");
+        disabled.setEnabled(false);
+        when(skillService.getSkillById(skillId)).thenReturn(Optional.of(disabled));
+
+        assertThat(cache.prefix(skillId, "qwen3-8b", "high")).isEqualTo("You are a helpful assistant.");
+    }
+
+    private Skill skill(String augmentation) {
+        return Skill.builder()
+                .id(skillId)
+                .name("style")
+                .systemPromptAugmentation(augmentation)
+                .build();
+    }
+}